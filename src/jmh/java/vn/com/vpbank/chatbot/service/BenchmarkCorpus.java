@@ -0,0 +1,165 @@
+package vn.com.vpbank.chatbot.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.MimeType;
+import vn.com.vpbank.chatbot.bean.DocumentChunk;
+import vn.com.vpbank.chatbot.bean.HtmlExtraction;
+import vn.com.vpbank.chatbot.repositories.document.BookDocument;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Corpus sách HTML tiếng Việt (src/jmh/resources/corpus) và các service dựng không cần Spring context / API thật
+ */
+final class BenchmarkCorpus {
+
+    static final String SMALL = "so-tay-the-tin-dung.html";
+    static final String MEDIUM = "nghiep-vu-tin-dung-doanh-nghiep.html";
+    static final String LARGE = "quan-tri-rui-ro-ngan-hang.html";
+
+    private BenchmarkCorpus() {
+    }
+
+    static String load(String book) {
+        try (InputStream in = BenchmarkCorpus.class.getResourceAsStream("/corpus/" + book)) {
+            if (in == null) {
+                throw new IllegalArgumentException("Unknown corpus book: " + book);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static HtmlParserService htmlParser() {
+        // Cache tắt, gọi OCR ngay trên thread benchmark
+        return new HtmlParserService(new ImageOcrService(new StubOcrService(), new StubImagePreprocessor(), null,
+                Runnable::run, 1, false, 60));
+    }
+
+    static DocumentChunkingService chunking(int chunkSize, int overlapSize, int minChunkSize) {
+        DocumentChunkingService service = new DocumentChunkingService(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(service, "chunkSize", chunkSize);
+        ReflectionTestUtils.setField(service, "overlapSize", overlapSize);
+        ReflectionTestUtils.setField(service, "minChunkSize", minChunkSize);
+        return service;
+    }
+
+    /**
+     * Chunk của một cuốn sách theo cấu hình mặc định trong application.yml
+     */
+    static List<DocumentChunk> chunks(String book) {
+        String html = load(book);
+        HtmlParserService parser = htmlParser();
+        HtmlExtraction extraction = parser.extract(html);
+        BookDocument document = parser.toBookDocument(extraction, book);
+        document.setId("bench-" + book);
+        return chunking(400, 50, 25).chunkDocument(document, parser.cleanText(extraction));
+    }
+
+    static List<Document> documents(String book) {
+        VectorStoreService vectorStoreService = new VectorStoreService(null, null, null);
+        return vectorStoreService.toDocuments(chunks(book));
+    }
+
+    /**
+     * Embedding tất định không gọi OpenAI: bag-of-words băm vào 256 chiều, text càng chung từ càng gần nhau
+     */
+    static final class StubEmbeddingModel implements EmbeddingModel {
+        private static final int DIMENSIONS = 256;
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            List<String> texts = request.getInstructions();
+            for (int i = 0; i < texts.size(); i++) {
+                embeddings.add(new Embedding(vector(texts.get(i)), i));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return vector(document.getText());
+        }
+
+        @Override
+        public int dimensions() {
+            return DIMENSIONS;
+        }
+
+        private static float[] vector(String text) {
+            float[] vector = new float[DIMENSIONS];
+            for (String word : text.toLowerCase().split("\\s+")) {
+                vector[Math.floorMod(word.hashCode(), DIMENSIONS)] += 1;
+            }
+            return vector;
+        }
+    }
+
+    /**
+     * OCR trả kết quả cố định, không gọi OpenAI
+     */
+    static final class StubOcrService extends OcrService {
+        private static final String TEXT = "Biểu đồ tăng trưởng dư nợ tín dụng giai đoạn 2019 - 2023. "
+                + "Tỷ lệ nợ xấu giảm từ 2,1% xuống 1,8%.";
+
+        StubOcrService() {
+            super(null);
+        }
+
+        @Override
+        public String extractTextFromImage(byte[] image, MimeType mimeType) {
+            return TEXT;
+        }
+    }
+
+    /**
+     * Không tải ảnh qua mạng: mọi URL trả về cùng một ảnh PNG có chữ, phần lọc/thu nhỏ vẫn chạy thật
+     */
+    static final class StubImagePreprocessor extends ImagePreprocessor {
+        private static final byte[] IMAGE = textImage();
+
+        @Override
+        protected InputStream fetch(String url) {
+            return new ByteArrayInputStream(IMAGE);
+        }
+
+        private static byte[] textImage() {
+            BufferedImage image = new BufferedImage(640, 240, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = image.createGraphics();
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, image.getWidth(), image.getHeight());
+            g.setColor(Color.BLACK);
+            g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 20));
+            g.drawString("Dư nợ tín dụng 2019 - 2023", 20, 60);
+            g.drawString("Tỷ lệ nợ xấu: 2,1% -> 1,8%", 20, 120);
+            g.dispose();
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ImageIO.write(image, "png", out);
+                return out.toByteArray();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package vn.com.vpbank.chatbot.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.ai.document.Document;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ContextAssemblerBenchmark {
+
+    private static final String QUESTION = "Quy trình thẩm định tín dụng doanh nghiệp gồm những bước nào?";
+
+    // Số chunk ứng viên từ retrieval (retrieval.top-k)
+    @Param({"4", "12", "24"})
+    public int candidates;
+
+    @Param({"2000"})
+    public int maxTokens;
+
+    private ContextAssembler contextAssembler;
+    private List<Document> retrieved;
+
+    @Setup
+    public void setUp() {
+        contextAssembler = new ContextAssembler(new BenchmarkCorpus.StubEmbeddingModel());
+        ReflectionTestUtils.setField(contextAssembler, "maxTokens", maxTokens);
+        // Như kết quả search thật: vài chunk liền nhau của một sách (overlap) xen với chunk rời rạc của sách khác
+        List<Document> small = BenchmarkCorpus.documents(BenchmarkCorpus.SMALL);
+        List<Document> medium = BenchmarkCorpus.documents(BenchmarkCorpus.MEDIUM);
+        retrieved = new ArrayList<>(candidates);
+        for (int i = 0; i < candidates; i++) {
+            Document document = i % 2 == 0 ? medium.get(40 + i / 2) : small.get((i * 7) % small.size());
+            Map<String, Object> metadata = new HashMap<>(document.getMetadata());
+            metadata.put("rrfScore", 1.0 / (60 + i + 1));
+            retrieved.add(document.mutate().metadata(metadata).build());
+        }
+    }
+
+    @Benchmark
+    public ContextAssembler.Context assemble() {
+        return contextAssembler.assemble(QUESTION, retrieved);
+    }
+}
@@ -0,0 +1,52 @@
+package vn.com.vpbank.chatbot.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import vn.com.vpbank.chatbot.bean.DocumentChunk;
+import vn.com.vpbank.chatbot.bean.HtmlExtraction;
+import vn.com.vpbank.chatbot.repositories.document.BookDocument;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DocumentChunkingBenchmark {
+
+    @Param({BenchmarkCorpus.SMALL, BenchmarkCorpus.MEDIUM, BenchmarkCorpus.LARGE})
+    public String book;
+
+    // token cl100k
+    @Param({"200", "400", "800"})
+    public int chunkSize;
+
+    @Param({"0", "50", "150"})
+    public int overlapSize;
+
+    private DocumentChunkingService chunkingService;
+    private BookDocument document;
+    private String cleanText;
+
+    @Setup
+    public void setUp() {
+        String html = BenchmarkCorpus.load(book);
+        HtmlParserService parser = BenchmarkCorpus.htmlParser();
+        HtmlExtraction extraction = parser.extract(html);
+        document = parser.toBookDocument(extraction, book);
+        document.setId("bench-" + book);
+        cleanText = parser.cleanText(extraction);
+        chunkingService = BenchmarkCorpus.chunking(chunkSize, overlapSize, 25);
+    }
+
+    @Benchmark
+    public List<DocumentChunk> chunkDocument() {
+        return chunkingService.chunkDocument(document, cleanText);
+    }
+}
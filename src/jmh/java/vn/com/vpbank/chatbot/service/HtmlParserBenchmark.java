@@ -0,0 +1,48 @@
+package vn.com.vpbank.chatbot.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import vn.com.vpbank.chatbot.bean.HtmlExtraction;
+import vn.com.vpbank.chatbot.repositories.document.BookDocument;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HtmlParserBenchmark {
+
+    @Param({BenchmarkCorpus.SMALL, BenchmarkCorpus.MEDIUM, BenchmarkCorpus.LARGE})
+    public String book;
+
+    private HtmlParserService htmlParserService;
+    private String html;
+
+    @Setup
+    public void setUp() {
+        htmlParserService = BenchmarkCorpus.htmlParser();
+        html = BenchmarkCorpus.load(book);
+    }
+
+    // Một lần parse cho cả metadata, text, bảng và ảnh (luồng ingest hiện tại)
+    @Benchmark
+    public HtmlExtraction extract() {
+        return htmlParserService.extract(html);
+    }
+
+    @Benchmark
+    public BookDocument parseHtmlFile() {
+        return htmlParserService.parseHtmlFile(html, book);
+    }
+
+    @Benchmark
+    public String extractCleanText() {
+        return htmlParserService.extractCleanText(html);
+    }
+}
@@ -0,0 +1,45 @@
+package vn.com.vpbank.chatbot.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import vn.com.vpbank.chatbot.bean.DocumentChunk;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VectorStoreServiceBenchmark {
+
+    @Param({BenchmarkCorpus.MEDIUM, BenchmarkCorpus.LARGE})
+    public String book;
+
+    // Cùng kích thước batch với VectorStoreService.addDocuments
+    @Param({"100"})
+    public int batchSize;
+
+    private VectorStoreService vectorStoreService;
+    private List<DocumentChunk> chunks;
+
+    @Setup
+    public void setUp() {
+        // Chỉ đo bước chuyển chunk -> Document, không cần vector store/embedding model
+        vectorStoreService = new VectorStoreService(null, null, null);
+        chunks = BenchmarkCorpus.chunks(book);
+    }
+
+    @Benchmark
+    public void convertToDocumentBatches(Blackhole blackhole) {
+        for (int i = 0; i < chunks.size(); i += batchSize) {
+            blackhole.consume(vectorStoreService.toDocuments(chunks.subList(i, Math.min(i + batchSize, chunks.size()))));
+        }
+    }
+}
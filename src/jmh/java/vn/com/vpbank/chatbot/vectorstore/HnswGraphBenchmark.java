@@ -0,0 +1,120 @@
+package vn.com.vpbank.chatbot.vectorstore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Latency HNSW so với quét chính xác trên cùng dữ liệu; recall@k của HNSW (so với kết quả quét chính xác)
+ * và số byte mỗi vector phải đọc khi duyệt đồ thị in ra lúc setup cho từng bộ tham số.
+ * So sánh quantization nên chạy với -p dimensions=1536 như text-embedding-3-small (binary kém khi ít chiều).
+ * Vector tổng hợp theo cụm để giống embedding thật (nhiều chunk cùng chủ đề nằm sát nhau).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HnswGraphBenchmark {
+
+    private static final int CLUSTERS = 64;
+    private static final int QUERIES = 200;
+    private static final int K = 10;
+
+    @Param({"10000", "50000"})
+    public int size;
+
+    @Param({"32", "100"})
+    public int ef;
+
+    @Param({"256"})
+    public int dimensions;
+
+    @Param({"NONE", "INT8", "BINARY"})
+    public String quantization;
+
+    private Path dir;
+    private HnswGraph graph;
+    private float[][] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("hnsw-bench");
+        graph = HnswGraph.open(dir, dimensions, 16, 200, Quantization.valueOf(quantization), 3);
+        Random random = new Random(42);
+        float[][] centroids = new float[CLUSTERS][];
+        for (int c = 0; c < CLUSTERS; c++) {
+            centroids[c] = gaussian(random, null, 1f, dimensions);
+        }
+        for (int i = 0; i < size; i++) {
+            graph.insert(gaussian(random, centroids[random.nextInt(CLUSTERS)], 0.35f, dimensions), node -> {
+            });
+        }
+        queries = new float[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = gaussian(random, centroids[random.nextInt(CLUSTERS)], 0.35f, dimensions);
+        }
+
+        int hits = 0;
+        for (float[] query : queries) {
+            Set<Integer> expected = new HashSet<>();
+            graph.bruteForce(query, K, null, null).forEach(neighbor -> expected.add(neighbor.node()));
+            for (HnswGraph.Neighbor neighbor : graph.search(query, K, ef, null)) {
+                if (expected.contains(neighbor.node())) {
+                    hits++;
+                }
+            }
+        }
+        System.out.printf("%nsize=%d ef=%d dimensions=%d quantization=%s recall@%d=%.4f bytes/vector=%d%n",
+                size, ef, dimensions, quantization, K, hits / (double) (QUERIES * K), graph.searchBytesPerVector());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        graph.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public List<HnswGraph.Neighbor> hnswSearch() {
+        return graph.search(nextQuery(), K, ef, null);
+    }
+
+    @Benchmark
+    public List<HnswGraph.Neighbor> bruteForce() {
+        return graph.bruteForce(nextQuery(), K, null, null);
+    }
+
+    private float[] nextQuery() {
+        return queries[next++ % QUERIES];
+    }
+
+    private static float[] gaussian(Random random, float[] center, float spread, int dimensions) {
+        float[] vector = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = (center != null ? center[i] : 0) + (float) random.nextGaussian() * spread;
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,45 @@
+package vn.com.vpbank.chatbot.api;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import vn.com.vpbank.chatbot.service.BookCatalogService;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Slf4j
+@RestController
+@RequiredArgsConstructor
+@RequestMapping(path = "/books")
+public class BookController {
+    private final BookCatalogService bookCatalogService;
+
+    /**
+     * Tìm sách để chọn phạm vi chat: q (mọi từ trong tên sách/tác giả), title/author (tiền tố), đều không phân biệt dấu.
+     * Trang sau: truyền lại nextCursor của trang trước. Phạm vi chat: truyền sourceUrl (không phải id) vào sourceIds
+     * trong search của /chat, vì sourceId trong payload của chunk là sourceUrl của document
+     */
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> search(@RequestParam(value = "q", required = false) String q,
+                                                      @RequestParam(value = "title", required = false) String title,
+                                                      @RequestParam(value = "author", required = false) String author,
+                                                      @RequestParam(value = "cursor", required = false) String cursor,
+                                                      @RequestParam(value = "limit", defaultValue = "20") int limit) {
+        BookCatalogService.Page page;
+        try {
+            page = bookCatalogService.search(q, title, author, cursor, limit);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+        // nextCursor có thể null => không dùng Map.of
+        Map<String, Object> body = new HashMap<>();
+        body.put("items", page.items());
+        body.put("nextCursor", page.nextCursor());
+        return ResponseEntity.ok(body);
+    }
+}
@@ -0,0 +1,32 @@
+package vn.com.vpbank.chatbot.api;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import vn.com.vpbank.chatbot.service.EmbeddingCacheService;
+import vn.com.vpbank.chatbot.service.ImageOcrService;
+import vn.com.vpbank.chatbot.service.SemanticCacheService;
+
+import java.util.Map;
+
+@Slf4j
+@RestController
+@RequiredArgsConstructor
+@RequestMapping(path = "/cache")
+public class CacheController {
+    private final EmbeddingCacheService embeddingCacheService;
+    private final SemanticCacheService semanticCacheService;
+    private final ImageOcrService imageOcrService;
+
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Object>> stats() {
+        return ResponseEntity.ok(Map.of(
+                "embedding", embeddingCacheService.getStats(),
+                "semantic", semanticCacheService.getStats(),
+                "ocr", imageOcrService.getStats()
+        ));
+    }
+}
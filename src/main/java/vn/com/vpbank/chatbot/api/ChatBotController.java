@@ -1,13 +1,25 @@
 package vn.com.vpbank.chatbot.api;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.Disposable;
+import vn.com.vpbank.chatbot.bean.ChatAnswer;
+import vn.com.vpbank.chatbot.bean.SearchSpec;
 import vn.com.vpbank.chatbot.service.ChatbotService;
 
+import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Slf4j
 @RestController
@@ -16,6 +28,10 @@ import java.util.Map;
 public class ChatBotController {
 
     private final ChatbotService chatbotService;
+    private final ObjectMapper objectMapper;
+
+    @Value("${chat-stream.timeout-ms:120000}")
+    private long streamTimeoutMs;
 
 
     @PostMapping("/chat")
@@ -27,13 +43,21 @@ public class ChatBotController {
                         .body(Map.of("error", "Câu hỏi không được để trống"));
             }
 
+            SearchSpec spec;
+            try {
+                spec = searchSpecOf(request);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+            }
+
             long startTime = System.currentTimeMillis();
-            String response = chatbotService.chat(question);
+            ChatAnswer answer = chatbotService.chat(question, spec);
             long processingTime = System.currentTimeMillis() - startTime;
 
             return ResponseEntity.ok(Map.of(
                     "question", question,
-                    "response", response,
+                    "response", answer.getAnswer(),
+                    "cached", answer.isCached(),
                     "processingTimeMs", processingTime,
                     "timestamp", System.currentTimeMillis()
             ));
@@ -45,5 +69,109 @@ public class ChatBotController {
         }
     }
 
+    /**
+     * Streaming qua SSE: event "sources" trước, sau đó các event "token", cuối cùng "done"
+     * kèm timeToFirstTokenMs và totalTimeMs
+     */
+    @RequestMapping(path = "/chat/stream", method = {RequestMethod.GET, RequestMethod.POST},
+            produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter chatStream(@RequestParam(value = "question", required = false) String questionParam,
+                                 @RequestBody(required = false) Map<String, Object> request) {
+        String question = questionParam != null ? questionParam
+                : request != null ? (String) request.get("question") : null;
+        SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+        if (question == null || question.trim().isEmpty()) {
+            sendQuietly(emitter, "error", Map.of("error", "Câu hỏi không được để trống"));
+            emitter.complete();
+            return emitter;
+        }
+
+        SearchSpec spec;
+        try {
+            spec = searchSpecOf(request);
+        } catch (IllegalArgumentException e) {
+            sendQuietly(emitter, "error", Map.of("error", e.getMessage()));
+            emitter.complete();
+            return emitter;
+        }
+
+        long startTime = System.currentTimeMillis();
+        AtomicLong firstTokenTime = new AtomicLong(-1);
+        AtomicBoolean cached = new AtomicBoolean(false);
+
+        Disposable subscription = chatbotService.chatStream(question, spec)
+                .flatMapMany(stream -> {
+                    cached.set(stream.isCached());
+                    sendOrCancel(emitter, "sources", stream.getSources().stream().map(this::toSource).toList());
+                    return stream.getTokens();
+                })
+                .subscribe(token -> {
+                            firstTokenTime.compareAndSet(-1, System.currentTimeMillis());
+                            sendOrCancel(emitter, "token", token);
+                        },
+                        error -> {
+                            log.error("Error processing chat stream", error);
+                            sendQuietly(emitter, "error", Map.of("error", ChatbotService.ERROR_ANSWER));
+                            emitter.complete();
+                        },
+                        () -> {
+                            long now = System.currentTimeMillis();
+                            long ttft = firstTokenTime.get() < 0 ? -1 : firstTokenTime.get() - startTime;
+                            log.info("Chat stream done, ttft: {} ms, total: {} ms", ttft, now - startTime);
+                            sendQuietly(emitter, "done", Map.of(
+                                    "cached", cached.get(),
+                                    "timeToFirstTokenMs", ttft,
+                                    "totalTimeMs", now - startTime
+                            ));
+                            emitter.complete();
+                        });
+
+        // Client ngắt kết nối / timeout => huỷ luôn stream tới model, không sinh tiếp token
+        emitter.onCompletion(subscription::dispose);
+        emitter.onTimeout(subscription::dispose);
+        emitter.onError(e -> subscription.dispose());
+        return emitter;
+    }
+
+    /**
+     * Tham số search trong body: {"question": ..., "search": {"topK": 8, "similarityThreshold": 0.3,
+     * "title": ..., "author": ..., "sourceIds": [...], "chunkIndexFrom": 0, "chunkIndexTo": 50}}
+     * sourceIds: sourceUrl của sách (trả về từ /books)
+     */
+    private SearchSpec searchSpecOf(Map<String, Object> request) {
+        Object search = request != null ? request.get("search") : null;
+        if (search == null) {
+            return SearchSpec.defaults();
+        }
+        SearchSpec spec = objectMapper.convertValue(search, SearchSpec.class);
+        spec.validate();
+        return spec;
+    }
+
+    private Map<String, Object> toSource(Document doc) {
+        Map<String, Object> source = new HashMap<>();
+        source.put("title", doc.getMetadata().get("title"));
+        source.put("author", doc.getMetadata().get("author"));
+        source.put("sourceId", doc.getMetadata().get("sourceId"));
+        source.put("chunkIndex", doc.getMetadata().get("chunkIndex"));
+        source.put("score", doc.getScore());
+        return source;
+    }
+
+    private void sendOrCancel(SseEmitter emitter, String name, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data));
+        } catch (IOException e) {
+            // client đã đóng kết nối, ném lỗi để reactor cancel upstream
+            throw new IllegalStateException("Client disconnected", e);
+        }
+    }
 
+    private void sendQuietly(SseEmitter emitter, String name, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data));
+        } catch (Exception e) {
+            log.debug("Cannot send {} event: {}", name, e.getMessage());
+        }
+    }
 }
@@ -4,23 +4,28 @@ import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.logging.log4j.util.Strings;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import vn.com.vpbank.chatbot.bean.request.IngestTextRq;
+import vn.com.vpbank.chatbot.repositories.document.BookDocument;
+import vn.com.vpbank.chatbot.service.BatchingEmbeddingModel;
+import vn.com.vpbank.chatbot.service.BookDocumentWriter;
 import vn.com.vpbank.chatbot.service.DocumentIngestionService;
-import vn.com.vpbank.chatbot.service.WorkerService;
+import vn.com.vpbank.chatbot.service.HtmlContentStore;
+import vn.com.vpbank.chatbot.service.IngestJobService;
+import vn.com.vpbank.chatbot.service.IngestMemoryBudget;
+import vn.com.vpbank.chatbot.service.IngestPipeline;
+import vn.com.vpbank.chatbot.service.IngestTask;
+import vn.com.vpbank.chatbot.service.ZipIngestService;
 
-import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.Enumeration;
 import java.util.Map;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 @Slf4j
 @RestController
@@ -28,8 +33,16 @@ import java.util.zip.ZipFile;
 @RequestMapping(path = "/ingest")
 @Validated
 public class IngestController {
+    private static final String RETRY_AFTER_SECONDS = "5";
+
+    private final IngestPipeline ingestPipeline;
+    private final IngestMemoryBudget memoryBudget;
+    private final ZipIngestService zipIngestService;
+    private final IngestJobService jobService;
+    private final BatchingEmbeddingModel batchingEmbeddingModel;
+    private final BookDocumentWriter bookDocumentWriter;
     private final DocumentIngestionService ingestionService;
-    private final WorkerService workerService;
+    private final HtmlContentStore contentStore;
 
     @PostMapping("/text")
     public ResponseEntity<Map<String, Object>> ingestTextDocument(
@@ -37,12 +50,15 @@ public class IngestController {
 
         try {
             long startTime = System.currentTimeMillis();
-            ingestionService.ingestDocument(request.getContent(), request.getName());
-            long processingTime = System.currentTimeMillis() - startTime;
-            return ResponseEntity.ok(Map.of(
-                    "message", "Process ingest data successfully",
-                    "processingTimeMs", processingTime
-            ));
+            IngestMemoryBudget.Lease lease = memoryBudget.tryOpen(request.getContent().length());
+            if (lease == null) {
+                return busy();
+            }
+            IngestTask task = new IngestTask(jobService.createJob(request.getName(), request.getContent().length()),
+                    request.getName());
+            task.setLease(lease);
+            task.setHtmlContent(request.getContent());
+            return submit(task, startTime);
         } catch (Exception e) {
             log.error("Error ingesting document", e);
             return ResponseEntity.badRequest()
@@ -61,33 +77,46 @@ public class IngestController {
             }
 
             if (extension.endsWith(".html") || extension.endsWith(".htm")) {
-                String htmlContent = new String(file.getBytes(), StandardCharsets.UTF_8);
-                workerService.processFileAsync(htmlContent, extension);
+                // Giữ quota trước khi đọc upload vào RAM
+                IngestMemoryBudget.Lease lease = memoryBudget.tryOpen(file.getSize());
+                if (lease == null) {
+                    return busy();
+                }
+                IngestTask task = new IngestTask(jobService.createJob(extension, file.getSize()), extension);
+                task.setLease(lease);
+                try {
+                    task.setContent(file.getBytes());
+                } catch (Exception e) {
+                    task.release();
+                    jobService.discard(task.getJobId());
+                    throw e;
+                }
+                return submit(task, startTime);
             }
             if (extension.endsWith(".zip")) {
+                if (!ingestPipeline.hasCapacity()) {
+                    return busy();
+                }
+                // Chuyển upload ra file tạm rồi trả về ngay; ZipIngestService đọc dần và xoá file khi xong
                 Path tempFile = Files.createTempFile("ingest-", ".zip");
-                file.transferTo(tempFile.toFile());
-                ZipFile zipFile = new ZipFile(tempFile.toFile());
-                Enumeration<? extends ZipEntry> entries = zipFile.entries();
-                while (entries.hasMoreElements()) {
-                    ZipEntry entry = entries.nextElement();
-                    if (!entry.isDirectory() && entry.getName().endsWith(".html")) {
-                        String pathInZip = entry.getName();
-                        String fileName = Paths.get(pathInZip).getFileName().toString();
-                        fileName = fileName.replaceAll("[\\\\/]+", "_");
-                        try (InputStream is = zipFile.getInputStream(entry)) {
-                            String htmlContent = new String(is.readAllBytes(), StandardCharsets.UTF_8);
-                            // Đẩy sang worker xử lý document
-                            workerService.processFileAsync(htmlContent, fileName);
-                        }
-                    }
+                String jobId = null;
+                try {
+                    file.transferTo(tempFile);
+                    jobId = jobService.createJob(extension, Files.size(tempFile));
+                    zipIngestService.ingestZipAsync(tempFile, jobId);
+                } catch (TaskRejectedException e) {
+                    Files.deleteIfExists(tempFile);
+                    jobService.discard(jobId);
+                    return busy();
+                } catch (Exception e) {
+                    Files.deleteIfExists(tempFile);
+                    if (jobId != null) jobService.discard(jobId);
+                    throw e;
                 }
+                return accepted(jobId, startTime);
             }
-            long processingTime = System.currentTimeMillis() - startTime;
-            return ResponseEntity.ok(Map.of(
-                    "message", "Process ingest data successfully",
-                    "processingTimeMs", processingTime
-            ));
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "Only .html, .htm or .zip files are supported"));
         } catch (Exception e) {
             log.error("Error ingesting file", e);
             return ResponseEntity.badRequest()
@@ -95,4 +124,82 @@ public class IngestController {
         }
     }
 
+    /**
+     * Chunk + embed lại document đã ingest từ HTML gốc trong content store (vd. sau khi đổi cấu hình chunking).
+     * Ảnh đóng gói trong zip không còn, text OCR của chúng lấy lại từ ocr_cache nếu còn.
+     */
+    @PostMapping("/reindex/{id}")
+    public ResponseEntity<Map<String, Object>> reindex(@PathVariable("id") String id) {
+        try {
+            long startTime = System.currentTimeMillis();
+            BookDocument document = ingestionService.findDocument(id).orElse(null);
+            String html = document == null ? null : ingestionService.loadHtml(document);
+            if (html == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body(Map.of("error", "Document content not found: " + id));
+            }
+            IngestMemoryBudget.Lease lease = memoryBudget.tryOpen(html.length());
+            if (lease == null) {
+                return busy();
+            }
+            IngestTask task = new IngestTask(jobService.createJob(document.getSourceUrl(), html.length()),
+                    document.getSourceUrl());
+            task.setLease(lease);
+            task.setHtmlContent(html);
+            return submit(task, startTime);
+        } catch (Exception e) {
+            log.error("Error reindexing document {}", id, e);
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "System error reindexing document: " + e.getMessage()));
+        }
+    }
+
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<Map<String, Object>> getJob(@PathVariable("id") String id) {
+        return jobService.getJob(id)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body(Map.of("error", "Ingest job not found: " + id)));
+    }
+
+    @GetMapping("/pipeline/stats")
+    public ResponseEntity<Map<String, Object>> pipelineStats() {
+        return ResponseEntity.ok(Map.of(
+                "stages", ingestPipeline.getStats(),
+                "memoryBudget", memoryBudget.getStats(),
+                "embeddingBatcher", batchingEmbeddingModel.getStats(),
+                "metadataWriter", bookDocumentWriter.getStats(),
+                "contentStore", contentStore.getStats()
+        ));
+    }
+
+    /**
+     * Đẩy document (đã giữ quota) vào pipeline không chặn; pipeline đầy thì trả quota và báo 429
+     */
+    private ResponseEntity<Map<String, Object>> submit(IngestTask task, long startTime) {
+        if (!ingestPipeline.trySubmit(task)) {
+            task.release();
+            jobService.discard(task.getJobId());
+            return busy();
+        }
+        jobService.onReaderDone(task.getJobId(), false);
+        return accepted(task.getJobId(), startTime);
+    }
+
+    private ResponseEntity<Map<String, Object>> accepted(String jobId, long startTime) {
+        long processingTime = System.currentTimeMillis() - startTime;
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(Map.of(
+                "message", "Ingest job accepted",
+                "jobId", jobId,
+                "statusUrl", "/ingest/jobs/" + jobId,
+                "processingTimeMs", processingTime
+        ));
+    }
+
+    private ResponseEntity<Map<String, Object>> busy() {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .body(Map.of("error", "Ingest pipeline is busy, please retry later"));
+    }
+
 }
@@ -0,0 +1,62 @@
+package vn.com.vpbank.chatbot.api;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import vn.com.vpbank.chatbot.bean.SearchSpec;
+import vn.com.vpbank.chatbot.service.HybridSearchService;
+
+import java.util.List;
+import java.util.Map;
+
+@Slf4j
+@RestController
+@RequiredArgsConstructor
+@RequestMapping(path = "/search")
+public class SearchController {
+    private final HybridSearchService hybridSearchService;
+
+    /**
+     * Xem trực tiếp kết quả retrieval (không gọi chat model): hạng từng nhánh, điểm RRF, thời gian từng nhánh.
+     * Tham số của SearchSpec truyền qua query string (topK, similarityThreshold, title, author, sourceIds, chunkIndexFrom/To)
+     */
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> search(@RequestParam("q") String query, SearchSpec spec) {
+        if (query.isBlank()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Câu hỏi không được để trống"));
+        }
+        try {
+            spec.validate();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+        HybridSearchService.Result result = hybridSearchService.searchWithTimings(query, spec);
+        List<Map<String, Object>> hits = result.documents().stream()
+                .map(this::toHit)
+                .toList();
+        return ResponseEntity.ok(Map.of(
+                "query", query,
+                "vectorMs", result.vectorMs(),
+                "lexicalMs", result.lexicalMs(),
+                "results", hits
+        ));
+    }
+
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Object>> stats() {
+        return ResponseEntity.ok(hybridSearchService.getStats());
+    }
+
+    private Map<String, Object> toHit(Document document) {
+        return Map.of(
+                "id", document.getId(),
+                "text", document.getText(),
+                "metadata", document.getMetadata()
+        );
+    }
+}
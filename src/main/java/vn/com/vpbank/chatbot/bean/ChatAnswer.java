@@ -0,0 +1,22 @@
+package vn.com.vpbank.chatbot.bean;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Set;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatAnswer {
+    private String answer;
+    // true nếu câu trả lời lấy từ semantic cache
+    private boolean cached;
+    // độ tương đồng với câu hỏi đã cache (chỉ có khi cached = true)
+    private Double similarity;
+    // sourceId các document đã dùng làm ngữ cảnh
+    private Set<String> sourceIds;
+}
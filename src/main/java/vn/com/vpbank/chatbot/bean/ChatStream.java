@@ -0,0 +1,22 @@
+package vn.com.vpbank.chatbot.bean;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.ai.document.Document;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatStream {
+    // các chunk dùng làm ngữ cảnh, gửi cho client trước token đầu tiên
+    private List<Document> sources;
+    private boolean cached;
+    // câu trả lời, đẩy dần từng đoạn theo thứ tự model sinh ra
+    private Flux<String> tokens;
+}
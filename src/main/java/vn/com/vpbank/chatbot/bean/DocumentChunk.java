@@ -9,6 +9,7 @@ import lombok.NoArgsConstructor;
 @Data
 @Builder
 @NoArgsConstructor
+@AllArgsConstructor
 public class DocumentChunk {
     private String content;
     private String title;
@@ -16,6 +17,12 @@ public class DocumentChunk {
     private String chunkId;
     private int chunkIndex;
     private String sourceId;
+    // sha256 của content, dùng để diff khi re-ingest
+    private String contentHash;
+    // id point trên vector store, tất định theo sourceId + chunkIndex + contentHash
+    private String pointId;
+    // số token cl100k của content (chi phí embedding)
+    private int tokenCount;
 
     public DocumentChunk(String content, String title, String author, String chunkId, int chunkIndex, String sourceId) {
         this.content = content;
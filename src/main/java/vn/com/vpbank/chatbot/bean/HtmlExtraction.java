@@ -0,0 +1,34 @@
+package vn.com.vpbank.chatbot.bean;
+
+import java.util.List;
+
+/**
+ * Kết quả một lần parse HTML: metadata, text của body, bảng dạng markdown và danh sách ảnh.
+ * Không giữ DOM nên chuyển qua các stage ingest sau mà không giữ cây HTML trong bộ nhớ.
+ */
+public record HtmlExtraction(String title,
+                             String author,
+                             String outline,
+                             String bodyText,
+                             String tableMarkdown,
+                             List<String> imageUrls) {
+
+    public HtmlExtraction {
+        imageUrls = List.copyOf(imageUrls);
+    }
+
+    /**
+     * Ước lượng bộ nhớ của các String (UTF-16, 2 byte/ký tự), dùng cho quota ingest
+     */
+    public long estimatedBytes() {
+        long chars = length(title) + length(author) + length(outline) + length(bodyText) + length(tableMarkdown);
+        for (String url : imageUrls) {
+            chars += url.length();
+        }
+        return chars * 2;
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+}
@@ -0,0 +1,59 @@
+package vn.com.vpbank.chatbot.bean;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Tham số retrieval của một câu hỏi. Trường null => dùng cấu hình mặc định / không lọc.
+ * Filter được đẩy xuống Qdrant (payload index) và index BM25, không lọc sau khi lấy kết quả.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SearchSpec {
+    public static final int MAX_TOP_K = 50;
+
+    private Integer topK;
+    // ngưỡng cosine tối thiểu của nhánh vector (0..1)
+    private Double similarityThreshold;
+    // khớp chính xác tên sách / tác giả
+    private String title;
+    private String author;
+    private List<String> sourceIds;
+    // khoảng chunkIndex, tính cả hai đầu
+    private Integer chunkIndexFrom;
+    private Integer chunkIndexTo;
+
+    public static SearchSpec defaults() {
+        return new SearchSpec();
+    }
+
+    public boolean hasFilters() {
+        return title != null || author != null || (sourceIds != null && !sourceIds.isEmpty())
+                || chunkIndexFrom != null || chunkIndexTo != null;
+    }
+
+    public boolean isDefault() {
+        return topK == null && similarityThreshold == null && !hasFilters();
+    }
+
+    /**
+     * @throws IllegalArgumentException khi giá trị ngoài khoảng cho phép
+     */
+    public void validate() {
+        if (topK != null && (topK < 1 || topK > MAX_TOP_K)) {
+            throw new IllegalArgumentException("topK phải trong khoảng 1.." + MAX_TOP_K);
+        }
+        if (similarityThreshold != null && (similarityThreshold < 0 || similarityThreshold > 1)) {
+            throw new IllegalArgumentException("similarityThreshold phải trong khoảng 0..1");
+        }
+        if (chunkIndexFrom != null && chunkIndexTo != null && chunkIndexFrom > chunkIndexTo) {
+            throw new IllegalArgumentException("chunkIndexFrom không được lớn hơn chunkIndexTo");
+        }
+    }
+}
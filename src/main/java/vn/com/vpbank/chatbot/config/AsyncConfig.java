@@ -1,34 +1,158 @@
 package vn.com.vpbank.chatbot.config;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.thread.Threading;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.util.concurrent.Executor;
 
+/**
+ * Executor của ingest pipeline, OCR, embedding và retrieval.
+ * spring.threads.virtual.enabled=true trên JDK 21+ (Tomcat chạy request trên virtual thread) thì các executor này
+ * tạo một virtual thread cho mỗi task thay vì pool cố định: số việc đồng thời do semaphore của nơi dùng quyết định
+ * (slot/worker của IngestStage, ocr.concurrency, embedding.batch.max-concurrent-requests), không phải số thread.
+ * JDK 17 bỏ qua cấu hình này và giữ pool như cũ.
+ */
 @Configuration
 @EnableAsync
+@EnableScheduling
 public class AsyncConfig {
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+    private final boolean virtualThreads;
+
+    public AsyncConfig(Environment environment) {
+        this.virtualThreads = Threading.VIRTUAL.isActive(environment);
+    }
+
+    // Stage parse của ingest pipeline (CPU)
     @Bean(name = "ingestExecutor")
-    public Executor ingestExecutor() {
+    public TaskExecutor ingestExecutor(@Value("${ingest.pipeline.parse.concurrency:0}") int concurrency,
+                                       @Value("${ingest.pipeline.parse.queue-capacity:100}") int queueCapacity) {
+        return stageExecutor("IngestWorker-", concurrency, queueCapacity);
+    }
+
+    // Stage OCR: mỗi worker giữ một document chờ kết quả OCR các ảnh của nó
+    @Bean(name = "ocrStageExecutor")
+    public TaskExecutor ocrStageExecutor(@Value("${ingest.pipeline.ocr.concurrency:4}") int concurrency,
+                                         @Value("${ingest.pipeline.ocr.queue-capacity:100}") int queueCapacity) {
+        return stageExecutor("OcrStageWorker-", concurrency, queueCapacity);
+    }
+
+    // Gọi vision model cho từng ảnh, dùng chung cho mọi document => giới hạn tổng số request OCR đồng thời
+    @Bean(name = "ocrExecutor")
+    public TaskExecutor ocrExecutor(@Value("${ocr.concurrency:8}") int concurrency) {
+        if (virtualThreads) {
+            return virtualExecutor("OcrCall-");
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(concurrency);
+        executor.setMaxPoolSize(concurrency);
+        executor.setThreadNamePrefix("OcrCall-");
+        executor.initialize();
+        return executor;
+    }
+
+    // Gửi request embedding đã gom batch (BatchingEmbeddingModel), dùng chung cho mọi document
+    @Bean(name = "embeddingRequestExecutor")
+    public TaskExecutor embeddingRequestExecutor(
+            @Value("${embedding.batch.max-concurrent-requests:4}") int concurrency) {
+        if (virtualThreads) {
+            return virtualExecutor("EmbeddingCall-");
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(concurrency);
+        executor.setMaxPoolSize(concurrency);
+        executor.setThreadNamePrefix("EmbeddingCall-");
+        executor.initialize();
+        return executor;
+    }
+
+    // Nhánh vector của hybrid retrieval, chạy song song với nhánh BM25 trên thread của request
+    @Bean(name = "retrievalExecutor")
+    public TaskExecutor retrievalExecutor(@Value("${retrieval.hybrid.concurrency:16}") int concurrency) {
+        if (virtualThreads) {
+            return virtualExecutor("Retrieval-");
+        }
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(8);
-        executor.setMaxPoolSize(16);
-        executor.setQueueCapacity(500);
-        executor.setThreadNamePrefix("IngestWorker-");
+        executor.setCorePoolSize(concurrency);
+        executor.setMaxPoolSize(concurrency);
+        executor.setThreadNamePrefix("Retrieval-");
         executor.initialize();
         return executor;
     }
 
+    // Stage clean/extract (CPU)
+    @Bean(name = "extractExecutor")
+    public TaskExecutor extractExecutor(@Value("${ingest.pipeline.extract.concurrency:0}") int concurrency,
+                                        @Value("${ingest.pipeline.extract.queue-capacity:100}") int queueCapacity) {
+        return stageExecutor("ExtractWorker-", concurrency, queueCapacity);
+    }
+
+    // Stage chunk (CPU)
+    @Bean(name = "chunkExecutor")
+    public TaskExecutor chunkExecutor(@Value("${ingest.pipeline.chunk.concurrency:0}") int concurrency,
+                                      @Value("${ingest.pipeline.chunk.queue-capacity:100}") int queueCapacity) {
+        return stageExecutor("ChunkWorker-", concurrency, queueCapacity);
+    }
+
+    // Stage embed (I/O, giới hạn theo rate limit của embedding API)
+    @Bean(name = "embedExecutor")
+    public TaskExecutor embedExecutor(@Value("${ingest.pipeline.embed.concurrency:8}") int concurrency,
+                                      @Value("${ingest.pipeline.embed.queue-capacity:100}") int queueCapacity) {
+        return stageExecutor("EmbedWorker-", concurrency, queueCapacity);
+    }
+
+    // Stage upsert vào vector store (I/O)
     @Bean(name = "addStoreExecutor")
-    public Executor addStoreExecutor() {
+    public TaskExecutor addStoreExecutor(@Value("${ingest.pipeline.upsert.concurrency:8}") int concurrency,
+                                         @Value("${ingest.pipeline.upsert.queue-capacity:100}") int queueCapacity) {
+        return stageExecutor("AddStoreExecutor-", concurrency, queueCapacity);
+    }
+
+    // Đọc zip tuần tự, thread bị chặn bởi IngestMemoryBudget nên tách riêng khỏi các stage
+    @Bean(name = "zipReaderExecutor")
+    public Executor zipReaderExecutor() {
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(8);
-        executor.setMaxPoolSize(16);
-        executor.setQueueCapacity(500);
-        executor.setThreadNamePrefix("AddStoreExecutor-");
+        executor.setCorePoolSize(2);
+        executor.setMaxPoolSize(2);
+        executor.setQueueCapacity(50);
+        executor.setThreadNamePrefix("ZipReader-");
         executor.initialize();
         return executor;
     }
+
+    /**
+     * Pool cố định: core = max = concurrency (0 => số core CPU). IngestStage giữ số task
+     * đang chờ không vượt queueCapacity nên executor không bao giờ phải reject.
+     * Chế độ virtual thread: không có pool, IngestStage tự giới hạn số worker bằng semaphore.
+     */
+    private TaskExecutor stageExecutor(String threadNamePrefix, int concurrency, int queueCapacity) {
+        if (virtualThreads) {
+            return virtualExecutor(threadNamePrefix);
+        }
+        int threads = concurrency > 0 ? concurrency : CORES;
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix(threadNamePrefix);
+        executor.initialize();
+        return executor;
+    }
+
+    // Mỗi task một virtual thread; khi tắt ứng dụng chờ task đang chạy tối đa 30s như pool
+    private SimpleAsyncTaskExecutor virtualExecutor(String threadNamePrefix) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadNamePrefix);
+        executor.setVirtualThreads(true);
+        executor.setTaskTerminationTimeout(30_000);
+        return executor;
+    }
 }
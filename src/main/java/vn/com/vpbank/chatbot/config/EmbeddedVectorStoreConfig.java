@@ -0,0 +1,38 @@
+package vn.com.vpbank.chatbot.config;
+
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import vn.com.vpbank.chatbot.vectorstore.EmbeddedVectorStore;
+import vn.com.vpbank.chatbot.vectorstore.Quantization;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * vector-store.type=embedded: VectorStore HNSW trong process thay cho Qdrant.
+ * Dùng cùng profile "embedded-vector-store" để tắt luôn auto-config Qdrant (không tạo client tới cloud).
+ */
+@Configuration
+@ConditionalOnProperty(name = "vector-store.type", havingValue = "embedded")
+public class EmbeddedVectorStoreConfig {
+
+    @Bean(destroyMethod = "close")
+    @Primary
+    public EmbeddedVectorStore embeddedVectorStore(EmbeddingModel embeddingModel,
+                                                   @Value("${vector-store.embedded.path:data/vector-store}") String path,
+                                                   @Value("${vector-store.embedded.dimensions:1536}") int dimensions,
+                                                   @Value("${vector-store.embedded.m:16}") int m,
+                                                   @Value("${vector-store.embedded.ef-construction:200}") int efConstruction,
+                                                   @Value("${vector-store.embedded.ef-search:100}") int efSearch,
+                                                   @Value("${vector-store.embedded.exact-search-threshold:10000}") int exactSearchThreshold,
+                                                   @Value("${vector-store.quantization.type:none}") String quantization,
+                                                   @Value("${vector-store.quantization.rescore-oversampling:3}") int rescoreOversampling)
+            throws IOException {
+        return new EmbeddedVectorStore(embeddingModel, Path.of(path), dimensions, m,
+                efConstruction, efSearch, exactSearchThreshold, Quantization.parse(quantization), rescoreOversampling);
+    }
+}
@@ -0,0 +1,46 @@
+package vn.com.vpbank.chatbot.config;
+
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.openai.OpenAiEmbeddingModel;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import vn.com.vpbank.chatbot.service.BatchingEmbeddingModel;
+import vn.com.vpbank.chatbot.service.CachingEmbeddingModel;
+import vn.com.vpbank.chatbot.service.EmbeddingCacheService;
+
+import java.util.concurrent.Executor;
+
+@Configuration
+public class EmbeddingConfig {
+
+    // Phần cache miss của mọi lời gọi đồng thời được gom thành request lớn trước khi gửi OpenAI
+    @Bean
+    public BatchingEmbeddingModel batchingEmbeddingModel(OpenAiEmbeddingModel openAiEmbeddingModel,
+                                                         @Qualifier("embeddingRequestExecutor") Executor executor,
+                                                         @Value("${embedding.batch.max-concurrent-requests:4}") int maxConcurrentRequests,
+                                                         @Value("${embedding.batch.max-inputs:2048}") int maxInputs,
+                                                         @Value("${embedding.batch.max-tokens:300000}") int maxTokens,
+                                                         @Value("${embedding.batch.linger-ms:20}") long lingerMs) {
+        return new BatchingEmbeddingModel(openAiEmbeddingModel, executor, maxConcurrentRequests,
+                maxInputs, maxTokens, lingerMs);
+    }
+
+    // Chỉ stage embed của ingest: đi qua cache rồi batcher, gom với text của các document khác
+    @Bean
+    public EmbeddingModel ingestEmbeddingModel(BatchingEmbeddingModel batchingEmbeddingModel,
+                                               EmbeddingCacheService embeddingCacheService) {
+        return new CachingEmbeddingModel(batchingEmbeddingModel, embeddingCacheService);
+    }
+
+    // VectorStore (Qdrant), semantic cache và ContextAssembler: embedding lúc chat đi qua cache rồi gọi thẳng OpenAI,
+    // không chờ linger hay xếp sau lô ingest trong hàng đợi của batcher
+    @Bean
+    @Primary
+    public EmbeddingModel cachingEmbeddingModel(OpenAiEmbeddingModel openAiEmbeddingModel,
+                                                EmbeddingCacheService embeddingCacheService) {
+        return new CachingEmbeddingModel(openAiEmbeddingModel, embeddingCacheService);
+    }
+}
@@ -0,0 +1,64 @@
+package vn.com.vpbank.chatbot.config;
+
+import io.github.resilience4j.core.registry.EntryAddedEvent;
+import io.github.resilience4j.core.registry.EntryRemovedEvent;
+import io.github.resilience4j.core.registry.EntryReplacedEvent;
+import io.github.resilience4j.core.registry.RegistryEventConsumer;
+import io.github.resilience4j.retry.Retry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.retry.RetryCallback;
+import org.springframework.retry.RetryContext;
+import org.springframework.retry.RetryListener;
+import org.springframework.retry.support.RetryTemplate;
+
+/**
+ * Counter chatbot.retries (client): lời gọi ra ngoài lỗi trong vòng retry. Resilience4j: mỗi lần thử lại;
+ * RetryTemplate của Spring AI chỉ báo lần thử lỗi nên đếm cả lần lỗi cuối cùng.
+ * Các metric còn lại khai báo tại nơi đo (ChatbotService, HybridSearchService, IngestPipeline, DocumentChunkingService).
+ */
+@Configuration
+public class MetricsConfig {
+    private static final String RETRY_COUNTER = "chatbot.retries";
+
+    // Retry resilience4j khai báo trong application.yml (vectorStoreRetry: upsert/xoá trên vector store)
+    @Bean
+    public RegistryEventConsumer<Retry> retryMetrics(MeterRegistry meterRegistry) {
+        return new RegistryEventConsumer<>() {
+            @Override
+            public void onEntryAddedEvent(EntryAddedEvent<Retry> event) {
+                Retry retry = event.getAddedEntry();
+                Counter counter = meterRegistry.counter(RETRY_COUNTER, "client", retry.getName());
+                retry.getEventPublisher().onRetry(retryEvent -> counter.increment());
+            }
+
+            @Override
+            public void onEntryRemovedEvent(EntryRemovedEvent<Retry> event) {
+            }
+
+            @Override
+            public void onEntryReplacedEvent(EntryReplacedEvent<Retry> event) {
+            }
+        };
+    }
+
+    // RetryTemplate của Spring AI dùng cho mọi request OpenAI (chat, embedding, OCR)
+    @Bean
+    public SmartInitializingSingleton openAiRetryMetrics(ObjectProvider<RetryTemplate> retryTemplates,
+                                                         MeterRegistry meterRegistry) {
+        return () -> retryTemplates.ifUnique(retryTemplate -> {
+            Counter counter = meterRegistry.counter(RETRY_COUNTER, "client", "openai");
+            retryTemplate.registerListener(new RetryListener() {
+                @Override
+                public <T, E extends Throwable> void onError(RetryContext context, RetryCallback<T, E> callback,
+                                                             Throwable throwable) {
+                    counter.increment();
+                }
+            });
+        });
+    }
+}
@@ -2,6 +2,8 @@ package vn.com.vpbank.chatbot.repositories;
 
 
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.mongodb.repository.Update;
 import org.springframework.stereotype.Repository;
 import vn.com.vpbank.chatbot.repositories.document.BookDocument;
 
@@ -10,9 +12,23 @@ import java.util.List;
 
 @Repository
 public interface BookDocumentRepository extends MongoRepository<BookDocument, String> {
+    // Document ghi trước khi có HtmlContentStore còn HTML inline: không kéo về khi chỉ cần metadata
+    String WITHOUT_HTML = "{ 'htmlContent' : 0 }";
+
+    // Regex không neo => quét cả collection; tra cứu theo tên/tác giả dùng BookCatalogService (có index)
+    @Query(fields = WITHOUT_HTML)
     List<BookDocument> findByTitleContainingIgnoreCase(String title);
 
+    @Query(fields = WITHOUT_HTML)
     List<BookDocument> findByAuthorContainingIgnoreCase(String author);
 
+    @Query(fields = WITHOUT_HTML)
     BookDocument findBySourceUrl(String sourceUrl);
+
+    @Query(value = "{ '_id' : ?0 }", fields = WITHOUT_HTML)
+    BookDocument findMetadataById(String id);
+
+    @Query("{ '_id' : ?0 }")
+    @Update("{ '$set' : { 'vectorIds' : ?1, 'chunkSize' : ?2, 'tokenCount' : ?3 } }")
+    void updateVectorIds(String id, List<String> vectorIds, int chunkSize, long tokenCount);
 }
@@ -0,0 +1,11 @@
+package vn.com.vpbank.chatbot.repositories;
+
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+import vn.com.vpbank.chatbot.repositories.document.EmbeddingCacheDocument;
+
+
+@Repository
+public interface EmbeddingCacheRepository extends MongoRepository<EmbeddingCacheDocument, String> {
+}
@@ -0,0 +1,14 @@
+package vn.com.vpbank.chatbot.repositories;
+
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+import vn.com.vpbank.chatbot.repositories.document.IngestJobDocument;
+
+import java.util.List;
+
+@Repository
+public interface IngestJobRepository extends MongoRepository<IngestJobDocument, String> {
+
+    List<IngestJobDocument> findByStatus(String status);
+}
@@ -9,6 +9,7 @@ import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDateTime;
+import java.util.List;
 
 @Data
 @Builder
@@ -21,10 +22,20 @@ public class BookDocument {
     private String id;
     private String title;
     private String author;
+    // title/author không dấu, viết thường (Utils.foldForSearch): index cho /books
+    private String titleKey;
+    private String authorKey;
     private String outline;
-    private String htmlContent;
+    // sha256 HTML gốc trong HtmlContentStore (nén, lưu ngoài collection này); đọc lại khi reindex
+    private String contentHash;
+    // số byte UTF-8 của HTML gốc
+    private int contentLength;
     private String sourceUrl;
     private int chunkSize;
+    // point id các chunk đang nằm trên vector store, dùng để diff khi re-ingest
+    private List<String> vectorIds;
+    // tổng token cl100k của các chunk, ước lượng chi phí embedding của document
+    private long tokenCount;
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
 }
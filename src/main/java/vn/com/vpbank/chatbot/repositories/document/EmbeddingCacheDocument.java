@@ -0,0 +1,28 @@
+package vn.com.vpbank.chatbot.repositories.document;
+
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "embedding_cache")
+public class EmbeddingCacheDocument {
+
+    // sha256(model + normalized content)
+    @Id
+    private String id;
+    private String model;
+    private int dimensions;
+    // float[] little-endian, gọn hơn nhiều so với mảng double của BSON
+    private byte[] vector;
+    private LocalDateTime createdAt;
+}
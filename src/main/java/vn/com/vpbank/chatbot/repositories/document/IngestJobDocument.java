@@ -0,0 +1,60 @@
+package vn.com.vpbank.chatbot.repositories.document;
+
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "ingest_jobs")
+public class IngestJobDocument {
+
+    @Id
+    private String id;
+    private String name;
+    private String status;
+    // kích thước upload và số byte đã đọc, dùng ước lượng tổng số document khi zip chưa đọc hết
+    private long totalBytes;
+    private long bytesRead;
+    private boolean readerDone;
+
+    private long queued;
+    private long parsed;
+    private long chunked;
+    private long embedded;
+    private long stored;
+    private long failed;
+
+    private long totalChunks;
+    // token cl100k của các chunk đã tạo
+    private long totalTokens;
+    private long embeddedChunks;
+    private long storedChunks;
+
+    private List<Failure> failures;
+
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+    private LocalDateTime lastProgressAt;
+    private LocalDateTime finishedAt;
+
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Failure {
+        private String fileName;
+        private String stage;
+        private String reason;
+        private LocalDateTime at;
+    }
+}
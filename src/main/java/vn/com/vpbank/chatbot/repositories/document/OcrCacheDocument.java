@@ -0,0 +1,30 @@
+package vn.com.vpbank.chatbot.repositories.document;
+
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "ocr_cache")
+public class OcrCacheDocument {
+
+    // imageHash + ":" + model
+    @Id
+    private String id;
+    // sha256 nội dung ảnh gốc: cùng ảnh ở URL khác vẫn trúng cache
+    private String imageHash;
+    private String model;
+    // src của lần OCR đầu tiên, chỉ để tra cứu
+    private String imageUrl;
+    private String text;
+    private LocalDateTime createdAt;
+}
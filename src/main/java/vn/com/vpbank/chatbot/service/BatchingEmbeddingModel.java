@@ -0,0 +1,263 @@
+package vn.com.vpbank.chatbot.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingOptionsBuilder;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import vn.com.vpbank.chatbot.util.FanOut;
+import vn.com.vpbank.chatbot.util.Tokenizer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * EmbeddingModel gom text của mọi lời gọi đồng thời (nhiều document đang ingest) thành request lớn nhất có thể:
+ * batch được gửi khi đủ số input hoặc số token tối đa của một request, hoặc khi đã chờ quá linger.
+ * Số request đồng thời tới provider bị giới hạn; trong lúc chờ, text mới tiếp tục dồn lại cho batch sau
+ * nên tải càng cao batch càng đầy. Vector trả về đúng lời gọi, đúng thứ tự text.
+ * Text của một lời gọi là một nhóm FanOut: một batch chứa text của lời gọi bị lỗi (hoặc thread gọi bị interrupt)
+ * thì text còn lại của lời gọi đó bị huỷ và bỏ khỏi hàng đợi, không tốn request tới provider.
+ * Chỉ stage embed của ingest đi qua đây; embedding lúc chat gọi thẳng provider (EmbeddingConfig).
+ */
+@Slf4j
+public class BatchingEmbeddingModel implements EmbeddingModel, AutoCloseable {
+
+    private record Item(String text, int tokens, CompletableFuture<float[]> result) {
+    }
+
+    private final EmbeddingModel delegate;
+    private final Executor executor;
+    private final Semaphore requestSlots;
+    private final int maxInputs;
+    private final int maxTokens;
+    private final long lingerNanos;
+
+    private final BlockingQueue<Item> queue = new LinkedBlockingQueue<>();
+    private final Thread dispatcher;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong inputs = new AtomicLong();
+    private final AtomicLong tokens = new AtomicLong();
+    private final AtomicLong flushedOnInputs = new AtomicLong();
+    private final AtomicLong flushedOnTokens = new AtomicLong();
+    private final AtomicLong flushedOnLinger = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public BatchingEmbeddingModel(EmbeddingModel delegate, Executor executor, int maxConcurrentRequests,
+                                  int maxInputs, int maxTokens, long lingerMs) {
+        this.delegate = delegate;
+        this.executor = executor;
+        this.requestSlots = new Semaphore(maxConcurrentRequests);
+        this.maxInputs = maxInputs;
+        this.maxTokens = maxTokens;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMs);
+        this.dispatcher = new Thread(this::dispatchLoop, "EmbeddingBatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        EmbeddingOptions options = request.getOptions();
+        if (options != null && (options.getModel() != null || options.getDimensions() != null)) {
+            // Option riêng (model/dimensions khác mặc định) không gộp chung request với lời gọi khác được
+            return delegate.call(request);
+        }
+        if (!dispatcher.isAlive()) {
+            throw new IllegalStateException("Embedding batcher is closed");
+        }
+        List<String> texts = request.getInstructions();
+        List<CompletableFuture<float[]>> results = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            CompletableFuture<float[]> result = new CompletableFuture<>();
+            results.add(result);
+            queue.add(new Item(text, Math.min(Tokenizer.count(text), maxTokens), result));
+        }
+        try {
+            FanOut.awaitAll(results);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + texts.size() + " embeddings", e);
+        }
+        List<Embedding> embeddings = new ArrayList<>(texts.size());
+        for (int i = 0; i < results.size(); i++) {
+            embeddings.add(new Embedding(results.get(i).join(), i));
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+
+    /**
+     * Lấy text tiếp theo chưa bị huỷ (lời gọi của nó đã hỏng ở batch khác)
+     */
+    private Item next(long deadline) throws InterruptedException {
+        while (true) {
+            // Hết linger vẫn lấy tiếp các text đã có sẵn, chỉ không chờ thêm
+            long wait = deadline - System.nanoTime();
+            Item item = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+            if (item == null || !item.result().isDone()) {
+                return item;
+            }
+            cancelled.incrementAndGet();
+        }
+    }
+
+    private Item take() throws InterruptedException {
+        while (true) {
+            Item item = queue.take();
+            if (!item.result().isDone()) {
+                return item;
+            }
+            cancelled.incrementAndGet();
+        }
+    }
+
+    private void dispatchLoop() {
+        Item carry = null;
+        List<Item> batch = new ArrayList<>();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                // Chờ có slot trước rồi mới gom: trong lúc mọi request đang chạy, text mới dồn lại trong hàng đợi
+                requestSlots.acquire();
+                batch = new ArrayList<>();
+                Item first = carry != null && !carry.result().isDone() ? carry : take();
+                carry = null;
+                batch.add(first);
+                int batchTokens = first.tokens();
+                long deadline = System.nanoTime() + lingerNanos;
+                AtomicLong reason = flushedOnLinger;
+                while (true) {
+                    if (batch.size() >= maxInputs) {
+                        reason = flushedOnInputs;
+                        break;
+                    }
+                    Item next = next(deadline);
+                    if (next == null) {
+                        break;
+                    }
+                    if (batchTokens + next.tokens() > maxTokens) {
+                        carry = next;
+                        reason = flushedOnTokens;
+                        break;
+                    }
+                    batch.add(next);
+                    batchTokens += next.tokens();
+                }
+                reason.incrementAndGet();
+                send(batch, batchTokens);
+                batch = List.of();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Đóng batcher: text còn lại không bao giờ được gửi
+        IllegalStateException closed = new IllegalStateException("Embedding batcher is closed");
+        batch.forEach(item -> item.result().completeExceptionally(closed));
+        if (carry != null) {
+            carry.result().completeExceptionally(closed);
+        }
+        List<Item> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        remaining.forEach(item -> item.result().completeExceptionally(closed));
+    }
+
+    private void send(List<Item> batch, int batchTokens) {
+        inFlight.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                try {
+                    embed(batch, batchTokens);
+                } finally {
+                    inFlight.decrementAndGet();
+                    requestSlots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            requestSlots.release();
+            failures.incrementAndGet();
+            batch.forEach(item -> item.result().completeExceptionally(e));
+        }
+    }
+
+    private void embed(List<Item> queued, int queuedTokens) {
+        // Lời gọi có thể đã hỏng/bị huỷ trong lúc batch chờ executor: không gửi text của nó nữa
+        List<Item> batch = queued.stream().filter(item -> !item.result().isDone()).toList();
+        cancelled.addAndGet(queued.size() - batch.size());
+        if (batch.isEmpty()) {
+            return;
+        }
+        int batchTokens = batch.size() == queued.size() ? queuedTokens : batch.stream().mapToInt(Item::tokens).sum();
+        try {
+            List<String> texts = batch.stream().map(Item::text).toList();
+            EmbeddingResponse response = delegate.call(
+                    new EmbeddingRequest(texts, EmbeddingOptionsBuilder.builder().build()));
+            requests.incrementAndGet();
+            inputs.addAndGet(batch.size());
+            tokens.addAndGet(batchTokens);
+            List<Embedding> results = response.getResults();
+            for (int i = 0; i < results.size(); i++) {
+                Embedding embedding = results.get(i);
+                int index = embedding.getIndex() != null ? embedding.getIndex() : i;
+                batch.get(index).result().complete(embedding.getOutput());
+            }
+            IllegalStateException missing = new IllegalStateException("Embedding response has "
+                    + results.size() + " vectors for " + batch.size() + " inputs");
+            batch.forEach(item -> item.result().completeExceptionally(missing));
+            log.debug("Embedded batch of {} inputs, {} tokens", batch.size(), batchTokens);
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            batch.forEach(item -> item.result().completeExceptionally(e));
+        }
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getFormattedContent(MetadataMode.EMBED));
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    @Override
+    public void close() {
+        dispatcher.interrupt();
+    }
+
+    public Map<String, Object> getStats() {
+        long requestCount = requests.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("requests", requestCount);
+        stats.put("inputs", inputs.get());
+        stats.put("tokens", tokens.get());
+        stats.put("avgInputsPerRequest", requestCount == 0 ? 0 : (double) inputs.get() / requestCount);
+        stats.put("avgTokensPerRequest", requestCount == 0 ? 0 : (double) tokens.get() / requestCount);
+        stats.put("flushedOnInputs", flushedOnInputs.get());
+        stats.put("flushedOnTokens", flushedOnTokens.get());
+        stats.put("flushedOnLinger", flushedOnLinger.get());
+        stats.put("failures", failures.get());
+        stats.put("cancelledInputs", cancelled.get());
+        stats.put("queued", queue.size());
+        stats.put("inFlightRequests", inFlight.get());
+        return stats;
+    }
+}
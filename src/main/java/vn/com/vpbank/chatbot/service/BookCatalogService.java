@@ -0,0 +1,216 @@
+package vn.com.vpbank.chatbot.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.TextIndexDefinition;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import vn.com.vpbank.chatbot.repositories.document.BookDocument;
+import vn.com.vpbank.chatbot.util.Utils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Tra cứu sách cho client chọn phạm vi chat (sourceUrl của sách là giá trị của sourceIds trong SearchSpec),
+ * luôn đi qua index:
+ * <ul>
+ *     <li>q: text index (language none) trên titleKey/authorKey, mọi từ phải có mặt</li>
+ *     <li>title/author: tiền tố của titleKey/authorKey (regex neo ^ dùng được index)</li>
+ * </ul>
+ * Khoá đều không dấu, viết thường (Utils.foldForSearch) nên gõ không dấu vẫn khớp.
+ * Phân trang bằng cursor (titleKey, _id) thay vì skip; chỉ trả các field nhẹ, không bao giờ kèm HTML.
+ */
+@Service
+@Slf4j
+public class BookCatalogService {
+
+    public static final int MAX_LIMIT = 100;
+    private static final int BACKFILL_BATCH = 1000;
+
+    /**
+     * @param id        id của BookDocument (Mongo)
+     * @param sourceUrl sourceId của các chunk trên vector store/BM25: giá trị truyền vào sourceIds của SearchSpec
+     */
+    public record BookSummary(String id, String title, String author, String sourceUrl, int chunkSize,
+                              long tokenCount, LocalDateTime updatedAt) {
+    }
+
+    /**
+     * @param nextCursor null nếu đã hết kết quả
+     */
+    public record Page(List<BookSummary> items, String nextCursor) {
+    }
+
+    private record Cursor(String titleKey, String id) {
+    }
+
+    private final MongoTemplate mongoTemplate;
+
+    public BookCatalogService(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * @throws IllegalArgumentException cursor không hợp lệ hoặc limit ngoài 1..MAX_LIMIT
+     */
+    public Page search(String q, String title, String author, String cursor, int limit) {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("limit phải trong khoảng 1.." + MAX_LIMIT);
+        }
+        Query query = new Query();
+        if (q != null && !q.isBlank()) {
+            TextCriteria text = TextCriteria.forLanguage("none");
+            // Mỗi từ là một phrase => phải có đủ mọi từ, không phải chỉ một trong số đó
+            for (String term : Utils.foldForSearch(q).split(" ")) {
+                if (!term.isEmpty()) {
+                    text.matchingPhrase(term);
+                }
+            }
+            query.addCriteria(text);
+        }
+        List<Criteria> criteria = new ArrayList<>();
+        if (title != null && !title.isBlank()) {
+            criteria.add(Criteria.where("titleKey").regex(prefix(title)));
+        }
+        if (author != null && !author.isBlank()) {
+            criteria.add(Criteria.where("authorKey").regex(prefix(author)));
+        }
+        if (cursor != null && !cursor.isBlank()) {
+            Cursor after = decode(cursor);
+            criteria.add(new Criteria().orOperator(
+                    Criteria.where("titleKey").gt(after.titleKey()),
+                    Criteria.where("titleKey").is(after.titleKey()).and("_id").gt(new ObjectId(after.id()))));
+        }
+        if (!criteria.isEmpty()) {
+            query.addCriteria(new Criteria().andOperator(criteria));
+        }
+        query.with(Sort.by(Sort.Order.asc("titleKey"), Sort.Order.asc("_id")));
+        // Lấy dư một bản ghi để biết còn trang sau hay không
+        query.limit(limit + 1);
+        query.fields().include("title", "author", "titleKey", "sourceUrl", "chunkSize", "tokenCount", "updatedAt");
+
+        List<BookDocument> found = mongoTemplate.find(query, BookDocument.class);
+        boolean hasMore = found.size() > limit;
+        List<BookDocument> page = hasMore ? found.subList(0, limit) : found;
+        List<BookSummary> items = page.stream()
+                .map(doc -> new BookSummary(doc.getId(), doc.getTitle(), doc.getAuthor(), doc.getSourceUrl(),
+                        doc.getChunkSize(), doc.getTokenCount(), doc.getUpdatedAt()))
+                .toList();
+        String nextCursor = null;
+        if (hasMore) {
+            BookDocument last = page.get(page.size() - 1);
+            nextCursor = encode(new Cursor(last.getTitleKey(), last.getId()));
+        }
+        return new Page(items, nextCursor);
+    }
+
+    /**
+     * Regex tiền tố chỉ gồm ký tự thường (ký tự đặc biệt được escape từng cái, không dùng \Q..\E)
+     * để Mongo dùng được khoảng index chặt trên titleKey/authorKey
+     */
+    private static String prefix(String value) {
+        String folded = Utils.foldForSearch(value);
+        StringBuilder regex = new StringBuilder("^");
+        for (int i = 0; i < folded.length(); i++) {
+            char c = folded.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != ' ') {
+                regex.append('\\');
+            }
+            regex.append(c);
+        }
+        return regex.toString();
+    }
+
+    private static String encode(Cursor cursor) {
+        String raw = cursor.id() + ":" + (cursor.titleKey() == null ? "" : cursor.titleKey());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Cursor decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.indexOf(':');
+            String id = raw.substring(0, separator);
+            if (!ObjectId.isValid(id)) {
+                throw new IllegalArgumentException("cursor không hợp lệ");
+            }
+            return new Cursor(raw.substring(separator + 1), id);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("cursor không hợp lệ");
+        }
+    }
+
+    /**
+     * Tạo index và điền titleKey/authorKey cho document ghi trước khi có catalog, trên thread riêng:
+     * Mongo chưa sẵn sàng lúc khởi động không chặn ứng dụng
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void prepareCatalog() {
+        Thread thread = new Thread(() -> {
+            ensureIndexes();
+            backfillKeys();
+        }, "BookCatalogInit");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void ensureIndexes() {
+        try {
+            IndexOperations indexes = mongoTemplate.indexOps(BookDocument.class);
+            indexes.ensureIndex(TextIndexDefinition.builder()
+                    .named("catalog_text")
+                    .withDefaultLanguage("none")
+                    .onField("titleKey", 3F)
+                    .onField("authorKey")
+                    .build());
+            indexes.ensureIndex(new Index().on("titleKey", Sort.Direction.ASC).on("_id", Sort.Direction.ASC)
+                    .named("catalog_title"));
+            indexes.ensureIndex(new Index().on("authorKey", Sort.Direction.ASC).on("titleKey", Sort.Direction.ASC)
+                    .named("catalog_author"));
+            log.info("Catalog indexes ready on book_documents");
+        } catch (Exception e) {
+            log.warn("Cannot create catalog indexes on book_documents: {}", e.getMessage());
+        }
+    }
+
+    private void backfillKeys() {
+        long updated = 0;
+        try {
+            while (true) {
+                Query missing = Query.query(Criteria.where("titleKey").exists(false)).limit(BACKFILL_BATCH);
+                missing.fields().include("title", "author");
+                List<BookDocument> documents = mongoTemplate.find(missing, BookDocument.class);
+                if (documents.isEmpty()) {
+                    break;
+                }
+                BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, BookDocument.class);
+                for (BookDocument document : documents) {
+                    operations.updateOne(Query.query(Criteria.where("_id").is(document.getId())), new Update()
+                            .set("titleKey", Utils.foldForSearch(document.getTitle()))
+                            .set("authorKey", Utils.foldForSearch(document.getAuthor())));
+                }
+                operations.execute();
+                updated += documents.size();
+            }
+            if (updated > 0) {
+                log.info("Backfilled catalog keys for {} book documents", updated);
+            }
+        } catch (Exception e) {
+            log.warn("Catalog key backfill stopped after {} documents: {}", updated, e.getMessage());
+        }
+    }
+}
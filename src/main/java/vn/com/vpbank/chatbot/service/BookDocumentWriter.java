@@ -0,0 +1,344 @@
+package vn.com.vpbank.chatbot.service;
+
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import vn.com.vpbank.chatbot.repositories.document.BookDocument;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Ghi metadata BookDocument theo lô: document của mọi worker stage parse dồn vào hàng đợi, mỗi lô là một lần find
+ * (lấy id + vectorIds của document đã có) và một bulkWrite unordered gồm các upsert theo sourceUrl,
+ * thay vì findBySourceUrl + save cho từng document. HTML gốc của cả lô được ghi vào HtmlContentStore ngay trước đó,
+ * HTML cũ của document có nội dung đổi được xoá ngay sau đó nếu không còn document nào dùng.
+ * Lô được gửi khi đủ max-size hoặc đã chờ quá linger;
+ * trong lúc một lô đang ghi, document mới tiếp tục dồn lại cho lô sau.
+ * Unique index trên sourceUrl được tạo khi khởi động: hai upload cùng file không tạo ra hai BookDocument,
+ * upsert thua trong cuộc đua (duplicate key) được thử lại một lần và khớp vào document đã có.
+ */
+@Service
+@Slf4j
+public class BookDocumentWriter {
+
+    private static final String SOURCE_URL = "sourceUrl";
+    private static final int DUPLICATE_KEY = 11000;
+
+    /**
+     * @param previousVectorIds vectorIds của document trước lần ghi này; null nếu document mới được tạo hoặc chưa biết
+     *                          (document vừa được item khác trong cùng lô tạo, vector của nó có thể đang ghi)
+     * @param created           lần ghi này tạo document
+     */
+    public record Saved(BookDocument document, List<String> previousVectorIds, boolean created) {
+    }
+
+    private record Item(BookDocument document, HtmlContentStore.Blob content, CompletableFuture<Saved> result) {
+    }
+
+    private final MongoTemplate mongoTemplate;
+    private final HtmlContentStore contentStore;
+    private final int maxBatchSize;
+    private final long lingerNanos;
+
+    private final BlockingQueue<Item> queue = new LinkedBlockingQueue<>();
+    private final Thread dispatcher;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong documents = new AtomicLong();
+    private final AtomicLong inserted = new AtomicLong();
+    private final AtomicLong updated = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong writeNanos = new AtomicLong();
+
+    public BookDocumentWriter(MongoTemplate mongoTemplate,
+                              HtmlContentStore contentStore,
+                              @Value("${ingest.metadata.batch.max-size:500}") int maxBatchSize,
+                              @Value("${ingest.metadata.batch.linger-ms:20}") long lingerMs) {
+        this.mongoTemplate = mongoTemplate;
+        this.contentStore = contentStore;
+        this.maxBatchSize = maxBatchSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMs);
+        this.dispatcher = new Thread(this::dispatchLoop, "BookDocumentWriter");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * Đưa document vào lô ghi tiếp theo, không chờ
+     *
+     * @param content HTML gốc đã nén, ghi vào HtmlContentStore trước metadata
+     * @return document đã có id (cùng object truyền vào) khi lô chứa nó ghi xong
+     */
+    public CompletableFuture<Saved> upsert(BookDocument document, HtmlContentStore.Blob content) {
+        CompletableFuture<Saved> result = new CompletableFuture<>();
+        if (!dispatcher.isAlive()) {
+            result.completeExceptionally(new IllegalStateException("Book document writer is closed"));
+            return result;
+        }
+        queue.add(new Item(document, content, result));
+        return result;
+    }
+
+    private void dispatchLoop() {
+        // Chạy trên thread của writer: Mongo chưa sẵn sàng lúc khởi động không chặn ứng dụng
+        ensureSourceUrlIndex();
+        List<Item> batch = new ArrayList<>();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                batch = new ArrayList<>();
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < maxBatchSize) {
+                    long wait = deadline - System.nanoTime();
+                    // Hết linger vẫn lấy tiếp các document đã có sẵn, chỉ không chờ thêm
+                    Item next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                write(batch);
+                batch = List.of();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        IllegalStateException closed = new IllegalStateException("Book document writer is closed");
+        batch.forEach(item -> item.result().completeExceptionally(closed));
+        List<Item> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        remaining.forEach(item -> item.result().completeExceptionally(closed));
+    }
+
+    private void ensureSourceUrlIndex() {
+        try {
+            mongoTemplate.indexOps(BookDocument.class)
+                    .ensureIndex(new Index(SOURCE_URL, Sort.Direction.ASC).unique().named("sourceUrl_unique"));
+            log.info("Unique index ready on book_documents.sourceUrl");
+        } catch (Exception e) {
+            // Thường do collection đang có sourceUrl trùng: ghi vẫn chạy, chỉ chưa có ràng buộc chống trùng
+            log.warn("Cannot create unique index on book_documents.sourceUrl: {}", e.getMessage());
+        }
+    }
+
+    private void write(List<Item> batch) {
+        long start = System.nanoTime();
+        try {
+            // Nội dung phải có trước khi metadata trỏ tới contentHash
+            contentStore.storeAll(batch.stream().map(Item::content).toList());
+            Map<String, BookDocument> existing = findExisting(batch);
+            Set<String> replacedContent = replacedContent(batch, existing);
+            // Cùng sourceUrl xuất hiện nhiều lần trong lô => cùng một id
+            Map<String, String> ids = new HashMap<>();
+            existing.forEach((url, doc) -> ids.put(url, doc.getId()));
+            for (Item item : batch) {
+                ids.computeIfAbsent(item.document().getSourceUrl(), url -> new ObjectId().toHexString());
+            }
+
+            List<Item> retry = execute(batch, ids, existing, true);
+            if (!retry.isEmpty()) {
+                execute(retry, ids, existing, false);
+            }
+            releaseContent(replacedContent);
+            batches.incrementAndGet();
+            documents.addAndGet(batch.size());
+            log.debug("Wrote {} book documents in one bulk", batch.size());
+        } catch (Exception e) {
+            batch.forEach(item -> fail(item, e));
+        } finally {
+            writeNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return các item thua cuộc đua insert (duplicate key), cần ghi lại như update
+     */
+    private List<Item> execute(List<Item> items, Map<String, String> ids, Map<String, BookDocument> existing,
+                               boolean firstAttempt) {
+        LocalDateTime now = LocalDateTime.now();
+        BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, BookDocument.class);
+        for (Item item : items) {
+            BookDocument document = item.document();
+            Update update = new Update()
+                    .set("title", document.getTitle())
+                    .set("author", document.getAuthor())
+                    .set("titleKey", document.getTitleKey())
+                    .set("authorKey", document.getAuthorKey())
+                    .set("outline", document.getOutline())
+                    .set("contentHash", document.getContentHash())
+                    .set("contentLength", document.getContentLength())
+                    // Document ghi trước khi có content store: bỏ HTML inline khi ingest lại
+                    .unset("htmlContent")
+                    .set("updatedAt", now)
+                    .setOnInsert("_id", new ObjectId(ids.get(document.getSourceUrl())))
+                    .setOnInsert("chunkSize", 0)
+                    .setOnInsert("tokenCount", 0L)
+                    .setOnInsert("createdAt", now);
+            operations.upsert(Query.query(Criteria.where(SOURCE_URL).is(document.getSourceUrl())), update);
+        }
+
+        BulkWriteResult result;
+        Map<Integer, BulkWriteError> errors = new HashMap<>();
+        try {
+            result = operations.execute();
+        } catch (BulkOperationException e) {
+            // Unordered: các thao tác khác trong lô vẫn được ghi, chỉ xử lý lại những cái lỗi
+            result = e.getResult();
+            e.getErrors().forEach(error -> errors.put(error.getIndex(), error));
+        }
+        Set<Integer> upserted = result.getUpserts().stream()
+                .map(BulkWriteUpsert::getIndex)
+                .collect(Collectors.toSet());
+
+        Set<String> insertedUrls = new HashSet<>();
+        upserted.forEach(index -> insertedUrls.add(items.get(index).document().getSourceUrl()));
+
+        List<Item> retry = new ArrayList<>();
+        List<Item> unresolved = new ArrayList<>();
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            BulkWriteError error = errors.get(i);
+            if (error != null) {
+                if (error.getCode() == DUPLICATE_KEY && firstAttempt) {
+                    retried.incrementAndGet();
+                    retry.add(item);
+                } else {
+                    fail(item, new IllegalStateException(error.getMessage()));
+                }
+                continue;
+            }
+            String url = item.document().getSourceUrl();
+            BookDocument previous = existing.get(url);
+            if (previous != null) {
+                updated.incrementAndGet();
+                complete(item, previous.getId(), previous.getVectorIds(), false);
+            } else if (upserted.contains(i)) {
+                inserted.incrementAndGet();
+                complete(item, ids.get(url), null, true);
+            } else if (insertedUrls.contains(url)) {
+                // Item khác cùng sourceUrl trong lô này tạo document => đây là update của nó, id đã biết
+                updated.incrementAndGet();
+                complete(item, ids.get(url), null, false);
+            } else {
+                // Instance khác tạo document sau lúc find => id thật phải đọc lại
+                unresolved.add(item);
+            }
+        }
+        if (!unresolved.isEmpty() || !retry.isEmpty()) {
+            List<Item> reload = new ArrayList<>(unresolved);
+            reload.addAll(retry);
+            // Lần thử lại là update vào document đang có: id và vectorIds lấy theo nó
+            findExisting(reload).forEach((url, doc) -> {
+                existing.put(url, doc);
+                ids.put(url, doc.getId());
+            });
+            for (Item item : unresolved) {
+                BookDocument current = existing.get(item.document().getSourceUrl());
+                if (current == null) {
+                    fail(item, new IllegalStateException("Book document not found after upsert: "
+                            + item.document().getSourceUrl()));
+                } else {
+                    updated.incrementAndGet();
+                    complete(item, current.getId(), current.getVectorIds(), false);
+                }
+            }
+        }
+        return retry;
+    }
+
+    /**
+     * contentHash cũ của các document được ghi lại với nội dung khác
+     */
+    private static Set<String> replacedContent(List<Item> batch, Map<String, BookDocument> existing) {
+        Set<String> hashes = new HashSet<>();
+        for (Item item : batch) {
+            BookDocument previous = existing.get(item.document().getSourceUrl());
+            if (previous != null && previous.getContentHash() != null
+                    && !previous.getContentHash().equals(item.document().getContentHash())) {
+                hashes.add(previous.getContentHash());
+            }
+        }
+        return hashes;
+    }
+
+    private void releaseContent(Set<String> hashes) {
+        try {
+            // Hash vẫn được document khác (hoặc item lỗi của lô) trỏ tới thì giữ lại
+            contentStore.deleteUnreferenced(hashes);
+        } catch (Exception e) {
+            // Metadata đã ghi xong, blob thừa chỉ tốn chỗ
+            log.warn("Cannot delete replaced HTML content {}: {}", hashes, e.getMessage());
+        }
+    }
+
+    private Map<String, BookDocument> findExisting(List<Item> items) {
+        Set<String> urls = new HashSet<>();
+        items.forEach(item -> urls.add(item.document().getSourceUrl()));
+        Query query = Query.query(Criteria.where(SOURCE_URL).in(urls));
+        query.fields().include("_id", SOURCE_URL, "vectorIds", "contentHash");
+        Map<String, BookDocument> existing = new HashMap<>();
+        for (BookDocument document : mongoTemplate.find(query, BookDocument.class)) {
+            existing.put(document.getSourceUrl(), document);
+        }
+        return existing;
+    }
+
+    private void complete(Item item, String id, List<String> previousVectorIds, boolean created) {
+        BookDocument document = item.document();
+        document.setId(id);
+        item.result().complete(new Saved(document, previousVectorIds, created));
+    }
+
+    private void fail(Item item, Exception error) {
+        if (item.result().completeExceptionally(error)) {
+            failures.incrementAndGet();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        dispatcher.interrupt();
+    }
+
+    public Map<String, Object> getStats() {
+        long batchCount = batches.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("batches", batchCount);
+        stats.put("documents", documents.get());
+        stats.put("avgBatchSize", batchCount == 0 ? 0 : (double) documents.get() / batchCount);
+        stats.put("avgBatchWriteMs", batchCount == 0 ? 0 : writeNanos.get() / 1e6 / batchCount);
+        stats.put("inserted", inserted.get());
+        stats.put("updated", updated.get());
+        stats.put("retriedDuplicates", retried.get());
+        stats.put("failures", failures.get());
+        stats.put("queued", queue.size());
+        return stats;
+    }
+}
@@ -0,0 +1,119 @@
+package vn.com.vpbank.chatbot.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.embedding.EmbeddingResponseMetadata;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * EmbeddingModel bọc model thật: chunk đã từng embed (cùng nội dung, cùng model) lấy lại vector từ cache,
+ * chỉ phần miss mới gọi sang OpenAI.
+ * VectorStore (Qdrant, store nhúng) chỉ nhận text và tự gọi embed trên thread gọi nó: vector đã tính sẵn
+ * (câu hỏi đã embed cho semantic cache, chunk đã embed ở stage embed) được đưa vào qua withVectors.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class CachingEmbeddingModel implements EmbeddingModel {
+
+    // text -> vector đã tính sẵn, chỉ có hiệu lực trong withVectors trên thread hiện tại
+    private static final ThreadLocal<Map<String, float[]>> PRECOMPUTED = new ThreadLocal<>();
+
+    private final EmbeddingModel delegate;
+    private final EmbeddingCacheService cacheService;
+
+    /**
+     * Chạy work với các vector đã biết: lời gọi embed bên trong (cùng thread) lấy vector này theo đúng text,
+     * không qua cache hay API
+     */
+    public static <T> T withVectors(Map<String, float[]> vectors, Supplier<T> work) {
+        Map<String, float[]> outer = PRECOMPUTED.get();
+        PRECOMPUTED.set(vectors);
+        try {
+            return work.get();
+        } finally {
+            if (outer == null) {
+                PRECOMPUTED.remove();
+            } else {
+                PRECOMPUTED.set(outer);
+            }
+        }
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        Map<String, float[]> precomputed = PRECOMPUTED.get();
+        if (precomputed == null && !cacheService.isEnabled()) {
+            return delegate.call(request);
+        }
+        List<String> texts = request.getInstructions();
+        List<String> keys = texts.stream().map(cacheService::cacheKey).toList();
+        Map<String, float[]> vectors = new HashMap<>();
+        if (precomputed != null) {
+            for (int i = 0; i < texts.size(); i++) {
+                float[] vector = precomputed.get(texts.get(i));
+                if (vector != null) {
+                    vectors.put(keys.get(i), vector);
+                }
+            }
+        }
+        if (cacheService.isEnabled() && vectors.size() < texts.size()) {
+            vectors.putAll(cacheService.getAll(keys.stream().filter(key -> !vectors.containsKey(key)).toList()));
+        }
+
+        // Gom các text chưa có vector, trùng key trong cùng request chỉ embed một lần
+        Map<String, String> missing = new LinkedHashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            if (!vectors.containsKey(keys.get(i))) {
+                missing.putIfAbsent(keys.get(i), texts.get(i));
+            }
+        }
+
+        EmbeddingResponseMetadata metadata = new EmbeddingResponseMetadata();
+        if (!missing.isEmpty()) {
+            List<String> missingKeys = new ArrayList<>(missing.keySet());
+            EmbeddingResponse response = delegate.call(
+                    new EmbeddingRequest(new ArrayList<>(missing.values()), request.getOptions()));
+            Map<String, float[]> fresh = new HashMap<>();
+            List<Embedding> results = response.getResults();
+            for (int i = 0; i < results.size(); i++) {
+                Embedding embedding = results.get(i);
+                int index = embedding.getIndex() != null ? embedding.getIndex() : i;
+                fresh.put(missingKeys.get(index), embedding.getOutput());
+            }
+            if (cacheService.isEnabled()) {
+                cacheService.putAll(fresh);
+            }
+            vectors.putAll(fresh);
+            metadata = response.getMetadata();
+        }
+        log.debug("Embedding request {} texts, {} served from cache", texts.size(), texts.size() - missing.size());
+
+        List<Embedding> embeddings = new ArrayList<>(texts.size());
+        for (int i = 0; i < keys.size(); i++) {
+            embeddings.add(new Embedding(vectors.get(keys.get(i)), i));
+        }
+        return new EmbeddingResponse(embeddings, metadata);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getFormattedContent(MetadataMode.EMBED));
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+}
@@ -1,18 +1,35 @@
 package vn.com.vpbank.chatbot.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.metadata.Usage;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.chat.prompt.PromptTemplate;
 import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import vn.com.vpbank.chatbot.bean.ChatAnswer;
+import vn.com.vpbank.chatbot.bean.ChatStream;
+import vn.com.vpbank.chatbot.bean.SearchSpec;
 
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Service
@@ -21,7 +38,25 @@ import java.util.stream.Collectors;
 public class ChatbotService {
 
     private final ChatModel chatModel;
-    private final VectorStoreService vectorStoreService;
+    private final HybridSearchService hybridSearchService;
+    private final SemanticCacheService semanticCacheService;
+    private final ContextAssembler contextAssembler;
+    private final MeterRegistry meterRegistry;
+
+    // Câu hỏi đang xử lý (sync): request giống hệt đến cùng lúc chờ chung kết quả thay vì gọi lại retrieval + LLM
+    private final Map<ChatKey, CompletableFuture<ChatAnswer>> inFlight = new ConcurrentHashMap<>();
+
+    @Value("${chat-coalescing.enabled:true}")
+    private boolean coalescingEnabled;
+    @Value("${chat-coalescing.timeout-ms:60000}")
+    private long coalescingTimeoutMs;
+
+    // stage: cache | retrieval | prompt | llm; mode: sync | stream
+    private static final String STAGE_TIMER = "chatbot.chat.stage";
+    // direction: in (prompt) | out (completion), theo usage OpenAI trả về
+    private static final String TOKEN_COUNTER = "chatbot.chat.tokens";
+    // request chờ kết quả của request giống hệt đang chạy; outcome: success | failure | timeout
+    private static final String COALESCED_COUNTER = "chatbot.chat.coalesced";
 
     private static final String SYSTEM_PROMPT_TEMPLATE = """
             Bạn là một trợ lý AI thông minh giúp trả lời câu hỏi dựa trên nội dung các cuốn sách.
@@ -41,104 +76,209 @@ public class ChatbotService {
             Trả lời:
             """;
 
-    public String chat(String userQuestion) {
-        try {
-            log.info("Processing question: {}", userQuestion);
-
-            // 1. Search for relevant documents
-            List<Document> relevantDocs = vectorStoreService.searchSimilar(userQuestion);
-            log.info("Found {} relevant documents", relevantDocs.size());
-
-            // 2. Build context from relevant documents
-            String context = buildContext(relevantDocs);
-
-            // 3. Create prompt with template
-            PromptTemplate promptTemplate = new PromptTemplate(SYSTEM_PROMPT_TEMPLATE);
-            Prompt prompt = promptTemplate.create(Map.of(
-                    "context", context,
-                    "question", userQuestion
-            ));
-
-            // 4. Get response from ChatModel
-            ChatResponse response = chatModel.call(prompt);
-            String answer = response.getResult().getOutput().getText();
-            log.info("answer: {}", answer);
-            log.info("Generated answer length: {} characters", answer.length());
-            return answer;
+    public static final String ERROR_ANSWER = "Xin lỗi, tôi gặp lỗi khi xử lý câu hỏi của bạn. Vui lòng thử lại sau.";
 
+    public ChatAnswer chat(String userQuestion, SearchSpec spec) {
+        try {
+            return coalescingEnabled ? coalesce(userQuestion, spec) : answer(userQuestion, spec);
         } catch (Exception e) {
             log.error("Error processing chat question: ", e);
-            return "Xin lỗi, tôi gặp lỗi khi xử lý câu hỏi của bạn. Vui lòng thử lại sau.";
+            return ChatAnswer.builder()
+                    .answer(ERROR_ANSWER)
+                    .cached(false)
+                    .sourceIds(Set.of())
+                    .build();
         }
     }
 
     /**
-     * Format documents khi trả về cho AI - KHÔNG trùng lặp với chunking
+     * Single-flight theo câu hỏi đã chuẩn hoá + tham số search: request đầu tiên xử lý, các request giống hệt
+     * đến trong lúc đó chờ tối đa chat-coalescing.timeout-ms rồi dùng chung câu trả lời hoặc lỗi của nó
      */
-    public String buildContext(List<Document> documents) {
-        if (documents.isEmpty()) {
-            return "Không có thông tin liên quan.";
+    private ChatAnswer coalesce(String userQuestion, SearchSpec spec) throws Exception {
+        ChatKey key = new ChatKey(SemanticCacheService.normalizeQuestion(userQuestion), spec);
+        CompletableFuture<ChatAnswer> call = new CompletableFuture<>();
+        CompletableFuture<ChatAnswer> existing = inFlight.putIfAbsent(key, call);
+        if (existing != null) {
+            return await(existing);
         }
+        try {
+            ChatAnswer answer = answer(userQuestion, spec);
+            call.complete(answer);
+            return answer;
+        } catch (Throwable e) {
+            // Cả Error: request đang chờ nhận lỗi ngay thay vì chờ hết timeout
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, call);
+        }
+    }
 
-        // Group theo source để tránh duplicate
-        Map<String, List<Document>> groupedBySource = documents.stream()
-                .collect(Collectors.groupingBy(this::getSourceKey
-                ));
+    private ChatAnswer await(CompletableFuture<ChatAnswer> call) throws Exception {
+        String outcome = "failure";
+        try {
+            ChatAnswer answer = call.get(coalescingTimeoutMs, TimeUnit.MILLISECONDS);
+            outcome = "success";
+            return answer;
+        } catch (TimeoutException e) {
+            outcome = "timeout";
+            throw e;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        } finally {
+            meterRegistry.counter(COALESCED_COUNTER, "outcome", outcome).increment();
+        }
+    }
+
+    private ChatAnswer answer(String userQuestion, SearchSpec spec) {
+        log.info("Processing question: {}", userQuestion);
+
+        // 0. Semantic cache: câu hỏi tương tự đã trả lời thì dùng lại
+        CacheProbe probe = timed("cache", "sync", () -> probeCache(userQuestion, spec));
+        if (probe.hit() != null) {
+            return probe.hit();
+        }
+
+        // 1. Search for relevant documents (vector + BM25); vector câu hỏi đã embed lúc tra cache được dùng lại
+        List<Document> relevantDocs = timed("retrieval", "sync",
+                () -> hybridSearchService.search(userQuestion, probe.questionVector(), spec));
+        log.info("Found {} relevant documents", relevantDocs.size());
+
+        // 2-3. Build context (MMR, token budget) and prompt
+        ContextAssembler.Context context = timed("prompt", "sync",
+                () -> contextAssembler.assemble(userQuestion, probe.questionVector(), relevantDocs));
+        Prompt prompt = buildPrompt(userQuestion, context);
 
-        return groupedBySource.entrySet().stream()
-                .map(this::formatSourceGroup)
-                .collect(Collectors.joining("\n---\n"));
+        // 4. Get response from ChatModel
+        ChatResponse response = timed("llm", "sync", () -> chatModel.call(prompt));
+        recordTokens(response);
+        String answer = response.getResult().getOutput().getText();
+        log.info("answer: {}", answer);
+        log.info("Generated answer length: {} characters", answer.length());
+
+        Set<String> sourceIds = sourceIdsOf(context.documents());
+        cacheAnswer(probe, answer, sourceIds);
+        return ChatAnswer.builder()
+                .answer(answer)
+                .cached(false)
+                .sourceIds(sourceIds)
+                .build();
     }
 
-    private String getSourceKey(Document doc) {
-        String title = (String) doc.getMetadata().get("title");
-        String author = (String) doc.getMetadata().get("author");
-        return title + "|" + author;
+    /**
+     * Bản streaming của chat: retrieval chạy trên boundedElastic (không giữ thread Tomcat),
+     * nguồn tham khảo có ngay, câu trả lời đẩy dần theo token từ ChatModel.stream
+     */
+    public Mono<ChatStream> chatStream(String userQuestion, SearchSpec spec) {
+        return Mono.fromCallable(() -> prepareStream(userQuestion, spec))
+                .subscribeOn(Schedulers.boundedElastic());
     }
 
-    private String formatSourceGroup(Map.Entry<String, List<Document>> entry) {
-        List<Document> docs = entry.getValue();
-        Document firstDoc = docs.get(0);
+    private ChatStream prepareStream(String userQuestion, SearchSpec spec) {
+        log.info("Processing streaming question: {}", userQuestion);
+        CacheProbe probe = timed("cache", "stream", () -> probeCache(userQuestion, spec));
+        if (probe.hit() != null) {
+            return ChatStream.builder()
+                    .sources(List.of())
+                    .cached(true)
+                    .tokens(Flux.just(probe.hit().getAnswer()))
+                    .build();
+        }
 
-        String title = (String) firstDoc.getMetadata().get("title");
-        String author = (String) firstDoc.getMetadata().get("author");
+        List<Document> relevantDocs = timed("retrieval", "stream",
+                () -> hybridSearchService.search(userQuestion, probe.questionVector(), spec));
+        log.info("Found {} relevant documents", relevantDocs.size());
+        ContextAssembler.Context context = timed("prompt", "stream",
+                () -> contextAssembler.assemble(userQuestion, probe.questionVector(), relevantDocs));
+        Prompt prompt = buildPrompt(userQuestion, context);
 
-        // Gộp content của các chunks từ cùng source
-        String combinedContent = docs.stream()
-                .map(Document::getFormattedContent)
-                .collect(Collectors.joining(" "));
+        StringBuilder answer = new StringBuilder();
+        Timer llmTimer = meterRegistry.timer(STAGE_TIMER, "stage", "llm", "mode", "stream");
+        // Tính từ lúc client subscribe tới token cuối (hoặc lỗi/huỷ)
+        Flux<String> tokens = Flux.defer(() -> {
+                    Timer.Sample sample = Timer.start(meterRegistry);
+                    return chatModel.stream(prompt).doFinally(signal -> sample.stop(llmTimer));
+                })
+                .doOnNext(this::recordTokens)
+                .map(this::textOf)
+                .filter(text -> !text.isEmpty())
+                .doOnNext(answer::append)
+                // chỉ cache khi stream chạy hết, client ngắt giữa chừng thì bỏ
+                .doOnComplete(() -> cacheAnswer(probe, answer.toString(), sourceIdsOf(context.documents())));
+        return ChatStream.builder()
+                .sources(context.documents())
+                .cached(false)
+                .tokens(tokens)
+                .build();
+    }
 
-        // Remove duplicates và clean
-        String cleanContent = removeDuplicateSentences(combinedContent);
+    private CacheProbe probeCache(String userQuestion, SearchSpec spec) {
+        // Cache không phân biệt tham số search: câu hỏi có filter/topK riêng luôn đi retrieval
+        if (!semanticCacheService.isEnabled() || !spec.isDefault()) {
+            return new CacheProbe(null, null, null, 0);
+        }
+        long cacheVersion = semanticCacheService.currentVersion();
+        String normalizedQuestion = SemanticCacheService.normalizeQuestion(userQuestion);
+        float[] questionVector = semanticCacheService.embedQuestion(normalizedQuestion);
+        Optional<ChatAnswer> cached = semanticCacheService.lookup(normalizedQuestion, questionVector);
+        cached.ifPresent(hit -> log.info("Semantic cache hit, similarity: {}", hit.getSimilarity()));
+        return new CacheProbe(normalizedQuestion, questionVector, cached.orElse(null), cacheVersion);
+    }
 
-        StringBuilder result = new StringBuilder();
-        if (title != null && !"Unknown Title".equals(title)) {
-            result.append("📚 ").append(title);
-            if (author != null && !"Unknown Author".equals(author)) {
-                result.append(" - ").append(author);
-            }
-            result.append("\\n ");
+    private void cacheAnswer(CacheProbe probe, String answer, Set<String> sourceIds) {
+        if (probe.questionVector() != null && !answer.isEmpty()) {
+            semanticCacheService.put(probe.normalizedQuestion(), probe.questionVector(), answer, sourceIds,
+                    probe.cacheVersion());
         }
+    }
 
-        result.append(cleanContent);
-        return result.toString();
+    private Prompt buildPrompt(String userQuestion, ContextAssembler.Context context) {
+        PromptTemplate promptTemplate = new PromptTemplate(SYSTEM_PROMPT_TEMPLATE);
+        return promptTemplate.create(Map.of(
+                "context", context.text(),
+                "question", userQuestion
+        ));
     }
 
-    /**
-     * Loại bỏ câu trùng lặp trong content
-     */
-    private String removeDuplicateSentences(String content) {
-        String[] sentences = content.split("\\. ");
-        Set<String> seen = new LinkedHashSet<>();
-
-        for (String sentence : sentences) {
-            String normalized = sentence.trim().toLowerCase();
-            if (normalized.length() > 20) { // Chỉ giữ câu có ý nghĩa
-                seen.add(sentence.trim());
-            }
+    private Set<String> sourceIdsOf(List<Document> documents) {
+        return documents.stream()
+                .map(doc -> (String) doc.getMetadata().get("sourceId"))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+    }
+
+    private <T> T timed(String stage, String mode, Supplier<T> work) {
+        return meterRegistry.timer(STAGE_TIMER, "stage", stage, "mode", mode).record(work);
+    }
+
+    private void recordTokens(ChatResponse response) {
+        if (response == null || response.getMetadata() == null || response.getMetadata().getUsage() == null) {
+            return;
+        }
+        // Stream: chỉ chunk cuối có usage (khi API trả về), các chunk khác là 0
+        Usage usage = response.getMetadata().getUsage();
+        if (usage.getPromptTokens() != null && usage.getPromptTokens() > 0) {
+            meterRegistry.counter(TOKEN_COUNTER, "direction", "in").increment(usage.getPromptTokens());
+        }
+        if (usage.getCompletionTokens() != null && usage.getCompletionTokens() > 0) {
+            meterRegistry.counter(TOKEN_COUNTER, "direction", "out").increment(usage.getCompletionTokens());
+        }
+    }
+
+    private String textOf(ChatResponse response) {
+        if (response == null || response.getResult() == null || response.getResult().getOutput() == null) {
+            return "";
         }
+        String text = response.getResult().getOutput().getText();
+        return text == null ? "" : text;
+    }
+
+    // cacheVersion: version của semantic cache trước khi search, put bỏ câu trả lời có source đã đổi sau đó
+    private record CacheProbe(String normalizedQuestion, float[] questionVector, ChatAnswer hit, long cacheVersion) {
+    }
 
-        return String.join(". ", seen);
+    private record ChatKey(String normalizedQuestion, SearchSpec spec) {
     }
 
 //    private String buildContext(List<Document> documents) {
@@ -0,0 +1,296 @@
+package vn.com.vpbank.chatbot.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import vn.com.vpbank.chatbot.util.Tokenizer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dựng ngữ cảnh cho prompt từ kết quả retrieval, trong một ngân sách token cố định:
+ * <ol>
+ *     <li>xếp chunk theo score retrieval (rrfScore, không có thì score vector)</li>
+ *     <li>chọn lần lượt bằng MMR trên embedding của câu hỏi và chunk (lấy lại từ embedding cache, không gọi API):
+ *     ưu tiên chunk liên quan nhưng khác các chunk đã chọn, bỏ chunk gần trùng, dừng khi hết ngân sách.
+ *     Độ liên quan trộn score retrieval (hạng RRF) với cosine tới câu hỏi, cả hai chuẩn hoá về [0,1] trên tập ứng viên:
+ *     chunk chỉ BM25 tìm ra (cosine thấp) vẫn giữ được thứ hạng mà hybrid search cho nó</li>
+ *     <li>gom theo sách, chunk có chunkIndex liền nhau được nối lại và cắt phần overlap của chunker</li>
+ * </ol>
+ */
+@Service
+@Slf4j
+public class ContextAssembler {
+
+    public static final String EMPTY_CONTEXT = "Không có thông tin liên quan.";
+    private static final String SOURCE_SEPARATOR = "\n---\n";
+    // Overlap ngắn hơn coi như trùng hợp ngẫu nhiên, không cắt
+    private static final int MIN_OVERLAP_CHARS = 16;
+
+    private final EmbeddingModel embeddingModel;
+
+    @Value("${context.max-tokens:2000}")
+    private int maxTokens = 2000;
+    // 1 => chỉ xét độ liên quan, 0 => chỉ xét độ khác biệt
+    @Value("${context.mmr-lambda:0.7}")
+    private double lambda = 0.7;
+    // trọng số của score retrieval trong độ liên quan: 1 => chỉ hạng RRF, 0 => chỉ cosine tới câu hỏi
+    @Value("${context.fused-relevance-weight:0.7}")
+    private double fusedWeight = 0.7;
+    // cosine với một chunk đã chọn từ ngưỡng này trở lên => bỏ
+    @Value("${context.duplicate-similarity:0.95}")
+    private double duplicateSimilarity = 0.95;
+
+    public ContextAssembler(EmbeddingModel embeddingModel) {
+        this.embeddingModel = embeddingModel;
+    }
+
+    /**
+     * @param text      ngữ cảnh đã format để đưa vào prompt
+     * @param documents chunk thực sự được dùng, theo thứ tự chọn
+     * @param tokens    số token của text
+     */
+    public record Context(String text, List<Document> documents, int tokens) {
+    }
+
+    public Context assemble(String question, List<Document> candidates) {
+        return assemble(question, null, candidates);
+    }
+
+    /**
+     * @param questionVector embedding của câu hỏi đã tính sẵn, null => embed lại (thường trúng embedding cache)
+     */
+    public Context assemble(String question, float[] questionVector, List<Document> candidates) {
+        if (candidates.isEmpty()) {
+            return new Context(EMPTY_CONTEXT, List.of(), Tokenizer.count(EMPTY_CONTEXT));
+        }
+        List<Document> ranked = new ArrayList<>(candidates);
+        ranked.sort(Comparator.comparingDouble(ContextAssembler::retrievalScore).reversed());
+
+        List<Document> selected = select(question, questionVector, ranked);
+        String text = format(selected);
+        int tokens = Tokenizer.count(text);
+        log.info("Context: {} of {} chunks, {} tokens (budget {})",
+                selected.size(), candidates.size(), tokens, maxTokens);
+        return new Context(text, selected, tokens);
+    }
+
+    private List<Document> select(String question, float[] questionVector, List<Document> ranked) {
+        float[][] vectors = embeddings(question, questionVector, ranked);
+        if (vectors == null) {
+            return fitBudget(ranked);
+        }
+        float[] query = vectors[0];
+        int n = ranked.size();
+        double[] fused = new double[n];
+        double[] similarity = new double[n];
+        for (int i = 0; i < n; i++) {
+            fused[i] = retrievalScore(ranked.get(i));
+            similarity[i] = cosine(query, vectors[i + 1]);
+        }
+        normalize(fused);
+        normalize(similarity);
+        double[] relevance = new double[n];
+        for (int i = 0; i < n; i++) {
+            relevance[i] = fusedWeight * fused[i] + (1 - fusedWeight) * similarity[i];
+        }
+        // Độ tương đồng lớn nhất với các chunk đã chọn, cập nhật dần sau mỗi lần chọn
+        double[] redundancy = new double[n];
+        boolean[] done = new boolean[n];
+
+        List<Document> selected = new ArrayList<>();
+        int used = 0;
+        while (true) {
+            int best = -1;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                if (done[i]) {
+                    continue;
+                }
+                double score = lambda * relevance[i] - (1 - lambda) * redundancy[i];
+                if (score > bestScore) {
+                    best = i;
+                    bestScore = score;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            done[best] = true;
+            int tokens = tokenCount(ranked.get(best));
+            if (redundancy[best] >= duplicateSimilarity || used + tokens > maxTokens) {
+                // Gần trùng hoặc không vừa phần ngân sách còn lại: chunk nhỏ hơn phía sau vẫn có thể vừa
+                continue;
+            }
+            selected.add(ranked.get(best));
+            used += tokens;
+            for (int i = 0; i < n; i++) {
+                if (!done[i]) {
+                    redundancy[i] = Math.max(redundancy[i], cosine(vectors[best + 1], vectors[i + 1]));
+                }
+            }
+        }
+        return selected;
+    }
+
+    // Min-max về [0,1]; mọi giá trị bằng nhau => 1
+    private static void normalize(double[] values) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (double value : values) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        double range = max - min;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = range > 0 ? (values[i] - min) / range : 1;
+        }
+    }
+
+    // Không có embedding (lỗi cache/API): giữ thứ tự score, chỉ áp ngân sách
+    private List<Document> fitBudget(List<Document> ranked) {
+        List<Document> selected = new ArrayList<>();
+        int used = 0;
+        for (Document document : ranked) {
+            int tokens = tokenCount(document);
+            if (used + tokens <= maxTokens) {
+                selected.add(document);
+                used += tokens;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Vector của câu hỏi (phần tử 0) và từng chunk. Câu hỏi đã có vector từ bước trước (hoặc vừa được embed ở bước search),
+     * chunk đã embed lúc ingest nên CachingEmbeddingModel trả từ cache.
+     */
+    private float[][] embeddings(String question, float[] questionVector, List<Document> ranked) {
+        List<String> texts = new ArrayList<>(ranked.size() + 1);
+        texts.add(question);
+        ranked.forEach(document -> texts.add(document.getText()));
+        try {
+            List<float[]> vectors = questionVector == null
+                    ? embeddingModel.embed(texts)
+                    : CachingEmbeddingModel.withVectors(Map.of(question, questionVector), () -> embeddingModel.embed(texts));
+            return vectors.toArray(new float[0][]);
+        } catch (Exception e) {
+            log.warn("Cannot load embeddings for MMR, using retrieval order: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Gom theo sách (sách có chunk xếp hạng cao hơn đứng trước), trong mỗi sách xếp theo chunkIndex,
+     * chunk liền nhau nối thành một đoạn
+     */
+    String format(List<Document> selected) {
+        if (selected.isEmpty()) {
+            return EMPTY_CONTEXT;
+        }
+        Map<String, List<Document>> bySource = new LinkedHashMap<>();
+        for (Document document : selected) {
+            bySource.computeIfAbsent(sourceKey(document), key -> new ArrayList<>()).add(document);
+        }
+        List<String> sections = new ArrayList<>(bySource.size());
+        for (List<Document> documents : bySource.values()) {
+            documents.sort(Comparator.comparingInt(ContextAssembler::chunkIndex));
+            sections.add(formatSource(documents));
+        }
+        return String.join(SOURCE_SEPARATOR, sections);
+    }
+
+    private String formatSource(List<Document> documents) {
+        Document first = documents.get(0);
+        String title = (String) first.getMetadata().get("title");
+        String author = (String) first.getMetadata().get("author");
+
+        StringBuilder result = new StringBuilder();
+        if (title != null && !"Unknown Title".equals(title)) {
+            result.append("📚 ").append(title);
+            if (author != null && !"Unknown Author".equals(author)) {
+                result.append(" - ").append(author);
+            }
+            result.append('\n');
+        }
+
+        String passage = first.getText();
+        int previousIndex = chunkIndex(first);
+        for (Document document : documents.subList(1, documents.size())) {
+            int index = chunkIndex(document);
+            if (index == previousIndex + 1) {
+                passage = mergeOverlap(passage, document.getText());
+            } else {
+                result.append(passage).append("\n\n");
+                passage = document.getText();
+            }
+            previousIndex = index;
+        }
+        return result.append(passage).toString();
+    }
+
+    /**
+     * Nối hai chunk liền nhau: chunk sau bắt đầu bằng phần đuôi của chunk trước (overlap của chunker) nên chỉ giữ một lần
+     */
+    static String mergeOverlap(String previous, String next) {
+        if (next.length() >= MIN_OVERLAP_CHARS) {
+            String probe = next.substring(0, MIN_OVERLAP_CHARS);
+            // Overlap dài nhất = lần xuất hiện sớm nhất của đầu chunk sau mà phần đuôi từ đó khớp đầu chunk sau
+            int from = previous.indexOf(probe);
+            while (from >= 0) {
+                if (previous.length() - from <= next.length() && next.startsWith(previous.substring(from))) {
+                    return previous + next.substring(previous.length() - from);
+                }
+                from = previous.indexOf(probe, from + 1);
+            }
+        }
+        return previous + " " + next;
+    }
+
+    private static double retrievalScore(Document document) {
+        Object rrf = document.getMetadata().get("rrfScore");
+        if (rrf instanceof Number number) {
+            return number.doubleValue();
+        }
+        return document.getScore() != null ? document.getScore() : 0;
+    }
+
+    private static int tokenCount(Document document) {
+        Object tokens = document.getMetadata().get("tokenCount");
+        if (tokens instanceof Number number && number.intValue() > 0) {
+            return number.intValue();
+        }
+        return Tokenizer.count(document.getText());
+    }
+
+    private static int chunkIndex(Document document) {
+        Object index = document.getMetadata().get("chunkIndex");
+        return index instanceof Number number ? number.intValue() : -1;
+    }
+
+    private static String sourceKey(Document document) {
+        Object sourceId = document.getMetadata().get("sourceId");
+        if (sourceId != null) {
+            return sourceId.toString();
+        }
+        return document.getMetadata().get("title") + "|" + document.getMetadata().get("author");
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return normA == 0 || normB == 0 ? 0 : dot / Math.sqrt(normA * normB);
+    }
+}
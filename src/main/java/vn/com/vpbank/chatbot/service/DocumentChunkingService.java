@@ -1,20 +1,32 @@
 package vn.com.vpbank.chatbot.service;
 
-
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import vn.com.vpbank.chatbot.bean.DocumentChunk;
 import vn.com.vpbank.chatbot.repositories.document.BookDocument;
+import vn.com.vpbank.chatbot.util.TextNormalizer;
+import vn.com.vpbank.chatbot.util.Tokenizer;
+import vn.com.vpbank.chatbot.util.Utils;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.regex.Pattern;
 
+/**
+ * Chia text thành chunk theo ngân sách token cl100k (Tokenizer) thay vì số ký tự:
+ * chunk-size, overlap-size, min-chunk-size đều tính bằng token. Paragraph/câu quá dài được tách nhỏ,
+ * không chunk nào vượt giới hạn input của embedding model nên không còn chunk bị bỏ khi lưu.
+ */
 @Service
 @Slf4j
 public class DocumentChunkingService {
+    // Tail tối đa (ký tự / token overlap) khi tìm overlap; token cl100k hiếm khi dài hơn
+    private static final int MAX_CHARS_PER_TOKEN = 8;
+    private static final Pattern SENTENCE_BOUNDARY = Pattern.compile("(?<=[.!?])\\s+");
 
     @Value("${chunk-size}")
     private int chunkSize;
@@ -22,39 +34,19 @@ public class DocumentChunkingService {
     private int overlapSize;
     @Value("${min-chunk-size}")
     private int minChunkSize;
+    // Giới hạn input của text-embedding-3-small
+    @Value("${embedding.max-input-tokens:8191}")
+    private int maxInputTokens = 8191;
 
-    // Pre-compile all patterns for better performance
-    private static final Pattern HTML_BLOCK_PATTERN =
-            Pattern.compile("</?(p|div|article|section|h[1-6])\\s*>", Pattern.CASE_INSENSITIVE);
-    private static final Pattern BR_PATTERN =
-            Pattern.compile("<br\\s*/?>", Pattern.CASE_INSENSITIVE);
-    private static final Pattern HTML_INLINE_PATTERN =
-            Pattern.compile("</?(li|td|tr)\\s*>", Pattern.CASE_INSENSITIVE);
-    private static final Pattern HTML_LIST_END_PATTERN =
-            Pattern.compile("</(ul|ol|table)\\s*>", Pattern.CASE_INSENSITIVE);
-    private static final Pattern HTML_TAG_PATTERN =
-            Pattern.compile("<[^>]+>");
-    private static final Pattern HTML_ENTITY_PATTERN =
-            Pattern.compile("&[a-zA-Z0-9]+;");
-    private static final Pattern CONTROL_CHARS_PATTERN =
-            Pattern.compile("[\\x00-\\x08\\x0B\\x0C\\x0E-\\x1F]");
-    private static final Pattern SENTENCE_PARAGRAPH_PATTERN =
-            Pattern.compile("([.!?])\\s+([A-ZÁĐÊÔƠƯ])");
-    private static final Pattern LONG_NUMBERS_PATTERN =
-            Pattern.compile("\\b\\d{10,}\\b");
-    private static final Pattern LONG_UPPERCASE_PATTERN =
-            Pattern.compile("\\b[A-Z]{5,}\\b");
-    private static final Pattern MULTIPLE_DOTS_PATTERN =
-            Pattern.compile("[.]{3,}");
-    private static final Pattern PAGE_NUMBERS_PATTERN =
-            Pattern.compile("(?i)(page|trang)\\s*\\d+");
-    private static final Pattern MULTIPLE_SPACES_PATTERN =
-            Pattern.compile("[ \\t]+");
-    private static final Pattern CLEAN_PARAGRAPH_PATTERN =
-            Pattern.compile("\\n[ \\t]*\\n");
-    private static final Pattern MULTIPLE_NEWLINES_PATTERN =
-            Pattern.compile("\\n{3,}");
+    // Paragraph vượt ngân sách token, được tách nhỏ (trước đây chunk như vậy bị bỏ khi embed)
+    private final Counter oversizedParagraphs;
+    // Phần text cuối ngắn hơn min-chunk-size, không thành chunk
+    private final Counter droppedTails;
 
+    public DocumentChunkingService(MeterRegistry meterRegistry) {
+        this.oversizedParagraphs = meterRegistry.counter("chatbot.ingest.chunks.oversized");
+        this.droppedTails = meterRegistry.counter("chatbot.ingest.chunks.dropped", "reason", "below_min_size");
+    }
 
     /**
      * Chunking tối ưu cho vector database
@@ -62,8 +54,8 @@ public class DocumentChunkingService {
     public List<DocumentChunk> chunkDocument(BookDocument document, String rawText) {
         // 1. Clean text trước khi chunk
         String cleanText = deepCleanText(rawText);
-        // 2. Kiểm tra text sau khi clean
-        if (cleanText == null || cleanText.trim().length() < minChunkSize) {
+        // 2. Kiểm tra text sau khi clean (text ít hơn min-chunk-size token thì chunk cuối bị bỏ như cũ)
+        if (cleanText == null || cleanText.isBlank()) {
             return Collections.emptyList();
         }
         // 3. Chunk theo semantic
@@ -76,26 +68,8 @@ public class DocumentChunkingService {
     private String deepCleanText(String text) {
         if (text == null || text.isEmpty()) return null;
 
-        // Apply transformations in optimal order (most frequent first)
-        String result = HTML_TAG_PATTERN.matcher(HTML_ENTITY_PATTERN.matcher(BR_PATTERN.matcher(HTML_BLOCK_PATTERN.matcher(text)
-                                        .replaceAll("\n\n"))
-                                .replaceAll("\n"))
-                        .replaceAll(" "))
-                .replaceAll(" ");
-
-        result = CONTROL_CHARS_PATTERN.matcher(result).replaceAll(" ");
-        result = LONG_NUMBERS_PATTERN.matcher(result).replaceAll("");
-        result = LONG_UPPERCASE_PATTERN.matcher(result).replaceAll("");
-        result = MULTIPLE_DOTS_PATTERN.matcher(result).replaceAll("...");
-        result = PAGE_NUMBERS_PATTERN.matcher(result).replaceAll("");
-        result = SENTENCE_PARAGRAPH_PATTERN.matcher(result).replaceAll("$1\n\n$2");
-
-        // Final whitespace cleanup
-        result = MULTIPLE_SPACES_PATTERN.matcher(result).replaceAll(" ");
-        result = CLEAN_PARAGRAPH_PATTERN.matcher(result).replaceAll("\n\n");
-        result = MULTIPLE_NEWLINES_PATTERN.matcher(result).replaceAll("\n\n");
-
-        return result.trim();
+        // Một lượt quét ký tự thay cho chuỗi regex (HTML, số trang, số/chữ hoa dài, ngắt câu, whitespace)
+        return TextNormalizer.clean(text);
     }
 
     /**
@@ -103,59 +77,134 @@ public class DocumentChunkingService {
      */
     private List<DocumentChunk> semanticChunking(BookDocument document, String cleanText) {
         List<DocumentChunk> chunks = new ArrayList<>();
+        int maxChunkTokens = Math.min(chunkSize, maxInputTokens);
+        int overlapTokens = Math.min(overlapSize, maxChunkTokens / 2);
+        // Phần nội dung mới của một chunk phải chừa chỗ cho overlap
+        int pieceTokens = Math.max(1, maxChunkTokens - overlapTokens);
 
         // Chia theo paragraph với ngữ nghĩa rõ ràng
         String[] paragraphs = cleanText.split("\\n\\s*\\n");
         log.info("Total paragraphs found: {}", paragraphs.length);
 
         StringBuilder currentChunk = new StringBuilder();
+        int currentTokens = 0;
         int chunkIndex = 0;
 
         for (String paragraph : paragraphs) {
             String cleanParagraph = paragraph.trim();
             if (cleanParagraph.isEmpty()) continue;
 
-            // Kiểm tra nếu thêm paragraph này có vượt quá chunk size không
-            int potentialSize = currentChunk.length() + cleanParagraph.length() + 1;
+            for (Piece piece : splitOversized(cleanParagraph, pieceTokens)) {
+                int tokens = piece.tokens();
+                // Kiểm tra nếu thêm đoạn này có vượt quá chunk size không (+1 token cho xuống dòng)
+                if (currentTokens + tokens + 1 > maxChunkTokens && currentTokens > minChunkSize) {
+                    // Tạo chunk hiện tại
+                    String chunkContent = currentChunk.toString().trim();
+                    if (!chunkContent.isEmpty()) {
+                        chunks.add(createOptimalChunk(document, chunkContent, chunkIndex++));
+                    }
 
-            if (potentialSize > chunkSize && currentChunk.length() > minChunkSize) {
-                // Tạo chunk hiện tại
-                String chunkContent = currentChunk.toString().trim();
-                if (!chunkContent.isEmpty()) {
-                    chunks.add(createOptimalChunk(document, chunkContent, chunkIndex++));
+                    // Bắt đầu chunk mới với overlap
+                    currentChunk = new StringBuilder();
+                    currentTokens = 0;
+                    if (overlapTokens > 0) {
+                        String overlap = getLastSentences(chunkContent, overlapTokens);
+                        currentChunk.append(overlap).append(" ");
+                        currentTokens = Tokenizer.count(overlap) + 1;
+                    }
                 }
 
-                // Bắt đầu chunk mới với overlap
-                currentChunk = new StringBuilder();
-                if (overlapSize > 0) {
-                    String overlap = getLastSentences(chunkContent, overlapSize);
-                    currentChunk.append(overlap).append(" ");
-                }
+                currentChunk.append(piece.text()).append("\n");
+                currentTokens += tokens + 1;
             }
-
-            currentChunk.append(cleanParagraph).append("\n");
         }
 
         // Chunk cuối cùng
         String finalChunk = currentChunk.toString().trim();
-        if (finalChunk.length() >= minChunkSize) {
+        if (!finalChunk.isEmpty() && Tokenizer.count(finalChunk) >= minChunkSize) {
             chunks.add(createOptimalChunk(document, finalChunk, chunkIndex));
+        } else if (!finalChunk.isEmpty()) {
+            droppedTails.increment();
         }
 
         return chunks;
     }
 
+    /**
+     * Tách paragraph dài hơn maxTokens: gom câu cho tới khi đủ ngân sách, câu vẫn quá dài thì cắt theo token
+     * (lùi về khoảng trắng gần nhất để không cắt giữa từ)
+     */
+    private List<Piece> splitOversized(String paragraph, int maxTokens) {
+        int paragraphTokens = Tokenizer.count(paragraph);
+        if (paragraphTokens <= maxTokens) {
+            return List.of(new Piece(paragraph, paragraphTokens));
+        }
+        oversizedParagraphs.increment();
+        List<Piece> pieces = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        int currentTokens = 0;
+        for (String sentence : SENTENCE_BOUNDARY.split(paragraph)) {
+            int tokens = Tokenizer.count(sentence);
+            if (tokens > maxTokens) {
+                if (current.length() > 0) {
+                    pieces.add(new Piece(current.toString(), currentTokens));
+                    current.setLength(0);
+                    currentTokens = 0;
+                }
+                splitByTokens(sentence, maxTokens, pieces);
+                continue;
+            }
+            if (current.length() > 0 && currentTokens + tokens + 1 > maxTokens) {
+                pieces.add(new Piece(current.toString(), currentTokens));
+                current.setLength(0);
+                currentTokens = 0;
+            }
+            if (current.length() > 0) {
+                current.append(' ');
+                currentTokens++;
+            }
+            current.append(sentence);
+            currentTokens += tokens;
+        }
+        if (current.length() > 0) {
+            pieces.add(new Piece(current.toString(), currentTokens));
+        }
+        return pieces;
+    }
+
+    private void splitByTokens(String text, int maxTokens, List<Piece> pieces) {
+        String rest = text;
+        while (!rest.isEmpty()) {
+            int end = Tokenizer.prefixLength(rest, maxTokens);
+            if (end < rest.length()) {
+                int space = rest.lastIndexOf(' ', end);
+                if (space > end / 2) {
+                    end = space;
+                } else if (end == 0) {
+                    // Một ký tự cũng vượt ngân sách (maxTokens quá nhỏ): vẫn phải tiến
+                    end = rest.offsetByCodePoints(0, 1);
+                }
+            }
+            String piece = rest.substring(0, end).trim();
+            if (!piece.isEmpty()) {
+                pieces.add(new Piece(piece, Tokenizer.count(piece)));
+            }
+            rest = rest.substring(end).trim();
+        }
+    }
+
+    // Đoạn text đưa vào chunk và số token của nó (số token của câu ghép là ước lượng, lệch vài token)
+    private record Piece(String text, int tokens) {
+    }
+
     /**
      * Tạo chunk tối ưu không thêm metadata vào content
      */
     private DocumentChunk createOptimalChunk(BookDocument document, String content, int index) {
         // Content chỉ chứa nội dung thuần túy, không có metadata
-        String cleanContent = content
-                .replaceAll("\\n+", " ")  // Newlines thành spaces
-                .replaceAll("\\s+", " ")   // Multiple spaces
-                .trim();
+        String cleanContent = TextNormalizer.collapseWhitespace(content);
 
-        return new DocumentChunk(
+        DocumentChunk chunk = new DocumentChunk(
                 cleanContent,
                 document.getTitle(),
                 document.getAuthor(),
@@ -163,15 +212,31 @@ public class DocumentChunkingService {
                 index,
                 document.getSourceUrl()
         );
+        chunk.setContentHash(Utils.sha256Hex(cleanContent));
+        chunk.setPointId(Utils.chunkPointId(document.getSourceUrl(), index, chunk.getContentHash()));
+        chunk.setTokenCount(Tokenizer.count(cleanContent));
+        return chunk;
     }
 
     /**
-     * Lấy overlap từ cuối chunk trước
+     * Lấy overlap từ cuối chunk trước: phần đuôi dài nhất trong maxTokens token, bắt đầu ở đầu câu (hoặc đầu từ)
      */
-    private String getLastSentences(String text, int maxChars) {
-        if (text.length() <= maxChars) return text;
+    private String getLastSentences(String text, int maxTokens) {
+        String tail = text.substring(Math.max(0, text.length() - maxTokens * MAX_CHARS_PER_TOKEN));
+        if (Tokenizer.count(tail) <= maxTokens) return tail;
 
-        String substring = text.substring(Math.max(0, text.length() - maxChars));
+        // Tìm vị trí bắt đầu sớm nhất mà phần đuôi còn vừa ngân sách (số token giảm dần khi bỏ bớt đầu)
+        int low = 0;
+        int high = tail.length();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Tokenizer.count(tail.substring(mid)) <= maxTokens) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        String substring = tail.substring(low);
 
         // Tìm điểm bắt đầu sentence gần nhất
         int sentenceStart = substring.indexOf(". ");
@@ -5,68 +5,174 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import vn.com.vpbank.chatbot.repositories.BookDocumentRepository;
 import vn.com.vpbank.chatbot.bean.DocumentChunk;
+import vn.com.vpbank.chatbot.bean.HtmlExtraction;
 import vn.com.vpbank.chatbot.repositories.document.BookDocument;
 
-import java.time.LocalDateTime;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Các bước xử lý một document; IngestPipeline gọi từng bước trên stage tương ứng
+ */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class DocumentIngestionService {
+    private static final int SOURCE_LOCK_STRIPES = 64;
 
     private final HtmlParserService htmlParserService;
+    private final ImageOcrService imageOcrService;
     private final DocumentChunkingService chunkingService;
     private final VectorStoreService vectorStoreService;
+    private final LexicalIndexService lexicalIndexService;
     private final BookDocumentRepository documentRepository;
+    private final BookDocumentWriter documentWriter;
+    private final HtmlContentStore contentStore;
+    private final SemanticCacheService semanticCacheService;
+    // khoá theo sourceUrl (stripe): hai lần ingest cùng document đồng bộ vector store lần lượt
+    private final ReentrantLock[] sourceLocks = newLocks();
 
-    public void ingestDocument(String htmlContent, String fileName) {
-        try {
-            log.info("Starting ingestion for document: {}", fileName);
-            // 1. Check if document already exists
-            BookDocument existingDoc = documentRepository.findBySourceUrl(fileName);
-            if (existingDoc != null) {
-                log.info("Document already exists, updating: {}", fileName);
-                existingDoc.setHtmlContent(htmlContent);
-                existingDoc.setUpdatedAt(LocalDateTime.now());
-                // Re-parse to update metadata
-                BookDocument parsed = htmlParserService.parseHtmlFile(htmlContent, fileName);
-                existingDoc.setTitle(parsed.getTitle());
-                existingDoc.setAuthor(parsed.getAuthor());
-                existingDoc.setOutline(parsed.getOutline());
-                existingDoc = documentRepository.save(existingDoc);
-
-                // Re-process and update vectors
-                processDocumentForVectorStore(existingDoc, htmlContent);
-                return;
-            }
+    /**
+     * Stage parse: parse HTML một lần, kết quả dùng cho metadata và các stage sau
+     */
+    public HtmlExtraction parse(String htmlContent) {
+        return htmlParserService.extract(htmlContent);
+    }
+
+    /**
+     * Stage parse: nén HTML cho content store và đưa metadata vào lô ghi Mongo tiếp theo (upsert theo sourceUrl),
+     * không chờ ghi xong
+     */
+    public void saveMetadata(IngestTask task) {
+        log.info("Starting ingestion for document: {}", task.getFileName());
+        HtmlContentStore.Blob content = contentStore.prepare(task.getHtmlContent());
+        BookDocument document = htmlParserService.toBookDocument(task.getExtraction(), task.getFileName());
+        document.setContentHash(content.hash());
+        document.setContentLength(content.length());
+        task.setSavedMetadata(documentWriter.upsert(document, content));
+    }
+
+    /**
+     * Metadata của document đã ingest, không kèm HTML
+     */
+    public Optional<BookDocument> findDocument(String id) {
+        return Optional.ofNullable(documentRepository.findMetadataById(id));
+    }
 
-            // 2. Parse HTML and extract metadata
-            BookDocument document = htmlParserService.parseHtmlFile(htmlContent, fileName);
-
-            // 3. Save to database first to get ID
-            document = documentRepository.save(document);
-            log.info("Saved document to database with ID: {}", document.getId());
-            // 4. Process for vector store
-            processDocumentForVectorStore(document, htmlContent);
-            log.info("Successfully ingested document: {} by {}",
-                    fileName, document.getAuthor());
-        } catch (Exception e) {
-            log.error("Error ingesting document from: ", e);
+    /**
+     * HTML gốc của document đã ingest, đọc từ content store (hoặc inline với document cũ) để chunk lại
+     *
+     * @return null nếu không còn nội dung
+     */
+    public String loadHtml(BookDocument document) {
+        if (document.getContentHash() != null) {
+            return contentStore.load(document.getContentHash());
         }
+        return contentStore.loadLegacy(document.getId());
+    }
+
+    /**
+     * Stage chunk: chờ lô chứa metadata ghi xong để có id của document (và vectorIds của lần ingest trước)
+     */
+    public void awaitMetadata(IngestTask task) {
+        BookDocumentWriter.Saved saved;
+        try {
+            saved = task.getSavedMetadata().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while saving metadata of " + task.getFileName(), e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+        }
+        task.setSavedMetadata(null);
+        task.setDocument(saved.document());
+        task.setPreviousVectorIds(saved.previousVectorIds());
+        if (saved.created()) {
+            log.info("Saved document to database with ID: {}", saved.document().getId());
+        } else {
+            log.info("Document already exists, updated: {}", task.getFileName());
+        }
+    }
+
+    /**
+     * Stage OCR: text trong ảnh của document, theo url ảnh
+     *
+     * @param bundle ảnh đi kèm document trong zip, null nếu không có
+     */
+    public Map<String, String> ocrImages(HtmlExtraction extraction, ImageBundle bundle) {
+        return imageOcrService.ocrAll(extraction.imageUrls(), bundle);
     }
 
-    private void processDocumentForVectorStore(BookDocument document, String htmlContent) {
-        // Extract clean text
-        String cleanText = htmlParserService.extractCleanText(htmlContent);
+    /**
+     * Stage extract: clean text + bảng + text từ ảnh
+     */
+    public String extractText(HtmlExtraction extraction, Map<String, String> imageTexts) {
+        String cleanText = htmlParserService.cleanText(extraction, imageTexts);
         log.info("Extracted clean text length: {} characters", cleanText.length());
+        return cleanText;
+    }
 
-        // Chunk document
+    /**
+     * Stage chunk
+     */
+    public List<DocumentChunk> chunk(BookDocument document, String cleanText) {
         List<DocumentChunk> chunks = chunkingService.chunkDocument(document, cleanText);
-        log.info("Created {} chunks for document ID: {}", chunks.size(), document.getId());
-        if (chunks.isEmpty()) return;
+        log.info("Created {} chunks ({} tokens) for document ID: {}", chunks.size(), tokenCount(chunks), document.getId());
+        return chunks;
+    }
+
+    public boolean needsVectorSync(IngestTask task) {
+        List<String> previousIds = task.getPreviousVectorIds();
+        return !(task.getChunks().isEmpty() && previousIds != null && previousIds.isEmpty());
+    }
 
-        // Create embeddings and store in vector database
-        vectorStoreService.addDocuments(chunks);
+    /**
+     * Stage upsert: chỉ ghi chunk thay đổi (với vector của stage embed), xoá vector cũ, rồi ghi nhận những gì đang có trên store.
+     * Chạy tuần tự theo sourceUrl và đọc lại vectorIds dưới khoá: lần ingest khác cùng document có thể đã đồng bộ
+     * sau khi task này lấy metadata, dùng vectorIds cũ sẽ xoá nhầm point của nó và ghi đè vectorIds sai
+     */
+    public int syncVectors(IngestTask task) {
+        BookDocument document = task.getDocument();
+        String sourceId = document.getSourceUrl();
+        ReentrantLock lock = sourceLocks[Math.floorMod(sourceId.hashCode(), SOURCE_LOCK_STRIPES)];
+        lock.lock();
+        try {
+            BookDocument stored = documentRepository.findMetadataById(document.getId());
+            List<String> previousIds = stored == null ? task.getPreviousVectorIds() : stored.getVectorIds();
+            // chunk mà lần ingest kia đã xoá không có vector từ stage embed => được embed lại qua cache
+            List<String> ids = vectorStoreService.syncDocuments(sourceId, task.getChunks(), previousIds, task.getVectors());
+            task.setVectors(null);
+            // Index BM25 giữ cùng tập chunk với vector store để hybrid search trộn theo pointId
+            lexicalIndexService.replaceSource(sourceId, task.getChunks());
+            documentRepository.updateVectorIds(document.getId(), ids, ids.size(), tokenCount(task.getChunks()));
+            if (previousIds == null || !new HashSet<>(previousIds).equals(new HashSet<>(ids))) {
+                // Nội dung document đã đổi => câu trả lời cache dựa trên nó không còn đúng
+                semanticCacheService.invalidateSource(sourceId);
+            }
+            log.info("Successfully ingested document: {} by {}", task.getFileName(), document.getAuthor());
+            return ids.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static ReentrantLock[] newLocks() {
+        ReentrantLock[] locks = new ReentrantLock[SOURCE_LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        return locks;
+    }
+
+    public static long tokenCount(List<DocumentChunk> chunks) {
+        long tokens = 0;
+        for (DocumentChunk chunk : chunks) {
+            tokens += chunk.getTokenCount();
+        }
+        return tokens;
     }
 }
@@ -0,0 +1,144 @@
+package vn.com.vpbank.chatbot.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.autoconfigure.openai.OpenAiEmbeddingProperties;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import vn.com.vpbank.chatbot.repositories.EmbeddingCacheRepository;
+import vn.com.vpbank.chatbot.repositories.document.EmbeddingCacheDocument;
+import vn.com.vpbank.chatbot.util.Utils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache embedding theo nội dung: LRU trong process, phía sau là collection embedding_cache trên Mongo
+ */
+@Service
+@Slf4j
+public class EmbeddingCacheService {
+
+    private final EmbeddingCacheRepository repository;
+    private final String embeddingModel;
+    private final boolean enabled;
+    private final Map<String, float[]> lru;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong storeHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public EmbeddingCacheService(EmbeddingCacheRepository repository,
+                                 OpenAiEmbeddingProperties embeddingProperties,
+                                 @Value("${embedding-cache.enabled:true}") boolean enabled,
+                                 @Value("${embedding-cache.lru-size:10000}") int lruSize) {
+        this.repository = repository;
+        this.embeddingModel = embeddingProperties.getOptions().getModel();
+        this.enabled = enabled;
+        this.lru = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+                return size() > lruSize;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getEmbeddingModel() {
+        return embeddingModel;
+    }
+
+    public String cacheKey(String content) {
+        return Utils.sha256Hex(embeddingModel + "\n" + Utils.normalizeForKey(content));
+    }
+
+    /**
+     * Tìm vector theo key: LRU trước, sau đó một lần findAllById trên Mongo cho phần còn thiếu
+     */
+    public Map<String, float[]> getAll(Collection<String> keys) {
+        Map<String, float[]> found = new HashMap<>();
+        List<String> missingInMemory = new ArrayList<>();
+        synchronized (lru) {
+            for (String key : keys) {
+                float[] vector = lru.get(key);
+                if (vector != null) {
+                    found.put(key, vector);
+                } else {
+                    missingInMemory.add(key);
+                }
+            }
+        }
+        memoryHits.addAndGet(found.size());
+        if (missingInMemory.isEmpty()) {
+            return found;
+        }
+
+        try {
+            Map<String, float[]> fromStore = new HashMap<>();
+            for (EmbeddingCacheDocument entry : repository.findAllById(missingInMemory)) {
+                if (embeddingModel.equals(entry.getModel()) && entry.getVector() != null) {
+                    fromStore.put(entry.getId(), Utils.bytesToFloats(entry.getVector()));
+                }
+            }
+            synchronized (lru) {
+                lru.putAll(fromStore);
+            }
+            found.putAll(fromStore);
+            storeHits.addAndGet(fromStore.size());
+            misses.addAndGet(missingInMemory.size() - fromStore.size());
+        } catch (Exception e) {
+            // Cache lỗi thì coi như miss, không được làm hỏng luồng ingest
+            log.warn("Embedding cache lookup error: {}", e.getMessage());
+            misses.addAndGet(missingInMemory.size());
+        }
+        return found;
+    }
+
+    public void putAll(Map<String, float[]> vectors) {
+        if (vectors.isEmpty()) return;
+        synchronized (lru) {
+            lru.putAll(vectors);
+        }
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            List<EmbeddingCacheDocument> entries = vectors.entrySet().stream()
+                    .map(e -> EmbeddingCacheDocument.builder()
+                            .id(e.getKey())
+                            .model(embeddingModel)
+                            .dimensions(e.getValue().length)
+                            .vector(Utils.floatsToBytes(e.getValue()))
+                            .createdAt(now)
+                            .build())
+                    .toList();
+            repository.saveAll(entries);
+        } catch (Exception e) {
+            log.warn("Embedding cache store error: {}", e.getMessage());
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        long hits = memoryHits.get() + storeHits.get();
+        long total = hits + misses.get();
+        int size;
+        synchronized (lru) {
+            size = lru.size();
+        }
+        return Map.of(
+                "enabled", enabled,
+                "model", embeddingModel,
+                "memoryHits", memoryHits.get(),
+                "storeHits", storeHits.get(),
+                "misses", misses.get(),
+                "hitRatio", total == 0 ? 0.0 : (double) hits / total,
+                "lruSize", size
+        );
+    }
+}
@@ -0,0 +1,174 @@
+package vn.com.vpbank.chatbot.service;
+
+import com.mongodb.client.gridfs.model.GridFSFile;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+import org.springframework.stereotype.Service;
+import vn.com.vpbank.chatbot.util.Utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * HTML gốc của document, tách khỏi book_documents: nén deflate, lưu trong GridFS bucket html_content với
+ * filename = sha256 của nội dung. Cùng nội dung upload dưới tên file khác chỉ lưu một bản.
+ * BookDocument chỉ giữ contentHash; HTML chỉ được đọc lại khi cần chunk lại (reindex).
+ * Document được ingest lại với nội dung khác thì BookDocumentWriter xoá blob cũ khi không còn document nào trỏ tới.
+ */
+@Service
+@Slf4j
+public class HtmlContentStore {
+
+    private static final String BUCKET = "html_content";
+    private static final String ENCODING = "deflate";
+
+    /**
+     * HTML đã băm và nén, chuẩn bị trên thread của stage parse để writer chỉ còn việc ghi
+     */
+    public record Blob(String hash, byte[] compressed, int length) {
+    }
+
+    private final GridFsTemplate gridFsTemplate;
+    private final MongoTemplate mongoTemplate;
+    private final int compressionLevel;
+
+    private final AtomicLong stored = new AtomicLong();
+    private final AtomicLong deduplicated = new AtomicLong();
+    private final AtomicLong loaded = new AtomicLong();
+    private final AtomicLong deleted = new AtomicLong();
+    private final AtomicLong originalBytes = new AtomicLong();
+    private final AtomicLong storedBytes = new AtomicLong();
+
+    @Autowired
+    public HtmlContentStore(MongoTemplate mongoTemplate,
+                            @Value("${ingest.content-store.compression-level:6}") int compressionLevel) {
+        this(mongoTemplate, new GridFsTemplate(mongoTemplate.getMongoDatabaseFactory(), mongoTemplate.getConverter(),
+                BUCKET), compressionLevel);
+    }
+
+    HtmlContentStore(MongoTemplate mongoTemplate, GridFsTemplate gridFsTemplate, int compressionLevel) {
+        this.mongoTemplate = mongoTemplate;
+        this.gridFsTemplate = gridFsTemplate;
+        this.compressionLevel = compressionLevel;
+    }
+
+    public Blob prepare(String html) {
+        byte[] raw = html.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 4));
+        Deflater deflater = new Deflater(compressionLevel);
+        try (DeflaterOutputStream deflate = new DeflaterOutputStream(out, deflater)) {
+            deflate.write(raw);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            deflater.end();
+        }
+        return new Blob(Utils.sha256Hex(raw), out.toByteArray(), raw.length);
+    }
+
+    /**
+     * Lưu các blob chưa có: một truy vấn tìm hash đã tồn tại cho cả lô, chỉ upload phần còn thiếu
+     */
+    public void storeAll(Collection<Blob> blobs) {
+        Map<String, Blob> byHash = new LinkedHashMap<>();
+        blobs.forEach(blob -> byHash.putIfAbsent(blob.hash(), blob));
+        if (byHash.isEmpty()) {
+            return;
+        }
+        Set<String> existing = new HashSet<>();
+        gridFsTemplate.find(Query.query(Criteria.where("filename").in(byHash.keySet())))
+                .forEach(file -> existing.add(file.getFilename()));
+        deduplicated.addAndGet(blobs.size() - (byHash.size() - existing.size()));
+        for (Blob blob : byHash.values()) {
+            if (existing.contains(blob.hash())) {
+                continue;
+            }
+            Document metadata = new Document("encoding", ENCODING).append("length", blob.length());
+            gridFsTemplate.store(new ByteArrayInputStream(blob.compressed()), blob.hash(), metadata);
+            stored.incrementAndGet();
+            originalBytes.addAndGet(blob.length());
+            storedBytes.addAndGet(blob.compressed().length);
+        }
+    }
+
+    /**
+     * @return HTML gốc, null nếu không có trong store
+     */
+    public String load(String hash) {
+        GridFSFile file = gridFsTemplate.findOne(Query.query(Criteria.where("filename").is(hash)));
+        if (file == null) {
+            return null;
+        }
+        try (InputStream in = new InflaterInputStream(gridFsTemplate.getResource(file).getInputStream())) {
+            loaded.incrementAndGet();
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read HTML content " + hash, e);
+        }
+    }
+
+    /**
+     * Xoá các blob không còn BookDocument nào trỏ tới (nội dung cũ của document vừa được ghi lại).
+     * Chỉ gọi từ thread của BookDocumentWriter, sau khi lô chứa nội dung mới đã ghi: lô sau trên cùng instance
+     * không thể thấy blob "đã có" rồi mất ngay sau đó.
+     *
+     * @return số blob đã xoá
+     */
+    public int deleteUnreferenced(Collection<String> hashes) {
+        if (hashes.isEmpty()) {
+            return 0;
+        }
+        Set<String> unreferenced = new HashSet<>(hashes);
+        Query referenced = Query.query(Criteria.where("contentHash").in(unreferenced));
+        unreferenced.removeAll(mongoTemplate.findDistinct(referenced, "contentHash", "book_documents", String.class));
+        if (unreferenced.isEmpty()) {
+            return 0;
+        }
+        gridFsTemplate.delete(Query.query(Criteria.where("filename").in(unreferenced)));
+        deleted.addAndGet(unreferenced.size());
+        return unreferenced.size();
+    }
+
+    /**
+     * Document ghi trước khi có content store vẫn giữ htmlContent ngay trong book_documents
+     *
+     * @return null nếu document không có HTML inline
+     */
+    public String loadLegacy(String documentId) {
+        Query query = Query.query(Criteria.where("_id").is(documentId));
+        query.fields().include("htmlContent");
+        Document raw = mongoTemplate.findOne(query, Document.class, "book_documents");
+        return raw == null ? null : raw.getString("htmlContent");
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("stored", stored.get());
+        stats.put("deduplicated", deduplicated.get());
+        stats.put("loaded", loaded.get());
+        stats.put("deleted", deleted.get());
+        stats.put("originalBytes", originalBytes.get());
+        stats.put("storedBytes", storedBytes.get());
+        stats.put("compressionRatio", storedBytes.get() == 0 ? 0 : (double) originalBytes.get() / storedBytes.get());
+        return stats;
+    }
+}
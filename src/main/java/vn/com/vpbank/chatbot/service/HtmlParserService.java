@@ -8,79 +8,134 @@ import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
+import org.jsoup.select.Evaluator;
+import org.jsoup.select.NodeFilter;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.QueryParser;
 import org.springframework.stereotype.Service;
+import vn.com.vpbank.chatbot.bean.HtmlExtraction;
 import vn.com.vpbank.chatbot.repositories.document.BookDocument;
+import vn.com.vpbank.chatbot.util.TextNormalizer;
+import vn.com.vpbank.chatbot.util.Utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class HtmlParserService {
-    private final OcrService ocrService;
-
-    public BookDocument parseHtmlFile(String htmlContent, String sourceUrl) {
+    private final ImageOcrService imageOcrService;
+
+    private static final String[] TITLE_SELECTORS = {
+            "h1", ".title", ".book-title", ".main-title",
+            "[class*=title]", "title", ".post-title"
+    };
+    private static final String[] AUTHOR_SELECTORS = {
+            ".author", ".book-author", "[class*=author]",
+            ".by-author", ".writer", "[rel=author]"
+    };
+    private static final String[] OUTLINE_SELECTORS = {
+            ".toc", ".outline", ".table-of-contents",
+            ".contents", "[class*=toc]", ".index"
+    };
+    // Tất cả selector metadata, thứ tự: title, author, outline; match trong một lần duyệt cây
+    private static final Evaluator[] METADATA_EVALUATORS = Stream.of(TITLE_SELECTORS, AUTHOR_SELECTORS, OUTLINE_SELECTORS)
+            .flatMap(Arrays::stream)
+            .map(QueryParser::parse)
+            .toArray(Evaluator[]::new);
+    private static final String REMOVED_ELEMENTS =
+            "script, style, nav, header, footer, .navigation, aside, form, noscript, iframe, svg, canvas, video, audio, button, input";
+
+    /**
+     * Parse HTML đúng một lần: metadata lấy trên cây đầy đủ, sau đó bỏ phần thừa rồi lấy text, bảng, ảnh
+     */
+    public HtmlExtraction extract(String htmlContent) {
         Document doc = Jsoup.parse(htmlContent);
 
-        BookDocument bookDoc = new BookDocument();
-        bookDoc.setSourceUrl(sourceUrl);
-        bookDoc.setHtmlContent(htmlContent);
+        Element[] firstMatches = firstMatches(doc);
+        String title = extractTitle(doc, firstMatches);
+        String author = extractAuthor(firstMatches);
+        String outline = extractOutline(firstMatches);
 
-        // Extract title
-        String title = extractTitle(doc);
-        bookDoc.setTitle(title);
+        // Remove unwanted elements - phần này có thể đưa ra file config để sau này thêm các tag phụ thuộc vào độ phức tạp của tài liệu HTML
+        doc.select(REMOVED_ELEMENTS).remove();
 
-        // Extract author
-        String author = extractAuthor(doc);
-        bookDoc.setAuthor(author);
+        // Get text from body
+        String text = doc.body() != null ? doc.body().wholeText() : doc.wholeText();
 
-        // Extract outline/table of contents
-        String outline = extractOutline(doc);
-        bookDoc.setOutline(outline);
+        return new HtmlExtraction(title, author, outline, text, convertTablesToMarkdown(doc), imageUrls(doc));
+    }
+
+    public BookDocument parseHtmlFile(String htmlContent, String sourceUrl) {
+        return toBookDocument(extract(htmlContent), sourceUrl);
+    }
 
+    public BookDocument toBookDocument(HtmlExtraction extraction, String sourceUrl) {
+        BookDocument bookDoc = new BookDocument();
+        bookDoc.setSourceUrl(sourceUrl);
+        bookDoc.setTitle(extraction.title());
+        bookDoc.setAuthor(extraction.author());
+        bookDoc.setTitleKey(Utils.foldForSearch(extraction.title()));
+        bookDoc.setAuthorKey(Utils.foldForSearch(extraction.author()));
+        bookDoc.setOutline(extraction.outline());
         return bookDoc;
     }
 
-    private String extractTitle(Document doc) {
-        String[] titleSelectors = {
-                "h1", ".title", ".book-title", ".main-title",
-                "[class*=title]", "title", ".post-title"
-        };
-        for (String selector : titleSelectors) {
-            Element titleElement = doc.selectFirst(selector);
-            if (titleElement != null && !titleElement.text().trim().isEmpty()) {
-                return titleElement.text().trim();
+    /**
+     * Phần tử đầu tiên (theo thứ tự tài liệu) khớp từng selector metadata, giống selectFirst nhưng chỉ duyệt cây một lần
+     */
+    private Element[] firstMatches(Document doc) {
+        Element[] found = new Element[METADATA_EVALUATORS.length];
+        int[] remaining = {found.length};
+        NodeTraversor.filter((node, depth) -> {
+            if (node instanceof Element element) {
+                for (int i = 0; i < METADATA_EVALUATORS.length; i++) {
+                    if (found[i] == null && METADATA_EVALUATORS[i].matches(doc, element)) {
+                        found[i] = element;
+                        remaining[0]--;
+                    }
+                }
+                if (remaining[0] == 0) {
+                    return NodeFilter.FilterResult.STOP;
+                }
+            }
+            return NodeFilter.FilterResult.CONTINUE;
+        }, doc);
+        return found;
+    }
+
+    private static String firstText(Element[] firstMatches, int from, int count) {
+        for (int i = from; i < from + count; i++) {
+            Element element = firstMatches[i];
+            if (element != null && !element.text().trim().isEmpty()) {
+                return element.text();
             }
         }
+        return null;
+    }
+
+    private String extractTitle(Document doc, Element[] firstMatches) {
+        String title = firstText(firstMatches, 0, TITLE_SELECTORS.length);
+        if (title != null) {
+            return title.trim();
+        }
         // Fallback to document title or source URL
         String docTitle = doc.title();
         return !docTitle.isEmpty() ? docTitle : "Unknown Title";
     }
 
-    private String extractAuthor(Document doc) {
-        String[] authorSelectors = {
-                ".author", ".book-author", "[class*=author]",
-                ".by-author", ".writer", "[rel=author]"
-        };
-        for (String selector : authorSelectors) {
-            Element authorElement = doc.selectFirst(selector);
-            if (authorElement != null && !authorElement.text().trim().isEmpty()) {
-                return cleanAuthorName(authorElement.text());
-            }
-        }
-        return "Unknown Author";
+    private String extractAuthor(Element[] firstMatches) {
+        String author = firstText(firstMatches, TITLE_SELECTORS.length, AUTHOR_SELECTORS.length);
+        return author != null ? cleanAuthorName(author) : "Unknown Author";
     }
 
-    private String extractOutline(Document doc) {
-        String[] outlineSelectors = {
-                ".toc", ".outline", ".table-of-contents",
-                ".contents", "[class*=toc]", ".index"
-        };
-        for (String selector : outlineSelectors) {
-            Element outlineElement = doc.selectFirst(selector);
-            if (outlineElement != null && !outlineElement.text().trim().isEmpty()) {
-                return outlineElement.text().trim();
-            }
-        }
-        return Strings.EMPTY;
+    private String extractOutline(Element[] firstMatches) {
+        String outline = firstText(firstMatches, TITLE_SELECTORS.length + AUTHOR_SELECTORS.length, OUTLINE_SELECTORS.length);
+        return outline != null ? outline.trim() : Strings.EMPTY;
     }
 
     private String cleanAuthorName(String author) {
@@ -90,56 +145,64 @@ public class HtmlParserService {
 
     // transformation text => push to vectorDB
     public String extractCleanText(String htmlContent) {
-        Document doc = Jsoup.parse(htmlContent);
-
-        // Remove unwanted elements - phần này có thể đưa ra file config để sau này thêm các tag phụ thuộc vào độ phức tạp của tài liệu HTML
-        doc.select("script, style, nav, header, footer, .navigation, aside, form, noscript, iframe, svg, canvas, video, audio, button, input").remove();
-
-        // Get text from body
-        String text = doc.body() != null ? doc.body().wholeText() : doc.wholeText();
+        return cleanText(extract(htmlContent));
+    }
 
-        // get text from table
-        String tableMarkdown = convertTablesToMarkdown(doc);
+    /**
+     * Text đưa vào chunking: body + bảng + OCR ảnh
+     */
+    public String cleanText(HtmlExtraction extraction) {
+        return cleanText(extraction, imageOcrService.ocrAll(extraction.imageUrls()));
+    }
 
+    /**
+     * @param imageTexts kết quả OCR theo url ảnh (stage OCR của pipeline)
+     */
+    public String cleanText(HtmlExtraction extraction, Map<String, String> imageTexts) {
         // get text from image
-        String imageTexts = ocrImage(doc);
+        String ocrTexts = formatImageTexts(extraction.imageUrls(), imageTexts);
 
         // concat text + table + image
-        String combined = text;
-        if (!tableMarkdown.isEmpty()) {
-            combined += "\nBảng dữ liệu:\n" + tableMarkdown;
+        String combined = extraction.bodyText();
+        if (!extraction.tableMarkdown().isEmpty()) {
+            combined += "\nBảng dữ liệu:\n" + extraction.tableMarkdown();
         }
-        if (!imageTexts.isEmpty()) {
-            combined += "\nNội dung từ ảnh:\n" + imageTexts;
+        if (!ocrTexts.isEmpty()) {
+            combined += "\nNội dung từ ảnh:\n" + ocrTexts;
         }
         // Clean up extra whitespace and normalize
-        return combined.replaceAll("\\s+", " ").trim();
+        return TextNormalizer.collapseWhitespace(combined);
     }
 
-    private String ocrImage(Document doc) {
-        try {
-            Elements images = doc.select("img");
-            if (images.isEmpty()) return Strings.EMPTY;
-            StringBuilder imageTexts = new StringBuilder();
-            for (Element img : images) {
-                String imageUrl = img.absUrl("src");
-                if (imageUrl.isBlank()) continue;
-                String ocrResult = ocrService.extractTextFromImage(imageUrl);
-                if (Strings.isEmpty(ocrResult)) {
-                    log.info("Cannot OCR imageUrl: {}", ocrResult);
-                    continue;
-                }
-                imageTexts.append("[Ảnh: ").append(imageUrl).append("]\n")
-                        .append(ocrResult).append("\n");
+    // URL tuyệt đối, hoặc src tương đối (ảnh đóng gói trong zip cùng file HTML); bỏ data URI
+    private List<String> imageUrls(Document doc) {
+        List<String> urls = new ArrayList<>();
+        for (Element img : doc.select("img")) {
+            String imageUrl = img.absUrl("src");
+            if (imageUrl.isBlank()) {
+                imageUrl = img.attr("src").trim();
+            }
+            if (!imageUrl.isBlank() && !imageUrl.regionMatches(true, 0, "data:", 0, 5)) {
+                urls.add(imageUrl);
             }
-            String ocrImage = imageTexts.toString();
-            log.info("OCR image result: {}",  ocrImage);
-            return ocrImage;
-        } catch (Exception e) {
-            log.error("Process ocrImage: ", e);
-            return Strings.EMPTY;
         }
+        return urls;
+    }
 
+    // Giữ thứ tự và số lần xuất hiện của ảnh trong document
+    private String formatImageTexts(List<String> imageUrls, Map<String, String> imageTexts) {
+        if (imageUrls.isEmpty()) return Strings.EMPTY;
+        StringBuilder result = new StringBuilder();
+        for (String imageUrl : imageUrls) {
+            String ocrResult = imageTexts.get(imageUrl);
+            if (Strings.isEmpty(ocrResult)) {
+                log.info("Cannot OCR imageUrl: {}", imageUrl);
+                continue;
+            }
+            result.append("[Ảnh: ").append(imageUrl).append("]\n")
+                    .append(ocrResult).append("\n");
+        }
+        return result.toString();
     }
 
     private String convertTablesToMarkdown(Document doc) {
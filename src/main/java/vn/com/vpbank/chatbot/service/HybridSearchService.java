@@ -0,0 +1,239 @@
+package vn.com.vpbank.chatbot.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import vn.com.vpbank.chatbot.bean.SearchSpec;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Hybrid retrieval: vector search (Qdrant) và BM25 (LexicalIndexService) chạy song song,
+ * trộn bằng Reciprocal Rank Fusion: score = Σ weight / (k + rank) trên từng nhánh.
+ * RRF chỉ dùng thứ hạng nên không phải chuẩn hoá cosine với BM25 về cùng thang.
+ * Một nhánh lỗi thì trả kết quả của nhánh còn lại.
+ */
+@Service
+@Slf4j
+public class HybridSearchService {
+
+    private final VectorStoreService vectorStoreService;
+    private final LexicalIndexService lexicalIndexService;
+    private final Executor retrievalExecutor;
+
+    @Value("${retrieval.top-k:12}")
+    private int topK = 12;
+    @Value("${retrieval.hybrid.candidates:20}")
+    private int candidates = 20;
+    @Value("${retrieval.hybrid.rrf-k:60}")
+    private int rrfK = 60;
+    @Value("${retrieval.hybrid.vector-weight:1.0}")
+    private double vectorWeight = 1.0;
+    @Value("${retrieval.hybrid.lexical-weight:1.0}")
+    private double lexicalWeight = 1.0;
+
+    private final LegStats vectorStats;
+    private final LegStats lexicalStats;
+
+    public HybridSearchService(VectorStoreService vectorStoreService,
+                               LexicalIndexService lexicalIndexService,
+                               @Qualifier("retrievalExecutor") Executor retrievalExecutor,
+                               MeterRegistry meterRegistry) {
+        this.vectorStoreService = vectorStoreService;
+        this.lexicalIndexService = lexicalIndexService;
+        this.retrievalExecutor = retrievalExecutor;
+        this.vectorStats = new LegStats(meterRegistry, "vector");
+        this.lexicalStats = new LegStats(meterRegistry, "lexical");
+    }
+
+    /**
+     * Kết quả đã trộn, kèm thời gian từng nhánh (-1 nếu nhánh lỗi/không chạy)
+     */
+    public record Result(List<Document> documents, long vectorMs, long lexicalMs) {
+    }
+
+    public List<Document> search(String query, SearchSpec spec) {
+        return search(query, null, spec);
+    }
+
+    /**
+     * @param queryVector embedding của query đã tính sẵn, nhánh vector dùng lại thay vì embed lần nữa; null nếu chưa có
+     */
+    public List<Document> search(String query, float[] queryVector, SearchSpec spec) {
+        return searchWithTimings(query, queryVector, spec).documents();
+    }
+
+    public Result searchWithTimings(String query, SearchSpec spec) {
+        return searchWithTimings(query, null, spec);
+    }
+
+    /**
+     * Filter của spec áp dụng cho cả hai nhánh; similarityThreshold chỉ áp dụng cho nhánh vector
+     * (BM25 không có thang điểm tuyệt đối), chunk chỉ khớp từ khoá vẫn có thể vào kết quả.
+     *
+     * @return topK document, metadata có thêm rrfScore, vectorRank, lexicalRank (hạng 1-based, thiếu nếu nhánh không trả về)
+     */
+    public Result searchWithTimings(String query, float[] queryVector, SearchSpec spec) {
+        int topK = spec.getTopK() != null ? spec.getTopK() : this.topK;
+        if (!lexicalIndexService.isEnabled()) {
+            Leg vector = timed(vectorStats, () -> vectorStoreService.searchSimilar(query, queryVector, topK, spec));
+            return new Result(vector.documents(), vector.ms(), -1);
+        }
+        int candidates = Math.max(this.candidates, topK);
+        CompletableFuture<Leg> vectorLeg = CompletableFuture.supplyAsync(
+                () -> timed(vectorStats, () -> vectorStoreService.searchSimilar(query, queryVector, candidates, spec)),
+                retrievalExecutor);
+
+        Leg lexical = null;
+        try {
+            lexical = timed(lexicalStats, () -> lexicalIndexService.search(query, candidates, spec));
+        } catch (RuntimeException e) {
+            log.warn("Lexical search failed, using vector results only: {}", e.getMessage());
+        }
+
+        Leg vector = null;
+        try {
+            vector = vectorLeg.join();
+        } catch (CompletionException e) {
+            if (lexical == null) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+            log.warn("Vector search failed, using lexical results only: {}", e.getCause().getMessage());
+        }
+
+        List<Document> fused = fuse(vector == null ? null : vector.documents(),
+                lexical == null ? null : lexical.documents(), topK);
+        long vectorMs = vector == null ? -1 : vector.ms();
+        long lexicalMs = lexical == null ? -1 : lexical.ms();
+        log.info("Hybrid search: {} vector ({} ms), {} lexical ({} ms) -> {} documents",
+                vector == null ? 0 : vector.documents().size(), vectorMs,
+                lexical == null ? 0 : lexical.documents().size(), lexicalMs, fused.size());
+        return new Result(fused, vectorMs, lexicalMs);
+    }
+
+    List<Document> fuse(List<Document> vector, List<Document> lexical, int topK) {
+        Map<String, Fused> byId = new LinkedHashMap<>();
+        if (vector != null) {
+            for (int i = 0; i < vector.size(); i++) {
+                Fused fused = byId.computeIfAbsent(vector.get(i).getId(), id -> new Fused());
+                fused.document = vector.get(i);
+                fused.vectorRank = i + 1;
+                fused.score += vectorWeight / (rrfK + i + 1);
+            }
+        }
+        if (lexical != null) {
+            for (int i = 0; i < lexical.size(); i++) {
+                Fused fused = byId.computeIfAbsent(lexical.get(i).getId(), id -> new Fused());
+                // Ưu tiên bản từ vector store (có score cosine), BM25 chỉ bổ sung hạng
+                if (fused.document == null) {
+                    fused.document = lexical.get(i);
+                }
+                fused.lexicalRank = i + 1;
+                fused.score += lexicalWeight / (rrfK + i + 1);
+            }
+        }
+        List<Fused> ranked = new ArrayList<>(byId.values());
+        ranked.sort((a, b) -> Double.compare(b.score, a.score));
+
+        List<Document> result = new ArrayList<>(Math.min(topK, ranked.size()));
+        for (Fused fused : ranked.subList(0, Math.min(topK, ranked.size()))) {
+            Map<String, Object> metadata = new HashMap<>(fused.document.getMetadata());
+            metadata.put("rrfScore", fused.score);
+            if (fused.vectorRank > 0) {
+                metadata.put("vectorRank", fused.vectorRank);
+            }
+            if (fused.lexicalRank > 0) {
+                metadata.put("lexicalRank", fused.lexicalRank);
+            }
+            result.add(fused.document.mutate().metadata(metadata).build());
+        }
+        return result;
+    }
+
+    private static final class Fused {
+        Document document;
+        int vectorRank;
+        int lexicalRank;
+        double score;
+    }
+
+    private record Leg(List<Document> documents, long ms) {
+    }
+
+    private static Leg timed(LegStats stats, Supplier<List<Document>> leg) {
+        long start = System.nanoTime();
+        try {
+            List<Document> documents = leg.get();
+            long nanos = System.nanoTime() - start;
+            stats.record(nanos, true);
+            return new Leg(documents, nanos / 1_000_000);
+        } catch (RuntimeException e) {
+            stats.errors.incrementAndGet();
+            stats.record(System.nanoTime() - start, false);
+            throw e;
+        }
+    }
+
+    /**
+     * Số liệu của một nhánh: bản tóm tắt cho /search/stats và timer chatbot.retrieval.leg (leg, outcome) cho Prometheus
+     */
+    private static final class LegStats {
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong totalMs = new AtomicLong();
+        final AtomicLong maxMs = new AtomicLong();
+        final Timer success;
+        final Timer failure;
+
+        LegStats(MeterRegistry meterRegistry, String leg) {
+            this.success = meterRegistry.timer("chatbot.retrieval.leg", "leg", leg, "outcome", "success");
+            this.failure = meterRegistry.timer("chatbot.retrieval.leg", "leg", leg, "outcome", "failure");
+        }
+
+        void record(long nanos, boolean ok) {
+            (ok ? success : failure).record(nanos, TimeUnit.NANOSECONDS);
+            long ms = nanos / 1_000_000;
+            calls.incrementAndGet();
+            totalMs.addAndGet(ms);
+            maxMs.accumulateAndGet(ms, Math::max);
+        }
+
+        Map<String, Object> toMap() {
+            long count = calls.get();
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("calls", count);
+            map.put("errors", errors.get());
+            map.put("avgMs", count == 0 ? 0 : (double) totalMs.get() / count);
+            map.put("maxMs", maxMs.get());
+            return map;
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("topK", topK);
+        stats.put("candidates", candidates);
+        stats.put("rrfK", rrfK);
+        stats.put("vectorWeight", vectorWeight);
+        stats.put("lexicalWeight", lexicalWeight);
+        stats.put("vector", vectorStats.toMap());
+        stats.put("lexical", lexicalStats.toMap());
+        stats.put("lexicalIndex", lexicalIndexService.getStats());
+        stats.put("vectorStore", vectorStoreService.getStoreStats());
+        return stats;
+    }
+}
@@ -0,0 +1,16 @@
+package vn.com.vpbank.chatbot.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Ảnh đóng gói cùng document (vd. trong file zip upload), tra theo src trong thẻ img
+ */
+@FunctionalInterface
+public interface ImageBundle {
+
+    /**
+     * @return nội dung ảnh, null nếu bundle không có ảnh này
+     */
+    InputStream open(String src) throws IOException;
+}
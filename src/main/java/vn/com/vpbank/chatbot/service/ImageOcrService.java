@@ -0,0 +1,289 @@
+package vn.com.vpbank.chatbot.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import vn.com.vpbank.chatbot.repositories.OcrCacheRepository;
+import vn.com.vpbank.chatbot.repositories.document.OcrCacheDocument;
+import vn.com.vpbank.chatbot.util.FanOut;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OCR ảnh của document: mỗi ảnh được tải một lần và lọc/thu nhỏ bởi ImagePreprocessor, rồi gọi model song song.
+ * Số lời gọi model đồng thời (mọi document cộng lại) bị giới hạn bởi semaphore ocr.concurrency, không phụ thuộc
+ * kích thước pool của ocrExecutor (ở chế độ virtual thread executor không giới hạn thread).
+ * Kết quả lưu ở collection ocr_cache theo hash nội dung ảnh + model; ảnh trùng nội dung
+ * trong và giữa các document chỉ gọi model một lần. Mỗi ảnh có timeout riêng.
+ * Ảnh của một document được fan-out qua FanOut: document bị huỷ (thread stage bị interrupt) thì ảnh chưa chạy bị bỏ,
+ * ảnh đang chạy bị interrupt (ảnh quá timeout cũng vậy) nên không giữ slot gọi model cho kết quả không ai chờ.
+ */
+@Service
+@Slf4j
+public class ImageOcrService {
+
+    private final OcrService ocrService;
+    private final ImagePreprocessor preprocessor;
+    private final OcrCacheRepository repository;
+    private final Executor executor;
+    private final Semaphore callSlots;
+    private final boolean cacheEnabled;
+    private final long timeoutMs;
+
+    // Ảnh đang được OCR (theo khoá cache): document khác cần cùng ảnh thì chờ chung kết quả thay vì gọi lại
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicLong deduplicated = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public ImageOcrService(OcrService ocrService,
+                           ImagePreprocessor preprocessor,
+                           OcrCacheRepository repository,
+                           @Qualifier("ocrExecutor") Executor executor,
+                           @Value("${ocr.concurrency:8}") int concurrency,
+                           @Value("${ocr.cache-enabled:true}") boolean cacheEnabled,
+                           @Value("${ocr.timeout-seconds:60}") long timeoutSeconds) {
+        this.ocrService = ocrService;
+        this.preprocessor = preprocessor;
+        this.repository = repository;
+        this.executor = executor;
+        this.callSlots = new Semaphore(concurrency);
+        this.cacheEnabled = cacheEnabled;
+        this.timeoutMs = TimeUnit.SECONDS.toMillis(timeoutSeconds);
+    }
+
+    public Map<String, String> ocrAll(List<String> imageUrls) {
+        return ocrAll(imageUrls, null);
+    }
+
+    /**
+     * OCR danh sách ảnh của một document
+     *
+     * @param bundle ảnh đóng gói cùng document (src tương đối), null nếu không có
+     * @return url -> text; ảnh bị bỏ qua, lỗi, quá timeout hoặc không có chữ thì không có trong map
+     */
+    public Map<String, String> ocrAll(List<String> imageUrls, ImageBundle bundle) {
+        if (imageUrls.isEmpty()) {
+            return Map.of();
+        }
+        Set<String> distinct = new LinkedHashSet<>(imageUrls);
+        requested.addAndGet(imageUrls.size());
+        deduplicated.addAndGet(imageUrls.size() - distinct.size());
+
+        Map<String, CompletableFuture<String>> pending = new LinkedHashMap<>();
+        for (String url : distinct) {
+            pending.put(url, submit(url, bundle));
+        }
+        try {
+            FanOut.awaitAll(pending.values());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for OCR of " + distinct.size() + " images", e);
+        }
+        Map<String, String> texts = new HashMap<>();
+        pending.forEach((url, future) -> {
+            String text = future.join();
+            if (text == null) {
+                timeouts.incrementAndGet();
+                log.warn("OCR timeout after {} ms: {}", timeoutMs, url);
+            } else if (!text.isBlank()) {
+                texts.put(url, text);
+            }
+        });
+        log.info("OCR {} images: {} distinct, {} with text", imageUrls.size(), distinct.size(), texts.size());
+        return texts;
+    }
+
+    /**
+     * Future chỉ kết thúc bất thường khi bị huỷ; ảnh lỗi => "", quá timeout => null.
+     * Lỗi của một ảnh không làm hỏng document nên không đi qua nhánh huỷ việc con của FanOut; future kết thúc trước
+     * worker (quá timeout, document bị huỷ) thì worker bị interrupt để thôi chờ slot gọi model.
+     */
+    private CompletableFuture<String> submit(String url, ImageBundle bundle) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                if (future.isDone()) {
+                    // Document đã bị huỷ trong lúc ảnh còn chờ
+                    return;
+                }
+                Worker worker = new Worker();
+                future.whenComplete((text, error) -> worker.interrupt());
+                // Timeout tính từ lúc bắt đầu xử lý (tải ảnh + gọi model), không tính thời gian chờ trong hàng đợi
+                future.completeOnTimeout(null, timeoutMs, TimeUnit.MILLISECONDS);
+                String text;
+                try {
+                    text = process(url, bundle);
+                } catch (Exception e) {
+                    text = "";
+                    if (!future.isDone()) {
+                        failures.incrementAndGet();
+                        log.warn("OCR failed for {}: {}", url, e.getMessage());
+                    }
+                } finally {
+                    worker.finish();
+                }
+                future.complete(text);
+            });
+        } catch (RejectedExecutionException e) {
+            failures.incrementAndGet();
+            log.warn("OCR failed for {}: {}", url, e.getMessage());
+            future.complete("");
+        }
+        return future;
+    }
+
+    private String process(String url, ImageBundle bundle) throws InterruptedException {
+        ImagePreprocessor.SourceImage source = preprocessor.load(url, bundle);
+        if (source == null) {
+            return "";
+        }
+        String key = source.hash() + ":" + ocrService.getModel();
+        String cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        boolean waited = false;
+        while (true) {
+            CompletableFuture<String> call = new CompletableFuture<>();
+            CompletableFuture<String> existing = inFlight.putIfAbsent(key, call);
+            if (existing == null) {
+                try {
+                    String text = call(source, key);
+                    call.complete(text);
+                    return text;
+                } catch (InterruptedException e) {
+                    // Document gọi model bị huỷ: document khác đang chờ cùng ảnh tự gọi lại
+                    call.cancel(false);
+                    throw e;
+                } catch (RuntimeException e) {
+                    call.completeExceptionally(e);
+                    throw e;
+                } finally {
+                    inFlight.remove(key, call);
+                }
+            }
+            if (!waited) {
+                deduplicated.incrementAndGet();
+                waited = true;
+            }
+            try {
+                return existing.get();
+            } catch (CancellationException e) {
+                // thử lại: thành người gọi model hoặc chờ lời gọi mới
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    private String call(ImagePreprocessor.SourceImage source, String key) throws InterruptedException {
+        ImagePreprocessor.PreparedImage image = preprocessor.prepare(source);
+        if (image == null) {
+            return "";
+        }
+        String text;
+        callSlots.acquire();
+        try {
+            calls.incrementAndGet();
+            text = ocrService.extractTextFromImage(image.data(), image.mimeType());
+        } finally {
+            callSlots.release();
+        }
+        if (text == null || text.isBlank()) {
+            return "";
+        }
+        // Lời gọi đã xong sau timeout vẫn được lưu, lần ingest sau lấy từ cache
+        store(key, source, text);
+        return text;
+    }
+
+    private String lookup(String key) {
+        if (!cacheEnabled) {
+            return null;
+        }
+        try {
+            String text = repository.findById(key).map(OcrCacheDocument::getText).orElse(null);
+            if (text != null) {
+                cacheHits.incrementAndGet();
+            }
+            return text;
+        } catch (Exception e) {
+            // Cache lỗi thì coi như miss, không được làm hỏng luồng ingest
+            log.warn("OCR cache lookup error: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private void store(String key, ImagePreprocessor.SourceImage source, String text) {
+        if (!cacheEnabled) {
+            return;
+        }
+        try {
+            repository.save(OcrCacheDocument.builder()
+                    .id(key)
+                    .imageHash(source.hash())
+                    .model(ocrService.getModel())
+                    .imageUrl(source.src())
+                    .text(text)
+                    .createdAt(LocalDateTime.now())
+                    .build());
+        } catch (Exception e) {
+            log.warn("OCR cache store error: {}", e.getMessage());
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        return Map.of(
+                "cacheEnabled", cacheEnabled,
+                "model", ocrService.getModel(),
+                "requested", requested.get(),
+                "deduplicated", deduplicated.get(),
+                "cacheHits", cacheHits.get(),
+                "calls", calls.get(),
+                "timeouts", timeouts.get(),
+                "failures", failures.get(),
+                "inFlight", inFlight.size(),
+                "preprocess", preprocessor.getStats()
+        );
+    }
+
+    /**
+     * Thread đang xử lý một ảnh. interrupt sau finish không có tác dụng nên không lọt sang task kế tiếp của pool.
+     */
+    private static final class Worker {
+        private Thread thread = Thread.currentThread();
+
+        synchronized void interrupt() {
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        synchronized void finish() {
+            thread = null;
+            Thread.interrupted();
+        }
+    }
+}
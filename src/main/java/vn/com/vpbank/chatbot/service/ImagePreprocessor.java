@@ -0,0 +1,565 @@
+package vn.com.vpbank.chatbot.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import vn.com.vpbank.chatbot.util.Utils;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chuẩn bị ảnh trước khi gọi vision model: tải ảnh một lần (hoặc đọc từ zip), nhận dạng định dạng theo magic bytes,
+ * bỏ ảnh quá nhỏ hoặc gần như không có nét (pixel theo dõi, spacer, icon, nền trơn), thu nhỏ ảnh quá lớn
+ * rồi gửi inline (base64) thay vì để model tự tải URL.
+ * URL ảnh đến từ HTML người dùng upload nên server chỉ tải từ địa chỉ public: host phân giải ra loopback, link-local
+ * (169.254.169.254 metadata của cloud), mạng nội bộ... bị chặn, kiểm tra lại ở mỗi lần redirect.
+ * Có thể giới hạn thêm theo danh sách host hoặc tắt hẳn việc tải ảnh từ xa.
+ */
+@Service
+@Slf4j
+public class ImagePreprocessor {
+
+    public enum SkipReason {
+        NOT_FOUND("notFound"),
+        FETCH_FAILED("fetchFailed"),
+        BLOCKED_URL("blockedUrl"),
+        TOO_LARGE("tooLarge"),
+        UNSUPPORTED_TYPE("unsupportedType"),
+        UNDECODABLE("undecodable"),
+        SMALL_FILE("smallFile"),
+        SMALL_DIMENSIONS("smallDimensions"),
+        LOW_EDGE_DENSITY("lowEdgeDensity");
+
+        private final String key;
+
+        SkipReason(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Ảnh gốc đã tải, hash theo nội dung dùng làm khoá cache OCR
+     */
+    public record SourceImage(String src, byte[] data, MimeType mimeType, String hash) {
+    }
+
+    /**
+     * Ảnh gửi cho model
+     */
+    public record PreparedImage(byte[] data, MimeType mimeType) {
+    }
+
+    private static final MimeType IMAGE_WEBP = MimeType.valueOf("image/webp");
+    private static final MimeType IMAGE_BMP = MimeType.valueOf("image/bmp");
+    private static final MimeType IMAGE_TIFF = MimeType.valueOf("image/tiff");
+    // Định dạng vision model nhận trực tiếp, định dạng khác phải chuyển sang PNG
+    private static final Set<MimeType> MODEL_TYPES =
+            Set.of(MimeTypeUtils.IMAGE_PNG, MimeTypeUtils.IMAGE_JPEG, MimeTypeUtils.IMAGE_GIF, IMAGE_WEBP);
+    // Số điểm lấy mẫu tối đa mỗi chiều khi tính mật độ cạnh
+    private static final int EDGE_SAMPLES = 512;
+    // Số ô mỗi chiều khi tính mật độ cạnh
+    private static final int EDGE_TILES = 8;
+    // Chênh lệch độ sáng (0-255) giữa hai pixel kề nhau được tính là cạnh
+    private static final int EDGE_THRESHOLD = 40;
+    private static final int MAX_REDIRECTS = 5;
+
+    // Tổng thời gian tải một ảnh, gồm cả redirect và đọc body
+    @Value("${ocr.preprocess.fetch-timeout-seconds:10}")
+    private long fetchTimeoutSeconds = 10;
+    @Value("${ocr.preprocess.remote-fetch.enabled:true}")
+    private boolean remoteFetchEnabled = true;
+    // Rỗng => mọi host public; "example.com" khớp cả subdomain
+    @Value("${ocr.preprocess.remote-fetch.allowed-hosts:}")
+    private List<String> allowedHosts = List.of();
+    @Value("${ocr.preprocess.max-bytes:20971520}")
+    private int maxBytes = 20 * 1024 * 1024;
+    @Value("${ocr.preprocess.min-bytes:512}")
+    private int minBytes = 512;
+    @Value("${ocr.preprocess.min-side:16}")
+    private int minSide = 16;
+    @Value("${ocr.preprocess.min-area:4096}")
+    private int minArea = 4096;
+    @Value("${ocr.preprocess.min-edge-density:0.001}")
+    private double minEdgeDensity = 0.001;
+    @Value("${ocr.preprocess.max-side:2048}")
+    private int maxSide = 2048;
+    @Value("${ocr.preprocess.max-inline-bytes:4194304}")
+    private int maxInlineBytes = 4 * 1024 * 1024;
+
+    // Redirect được theo thủ công để kiểm tra địa chỉ của từng bước
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    private final AtomicLong fetched = new AtomicLong();
+    private final AtomicLong bundled = new AtomicLong();
+    private final AtomicLong passed = new AtomicLong();
+    private final AtomicLong downscaled = new AtomicLong();
+    private final AtomicLong reencoded = new AtomicLong();
+    private final Map<SkipReason, AtomicLong> skipped = new EnumMap<>(SkipReason.class);
+
+    public ImagePreprocessor() {
+        for (SkipReason reason : SkipReason.values()) {
+            skipped.put(reason, new AtomicLong());
+        }
+    }
+
+    /**
+     * Tải ảnh (http/https) hoặc đọc từ bundle (src tương đối), kiểm tra định dạng và dung lượng
+     *
+     * @param bundle ảnh đi kèm document, null nếu không có
+     * @return null nếu bỏ qua ảnh (lý do được đếm trong stats)
+     */
+    public SourceImage load(String src, ImageBundle bundle) {
+        byte[] data;
+        try {
+            InputStream in;
+            if (src.startsWith("http://") || src.startsWith("https://")) {
+                if (!remoteFetchEnabled) {
+                    return skip(src, SkipReason.BLOCKED_URL);
+                }
+                in = fetch(src);
+                fetched.incrementAndGet();
+            } else {
+                in = bundle == null ? null : bundle.open(src);
+                if (in == null) {
+                    return skip(src, SkipReason.NOT_FOUND);
+                }
+                bundled.incrementAndGet();
+            }
+            try (in) {
+                data = in.readNBytes(maxBytes + 1);
+            }
+        } catch (BlockedUrlException e) {
+            log.warn("Refuse to fetch image {}: {}", src, e.getMessage());
+            return skip(src, SkipReason.BLOCKED_URL);
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Cannot load image {}: {}", src, e.getMessage());
+            return skip(src, SkipReason.FETCH_FAILED);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return skip(src, SkipReason.FETCH_FAILED);
+        }
+        if (data.length > maxBytes) {
+            return skip(src, SkipReason.TOO_LARGE);
+        }
+        MimeType mimeType = sniffMimeType(data);
+        if (mimeType == null) {
+            return skip(src, SkipReason.UNSUPPORTED_TYPE);
+        }
+        if (data.length < minBytes) {
+            return skip(src, SkipReason.SMALL_FILE);
+        }
+        return new SourceImage(src, data, mimeType, Utils.sha256Hex(data));
+    }
+
+    /**
+     * Tải ảnh trong hạn fetch-timeout (tính cả redirect và đọc body), chỉ từ địa chỉ được phép
+     *
+     * @throws BlockedUrlException URL hoặc một bước redirect trỏ tới địa chỉ không được phép
+     */
+    protected InputStream fetch(String url) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(fetchTimeoutSeconds);
+        URI uri = URI.create(url);
+        for (int redirects = 0; ; redirects++) {
+            checkAllowed(uri);
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new IOException("Image download exceeded " + fetchTimeoutSeconds + "s");
+            }
+            HttpRequest request = HttpRequest.newBuilder(uri)
+                    // chỉ giới hạn tới khi có header, body do DeadlineInputStream giới hạn
+                    .timeout(Duration.ofNanos(remaining))
+                    .GET()
+                    .build();
+            HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            int status = response.statusCode();
+            if (status == 200) {
+                return new DeadlineInputStream(response.body(), deadline, fetchTimeoutSeconds);
+            }
+            response.body().close();
+            String location = response.headers().firstValue("Location").orElse(null);
+            if (status / 100 != 3 || location == null) {
+                throw new IOException("HTTP " + status);
+            }
+            if (redirects >= MAX_REDIRECTS) {
+                throw new IOException("Too many redirects");
+            }
+            uri = uri.resolve(location);
+        }
+    }
+
+    /**
+     * Chỉ http(s), host thuộc allowed-hosts (nếu có cấu hình) và mọi địa chỉ phân giải được đều là địa chỉ public
+     */
+    void checkAllowed(URI uri) throws BlockedUrlException {
+        String scheme = uri.getScheme() == null ? "" : uri.getScheme().toLowerCase(Locale.ROOT);
+        if (!scheme.equals("http") && !scheme.equals("https")) {
+            throw new BlockedUrlException("scheme " + scheme + " not allowed");
+        }
+        String host = uri.getHost();
+        if (host == null || host.isEmpty()) {
+            throw new BlockedUrlException("missing host");
+        }
+        host = host.toLowerCase(Locale.ROOT);
+        if (!allowedHosts.isEmpty() && !isAllowedHost(host)) {
+            throw new BlockedUrlException("host " + host + " not in allowed hosts");
+        }
+        InetAddress[] addresses;
+        try {
+            addresses = InetAddress.getAllByName(host);
+        } catch (UnknownHostException e) {
+            throw new BlockedUrlException("unknown host " + host);
+        }
+        for (InetAddress address : addresses) {
+            if (!isPublicAddress(address)) {
+                throw new BlockedUrlException("host " + host + " resolves to non-public address " + address.getHostAddress());
+            }
+        }
+    }
+
+    private boolean isAllowedHost(String host) {
+        for (String allowed : allowedHosts) {
+            String entry = allowed.trim().toLowerCase(Locale.ROOT);
+            if (!entry.isEmpty() && (host.equals(entry) || host.endsWith("." + entry))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean isPublicAddress(InetAddress address) {
+        if (address.isAnyLocalAddress() || address.isLoopbackAddress() || address.isLinkLocalAddress()
+                || address.isSiteLocalAddress() || address.isMulticastAddress()) {
+            return false;
+        }
+        byte[] bytes = address.getAddress();
+        if (address instanceof Inet4Address) {
+            int first = bytes[0] & 0xFF;
+            int second = bytes[1] & 0xFF;
+            return first != 0
+                    // 100.64.0.0/10 (CGNAT), 192.0.0.0/24, 198.18.0.0/15, 240.0.0.0/4 + broadcast
+                    && !(first == 100 && (second & 0xC0) == 64)
+                    && !(first == 192 && second == 0 && (bytes[2] & 0xFF) == 0)
+                    && !(first == 198 && (second == 18 || second == 19))
+                    && first < 240;
+        }
+        // fc00::/7 (unique local)
+        return (bytes[0] & 0xFE) != 0xFC;
+    }
+
+    static final class BlockedUrlException extends IOException {
+        BlockedUrlException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Body phải đọc xong trước deadline: hết hạn thì stream bị đóng từ thread khác để read đang chặn thoát ra,
+     * worker OCR không bị giữ bởi server trả body chậm
+     */
+    private static final class DeadlineInputStream extends FilterInputStream {
+        private final long deadline;
+        private final long timeoutSeconds;
+        private volatile boolean expired;
+
+        DeadlineInputStream(InputStream in, long deadline, long timeoutSeconds) {
+            super(in);
+            this.deadline = deadline;
+            this.timeoutSeconds = timeoutSeconds;
+            CompletableFuture.delayedExecutor(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)
+                    .execute(this::expire);
+        }
+
+        private void expire() {
+            expired = true;
+            try {
+                in.close();
+            } catch (IOException ignored) {
+                // stream đã đóng
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                int value = super.read();
+                checkDeadline();
+                return value;
+            } catch (IOException e) {
+                checkDeadline();
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                int read = super.read(b, off, len);
+                checkDeadline();
+                return read;
+            } catch (IOException e) {
+                checkDeadline();
+                throw e;
+            }
+        }
+
+        private void checkDeadline() throws IOException {
+            if (expired || System.nanoTime() - deadline > 0) {
+                throw new IOException("Image download exceeded " + timeoutSeconds + "s");
+            }
+        }
+    }
+
+    /**
+     * Lọc theo kích thước và mật độ cạnh, thu nhỏ / chuyển định dạng khi cần
+     *
+     * @return null nếu bỏ qua ảnh (lý do được đếm trong stats)
+     */
+    public PreparedImage prepare(SourceImage source) {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(source.data()))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                // JDK không đọc được (vd. WebP): không kiểm tra được, gửi nguyên ảnh nếu model nhận định dạng này
+                if (MODEL_TYPES.contains(source.mimeType())) {
+                    return pass(source.data(), source.mimeType());
+                }
+                return skip(source.src(), SkipReason.UNSUPPORTED_TYPE);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if (width < minSide || height < minSide || (long) width * height < minArea) {
+                    return skip(source.src(), SkipReason.SMALL_DIMENSIONS);
+                }
+
+                // Ảnh rất lớn: đọc lấy mẫu thưa (rẻ, ít RAM) tới khoảng 2 lần kích thước đích rồi mới thu nhỏ mượt
+                ImageReadParam param = reader.getDefaultReadParam();
+                int longSide = Math.max(width, height);
+                int subsampling = Math.max(1, longSide / (maxSide * 2));
+                if (subsampling > 1) {
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                BufferedImage image;
+                try {
+                    image = reader.read(0, param);
+                } catch (IOException | RuntimeException e) {
+                    // Header đọc được nhưng JDK không giải mã được (vd. JPEG CMYK): để model tự xử lý
+                    if (MODEL_TYPES.contains(source.mimeType()) && source.data().length <= maxInlineBytes) {
+                        log.debug("Cannot decode image {}, sending as is: {}", source.src(), e.getMessage());
+                        return pass(source.data(), source.mimeType());
+                    }
+                    throw e;
+                }
+
+                if (edgeDensity(image) < minEdgeDensity) {
+                    return skip(source.src(), SkipReason.LOW_EDGE_DENSITY);
+                }
+                if (Math.max(image.getWidth(), image.getHeight()) > maxSide) {
+                    downscaled.incrementAndGet();
+                    return encode(scale(image, maxSide), source.mimeType());
+                }
+                if (!MODEL_TYPES.contains(source.mimeType()) || source.data().length > maxInlineBytes) {
+                    return encode(image, source.mimeType());
+                }
+                return pass(source.data(), source.mimeType());
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cannot decode image {}: {}", source.src(), e.getMessage());
+            return skip(source.src(), SkipReason.UNDECODABLE);
+        }
+    }
+
+    /**
+     * Định dạng ảnh theo magic bytes, null nếu không phải ảnh raster quen thuộc (SVG, trang lỗi HTML...)
+     */
+    static MimeType sniffMimeType(byte[] data) {
+        if (startsWith(data, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return MimeTypeUtils.IMAGE_PNG;
+        }
+        if (startsWith(data, 0, 0xFF, 0xD8, 0xFF)) {
+            return MimeTypeUtils.IMAGE_JPEG;
+        }
+        if (startsWith(data, 0, 'G', 'I', 'F', '8', '7', 'a') || startsWith(data, 0, 'G', 'I', 'F', '8', '9', 'a')) {
+            return MimeTypeUtils.IMAGE_GIF;
+        }
+        if (startsWith(data, 0, 'R', 'I', 'F', 'F') && startsWith(data, 8, 'W', 'E', 'B', 'P')) {
+            return IMAGE_WEBP;
+        }
+        if (startsWith(data, 0, 'B', 'M')) {
+            return IMAGE_BMP;
+        }
+        if (startsWith(data, 0, 'I', 'I', 0x2A, 0x00) || startsWith(data, 0, 'M', 'M', 0x00, 0x2A)) {
+            return IMAGE_TIFF;
+        }
+        return null;
+    }
+
+    private static boolean startsWith(byte[] data, int offset, int... magic) {
+        if (data.length < offset + magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if ((data[offset + i] & 0xFF) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Mật độ cạnh của ô dày nét nhất khi chia ảnh thành lưới EDGE_TILES x EDGE_TILES: tỉ lệ cặp pixel kề nhau
+     * (ngang/dọc) chênh độ sáng rõ rệt, lấy mẫu tối đa EDGE_SAMPLES điểm mỗi chiều. Lấy theo ô để một dòng chữ
+     * nhỏ trên nền lớn vẫn được giữ; nền trơn, gradient, spacer gần như bằng 0 ở mọi ô.
+     */
+    static double edgeDensity(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (width < 2 || height < 2) {
+            return 0;
+        }
+        int stepX = Math.max(1, width / EDGE_SAMPLES);
+        int stepY = Math.max(1, height / EDGE_SAMPLES);
+        int tileWidth = Math.max(1, (width - 1 + EDGE_TILES - 1) / EDGE_TILES);
+        int tileHeight = Math.max(1, (height - 1 + EDGE_TILES - 1) / EDGE_TILES);
+        int[] pairs = new int[EDGE_TILES * EDGE_TILES];
+        int[] edges = new int[EDGE_TILES * EDGE_TILES];
+        for (int y = 0; y < height - 1; y += stepY) {
+            int row = (y / tileHeight) * EDGE_TILES;
+            for (int x = 0; x < width - 1; x += stepX) {
+                int tile = row + x / tileWidth;
+                int luma = luma(image.getRGB(x, y));
+                if (Math.abs(luma - luma(image.getRGB(x + 1, y))) >= EDGE_THRESHOLD) {
+                    edges[tile]++;
+                }
+                if (Math.abs(luma - luma(image.getRGB(x, y + 1))) >= EDGE_THRESHOLD) {
+                    edges[tile]++;
+                }
+                pairs[tile] += 2;
+            }
+        }
+        double max = 0;
+        for (int tile = 0; tile < pairs.length; tile++) {
+            if (pairs[tile] > 0) {
+                max = Math.max(max, (double) edges[tile] / pairs[tile]);
+            }
+        }
+        return max;
+    }
+
+    // Độ sáng sau khi phủ lên nền trắng (phần trong suốt coi là trắng)
+    private static int luma(int argb) {
+        int alpha = argb >>> 24;
+        int r = (argb >> 16) & 0xFF;
+        int g = (argb >> 8) & 0xFF;
+        int b = argb & 0xFF;
+        int y = (r * 299 + g * 587 + b * 114) / 1000;
+        return (y * alpha + 255 * (255 - alpha)) / 255;
+    }
+
+    private static BufferedImage scale(BufferedImage image, int maxSide) {
+        double ratio = (double) maxSide / Math.max(image.getWidth(), image.getHeight());
+        int width = Math.max(1, (int) Math.round(image.getWidth() * ratio));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * ratio));
+        int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage scaled = new BufferedImage(width, height, type);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+
+    /**
+     * JPEG giữ JPEG (ảnh chụp), còn lại PNG (không mất nét chữ)
+     */
+    private PreparedImage encode(BufferedImage image, MimeType sourceType) throws IOException {
+        reencoded.incrementAndGet();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (MimeTypeUtils.IMAGE_JPEG.equals(sourceType) && !image.getColorModel().hasAlpha()) {
+            ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+            try (ImageOutputStream output = ImageIO.createImageOutputStream(out)) {
+                writer.setOutput(output);
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(0.9f);
+                writer.write(null, new IIOImage(image, null, null), param);
+            } finally {
+                writer.dispose();
+            }
+            return pass(out.toByteArray(), MimeTypeUtils.IMAGE_JPEG);
+        }
+        if (!ImageIO.write(image, "png", out)) {
+            throw new IOException("No PNG writer");
+        }
+        return pass(out.toByteArray(), MimeTypeUtils.IMAGE_PNG);
+    }
+
+    private PreparedImage pass(byte[] data, MimeType mimeType) {
+        passed.incrementAndGet();
+        return new PreparedImage(data, mimeType);
+    }
+
+    private <T> T skip(String src, SkipReason reason) {
+        skipped.get(reason).incrementAndGet();
+        log.debug("Skip OCR image {}: {}", src, reason);
+        return null;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Long> skips = new LinkedHashMap<>();
+        skipped.forEach((reason, count) -> skips.put(reason.key, count.get()));
+        return Map.of(
+                "fetched", fetched.get(),
+                "bundled", bundled.get(),
+                "passed", passed.get(),
+                "downscaled", downscaled.get(),
+                "reencoded", reencoded.get(),
+                "skipped", skips
+        );
+    }
+}
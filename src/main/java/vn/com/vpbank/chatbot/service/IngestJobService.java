@@ -0,0 +1,316 @@
+package vn.com.vpbank.chatbot.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import vn.com.vpbank.chatbot.repositories.IngestJobRepository;
+import vn.com.vpbank.chatbot.repositories.document.IngestJobDocument;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Theo dõi tiến độ từng lần upload. Bộ đếm cập nhật trong bộ nhớ (các stage gọi rất dày),
+ * định kỳ ghi xuống collection ingest_jobs để xem được sau khi restart.
+ */
+@Service
+@Slf4j
+public class IngestJobService {
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_COMPLETED = "COMPLETED";
+    public static final String STATUS_COMPLETED_WITH_ERRORS = "COMPLETED_WITH_ERRORS";
+    public static final String STATUS_FAILED = "FAILED";
+    // process dừng khi job đang chạy; document chưa xong cần upload lại
+    public static final String STATUS_INTERRUPTED = "INTERRUPTED";
+
+    private static final int MAX_FAILURES_KEPT = 200;
+
+    private final IngestJobRepository repository;
+    private final long stallThresholdSeconds;
+    private final Map<String, Job> activeJobs = new ConcurrentHashMap<>();
+
+    public IngestJobService(IngestJobRepository repository,
+                            @Value("${ingest.job.stall-threshold-seconds:300}") long stallThresholdSeconds) {
+        this.repository = repository;
+        this.stallThresholdSeconds = stallThresholdSeconds;
+    }
+
+    public String createJob(String name, long totalBytes) {
+        Job job = new Job(UUID.randomUUID().toString(), name, totalBytes);
+        activeJobs.put(job.id, job);
+        repository.save(job.snapshot());
+        return job.id;
+    }
+
+    public void onQueued(String jobId) {
+        with(jobId, job -> job.queued.incrementAndGet());
+    }
+
+    public void onParsed(String jobId) {
+        with(jobId, job -> job.parsed.incrementAndGet());
+    }
+
+    public void onChunked(String jobId, int chunks, long tokens) {
+        with(jobId, job -> {
+            job.chunked.incrementAndGet();
+            job.totalChunks.addAndGet(chunks);
+            job.totalTokens.addAndGet(tokens);
+        });
+    }
+
+    public void onEmbedded(String jobId, int chunks) {
+        with(jobId, job -> {
+            job.embedded.incrementAndGet();
+            job.embeddedChunks.addAndGet(chunks);
+        });
+    }
+
+    public void onStored(String jobId, int chunks) {
+        with(jobId, job -> {
+            job.stored.incrementAndGet();
+            job.storedChunks.addAndGet(chunks);
+        });
+    }
+
+    public void onFailed(String jobId, String fileName, String stage, String reason) {
+        with(jobId, job -> {
+            job.failed.incrementAndGet();
+            synchronized (job.failures) {
+                if (job.failures.size() < MAX_FAILURES_KEPT) {
+                    job.failures.add(IngestJobDocument.Failure.builder()
+                            .fileName(fileName)
+                            .stage(stage)
+                            .reason(reason)
+                            .at(LocalDateTime.now())
+                            .build());
+                }
+            }
+        });
+    }
+
+    public void onBytesRead(String jobId, long bytesRead) {
+        with(jobId, job -> job.bytesRead.set(bytesRead));
+    }
+
+    /**
+     * Đã đưa hết document của upload vào pipeline; job kết thúc khi mọi document xong
+     */
+    public void onReaderDone(String jobId, boolean aborted) {
+        with(jobId, job -> {
+            job.readerDone.set(true);
+            job.aborted.compareAndSet(false, aborted);
+        });
+    }
+
+    /**
+     * Upload bị từ chối (pipeline đầy) => bỏ job vừa tạo
+     */
+    public void discard(String jobId) {
+        activeJobs.remove(jobId);
+        try {
+            repository.deleteById(jobId);
+        } catch (Exception e) {
+            log.warn("Cannot discard ingest job {}: {}", jobId, e.getMessage());
+        }
+    }
+
+    public Optional<Map<String, Object>> getJob(String jobId) {
+        Job job = activeJobs.get(jobId);
+        if (job != null) {
+            return Optional.of(toView(job.snapshot()));
+        }
+        return repository.findById(jobId).map(this::toView);
+    }
+
+    /**
+     * Job còn RUNNING trong ingest_jobs lúc khởi động là của process trước đã dừng (tiến độ chỉ nằm trong bộ nhớ):
+     * đánh dấu INTERRUPTED thay vì để RUNNING mãi rồi hiện là stalled
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void interruptOrphanedJobs() {
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            List<IngestJobDocument> orphaned = repository.findByStatus(STATUS_RUNNING).stream()
+                    // job tạo sau khi server nhận request, trước sự kiện ready, là của process này
+                    .filter(job -> !activeJobs.containsKey(job.getId()))
+                    .toList();
+            if (orphaned.isEmpty()) {
+                return;
+            }
+            orphaned.forEach(job -> {
+                job.setStatus(STATUS_INTERRUPTED);
+                job.setFinishedAt(now);
+                job.setUpdatedAt(now);
+            });
+            repository.saveAll(orphaned);
+            log.warn("Marked {} ingest jobs left running by a previous process as {}", orphaned.size(), STATUS_INTERRUPTED);
+        } catch (Exception e) {
+            log.warn("Cannot reconcile ingest jobs at startup: {}", e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${ingest.job.flush-interval-ms:2000}")
+    public void flush() {
+        List<IngestJobDocument> snapshots = new ArrayList<>();
+        for (Job job : activeJobs.values()) {
+            IngestJobDocument snapshot = job.snapshot();
+            snapshots.add(snapshot);
+            if (!STATUS_RUNNING.equals(snapshot.getStatus())) {
+                activeJobs.remove(job.id);
+                log.info("Ingest job {} finished: {}", job.id, snapshot.getStatus());
+            }
+        }
+        if (snapshots.isEmpty()) return;
+        try {
+            repository.saveAll(snapshots);
+        } catch (Exception e) {
+            log.warn("Cannot persist ingest jobs: {}", e.getMessage());
+        }
+    }
+
+    private void with(String jobId, Consumer<Job> update) {
+        if (jobId == null) return;
+        Job job = activeJobs.get(jobId);
+        if (job != null) {
+            update.accept(job);
+            job.lastProgressAt = LocalDateTime.now();
+        }
+    }
+
+    private Map<String, Object> toView(IngestJobDocument job) {
+        LocalDateTime end = job.getFinishedAt() != null ? job.getFinishedAt() : LocalDateTime.now();
+        double elapsedSeconds = Math.max(1, Duration.between(job.getCreatedAt(), end).toMillis()) / 1000.0;
+        long done = job.getStored() + job.getFailed();
+        double documentsPerSecond = done / elapsedSeconds;
+
+        // Zip đọc chưa hết: ước lượng tổng số document theo tỉ lệ byte đã đọc
+        Long estimatedTotal = null;
+        if (job.isReaderDone()) {
+            estimatedTotal = job.getQueued();
+        } else if (job.getBytesRead() > 0 && job.getTotalBytes() > 0) {
+            estimatedTotal = Math.round((double) job.getQueued() * job.getTotalBytes() / job.getBytesRead());
+        }
+        Long etaSeconds = null;
+        if (STATUS_RUNNING.equals(job.getStatus()) && estimatedTotal != null && documentsPerSecond > 0) {
+            etaSeconds = Math.round(Math.max(0, estimatedTotal - done) / documentsPerSecond);
+        }
+        boolean stalled = STATUS_RUNNING.equals(job.getStatus()) && job.getLastProgressAt() != null
+                && Duration.between(job.getLastProgressAt(), LocalDateTime.now()).getSeconds() > stallThresholdSeconds;
+
+        Map<String, Object> documents = new LinkedHashMap<>();
+        documents.put("queued", job.getQueued());
+        documents.put("parsed", job.getParsed());
+        documents.put("chunked", job.getChunked());
+        documents.put("embedded", job.getEmbedded());
+        documents.put("stored", job.getStored());
+        documents.put("failed", job.getFailed());
+        documents.put("estimatedTotal", estimatedTotal);
+
+        Map<String, Object> chunks = new LinkedHashMap<>();
+        chunks.put("total", job.getTotalChunks());
+        chunks.put("tokens", job.getTotalTokens());
+        chunks.put("embedded", job.getEmbeddedChunks());
+        chunks.put("stored", job.getStoredChunks());
+
+        Map<String, Object> view = new LinkedHashMap<>();
+        view.put("id", job.getId());
+        view.put("name", job.getName());
+        view.put("status", job.getStatus());
+        view.put("stalled", stalled);
+        view.put("documents", documents);
+        view.put("chunks", chunks);
+        view.put("chunksPerSecond", job.getStoredChunks() / elapsedSeconds);
+        view.put("documentsPerSecond", documentsPerSecond);
+        view.put("etaSeconds", etaSeconds);
+        view.put("elapsedSeconds", elapsedSeconds);
+        view.put("failures", job.getFailures());
+        view.put("createdAt", job.getCreatedAt());
+        view.put("updatedAt", job.getUpdatedAt());
+        view.put("finishedAt", job.getFinishedAt());
+        return view;
+    }
+
+    private static class Job {
+        private final String id;
+        private final String name;
+        private final long totalBytes;
+        private final LocalDateTime createdAt = LocalDateTime.now();
+        private volatile LocalDateTime lastProgressAt = createdAt;
+        private volatile LocalDateTime finishedAt;
+
+        private final AtomicLong bytesRead = new AtomicLong();
+        private final AtomicBoolean readerDone = new AtomicBoolean();
+        private final AtomicBoolean aborted = new AtomicBoolean();
+        private final AtomicLong queued = new AtomicLong();
+        private final AtomicLong parsed = new AtomicLong();
+        private final AtomicLong chunked = new AtomicLong();
+        private final AtomicLong embedded = new AtomicLong();
+        private final AtomicLong stored = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong totalChunks = new AtomicLong();
+        private final AtomicLong totalTokens = new AtomicLong();
+        private final AtomicLong embeddedChunks = new AtomicLong();
+        private final AtomicLong storedChunks = new AtomicLong();
+        private final List<IngestJobDocument.Failure> failures = new ArrayList<>();
+
+        private Job(String id, String name, long totalBytes) {
+            this.id = id;
+            this.name = name;
+            this.totalBytes = totalBytes;
+        }
+
+        private String status() {
+            boolean finished = readerDone.get() && stored.get() + failed.get() >= queued.get();
+            if (!finished) return STATUS_RUNNING;
+            if (aborted.get() && stored.get() == 0) return STATUS_FAILED;
+            return failed.get() > 0 || aborted.get() ? STATUS_COMPLETED_WITH_ERRORS : STATUS_COMPLETED;
+        }
+
+        private IngestJobDocument snapshot() {
+            String status = status();
+            if (!STATUS_RUNNING.equals(status) && finishedAt == null) {
+                finishedAt = LocalDateTime.now();
+            }
+            List<IngestJobDocument.Failure> failuresCopy;
+            synchronized (failures) {
+                failuresCopy = new ArrayList<>(failures);
+            }
+            return IngestJobDocument.builder()
+                    .id(id)
+                    .name(name)
+                    .status(status)
+                    .totalBytes(totalBytes)
+                    .bytesRead(bytesRead.get())
+                    .readerDone(readerDone.get())
+                    .queued(queued.get())
+                    .parsed(parsed.get())
+                    .chunked(chunked.get())
+                    .embedded(embedded.get())
+                    .stored(stored.get())
+                    .failed(failed.get())
+                    .totalChunks(totalChunks.get())
+                    .totalTokens(totalTokens.get())
+                    .embeddedChunks(embeddedChunks.get())
+                    .storedChunks(storedChunks.get())
+                    .failures(failuresCopy)
+                    .createdAt(createdAt)
+                    .updatedAt(LocalDateTime.now())
+                    .lastProgressAt(lastProgressAt)
+                    .finishedAt(finishedAt)
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package vn.com.vpbank.chatbot.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Giới hạn lượng dữ liệu đang xử lý ingest: tổng số byte nội dung đang nằm trong bộ nhớ
+ * và số document đang chờ/đang chạy. Thread đọc zip bị chặn khi hết quota => backpressure.
+ * Mỗi byte đọc từ zip bị tính expansion-factor byte: tới khi stage parse xong, document còn có String UTF-16
+ * (2 byte/ký tự) và cây DOM của Jsoup, lớn hơn nội dung gốc nhiều lần. Sau parse quota được thu lại
+ * theo kích thước ước lượng của phần còn giữ trên task.
+ * Lease không bao giờ vừa giữ quota vừa chờ thêm: nhiều reader cùng nở dần không thể khoá lẫn nhau.
+ */
+@Service
+@Slf4j
+public class IngestMemoryBudget {
+
+    private final int budgetBytes;
+    private final int maxEntryBytes;
+    private final double expansionFactor;
+    private final int maxInFlightDocuments;
+    private final Semaphore bytes;
+    private final Semaphore documents;
+
+    public IngestMemoryBudget(@Value("${ingest.memory-budget-mb:256}") int memoryBudgetMb,
+                              @Value("${ingest.max-entry-mb:64}") int maxEntryMb,
+                              @Value("${ingest.max-in-flight-documents:200}") int maxInFlightDocuments,
+                              @Value("${ingest.memory-expansion-factor:6}") double expansionFactor) {
+        this.budgetBytes = (int) Math.min(Integer.MAX_VALUE, memoryBudgetMb * 1024L * 1024L);
+        this.maxEntryBytes = (int) Math.min(budgetBytes, maxEntryMb * 1024L * 1024L);
+        this.expansionFactor = Math.max(1, expansionFactor);
+        this.maxInFlightDocuments = maxInFlightDocuments;
+        this.bytes = new Semaphore(budgetBytes, true);
+        this.documents = new Semaphore(maxInFlightDocuments, true);
+    }
+
+    public int getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    /**
+     * Giữ một slot document, chặn tới khi có slot trống
+     */
+    public Lease open() throws InterruptedException {
+        documents.acquire();
+        return new Lease();
+    }
+
+    /**
+     * Giữ slot và cả quota cho rawBytes byte nội dung nếu còn ngay, dùng cho request HTTP (không chặn)
+     *
+     * @return null nếu hết slot hoặc hết quota
+     */
+    public Lease tryOpen(long rawBytes) {
+        if (!documents.tryAcquire()) {
+            return null;
+        }
+        Lease lease = new Lease();
+        if (!lease.tryReserve(rawBytes)) {
+            lease.close();
+            return null;
+        }
+        return lease;
+    }
+
+    private int charge(long rawBytes) {
+        return (int) Math.min(budgetBytes, (long) Math.ceil(rawBytes * expansionFactor));
+    }
+
+    public Map<String, Object> getStats() {
+        return Map.of(
+                "budgetBytes", budgetBytes,
+                "expansionFactor", expansionFactor,
+                "inFlightBytes", budgetBytes - bytes.availablePermits(),
+                "maxInFlightDocuments", maxInFlightDocuments,
+                "inFlightDocuments", maxInFlightDocuments - documents.availablePermits()
+        );
+    }
+
+    /**
+     * Quota của một document; tăng theo số byte đọc được (nhân expansion-factor, tối đa cả budget),
+     * thu lại sau parse, trả lại toàn bộ khi close
+     */
+    public class Lease implements AutoCloseable {
+        private boolean closed;
+        private int rawBytes;
+        private int heldBytes;
+
+        private Lease() {
+        }
+
+        /**
+         * Xin trước quota cho cả entry khi biết kích thước (vd. size khai báo trong zip), tránh nở dần theo block
+         */
+        public void reserve(long expectedRawBytes) throws InterruptedException {
+            ensure(charge(expectedRawBytes));
+        }
+
+        public void grow(int size) throws InterruptedException {
+            ensure(charge(rawBytes + (long) size));
+            synchronized (this) {
+                rawBytes += size;
+            }
+        }
+
+        private boolean tryReserve(long expectedRawBytes) {
+            int target = charge(expectedRawBytes);
+            if (!bytes.tryAcquire(target)) {
+                return false;
+            }
+            synchronized (this) {
+                heldBytes = target;
+            }
+            return true;
+        }
+
+        /**
+         * Nâng quota đang giữ lên target. Không xin thêm được ngay thì trả hết phần đang giữ rồi chờ cả khối:
+         * giữ-và-chờ sẽ khoá chết khi hai reader cùng nở tới giữa budget
+         */
+        private void ensure(int target) throws InterruptedException {
+            int held = getHeldBytes();
+            if (target <= held || bytes.tryAcquire(target - held, 0, TimeUnit.MILLISECONDS)) {
+                setHeld(Math.max(held, target));
+                return;
+            }
+            setHeld(0);
+            bytes.release(held);
+            bytes.acquire(target);
+            setHeld(target);
+        }
+
+        private synchronized void setHeld(int held) {
+            heldBytes = held;
+        }
+
+        /**
+         * Số byte nội dung đã đọc (chưa nhân hệ số)
+         */
+        public int getRawBytes() {
+            return rawBytes;
+        }
+
+        public synchronized int getHeldBytes() {
+            return heldBytes;
+        }
+
+        /**
+         * Trả lại phần quota vượt quá size, dùng khi dữ liệu lớn (HTML, DOM) đã được bỏ
+         */
+        public synchronized void shrinkTo(long size) {
+            if (!closed && size < heldBytes) {
+                int keep = (int) Math.max(0, size);
+                bytes.release(heldBytes - keep);
+                heldBytes = keep;
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                bytes.release(heldBytes);
+                documents.release();
+            }
+        }
+    }
+}
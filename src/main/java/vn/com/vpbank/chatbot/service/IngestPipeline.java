@@ -0,0 +1,212 @@
+package vn.com.vpbank.chatbot.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Ingest theo stage: parse -> ocr -> extract (clean text, bảng, text ảnh) -> chunk -> embed -> upsert.
+ * Mỗi stage có hàng đợi và số worker riêng; stage sau đầy thì worker stage trước chờ,
+ * đầu vào đầy thì API trả 429 thay vì âm thầm bỏ document.
+ * Timer chatbot.ingest.stage (stage, outcome) chỉ đo phần việc của stage, không tính thời gian chờ stage sau;
+ * độ sâu hàng đợi/số thread đang chạy của từng executor có sẵn ở metric executor.* (tag name = tên bean).
+ * Chế độ virtual thread (AsyncConfig): executor không có pool, giới hạn của stage lấy từ
+ * ingest.pipeline.<stage>.concurrency/queue-capacity và do semaphore của IngestStage thực thi.
+ */
+@Service
+@Slf4j
+public class IngestPipeline {
+
+    private final DocumentIngestionService ingestionService;
+    private final VectorStoreService vectorStoreService;
+    private final IngestJobService jobService;
+    private final MeterRegistry meterRegistry;
+    private final Environment environment;
+
+    private final IngestStage<IngestTask> parseStage;
+    private final IngestStage<IngestTask> ocrStage;
+    private final IngestStage<IngestTask> extractStage;
+    private final IngestStage<IngestTask> chunkStage;
+    private final IngestStage<IngestTask> embedStage;
+    private final IngestStage<IngestTask> upsertStage;
+
+    public IngestPipeline(DocumentIngestionService ingestionService,
+                          VectorStoreService vectorStoreService,
+                          IngestJobService jobService,
+                          @Qualifier("ingestExecutor") Executor parseExecutor,
+                          @Qualifier("ocrStageExecutor") Executor ocrExecutor,
+                          @Qualifier("extractExecutor") Executor extractExecutor,
+                          @Qualifier("chunkExecutor") Executor chunkExecutor,
+                          @Qualifier("embedExecutor") Executor embedExecutor,
+                          @Qualifier("addStoreExecutor") Executor upsertExecutor,
+                          MeterRegistry meterRegistry,
+                          Environment environment) {
+        this.ingestionService = ingestionService;
+        this.vectorStoreService = vectorStoreService;
+        this.jobService = jobService;
+        this.meterRegistry = meterRegistry;
+        this.environment = environment;
+        this.upsertStage = stage("upsert", upsertExecutor, this::upsert);
+        this.embedStage = stage("embed", embedExecutor, this::embed);
+        this.chunkStage = stage("chunk", chunkExecutor, this::chunk);
+        this.extractStage = stage("extract", extractExecutor, this::extract);
+        this.ocrStage = stage("ocr", ocrExecutor, this::ocr);
+        this.parseStage = stage("parse", parseExecutor, this::parse);
+    }
+
+    /**
+     * Không chặn, dùng cho request HTTP: false nếu pipeline đang đầy
+     */
+    public boolean trySubmit(IngestTask task) {
+        if (!parseStage.trySubmit(task)) {
+            return false;
+        }
+        jobService.onQueued(task.getJobId());
+        return true;
+    }
+
+    /**
+     * Chặn tới khi stage parse có chỗ, dùng cho luồng đọc zip
+     */
+    public void submit(IngestTask task) throws InterruptedException {
+        parseStage.submit(task);
+        jobService.onQueued(task.getJobId());
+    }
+
+    public boolean hasCapacity() {
+        return parseStage.hasCapacity();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (IngestStage<IngestTask> stage : List.of(parseStage, ocrStage, extractStage, chunkStage, embedStage, upsertStage)) {
+            stats.put(stage.getName(), stage.getStats());
+        }
+        return stats;
+    }
+
+    private void parse(IngestTask task) {
+        if (task.getHtmlContent() == null) {
+            task.setHtmlContent(new String(task.getContent(), StandardCharsets.UTF_8));
+            task.setContent(null);
+        }
+        task.setExtraction(timed("parse", () -> ingestionService.parse(task.getHtmlContent())));
+        ingestionService.saveMetadata(task);
+        task.setHtmlContent(null);
+        if (task.getLease() != null) {
+            // HTML và DOM đã bỏ: chỉ giữ quota cho kết quả parse (clean text/chunk sau đó cùng cỡ)
+            task.getLease().shrinkTo(2 * task.getExtraction().estimatedBytes());
+        }
+        jobService.onParsed(task.getJobId());
+        handOff(ocrStage, task);
+    }
+
+    private void ocr(IngestTask task) {
+        try {
+            task.setImageTexts(timed("ocr", () -> ingestionService.ocrImages(task.getExtraction(), task.images())));
+        } finally {
+            task.releaseImages();
+        }
+        handOff(extractStage, task);
+    }
+
+    private void extract(IngestTask task) {
+        task.setCleanText(timed("extract", () -> ingestionService.extractText(task.getExtraction(), task.getImageTexts())));
+        task.setExtraction(null);
+        task.setImageTexts(null);
+        handOff(chunkStage, task);
+    }
+
+    private void chunk(IngestTask task) {
+        // Metadata được ghi theo lô trong lúc document đi qua ocr/extract; thường đã xong khi tới đây
+        timed("metadata", () -> {
+            ingestionService.awaitMetadata(task);
+            return null;
+        });
+        task.setChunks(timed("chunk", () -> ingestionService.chunk(task.getDocument(), task.getCleanText())));
+        task.setCleanText(null);
+        jobService.onChunked(task.getJobId(), task.getChunks().size(),
+                DocumentIngestionService.tokenCount(task.getChunks()));
+        if (!ingestionService.needsVectorSync(task)) {
+            jobService.onEmbedded(task.getJobId(), 0);
+            jobService.onStored(task.getJobId(), 0);
+            task.release();
+            return;
+        }
+        handOff(embedStage, task);
+    }
+
+    private void embed(IngestTask task) {
+        task.setVectors(timed("embed", () -> vectorStoreService.embedChunks(task.getChunks(), task.getPreviousVectorIds())));
+        jobService.onEmbedded(task.getJobId(), task.getChunks().size());
+        handOff(upsertStage, task);
+    }
+
+    private void upsert(IngestTask task) {
+        try {
+            int stored = timed("upsert", () -> ingestionService.syncVectors(task));
+            jobService.onStored(task.getJobId(), stored);
+        } finally {
+            task.release();
+        }
+    }
+
+    private <T> T timed(String stage, Supplier<T> work) {
+        long start = System.nanoTime();
+        String outcome = "failure";
+        try {
+            T result = work.get();
+            outcome = "success";
+            return result;
+        } finally {
+            meterRegistry.timer("chatbot.ingest.stage", "stage", stage, "outcome", outcome)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void handOff(IngestStage<IngestTask> next, IngestTask task) {
+        try {
+            next.submit(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while handing off to stage " + next.getName(), e);
+        }
+    }
+
+    private IngestStage<IngestTask> stage(String name, Executor executor, Consumer<IngestTask> handler) {
+        int concurrency;
+        int queueCapacity;
+        if (executor instanceof ThreadPoolTaskExecutor pool) {
+            concurrency = pool.getCorePoolSize();
+            queueCapacity = pool.getQueueCapacity();
+        } else {
+            // Virtual thread: 0 => số core CPU như pool của stage CPU
+            String prefix = "ingest.pipeline." + name;
+            int configured = environment.getProperty(prefix + ".concurrency", Integer.class, 0);
+            concurrency = configured > 0 ? configured : Runtime.getRuntime().availableProcessors();
+            queueCapacity = environment.getProperty(prefix + ".queue-capacity", Integer.class, 100);
+        }
+        return new IngestStage<>(name, executor, concurrency, queueCapacity, handler, failure -> {
+            try {
+                log.error("Document {} failed at stage {}: {}", failure.task().getFileName(), failure.stage(),
+                        failure.error().getMessage());
+                jobService.onFailed(failure.task().getJobId(), failure.task().getFileName(), failure.stage(),
+                        String.valueOf(failure.error().getMessage()));
+            } finally {
+                failure.task().release();
+            }
+        });
+    }
+}
@@ -0,0 +1,162 @@
+package vn.com.vpbank.chatbot.service;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * Một stage của ingest pipeline: hàng đợi có giới hạn + số worker cố định.
+ * Slot = concurrency + queueCapacity; hết slot thì submit bị chặn (giữa các stage)
+ * hoặc trySubmit trả false (ở đầu vào => API trả 429).
+ * Số worker do semaphore workers giới hạn chứ không dựa vào kích thước pool: với executor virtual thread
+ * mỗi task có thread riêng, task vượt concurrency chờ permit (đóng vai hàng đợi) mà không giữ platform thread.
+ */
+@Slf4j
+public class IngestStage<T> {
+    private static final int RATE_WINDOW_SECONDS = 60;
+
+    @Getter
+    private final String name;
+    private final Executor executor;
+    @Getter
+    private final int concurrency;
+    @Getter
+    private final int queueCapacity;
+    private final Consumer<T> handler;
+    private final Consumer<FailedTask<T>> onFailure;
+    private final Semaphore slots;
+    private final Semaphore workers;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    // số task hoàn thành theo từng giây trong cửa sổ 60s gần nhất
+    private final AtomicLongArray completedPerSecond = new AtomicLongArray(RATE_WINDOW_SECONDS);
+    private final AtomicLongArray bucketSecond = new AtomicLongArray(RATE_WINDOW_SECONDS);
+
+    public IngestStage(String name, Executor executor, int concurrency, int queueCapacity,
+                       Consumer<T> handler, Consumer<FailedTask<T>> onFailure) {
+        this.name = name;
+        this.executor = executor;
+        this.concurrency = concurrency;
+        this.queueCapacity = queueCapacity;
+        this.handler = handler;
+        this.onFailure = onFailure;
+        this.slots = new Semaphore(concurrency + queueCapacity, true);
+        this.workers = new Semaphore(concurrency, true);
+    }
+
+    /**
+     * Đưa task vào stage, chặn tới khi có slot (backpressure từ stage sau lan ngược lên stage trước)
+     */
+    public void submit(T task) throws InterruptedException {
+        slots.acquire();
+        dispatch(task);
+    }
+
+    /**
+     * Không chặn: false nếu stage đang đầy
+     */
+    public boolean trySubmit(T task) {
+        if (!slots.tryAcquire()) {
+            return false;
+        }
+        dispatch(task);
+        return true;
+    }
+
+    public boolean hasCapacity() {
+        return slots.availablePermits() > 0;
+    }
+
+    private void dispatch(T task) {
+        try {
+            executor.execute(() -> run(task));
+        } catch (RuntimeException e) {
+            slots.release();
+            throw e;
+        }
+    }
+
+    private void run(T task) {
+        try {
+            workers.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            slots.release();
+            failed.incrementAndGet();
+            onFailure.accept(new FailedTask<>(name, task, e));
+            return;
+        }
+        active.incrementAndGet();
+        try {
+            handler.accept(task);
+            completed.incrementAndGet();
+            recordCompletion();
+        } catch (Throwable e) {
+            // Cả Error (OOM, StackOverflow...): onFailure vẫn phải chạy để trả quota/ảnh và đưa job về trạng thái cuối
+            failed.incrementAndGet();
+            log.error("Ingest stage {} failed: ", name, e);
+            onFailure.accept(new FailedTask<>(name, task, e));
+            if (e instanceof Error error) {
+                throw error;
+            }
+        } finally {
+            active.decrementAndGet();
+            workers.release();
+            slots.release();
+        }
+    }
+
+    private void recordCompletion() {
+        long second = System.currentTimeMillis() / 1000;
+        int bucket = (int) (second % RATE_WINDOW_SECONDS);
+        if (bucketSecond.getAndSet(bucket, second) != second) {
+            completedPerSecond.set(bucket, 0);
+        }
+        completedPerSecond.incrementAndGet(bucket);
+    }
+
+    public double getThroughputPerSecond() {
+        long now = System.currentTimeMillis() / 1000;
+        long sum = 0;
+        for (int i = 0; i < RATE_WINDOW_SECONDS; i++) {
+            if (now - bucketSecond.get(i) < RATE_WINDOW_SECONDS) {
+                sum += completedPerSecond.get(i);
+            }
+        }
+        return (double) sum / RATE_WINDOW_SECONDS;
+    }
+
+    public int getActive() {
+        return active.get();
+    }
+
+    public int getQueueDepth() {
+        int inUse = concurrency + queueCapacity - slots.availablePermits();
+        return Math.max(0, inUse - active.get());
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("concurrency", concurrency);
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("queueDepth", getQueueDepth());
+        stats.put("active", getActive());
+        stats.put("completed", completed.get());
+        stats.put("failed", failed.get());
+        stats.put("throughputPerSec", getThroughputPerSecond());
+        return stats;
+    }
+
+    public record FailedTask<T>(String stage, T task, Throwable error) {
+    }
+}
@@ -0,0 +1,60 @@
+package vn.com.vpbank.chatbot.service;
+
+import lombok.Data;
+import vn.com.vpbank.chatbot.bean.DocumentChunk;
+import vn.com.vpbank.chatbot.bean.HtmlExtraction;
+import vn.com.vpbank.chatbot.repositories.document.BookDocument;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Trạng thái một document khi đi qua các stage; dữ liệu của stage trước được bỏ ngay khi không cần nữa
+ */
+@Data
+public class IngestTask {
+    private final String jobId;
+    private final String fileName;
+    private byte[] content;
+    private IngestMemoryBudget.Lease lease;
+    // zip chứa document (ảnh đi kèm) và tên entry trong zip, giữ tới hết stage OCR
+    private ZipImageBundle imageBundle;
+    private String entryName;
+
+    private String htmlContent;
+    // kết quả parse HTML duy nhất, giữ tới stage extract
+    private HtmlExtraction extraction;
+    // url ảnh -> text OCR
+    private Map<String, String> imageTexts;
+    // metadata đang chờ lô ghi Mongo (BookDocumentWriter), stage chunk lấy id từ đây
+    private CompletableFuture<BookDocumentWriter.Saved> savedMetadata;
+    private BookDocument document;
+    // point id đã lưu lần ingest trước (null nếu chưa biết)
+    private List<String> previousVectorIds;
+    private String cleanText;
+    private List<DocumentChunk> chunks;
+    // text chunk -> vector tính ở stage embed, stage upsert ghi thẳng
+    private Map<String, float[]> vectors;
+
+    /**
+     * Ảnh đi kèm document, null nếu document không đến từ zip
+     */
+    public ImageBundle images() {
+        return imageBundle == null ? null : imageBundle.forEntry(entryName);
+    }
+
+    public void releaseImages() {
+        if (imageBundle != null) {
+            imageBundle.release();
+            imageBundle = null;
+        }
+    }
+
+    public void release() {
+        if (lease != null) {
+            lease.close();
+        }
+        releaseImages();
+    }
+}
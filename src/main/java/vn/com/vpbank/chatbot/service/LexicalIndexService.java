@@ -0,0 +1,292 @@
+package vn.com.vpbank.chatbot.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.QueryBuilder;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import vn.com.vpbank.chatbot.bean.DocumentChunk;
+import vn.com.vpbank.chatbot.bean.SearchSpec;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Index BM25 (Lucene) trên cùng các DocumentChunk đưa lên vector store, lưu trên đĩa local.
+ * Bổ sung cho vector search ở các truy vấn cần khớp đúng từ: mã văn bản, tên riêng, thuật ngữ có dấu.
+ */
+@Service
+@Slf4j
+public class LexicalIndexService {
+    private static final String POINT_ID = "pointId";
+    private static final String SOURCE_ID = "sourceId";
+    private static final String CONTENT = "content";
+    private static final String CONTENT_FOLDED = "contentFolded";
+    private static final String CONTENT_BIGRAM = "contentBigram";
+    private static final String TITLE = "title";
+    // tên sách nguyên văn, chỉ dùng để lọc
+    private static final String TITLE_KEY = "titleKey";
+    private static final String AUTHOR = "author";
+    private static final String CHUNK_INDEX = "chunkIndex";
+
+    // Trọng số từng field khi truy vấn: khớp đúng dấu và đúng từ ghép được ưu tiên
+    private static final Map<String, Float> QUERY_FIELDS = Map.of(
+            CONTENT, 1.0f,
+            CONTENT_FOLDED, 0.5f,
+            CONTENT_BIGRAM, 1.5f,
+            TITLE, 0.5f
+    );
+
+    @Value("${lexical-index.enabled:true}")
+    private boolean enabled = true;
+    @Value("${lexical-index.path:data/lexical-index}")
+    private String indexPath = "data/lexical-index";
+
+    private Analyzer analyzer;
+    private FSDirectory directory;
+    private IndexWriter writer;
+    private SearcherManager searcherManager;
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    @PostConstruct
+    public void open() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        VietnameseAnalyzer exact = new VietnameseAnalyzer(VietnameseAnalyzer.Mode.EXACT);
+        analyzer = new PerFieldAnalyzerWrapper(exact, Map.of(
+                CONTENT_FOLDED, new VietnameseAnalyzer(VietnameseAnalyzer.Mode.FOLDED),
+                CONTENT_BIGRAM, new VietnameseAnalyzer(VietnameseAnalyzer.Mode.BIGRAM)
+        ));
+        Path path = Path.of(indexPath);
+        Files.createDirectories(path);
+        directory = FSDirectory.open(path);
+        writer = new IndexWriter(directory, new IndexWriterConfig(analyzer)
+                .setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND));
+        searcherManager = new SearcherManager(writer, null);
+        log.info("Lexical index opened at {} with {} chunks", path.toAbsolutePath(), writer.getDocStats().numDocs);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Thay toàn bộ chunk của một document (xoá và thêm trong cùng một thao tác nguyên tử)
+     */
+    public void replaceSource(String sourceId, List<DocumentChunk> chunks) {
+        if (!enabled) {
+            return;
+        }
+        List<org.apache.lucene.document.Document> docs = new ArrayList<>(chunks.size());
+        for (DocumentChunk chunk : chunks) {
+            docs.add(toLucene(chunk));
+        }
+        try {
+            writer.updateDocuments(new Term(SOURCE_ID, sourceId), docs);
+            dirty.set(true);
+            searcherManager.maybeRefresh();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot index chunks of " + sourceId, e);
+        }
+    }
+
+    public void deleteSource(String sourceId) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            writer.deleteDocuments(new Term(SOURCE_ID, sourceId));
+            dirty.set(true);
+            searcherManager.maybeRefresh();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot delete chunks of " + sourceId, e);
+        }
+    }
+
+    /**
+     * BM25 trên nội dung chunk (và tên sách), chỉ trong các chunk thoả filter của spec
+     *
+     * @return Document cùng id/metadata như bản trên vector store, score BM25 trong metadata "lexicalScore"
+     */
+    public List<Document> search(String query, int topK, SearchSpec spec) {
+        if (!enabled) {
+            return List.of();
+        }
+        Query luceneQuery = buildQuery(normalize(query), spec);
+        if (luceneQuery == null) {
+            return List.of();
+        }
+        try {
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                TopDocs top = searcher.search(luceneQuery, topK);
+                List<Document> hits = new ArrayList<>(top.scoreDocs.length);
+                for (ScoreDoc scoreDoc : top.scoreDocs) {
+                    hits.add(toDocument(searcher.storedFields().document(scoreDoc.doc), scoreDoc.score));
+                }
+                return hits;
+            } finally {
+                searcherManager.release(searcher);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Lexical search failed", e);
+        }
+    }
+
+    private Query buildQuery(String query, SearchSpec spec) {
+        BooleanQuery.Builder text = new BooleanQuery.Builder();
+        int clauses = 0;
+        for (Map.Entry<String, Float> field : QUERY_FIELDS.entrySet()) {
+            Query fieldQuery = new QueryBuilder(analyzer).createBooleanQuery(field.getKey(), query);
+            if (fieldQuery != null) {
+                text.add(new BoostQuery(fieldQuery, field.getValue()), BooleanClause.Occur.SHOULD);
+                clauses++;
+            }
+        }
+        if (clauses == 0) {
+            return null;
+        }
+        if (!spec.hasFilters()) {
+            return text.build();
+        }
+        // Filter không tính vào score BM25
+        BooleanQuery.Builder filtered = new BooleanQuery.Builder().add(text.build(), BooleanClause.Occur.MUST);
+        if (spec.getTitle() != null) {
+            filtered.add(new TermQuery(new Term(TITLE_KEY, spec.getTitle())), BooleanClause.Occur.FILTER);
+        }
+        if (spec.getAuthor() != null) {
+            filtered.add(new TermQuery(new Term(AUTHOR, spec.getAuthor())), BooleanClause.Occur.FILTER);
+        }
+        if (spec.getSourceIds() != null && !spec.getSourceIds().isEmpty()) {
+            List<BytesRef> sourceIds = spec.getSourceIds().stream().map(BytesRef::new).toList();
+            filtered.add(new TermInSetQuery(SOURCE_ID, sourceIds), BooleanClause.Occur.FILTER);
+        }
+        if (spec.getChunkIndexFrom() != null || spec.getChunkIndexTo() != null) {
+            int from = spec.getChunkIndexFrom() != null ? spec.getChunkIndexFrom() : Integer.MIN_VALUE;
+            int to = spec.getChunkIndexTo() != null ? spec.getChunkIndexTo() : Integer.MAX_VALUE;
+            filtered.add(IntPoint.newRangeQuery(CHUNK_INDEX, from, to), BooleanClause.Occur.FILTER);
+        }
+        return filtered.build();
+    }
+
+    private org.apache.lucene.document.Document toLucene(DocumentChunk chunk) {
+        String content = normalize(chunk.getContent());
+        org.apache.lucene.document.Document doc = new org.apache.lucene.document.Document();
+        doc.add(new StringField(POINT_ID, chunk.getPointId(), Field.Store.YES));
+        doc.add(new StringField(SOURCE_ID, chunk.getSourceId(), Field.Store.YES));
+        doc.add(new TextField(CONTENT, content, Field.Store.YES));
+        doc.add(new TextField(CONTENT_FOLDED, content, Field.Store.NO));
+        doc.add(new TextField(CONTENT_BIGRAM, content, Field.Store.NO));
+        if (chunk.getTitle() != null) {
+            doc.add(new TextField(TITLE, normalize(chunk.getTitle()), Field.Store.YES));
+            doc.add(new StringField(TITLE_KEY, chunk.getTitle(), Field.Store.NO));
+        }
+        if (chunk.getAuthor() != null) {
+            doc.add(new StringField(AUTHOR, chunk.getAuthor(), Field.Store.YES));
+        }
+        if (chunk.getChunkId() != null) {
+            doc.add(new StoredField("chunkId", chunk.getChunkId()));
+        }
+        doc.add(new IntPoint(CHUNK_INDEX, chunk.getChunkIndex()));
+        doc.add(new StoredField(CHUNK_INDEX, chunk.getChunkIndex()));
+        if (chunk.getContentHash() != null) {
+            doc.add(new StoredField("contentHash", chunk.getContentHash()));
+        }
+        doc.add(new StoredField("tokenCount", chunk.getTokenCount()));
+        return doc;
+    }
+
+    // Cùng metadata với VectorStoreService.convertToDocument để hai nguồn trộn được với nhau
+    private Document toDocument(org.apache.lucene.document.Document doc, float score) {
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("title", doc.get(TITLE));
+        metadata.put("author", doc.get(AUTHOR));
+        metadata.put("chunkId", doc.get("chunkId"));
+        metadata.put("chunkIndex", doc.getField(CHUNK_INDEX).numericValue().intValue());
+        metadata.put(SOURCE_ID, doc.get(SOURCE_ID));
+        metadata.put("contentHash", doc.get("contentHash"));
+        metadata.put(POINT_ID, doc.get(POINT_ID));
+        metadata.put("tokenCount", doc.getField("tokenCount").numericValue().intValue());
+        metadata.put("lexicalScore", score);
+        metadata.values().removeIf(java.util.Objects::isNull);
+        return Document.builder()
+                .id(doc.get(POINT_ID))
+                .text(doc.get(CONTENT))
+                .metadata(metadata)
+                .build();
+    }
+
+    // Text tiếng Việt có thể ở dạng tổ hợp (NFD) hoặc dựng sẵn (NFC): đưa về NFC để cùng một từ ra cùng token
+    private static String normalize(String text) {
+        return Normalizer.normalize(text, Normalizer.Form.NFC);
+    }
+
+    @Scheduled(fixedDelayString = "${lexical-index.commit-interval-ms:5000}")
+    public void commit() {
+        if (!enabled || !dirty.compareAndSet(true, false)) {
+            return;
+        }
+        try {
+            writer.commit();
+        } catch (IOException e) {
+            dirty.set(true);
+            log.warn("Cannot commit lexical index: {}", e.getMessage());
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        if (!enabled) {
+            return Map.of("enabled", false);
+        }
+        return Map.of(
+                "enabled", true,
+                "path", indexPath,
+                "chunks", writer.getDocStats().numDocs,
+                "uncommitted", dirty.get()
+        );
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        searcherManager.close();
+        writer.close();
+        directory.close();
+    }
+}
@@ -9,11 +9,11 @@ import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.model.Media;
 import org.springframework.ai.openai.OpenAiChatModel;
 import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
 import org.springframework.stereotype.Service;
 import org.springframework.util.MimeType;
-import org.springframework.util.MimeTypeUtils;
 
-import java.net.URL;
 import java.util.List;
 
 @Service
@@ -22,11 +22,19 @@ import java.util.List;
 public class OcrService {
     private final OpenAiChatModel openAiChatModel;
 
-    public String extractTextFromImage(String imageUrl) {
+    @Value("${ocr.model:gpt-4o}")
+    private String model = "gpt-4o";
+
+    public String getModel() {
+        return model;
+    }
+
+    /**
+     * @param image ảnh đã qua ImagePreprocessor, gửi inline (base64) cho model
+     */
+    public String extractTextFromImage(byte[] image, MimeType mimeType) {
         try {
-            URL url = new URL(imageUrl);
-            MimeType mime = MimeTypeUtils.parseMimeType(detectMimeType(imageUrl));
-            Media imageMedia = new Media(mime, url);
+            Media imageMedia = new Media(mimeType, new ByteArrayResource(image));
 
             UserMessage userMessage = new UserMessage(
                     "Extract all readable text from this image. Return plain text only.",
@@ -35,7 +43,7 @@ public class OcrService {
             Prompt prompt = new Prompt(
                     List.of(userMessage),
                     OpenAiChatOptions.builder()
-                            .model("gpt-4o")
+                            .model(model)
                             .build()
             );
             ChatResponse response = openAiChatModel.call(prompt);
@@ -45,12 +53,4 @@ public class OcrService {
             return Strings.EMPTY;
         }
     }
-
-    private String detectMimeType(String imageUrl) {
-        String u = imageUrl.toLowerCase();
-        if (u.endsWith(".png")) return "image/png";
-        if (u.endsWith(".jpg") || u.endsWith(".jpeg")) return "image/jpeg";
-        if (u.endsWith(".gif")) return "image/gif";
-        return "application/octet-stream";
-    }
 }
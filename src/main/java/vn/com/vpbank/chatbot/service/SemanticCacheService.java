@@ -0,0 +1,207 @@
+package vn.com.vpbank.chatbot.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import vn.com.vpbank.chatbot.bean.ChatAnswer;
+import vn.com.vpbank.chatbot.util.Utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache câu trả lời theo ngữ nghĩa câu hỏi: câu hỏi mới đủ giống (cosine >= threshold)
+ * một câu đã trả lời thì dùng lại câu trả lời đó, bỏ qua search + LLM.
+ * Mỗi lần invalidate tăng version của source; câu trả lời tính từ trước đó (version lấy lúc probe) không được put.
+ */
+@Service
+@Slf4j
+public class SemanticCacheService {
+
+    private final EmbeddingModel embeddingModel;
+    private final boolean enabled;
+    private final double similarityThreshold;
+    private final long ttlMillis;
+    private final Map<String, Entry> entries;
+    // sourceId -> version của lần invalidate gần nhất; sửa cùng entries dưới khoá entries
+    private final Map<String, Long> sourceVersions = new HashMap<>();
+    private long version;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public SemanticCacheService(EmbeddingModel embeddingModel,
+                                @Value("${semantic-cache.enabled:true}") boolean enabled,
+                                @Value("${semantic-cache.similarity-threshold:0.95}") double similarityThreshold,
+                                @Value("${semantic-cache.max-size:1000}") int maxSize,
+                                @Value("${semantic-cache.ttl-minutes:60}") long ttlMinutes) {
+        this.embeddingModel = embeddingModel;
+        this.enabled = enabled;
+        this.similarityThreshold = similarityThreshold;
+        this.ttlMillis = ttlMinutes * 60_000L;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public static String normalizeQuestion(String question) {
+        String normalized = Utils.normalizeForKey(question).toLowerCase(Locale.ROOT);
+        int end = normalized.length();
+        while (end > 0 && "?!. ".indexOf(normalized.charAt(end - 1)) >= 0) {
+            end--;
+        }
+        return normalized.substring(0, end);
+    }
+
+    public float[] embedQuestion(String normalizedQuestion) {
+        return unit(embeddingModel.embed(normalizedQuestion));
+    }
+
+    /**
+     * Version hiện tại, lấy trước khi search để put biết câu trả lời có tính từ dữ liệu đã bị invalidate hay không
+     */
+    public long currentVersion() {
+        synchronized (entries) {
+            return version;
+        }
+    }
+
+    public Optional<ChatAnswer> lookup(String normalizedQuestion, float[] questionVector) {
+        long now = System.currentTimeMillis();
+        // Chỉ chụp danh sách dưới khoá, tính cosine O(entries x dim) ngoài khoá
+        List<Entry> snapshot;
+        synchronized (entries) {
+            snapshot = new ArrayList<>(entries.values());
+        }
+        Entry best = null;
+        double bestScore = -1;
+        List<Entry> expired = new ArrayList<>();
+        for (Entry entry : snapshot) {
+            if (now - entry.createdAt > ttlMillis) {
+                expired.add(entry);
+                continue;
+            }
+            double score = entry.question.equals(normalizedQuestion) ? 1.0 : dot(entry.vector, questionVector);
+            if (score > bestScore) {
+                bestScore = score;
+                best = entry;
+            }
+        }
+        boolean hit = best != null && bestScore >= similarityThreshold;
+        if (hit || !expired.isEmpty()) {
+            synchronized (entries) {
+                for (Entry entry : expired) {
+                    entries.remove(entry.question, entry);
+                }
+                // get đánh dấu vừa dùng cho LRU; entry có thể đã bị invalidate/thay sau khi chụp
+                hit = hit && entries.get(best.question) == best;
+            }
+        }
+        if (hit) {
+            hits.incrementAndGet();
+            return Optional.of(ChatAnswer.builder()
+                    .answer(best.answer)
+                    .cached(true)
+                    .similarity(bestScore)
+                    .sourceIds(best.sourceIds)
+                    .build());
+        }
+        misses.incrementAndGet();
+        return Optional.empty();
+    }
+
+    /**
+     * @param probeVersion currentVersion() lấy trước khi search; bỏ qua nếu một source của câu trả lời
+     *                     đã bị invalidate sau đó (câu trả lời có thể dựa trên nội dung cũ)
+     * @return false nếu không put
+     */
+    public boolean put(String normalizedQuestion, float[] questionVector, String answer, Set<String> sourceIds,
+                       long probeVersion) {
+        synchronized (entries) {
+            for (String sourceId : sourceIds) {
+                if (sourceVersions.getOrDefault(sourceId, 0L) > probeVersion) {
+                    log.debug("Skip caching answer backed by {}: invalidated while answering", sourceId);
+                    return false;
+                }
+            }
+            entries.put(normalizedQuestion, new Entry(normalizedQuestion, questionVector, answer,
+                    Set.copyOf(sourceIds), System.currentTimeMillis()));
+            return true;
+        }
+    }
+
+    /**
+     * Document thay đổi sau khi ingest => bỏ mọi câu trả lời đã dựa trên document đó
+     */
+    public void invalidateSource(String sourceId) {
+        int removed = 0;
+        synchronized (entries) {
+            sourceVersions.put(sourceId, ++version);
+            Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().sourceIds.contains(sourceId)) {
+                    it.remove();
+                    removed++;
+                }
+            }
+        }
+        if (removed > 0) {
+            invalidations.addAndGet(removed);
+            log.info("Invalidated {} cached answers backed by {}", removed, sourceId);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        long total = hits.get() + misses.get();
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return Map.of(
+                "enabled", enabled,
+                "hits", hits.get(),
+                "misses", misses.get(),
+                "hitRatio", total == 0 ? 0.0 : (double) hits.get() / total,
+                "invalidations", invalidations.get(),
+                "size", size,
+                "similarityThreshold", similarityThreshold
+        );
+    }
+
+    private static float[] unit(float[] vector) {
+        double norm = 0;
+        for (float v : vector) norm += v * v;
+        norm = Math.sqrt(norm);
+        if (norm == 0) return vector;
+        float[] result = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) result[i] = (float) (vector[i] / norm);
+        return result;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        if (a.length != b.length) return -1;
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) sum += a[i] * b[i];
+        return sum;
+    }
+
+    private record Entry(String question, float[] vector, String answer, Set<String> sourceIds, long createdAt) {
+    }
+}
@@ -0,0 +1,141 @@
+package vn.com.vpbank.chatbot.service;
+
+import io.qdrant.client.QdrantClient;
+import io.qdrant.client.grpc.Collections.BinaryQuantization;
+import io.qdrant.client.grpc.Collections.CollectionInfo;
+import io.qdrant.client.grpc.Collections.Disabled;
+import io.qdrant.client.grpc.Collections.PayloadSchemaType;
+import io.qdrant.client.grpc.Collections.QuantizationConfig;
+import io.qdrant.client.grpc.Collections.QuantizationConfigDiff;
+import io.qdrant.client.grpc.Collections.QuantizationType;
+import io.qdrant.client.grpc.Collections.ScalarQuantization;
+import io.qdrant.client.grpc.Collections.UpdateCollection;
+import io.qdrant.client.grpc.Collections.VectorParamsDiff;
+import io.qdrant.client.grpc.Collections.VectorsConfigDiff;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import vn.com.vpbank.chatbot.vectorstore.Quantization;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tạo payload index trên Qdrant cho các field dùng trong filter (search theo SearchSpec, xoá point cũ theo sourceId).
+ * Không có index, Qdrant phải duyệt payload của mọi point ứng viên khi lọc.
+ * Tạo lại index đã có với cùng kiểu là no-op nên chạy mỗi lần khởi động.
+ * Cùng lúc đưa cấu hình quantization của collection về đúng vector-store.quantization: collection đang có
+ * dữ liệu được Qdrant lượng tử hoá lại ở nền (optimizer), search vẫn chạy trong lúc đó.
+ */
+@Component
+@ConditionalOnProperty(name = "vector-store.type", havingValue = "qdrant", matchIfMissing = true)
+@Slf4j
+public class VectorStoreIndexInitializer {
+
+    private static final Map<String, PayloadSchemaType> INDEXED_FIELDS = new LinkedHashMap<>();
+
+    static {
+        INDEXED_FIELDS.put("sourceId", PayloadSchemaType.Keyword);
+        INDEXED_FIELDS.put("pointId", PayloadSchemaType.Keyword);
+        INDEXED_FIELDS.put("title", PayloadSchemaType.Keyword);
+        INDEXED_FIELDS.put("author", PayloadSchemaType.Keyword);
+        INDEXED_FIELDS.put("chunkIndex", PayloadSchemaType.Integer);
+    }
+
+    private final QdrantClient qdrantClient;
+
+    @Value("${spring.ai.vectorstore.qdrant.collection-name:vector_store}")
+    private String collectionName;
+    @Value("${vector-store.payload-index.enabled:true}")
+    private boolean enabled;
+    @Value("${vector-store.payload-index.timeout-seconds:30}")
+    private long timeoutSeconds;
+    @Value("${vector-store.quantization.type:none}")
+    private String quantization;
+    // Vector gốc chỉ dùng khi rescore => để trên đĩa, RAM chỉ giữ bản lượng tử hoá; về lại RAM khi type = none
+    @Value("${vector-store.quantization.originals-on-disk:true}")
+    private boolean originalsOnDisk;
+
+    public VectorStoreIndexInitializer(QdrantClient qdrantClient) {
+        this.qdrantClient = qdrantClient;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void initializeCollection() {
+        applyQuantization();
+        if (enabled) {
+            createPayloadIndexes();
+        }
+    }
+
+    private void applyQuantization() {
+        Quantization target = Quantization.parse(quantization);
+        try {
+            CollectionInfo info = qdrantClient.getCollectionInfoAsync(collectionName, Duration.ofSeconds(timeoutSeconds))
+                    .get(timeoutSeconds, TimeUnit.SECONDS);
+            Quantization current = quantizationOf(info.getConfig().getQuantizationConfig());
+            if (current == target) {
+                return;
+            }
+            UpdateCollection.Builder update = UpdateCollection.newBuilder()
+                    .setCollectionName(collectionName)
+                    .setQuantizationConfig(quantizationDiff(target));
+            if (originalsOnDisk) {
+                // Tắt quantization thì search đọc lại vector gốc => đưa vector gốc về RAM
+                update.setVectorsConfig(VectorsConfigDiff.newBuilder()
+                        .setParams(VectorParamsDiff.newBuilder().setOnDisk(target != Quantization.NONE)));
+            }
+            qdrantClient.updateCollectionAsync(update.build(), Duration.ofSeconds(timeoutSeconds))
+                    .get(timeoutSeconds, TimeUnit.SECONDS);
+            log.info("Collection {} quantization {} -> {}, Qdrant re-indexes existing points in background",
+                    collectionName, current, target);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // Search vẫn đúng với cấu hình cũ => không chặn khởi động
+            log.warn("Cannot apply quantization {} to {}: {}", target, collectionName, e.getMessage());
+        }
+    }
+
+    private static Quantization quantizationOf(QuantizationConfig config) {
+        if (config.hasScalar()) {
+            return Quantization.INT8;
+        }
+        return config.hasBinary() ? Quantization.BINARY : Quantization.NONE;
+    }
+
+    private static QuantizationConfigDiff quantizationDiff(Quantization target) {
+        QuantizationConfigDiff.Builder diff = QuantizationConfigDiff.newBuilder();
+        return switch (target) {
+            case NONE -> diff.setDisabled(Disabled.getDefaultInstance()).build();
+            case INT8 -> diff.setScalar(ScalarQuantization.newBuilder()
+                    .setType(QuantizationType.Int8)
+                    .setQuantile(0.99f)
+                    .setAlwaysRam(true)).build();
+            case BINARY -> diff.setBinary(BinaryQuantization.newBuilder().setAlwaysRam(true)).build();
+        };
+    }
+
+    private void createPayloadIndexes() {
+        Duration timeout = Duration.ofSeconds(timeoutSeconds);
+        for (Map.Entry<String, PayloadSchemaType> field : INDEXED_FIELDS.entrySet()) {
+            try {
+                qdrantClient.createPayloadIndexAsync(collectionName, field.getKey(), field.getValue(),
+                                null, true, null, timeout)
+                        .get(timeoutSeconds, TimeUnit.SECONDS);
+                log.info("Payload index ready: {}.{} ({})", collectionName, field.getKey(), field.getValue());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                // Search/filter vẫn đúng khi thiếu index, chỉ chậm hơn => không chặn khởi động
+                log.warn("Cannot create payload index {}.{}: {}", collectionName, field.getKey(), e.getMessage());
+            }
+        }
+    }
+}
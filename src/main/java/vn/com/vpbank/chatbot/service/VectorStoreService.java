@@ -1,61 +1,251 @@
 package vn.com.vpbank.chatbot.service;
 
-import io.github.resilience4j.retry.annotation.Retry;
-import lombok.RequiredArgsConstructor;
+import io.github.resilience4j.retry.Retry;
+import io.github.resilience4j.retry.RetryRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
 import org.springframework.ai.vectorstore.VectorStore;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import vn.com.vpbank.chatbot.bean.DocumentChunk;
+import vn.com.vpbank.chatbot.bean.SearchSpec;
+import vn.com.vpbank.chatbot.vectorstore.EmbeddedVectorStore;
+import vn.com.vpbank.chatbot.vectorstore.Quantization;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class VectorStoreService {
     private final VectorStore vectorStore;
+    // chỉ dùng cho stage embed: gom qua BatchingEmbeddingModel; search đi qua model của vector store (không gom lô)
+    private final EmbeddingModel ingestEmbeddingModel;
+    private final RetryRegistry retryRegistry;
 
-    @Async("addStoreExecutor")
-    public void addDocuments(List<DocumentChunk> chunks) {
+    @Value("${vector-store.quantization.type:none}")
+    private String quantization;
+    @Value("${vector-store.quantization.rescore-oversampling:3}")
+    private int rescoreOversampling;
+
+    public VectorStoreService(VectorStore vectorStore,
+                              @Qualifier("ingestEmbeddingModel") EmbeddingModel ingestEmbeddingModel,
+                              RetryRegistry retryRegistry) {
+        this.vectorStore = vectorStore;
+        this.ingestEmbeddingModel = ingestEmbeddingModel;
+        this.retryRegistry = retryRegistry;
+    }
+
+    /**
+     * Đồng bộ chunk của một document lên vector store theo kiểu incremental:
+     * chỉ upsert chunk mới/thay đổi, sau đó xoá các point cũ của sourceId không còn trong tập mới.
+     * Chunk đã được DocumentChunkingService giới hạn theo token của embedding model nên không phải lọc bỏ.
+     *
+     * @param previousIds point id đã lưu lần ingest trước, null nếu chưa biết (document cũ/lần đầu)
+     * @param vectors     text -> vector do stage embed tính (embedChunks), vector store ghi thẳng thay vì embed lại;
+     *                    null => vector store tự embed
+     * @return point id đang có trên vector store sau khi đồng bộ
+     */
+    public List<String> syncDocuments(String sourceId, List<DocumentChunk> chunks, Collection<String> previousIds,
+                                      Map<String, float[]> vectors) {
+        List<DocumentChunk> changed = changed(chunks, previousIds);
+
+        if (vectors == null) {
+            addDocuments(changed);
+        } else {
+            CachingEmbeddingModel.withVectors(vectors, () -> {
+                addDocuments(changed);
+                return null;
+            });
+        }
+
+        List<String> currentIds = chunks.stream().map(DocumentChunk::getPointId).toList();
+        boolean hasStale = previousIds == null || !new HashSet<>(currentIds).containsAll(previousIds);
+        if (hasStale) {
+            deleteStale(sourceId, currentIds);
+        }
+        log.info("{} synced vector store: {} chunks, {} upserted, {} unchanged",
+                sourceId, currentIds.size(), changed.size(), currentIds.size() - changed.size());
+        return currentIds;
+    }
+
+    /**
+     * Stage embed: tính embedding cho các chunk thay đổi qua EmbeddingModel (có cache).
+     * Vector đi kèm document sang stage upsert để ghi point, không phụ thuộc việc cache còn giữ hay không.
+     * Gửi cả document một lần: BatchingEmbeddingModel tự chia/gộp với document khác theo giới hạn của provider.
+     *
+     * @return text -> vector của các chunk thay đổi
+     */
+    public Map<String, float[]> embedChunks(List<DocumentChunk> chunks, Collection<String> previousIds) {
+        List<String> texts = changed(chunks, previousIds).stream()
+                .map(DocumentChunk::getContent)
+                .distinct()
+                .toList();
+        if (texts.isEmpty()) {
+            return Map.of();
+        }
+        List<float[]> embeddings = ingestEmbeddingModel.embed(texts);
+        Map<String, float[]> vectors = new HashMap<>(texts.size() * 2);
+        for (int i = 0; i < texts.size(); i++) {
+            vectors.put(texts.get(i), embeddings.get(i));
+        }
+        return vectors;
+    }
+
+    private List<DocumentChunk> changed(List<DocumentChunk> chunks, Collection<String> previousIds) {
+        Set<String> existing = previousIds == null ? Set.of() : new HashSet<>(previousIds);
+        return chunks.stream()
+                .filter(chunk -> !existing.contains(chunk.getPointId()))
+                .toList();
+    }
+
+    /**
+     * Thống kê của vector store nhúng; Qdrant không có số liệu phía client nên chỉ trả tên store
+     */
+    public Map<String, Object> getStoreStats() {
+        if (vectorStore instanceof EmbeddedVectorStore embedded) {
+            return embedded.getStats();
+        }
+        return Map.of("type", vectorStore.getName());
+    }
+
+    public List<Document> searchSimilar(String query) {
+        return vectorStore.similaritySearch(query);
+    }
+
+    /**
+     * Search với topK, ngưỡng score và filter do Qdrant thực thi (SearchPoints.filter/scoreThreshold)
+     */
+    public List<Document> searchSimilar(String query, int topK, SearchSpec spec) {
+        return searchSimilar(query, null, topK, spec);
+    }
+
+    /**
+     * @param queryVector embedding của query đã tính sẵn (vd. lúc tra semantic cache), null => vector store tự embed
+     */
+    public List<Document> searchSimilar(String query, float[] queryVector, int topK, SearchSpec spec) {
+        if (queryVector != null) {
+            return CachingEmbeddingModel.withVectors(Map.of(query, queryVector),
+                    () -> searchSimilar(query, null, topK, spec));
+        }
+        // Collection Qdrant có quantization: Qdrant chấm lại kết quả bằng vector gốc (rescore mặc định bật),
+        // lấy dư rồi cắt lại topK = oversampling. Store nhúng tự oversample bên trong.
+        boolean oversample = Quantization.parse(quantization) != Quantization.NONE
+                && !(vectorStore instanceof EmbeddedVectorStore);
+        SearchRequest.Builder request = SearchRequest.builder()
+                .query(query)
+                .topK(oversample ? topK * rescoreOversampling : topK)
+                .filterExpression(filterOf(spec));
+        if (spec.getSimilarityThreshold() != null) {
+            request.similarityThreshold(spec.getSimilarityThreshold());
+        }
+        List<Document> documents = vectorStore.similaritySearch(request.build());
+        return documents.size() > topK ? documents.subList(0, topK) : documents;
+    }
+
+    /**
+     * Filter payload theo spec; các field này có payload index (VectorStoreIndexInitializer)
+     *
+     * @return null nếu spec không lọc gì
+     */
+    static Filter.Expression filterOf(SearchSpec spec) {
+        FilterExpressionBuilder b = new FilterExpressionBuilder();
+        List<FilterExpressionBuilder.Op> conditions = new ArrayList<>();
+        if (spec.getTitle() != null) {
+            conditions.add(b.eq("title", spec.getTitle()));
+        }
+        if (spec.getAuthor() != null) {
+            conditions.add(b.eq("author", spec.getAuthor()));
+        }
+        if (spec.getSourceIds() != null && !spec.getSourceIds().isEmpty()) {
+            conditions.add(spec.getSourceIds().size() == 1
+                    ? b.eq("sourceId", spec.getSourceIds().get(0))
+                    : b.in("sourceId", new ArrayList<Object>(spec.getSourceIds())));
+        }
+        if (spec.getChunkIndexFrom() != null) {
+            conditions.add(b.gte("chunkIndex", spec.getChunkIndexFrom()));
+        }
+        if (spec.getChunkIndexTo() != null) {
+            conditions.add(b.lte("chunkIndex", spec.getChunkIndexTo()));
+        }
+        if (conditions.isEmpty()) {
+            return null;
+        }
+        FilterExpressionBuilder.Op filter = conditions.get(0);
+        for (int i = 1; i < conditions.size(); i++) {
+            filter = b.and(filter, conditions.get(i));
+        }
+        return filter.build();
+    }
+
+    private void addDocuments(List<DocumentChunk> chunks) {
         if (chunks.isEmpty()) {
             return;
         }
         int batchSize = 100;
         for (int i = 0; i < chunks.size(); i += batchSize) {
             int end = Math.min(i + batchSize, chunks.size());
-            List<DocumentChunk> batch = chunks.subList(i, end);
-            List<Document> documents = batch.parallelStream()
-                    .map(this::convertToDocument)
-                    .filter(doc -> doc.getFormattedContent().length() < 15000) // Ước lượng < ~8191 token
-                    .collect(Collectors.toList());
+            List<Document> documents = toDocuments(chunks.subList(i, end));
             addToVectorStore(documents);
             log.info("{} add {} chunk to store", chunks.get(i).getSourceId(), documents.size());
         }
         log.info("Added {} chunks to vector store", chunks.size());
     }
 
-    public List<Document> searchSimilar(String query) {
-        return vectorStore.similaritySearch(query);
+    /**
+     * Xoá bằng payload filter: sourceId == X và pointId không thuộc tập hiện tại.
+     * Point cũ không có pointId (ingest trước khi có id tất định) cũng bị xoá.
+     */
+    private void deleteStale(String sourceId, List<String> currentIds) {
+        FilterExpressionBuilder b = new FilterExpressionBuilder();
+        Filter.Expression filter = currentIds.isEmpty()
+                ? b.eq("sourceId", sourceId).build()
+                : b.and(b.eq("sourceId", sourceId), b.not(b.group(b.in("pointId", new ArrayList<Object>(currentIds))))).build();
+        withRetry(() -> vectorStore.delete(filter));
+    }
+
+    List<Document> toDocuments(List<DocumentChunk> chunks) {
+        return chunks.stream()
+                .map(this::convertToDocument)
+                .collect(Collectors.toList());
     }
 
-    private Document convertToDocument(DocumentChunk chunk) {
+    Document convertToDocument(DocumentChunk chunk) {
         Map<String, Object> metadata = new HashMap<>();
         metadata.put("title", chunk.getTitle());
         metadata.put("author", chunk.getAuthor());
         metadata.put("chunkId", chunk.getChunkId());
         metadata.put("chunkIndex", chunk.getChunkIndex());
         metadata.put("sourceId", chunk.getSourceId());
+        metadata.put("contentHash", chunk.getContentHash());
+        metadata.put("pointId", chunk.getPointId());
+        metadata.put("tokenCount", chunk.getTokenCount());
 
-        return new Document(chunk.getContent(), metadata);
+        return Document.builder()
+                .id(chunk.getPointId())
+                .text(chunk.getContent())
+                .metadata(metadata)
+                .build();
     }
 
-    @Retry(name = "vectorStoreRetry")
+    // Point id tất định nên upsert lại cùng batch không sinh bản ghi trùng => retry an toàn
     private void addToVectorStore(List<Document> documents) {
-        vectorStore.add(documents);
+        withRetry(() -> vectorStore.add(documents));
+    }
+
+    private void withRetry(Runnable action) {
+        Retry retry = retryRegistry.retry("vectorStoreRetry");
+        Retry.decorateRunnable(retry, action).run();
     }
 }
@@ -0,0 +1,51 @@
+package vn.com.vpbank.chatbot.service;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.miscellaneous.ASCIIFoldingFilter;
+import org.apache.lucene.analysis.shingle.ShingleFilter;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+
+/**
+ * Phân tích tiếng Việt cho index BM25 (text đã chuẩn hoá NFC trước khi đưa vào):
+ * <ul>
+ *     <li>EXACT: âm tiết viết thường, giữ dấu - khớp đúng thuật ngữ có dấu</li>
+ *     <li>FOLDED: bỏ dấu (kể cả đ -> d) - câu hỏi gõ không dấu vẫn khớp</li>
+ *     <li>BIGRAM: cặp âm tiết liền nhau - từ ghép ("ngân hàng", "nợ xấu") khớp chặt hơn từng âm tiết lẻ</li>
+ * </ul>
+ */
+final class VietnameseAnalyzer extends Analyzer {
+
+    enum Mode {EXACT, FOLDED, BIGRAM}
+
+    private final Mode mode;
+
+    VietnameseAnalyzer(Mode mode) {
+        this.mode = mode;
+    }
+
+    @Override
+    protected TokenStreamComponents createComponents(String fieldName) {
+        Tokenizer source = new StandardTokenizer();
+        TokenStream stream = new LowerCaseFilter(source);
+        switch (mode) {
+            case FOLDED -> stream = new ASCIIFoldingFilter(stream);
+            case BIGRAM -> {
+                ShingleFilter shingles = new ShingleFilter(stream, 2, 2);
+                shingles.setOutputUnigrams(false);
+                stream = shingles;
+            }
+            default -> {
+            }
+        }
+        return new TokenStreamComponents(source, stream);
+    }
+
+    @Override
+    protected TokenStream normalize(String fieldName, TokenStream in) {
+        TokenStream stream = new LowerCaseFilter(in);
+        return mode == Mode.FOLDED ? new ASCIIFoldingFilter(stream) : stream;
+    }
+}
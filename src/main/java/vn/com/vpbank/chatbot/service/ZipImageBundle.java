@@ -0,0 +1,121 @@
+package vn.com.vpbank.chatbot.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Ảnh nằm trong file zip upload. Zip tạm được giữ tới khi luồng đọc zip và mọi document của nó
+ * đã qua stage OCR (đếm tham chiếu), sau đó đóng và xoá file.
+ */
+@Slf4j
+public final class ZipImageBundle {
+    private final Path zipPath;
+    private final ZipFile zipFile;
+    // luồng đọc zip giữ tham chiếu đầu tiên
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    private ZipImageBundle(Path zipPath, ZipFile zipFile) {
+        this.zipPath = zipPath;
+        this.zipFile = zipFile;
+    }
+
+    public static ZipImageBundle open(Path zipPath) throws IOException {
+        return new ZipImageBundle(zipPath, new ZipFile(zipPath.toFile()));
+    }
+
+    public ZipImageBundle retain() {
+        refs.incrementAndGet();
+        return this;
+    }
+
+    public void release() {
+        if (refs.decrementAndGet() == 0) {
+            try {
+                zipFile.close();
+            } catch (IOException e) {
+                log.warn("Cannot close zip {}: {}", zipPath.getFileName(), e.getMessage());
+            }
+            try {
+                Files.deleteIfExists(zipPath);
+            } catch (IOException e) {
+                log.warn("Cannot delete temp zip {}: {}", zipPath, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Ảnh của một document trong zip: src tương đối tính từ thư mục chứa file HTML
+     */
+    public ImageBundle forEntry(String entryName) {
+        return src -> {
+            String name = resolve(entryName, src);
+            ZipEntry entry = name == null ? null : zipFile.getEntry(name);
+            if (entry == null || entry.isDirectory()) {
+                return null;
+            }
+            return zipFile.getInputStream(entry);
+        };
+    }
+
+    /**
+     * Tên entry của src (bỏ query/fragment, giải mã %xx, xử lý . và ..)
+     *
+     * @return null nếu src trỏ ra ngoài zip hoặc là URL tuyệt đối
+     */
+    static String resolve(String entryName, String src) {
+        String path = src.trim();
+        int end = path.length();
+        for (char c : new char[]{'?', '#'}) {
+            int index = path.indexOf(c);
+            if (index >= 0 && index < end) {
+                end = index;
+            }
+        }
+        path = path.substring(0, end);
+        if (path.isEmpty() || path.contains(":")) {
+            return null;
+        }
+        try {
+            path = URLDecoder.decode(path.replace("+", "%2B"), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            // %xx sai định dạng: dùng nguyên văn
+        }
+
+        Deque<String> segments = new ArrayDeque<>();
+        if (!path.startsWith("/")) {
+            int slash = entryName.lastIndexOf('/');
+            if (slash > 0) {
+                for (String segment : entryName.substring(0, slash).split("/")) {
+                    if (!segment.isEmpty()) {
+                        segments.addLast(segment);
+                    }
+                }
+            }
+        }
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty() || segment.equals(".")) {
+                continue;
+            }
+            if (segment.equals("..")) {
+                if (segments.isEmpty()) {
+                    return null;
+                }
+                segments.removeLast();
+            } else {
+                segments.addLast(segment);
+            }
+        }
+        return segments.isEmpty() ? null : String.join("/", segments);
+    }
+}
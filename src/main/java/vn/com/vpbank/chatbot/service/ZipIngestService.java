@@ -0,0 +1,148 @@
+package vn.com.vpbank.chatbot.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Đọc zip tuần tự từng entry (ZipInputStream), không load cả file vào RAM.
+ * Mỗi entry giữ quota trong IngestMemoryBudget tới khi pipeline xử lý xong.
+ * File zip tạm được giữ (ZipImageBundle) tới khi mọi document đã OCR xong ảnh đi kèm.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ZipIngestService {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final IngestPipeline ingestPipeline;
+    private final IngestMemoryBudget memoryBudget;
+    private final IngestJobService jobService;
+
+    @Async("zipReaderExecutor")
+    public void ingestZipAsync(Path zipPath, String jobId) {
+        int dispatched = 0;
+        boolean aborted = true;
+        ZipImageBundle imageBundle = openImageBundle(zipPath);
+        try (FileChannel channel = FileChannel.open(zipPath, StandardOpenOption.READ);
+             ZipInputStream zis = new ZipInputStream(new BufferedInputStream(Channels.newInputStream(channel)))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                jobService.onBytesRead(jobId, channel.position());
+                if (entry.isDirectory() || !isHtml(entry.getName())) {
+                    continue;
+                }
+                String fileName = Paths.get(entry.getName()).getFileName().toString();
+                fileName = fileName.replaceAll("[\\\\/]+", "_");
+
+                IngestMemoryBudget.Lease lease = memoryBudget.open();
+                byte[] content;
+                try {
+                    content = readEntry(zis, entry.getSize(), lease);
+                } catch (IOException | InterruptedException | RuntimeException e) {
+                    lease.close();
+                    throw e;
+                }
+                if (content == null) {
+                    lease.close();
+                    log.warn("Skip zip entry {}: larger than {} bytes", entry.getName(), memoryBudget.getMaxEntryBytes());
+                    jobService.onQueued(jobId);
+                    jobService.onFailed(jobId, fileName, "read",
+                            "Entry larger than " + memoryBudget.getMaxEntryBytes() + " bytes");
+                    continue;
+                }
+                // Đẩy vào pipeline (chặn khi stage parse đầy), quota được trả khi document xử lý xong
+                IngestTask task = new IngestTask(jobId, fileName);
+                task.setContent(content);
+                task.setLease(lease);
+                task.setEntryName(entry.getName());
+                task.setImageBundle(imageBundle == null ? null : imageBundle.retain());
+                try {
+                    ingestPipeline.submit(task);
+                } catch (InterruptedException | RuntimeException e) {
+                    task.release();
+                    throw e;
+                }
+                dispatched++;
+            }
+            jobService.onBytesRead(jobId, channel.position());
+            aborted = false;
+            log.info("Zip {} dispatched {} documents", zipPath.getFileName(), dispatched);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Zip ingestion interrupted after {} documents", dispatched);
+        } catch (Exception e) {
+            log.error("Error processing zip {}: ", zipPath.getFileName(), e);
+        } finally {
+            jobService.onReaderDone(jobId, aborted);
+            if (imageBundle != null) {
+                // zip bị xoá khi document cuối cùng qua stage OCR
+                imageBundle.release();
+            } else {
+                try {
+                    Files.deleteIfExists(zipPath);
+                } catch (IOException e) {
+                    log.warn("Cannot delete temp zip {}: {}", zipPath, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Mở zip theo central directory để stage OCR đọc ảnh đi kèm HTML; lỗi thì ảnh tương đối bị bỏ qua
+     */
+    private ZipImageBundle openImageBundle(Path zipPath) {
+        try {
+            return ZipImageBundle.open(zipPath);
+        } catch (IOException e) {
+            log.warn("Cannot open zip {} for bundled images: {}", zipPath.getFileName(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Đọc entry hiện tại theo từng block, xin quota trước mỗi block (theo hệ số nở của IngestMemoryBudget).
+     * Entry có khai báo size thì xin quota cả entry một lần trước khi đọc.
+     *
+     * @param declaredSize size khai báo trong zip, -1 nếu không có (entry ghi kèm data descriptor)
+     * @return nội dung entry, null nếu vượt quá max-entry (phần còn lại được bỏ qua)
+     */
+    private byte[] readEntry(InputStream in, long declaredSize, IngestMemoryBudget.Lease lease)
+            throws IOException, InterruptedException {
+        if (declaredSize > 0) {
+            lease.reserve(Math.min(declaredSize, memoryBudget.getMaxEntryBytes()));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(READ_BUFFER_SIZE);
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            if (lease.getRawBytes() + read > memoryBudget.getMaxEntryBytes()) {
+                in.transferTo(OutputStream.nullOutputStream());
+                return null;
+            }
+            lease.grow(read);
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private boolean isHtml(String name) {
+        return name.endsWith(".html") || name.endsWith(".htm");
+    }
+
+}
@@ -0,0 +1,57 @@
+package vn.com.vpbank.chatbot.util;
+
+import java.util.Collection;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Chờ các việc con của một việc cha (ảnh của một document, text của một lời gọi embedding) theo kiểu
+ * structured concurrency (ShutdownOnFailure): việc cha chờ mọi việc con xong; một việc con lỗi hoặc thread cha
+ * bị interrupt thì các việc con còn lại bị huỷ ngay thay vì tiếp tục gọi API cho kết quả không ai dùng.
+ * Việc con muốn lỗi của mình không kéo theo cả nhóm (ảnh OCR lỗi => text rỗng) thì tự kết thúc bình thường.
+ * Việc con tự kiểm tra future đã huỷ chưa trước khi chạy để bỏ qua phần việc còn trong hàng đợi.
+ */
+public final class FanOut {
+
+    private FanOut() {
+    }
+
+    /**
+     * @throws InterruptedException thread cha bị interrupt (các việc con đã bị huỷ)
+     * @throws RuntimeException     lỗi của việc con hỏng đầu tiên (các việc con khác đã bị huỷ)
+     */
+    public static void awaitAll(Collection<? extends CompletableFuture<?>> tasks) throws InterruptedException {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        CompletableFuture<Void> all = CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new));
+        // Không đợi allOf: việc con đầu tiên hỏng kết thúc cả nhóm
+        tasks.forEach(task -> task.whenComplete((result, error) -> {
+            if (error != null) {
+                all.completeExceptionally(error);
+            }
+        }));
+        try {
+            all.get();
+        } catch (InterruptedException e) {
+            cancel(tasks);
+            throw e;
+        } catch (ExecutionException | CancellationException e) {
+            cancel(tasks);
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            if (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static void cancel(Collection<? extends CompletableFuture<?>> tasks) {
+        tasks.forEach(task -> task.cancel(false));
+    }
+}
@@ -0,0 +1,457 @@
+package vn.com.vpbank.chatbot.util;
+
+/**
+ * Chuẩn hoá text trước khi chunk bằng cách quét từng ký tự, thay cho chuỗi ~14 lần Pattern.replaceAll trước đây.
+ * Kết quả giống hệt chuỗi regex cũ (golden test: TextNormalizerTest) nhưng chỉ quét 2 lượt trên buffer dùng lại theo thread:
+ * <ol>
+ *     <li>lượt 1: tag block/br, entity, tag HTML, ký tự điều khiển, số dài, chữ hoa dài, gộp "..."</li>
+ *     <li>lượt 2: số trang, ngắt đoạn sau câu (chữ hoa tiếng Việt), gộp khoảng trắng/dòng trống, trim</li>
+ * </ol>
+ * Ranh giới từ (\b) tính như java.util.regex của JDK 17: chữ/số Unicode, '_' và dấu kết hợp có ký tự gốc.
+ */
+public final class TextNormalizer {
+
+    private static final int INITIAL_CAPACITY = 8 * 1024;
+    // Buffer lớn hơn ngưỡng này không giữ lại sau khi dùng để thread của pool không ôm bộ nhớ của cuốn sách lớn nhất
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+
+    private static final int NO_MATCH = -1;
+    private static final int NO_CLOSE = -2;
+
+    private static final int RUN_NONE = 0;
+    private static final int RUN_DIGIT = 1;
+    private static final int RUN_UPPER = 2;
+    private static final int MIN_LONG_NUMBER = 10;
+    private static final int MIN_LONG_UPPERCASE = 5;
+
+    private static final ThreadLocal<Cleaner> CLEANERS = ThreadLocal.withInitial(Cleaner::new);
+
+    private TextNormalizer() {
+    }
+
+    /**
+     * Làm sạch text thô (có thể còn HTML) để chia paragraph/chunk
+     */
+    public static String clean(String text) {
+        if (text.isEmpty()) return text;
+        Cleaner cleaner = CLEANERS.get();
+        try {
+            return cleaner.clean(text);
+        } finally {
+            cleaner.release();
+        }
+    }
+
+    /**
+     * Tương đương text.replaceAll("\\s+", " ").trim()
+     */
+    public static String collapseWhitespace(String text) {
+        if (text.isEmpty()) return text;
+        Cleaner cleaner = CLEANERS.get();
+        try {
+            return cleaner.collapseWhitespace(text);
+        } finally {
+            cleaner.release();
+        }
+    }
+
+    private static final class Cleaner {
+        private char[] first = new char[INITIAL_CAPACITY];
+        private char[] second = new char[INITIAL_CAPACITY];
+        private int firstLength;
+        private int secondLength;
+
+        // lượt 1: run số/chữ hoa đang mở và thông tin ranh giới từ của ký tự trước
+        private int runType;
+        private int runStart;
+        private boolean runLeftBoundary;
+        private boolean prevWord;
+        private boolean prevBase;
+
+        // lượt 2: gộp khoảng trắng và dòng trống
+        private boolean pendingSpace;
+        private int newlineState;
+        private int newlineRun;
+
+        String clean(String text) {
+            first = ensureCapacity(first, text.length());
+            firstLength = 0;
+            runType = RUN_NONE;
+            prevWord = false;
+            prevBase = false;
+            markupPass(text);
+
+            second = ensureCapacity(second, firstLength + (firstLength >> 1) + 16);
+            secondLength = 0;
+            pendingSpace = false;
+            newlineState = 0;
+            newlineRun = 0;
+            paragraphPass();
+            return trimmed(second, secondLength);
+        }
+
+        String collapseWhitespace(String text) {
+            int n = text.length();
+            first = ensureCapacity(first, n);
+            int length = 0;
+            boolean inSpace = false;
+            for (int i = 0; i < n; i++) {
+                char c = text.charAt(i);
+                if (isSpace(c)) {
+                    if (!inSpace) first[length++] = ' ';
+                    inSpace = true;
+                } else {
+                    first[length++] = c;
+                    inSpace = false;
+                }
+            }
+            return trimmed(first, length);
+        }
+
+        void release() {
+            if (first.length > MAX_RETAINED_CAPACITY) first = new char[INITIAL_CAPACITY];
+            if (second.length > MAX_RETAINED_CAPACITY) second = new char[INITIAL_CAPACITY];
+        }
+
+        /**
+         * Lượt 1: HTML -> khoảng trắng/xuống dòng, ký tự điều khiển -> ' ', bỏ số >= 10 chữ số và chữ hoa >= 5 ký tự
+         * đứng riêng, gộp dấu chấm liên tiếp thành "..."
+         */
+        private void markupPass(String in) {
+            int n = in.length();
+            // Từ vị trí này trở đi không còn '>' nào đóng được tag
+            int noCloseFrom = n;
+            int i = 0;
+            while (i < n) {
+                char c = in.charAt(i);
+                if (c == '<') {
+                    int end = blockTagEnd(in, i);
+                    if (end > 0) {
+                        emit('\n');
+                        emit('\n');
+                        i = end;
+                        continue;
+                    }
+                    end = brTagEnd(in, i);
+                    if (end > 0) {
+                        emit('\n');
+                        i = end;
+                        continue;
+                    }
+                    if (i < noCloseFrom) {
+                        end = tagEnd(in, i);
+                        if (end > 0) {
+                            emit(' ');
+                            i = end;
+                            continue;
+                        }
+                        if (end == NO_CLOSE) noCloseFrom = i;
+                    }
+                    emit('<');
+                    i++;
+                } else if (c == '&') {
+                    int end = entityEnd(in, i);
+                    if (end > 0) {
+                        emit(' ');
+                        i = end;
+                        continue;
+                    }
+                    emit('&');
+                    i++;
+                } else if (isControl(c)) {
+                    emit(' ');
+                    i++;
+                } else {
+                    int cp = in.codePointAt(i);
+                    emit(cp);
+                    i += Character.charCount(cp);
+                }
+            }
+            closeRun(false);
+        }
+
+        private void emit(int cp) {
+            boolean nonSpacingMark = Character.getType(cp) == Character.NON_SPACING_MARK;
+            boolean bmp = cp < Character.MIN_SUPPLEMENTARY_CODE_POINT;
+            boolean word = cp == '_' || Character.isLetterOrDigit(cp) || (nonSpacingMark && bmp && prevBase);
+
+            int type = cp >= '0' && cp <= '9' ? RUN_DIGIT : cp >= 'A' && cp <= 'Z' ? RUN_UPPER : RUN_NONE;
+            if (runType != RUN_NONE && type != runType) {
+                // Dấu kết hợp ngay sau run luôn có ký tự gốc (ký tự cuối của run) => tính là chữ
+                closeRun(word || nonSpacingMark);
+            }
+            if (type != RUN_NONE && runType == RUN_NONE) {
+                runType = type;
+                runStart = firstLength;
+                runLeftBoundary = !prevWord;
+            }
+
+            if (cp == '.' && firstLength >= 3 && first[firstLength - 1] == '.'
+                    && first[firstLength - 2] == '.' && first[firstLength - 3] == '.') {
+                // đã đủ "..."
+            } else if (bmp) {
+                first[firstLength++] = (char) cp;
+            } else {
+                firstLength += Character.toChars(cp, first, firstLength);
+            }
+
+            prevWord = word;
+            if (!bmp) {
+                prevBase = false;
+            } else if (!nonSpacingMark) {
+                prevBase = Character.isLetterOrDigit(cp);
+            }
+        }
+
+        private void closeRun(boolean rightWord) {
+            if (runType == RUN_NONE) return;
+            int min = runType == RUN_DIGIT ? MIN_LONG_NUMBER : MIN_LONG_UPPERCASE;
+            if (runLeftBoundary && !rightWord && firstLength - runStart >= min) {
+                firstLength = runStart;
+            }
+            runType = RUN_NONE;
+        }
+
+        /**
+         * Lượt 2: bỏ "page|trang N", ngắt đoạn giữa dấu kết câu và chữ hoa, gộp khoảng trắng và dòng trống
+         */
+        private void paragraphPass() {
+            char[] in = first;
+            int n = firstLength;
+            int i = 0;
+            while (i < n) {
+                int end = pageNumberEnd(in, i, n);
+                if (end > 0) {
+                    i = end;
+                    continue;
+                }
+                char c = in[i];
+                if (c == '.' || c == '!' || c == '?') {
+                    int j = i + 1;
+                    boolean space = false;
+                    while (j < n) {
+                        int skip = pageNumberEnd(in, j, n);
+                        if (skip > 0) {
+                            j = skip;
+                        } else if (isSpace(in[j])) {
+                            space = true;
+                            j++;
+                        } else {
+                            break;
+                        }
+                    }
+                    if (space && j < n && isSentenceStart(in[j])) {
+                        write(c);
+                        write('\n');
+                        write('\n');
+                        write(in[j]);
+                        i = j + 1;
+                        continue;
+                    }
+                }
+                write(c);
+                i++;
+            }
+            if (pendingSpace) {
+                pendingSpace = false;
+                foldNewlines(' ');
+            }
+            if (newlineState >= 1) put('\n');
+            if (newlineState == 2) put(' ');
+        }
+
+        // [ \t]+ -> ' '
+        private void write(char c) {
+            if (c == ' ' || c == '\t') {
+                pendingSpace = true;
+                return;
+            }
+            if (pendingSpace) {
+                pendingSpace = false;
+                foldNewlines(' ');
+            }
+            foldNewlines(c);
+        }
+
+        // \n[ \t]*\n -> \n\n (không chồng lấn, sau khi đã gộp space nên chỉ còn "\n\n" hoặc "\n \n")
+        private void foldNewlines(char c) {
+            switch (newlineState) {
+                case 0 -> {
+                    if (c == '\n') newlineState = 1;
+                    else put(c);
+                }
+                case 1 -> {
+                    if (c == '\n') {
+                        put('\n');
+                        put('\n');
+                        newlineState = 0;
+                    } else if (c == ' ') {
+                        newlineState = 2;
+                    } else {
+                        put('\n');
+                        put(c);
+                        newlineState = 0;
+                    }
+                }
+                default -> {
+                    if (c == '\n') {
+                        put('\n');
+                        put('\n');
+                    } else {
+                        put('\n');
+                        put(' ');
+                        put(c);
+                    }
+                    newlineState = 0;
+                }
+            }
+        }
+
+        // \n{3,} -> \n\n
+        private void put(char c) {
+            if (c == '\n') {
+                if (newlineRun < 2) second[secondLength++] = c;
+                newlineRun++;
+            } else {
+                newlineRun = 0;
+                second[secondLength++] = c;
+            }
+        }
+    }
+
+    // </?(p|div|article|section|h[1-6])\s*>
+    private static int blockTagEnd(String in, int start) {
+        int n = in.length();
+        int j = start + 1;
+        if (j < n && in.charAt(j) == '/') j++;
+        int nameEnd;
+        if (matchesIgnoreCase(in, j, "p")) {
+            nameEnd = j + 1;
+        } else if (matchesIgnoreCase(in, j, "div")) {
+            nameEnd = j + 3;
+        } else if (matchesIgnoreCase(in, j, "article") || matchesIgnoreCase(in, j, "section")) {
+            nameEnd = j + 7;
+        } else if (matchesIgnoreCase(in, j, "h") && j + 1 < n && in.charAt(j + 1) >= '1' && in.charAt(j + 1) <= '6') {
+            nameEnd = j + 2;
+        } else {
+            return NO_MATCH;
+        }
+        j = skipSpaces(in, nameEnd, n);
+        return j < n && in.charAt(j) == '>' ? j + 1 : NO_MATCH;
+    }
+
+    // <br\s*/?>
+    private static int brTagEnd(String in, int start) {
+        int n = in.length();
+        if (!matchesIgnoreCase(in, start + 1, "br")) return NO_MATCH;
+        int j = skipSpaces(in, start + 3, n);
+        if (j < n && in.charAt(j) == '/') j++;
+        return j < n && in.charAt(j) == '>' ? j + 1 : NO_MATCH;
+    }
+
+    /**
+     * <[^>]+> áp dụng sau khi tag block/br đã bị thay: '>' của các tag đó không đóng được tag bao ngoài
+     */
+    private static int tagEnd(String in, int start) {
+        int n = in.length();
+        int j = start + 1;
+        while (j < n) {
+            char c = in.charAt(j);
+            if (c == '>') {
+                return j > start + 1 ? j + 1 : NO_MATCH;
+            }
+            if (c == '<') {
+                int end = blockTagEnd(in, j);
+                if (end < 0) end = brTagEnd(in, j);
+                if (end > 0) {
+                    j = end;
+                    continue;
+                }
+            }
+            j++;
+        }
+        return NO_CLOSE;
+    }
+
+    // &[a-zA-Z0-9]+;
+    private static int entityEnd(String in, int start) {
+        int n = in.length();
+        int j = start + 1;
+        while (j < n && isAsciiLetterOrDigit(in.charAt(j))) j++;
+        return j > start + 1 && j < n && in.charAt(j) == ';' ? j + 1 : NO_MATCH;
+    }
+
+    // (?i)(page|trang)\s*\d+
+    private static int pageNumberEnd(char[] in, int start, int n) {
+        int j;
+        if (matchesIgnoreCase(in, start, n, "page")) {
+            j = start + 4;
+        } else if (matchesIgnoreCase(in, start, n, "trang")) {
+            j = start + 5;
+        } else {
+            return NO_MATCH;
+        }
+        while (j < n && isSpace(in[j])) j++;
+        int digits = j;
+        while (j < n && in[j] >= '0' && in[j] <= '9') j++;
+        return j > digits ? j : NO_MATCH;
+    }
+
+    // Pattern.CASE_INSENSITIVE không kèm UNICODE_CASE chỉ so khớp không phân biệt hoa thường trong ASCII
+    private static boolean matchesIgnoreCase(String in, int start, String lower) {
+        if (start + lower.length() > in.length()) return false;
+        for (int k = 0; k < lower.length(); k++) {
+            if (toAsciiLower(in.charAt(start + k)) != lower.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    private static boolean matchesIgnoreCase(char[] in, int start, int n, String lower) {
+        if (start + lower.length() > n) return false;
+        for (int k = 0; k < lower.length(); k++) {
+            if (toAsciiLower(in[start + k]) != lower.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    private static char toAsciiLower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static int skipSpaces(String in, int start, int n) {
+        int j = start;
+        while (j < n && isSpace(in.charAt(j))) j++;
+        return j;
+    }
+
+    // \s của java.util.regex: [ \t\n\x0B\f\r]
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    // [\x00-\x08\x0B\x0C\x0E-\x1F]
+    private static boolean isControl(char c) {
+        return c <= 0x08 || c == 0x0B || c == 0x0C || (c >= 0x0E && c <= 0x1F);
+    }
+
+    private static boolean isAsciiLetterOrDigit(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    // [A-ZÁĐÊÔƠƯ]
+    private static boolean isSentenceStart(char c) {
+        return (c >= 'A' && c <= 'Z') || c == 'Á' || c == 'Đ' || c == 'Ê' || c == 'Ô' || c == 'Ơ' || c == 'Ư';
+    }
+
+    private static char[] ensureCapacity(char[] buffer, int capacity) {
+        return buffer.length >= capacity ? buffer : new char[Math.max(capacity, buffer.length * 2)];
+    }
+
+    private static String trimmed(char[] buffer, int length) {
+        int start = 0;
+        int end = length;
+        while (start < end && buffer[start] <= ' ') start++;
+        while (end > start && buffer[end - 1] <= ' ') end--;
+        return new String(buffer, start, end - start);
+    }
+}
@@ -0,0 +1,40 @@
+package vn.com.vpbank.chatbot.util;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingResult;
+import com.knuddels.jtokkit.api.EncodingType;
+
+/**
+ * Đếm token BPE cl100k_base - bộ mã của text-embedding-3-small, tính ngay trong process.
+ * Tiếng Việt có dấu tốn token hơn tiếng Anh nhiều (~2 ký tự/token) nên không ước lượng theo số ký tự được.
+ * Token đặc biệt (vd. &lt;|endoftext|&gt;) trong text được đếm như text thường.
+ */
+public final class Tokenizer {
+
+    private static final Encoding ENCODING =
+            Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+
+    private Tokenizer() {
+    }
+
+    public static int count(String text) {
+        return text.isEmpty() ? 0 : ENCODING.countTokensOrdinary(text);
+    }
+
+    /**
+     * Số ký tự đầu tiên của text nằm gọn trong maxTokens token (luôn cắt đúng ranh giới ký tự)
+     */
+    public static int prefixLength(String text, int maxTokens) {
+        EncodingResult result = ENCODING.encodeOrdinary(text, maxTokens);
+        if (!result.isTruncated()) {
+            return text.length();
+        }
+        int end = result.getLastProcessedCharacterIndex() + 1;
+        // Không tách đôi cặp surrogate
+        if (end > 0 && end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+}
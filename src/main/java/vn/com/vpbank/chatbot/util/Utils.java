@@ -1,8 +1,96 @@
 package vn.com.vpbank.chatbot.util;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.UUID;
+
 /**
  * @author nhannv7
  */
 public class Utils {
 
+    private Utils() {
+    }
+
+    /**
+     * SHA-256 dạng hex của chuỗi UTF-8
+     */
+    public static String sha256Hex(String value) {
+        return sha256Hex(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String sha256Hex(byte[] value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Chuẩn hoá text để làm khoá: NFC (gộp dấu tiếng Việt), gộp whitespace, trim
+     */
+    public static String normalizeForKey(String text) {
+        if (text == null) return "";
+        String nfc = Normalizer.normalize(text, Normalizer.Form.NFC);
+        StringBuilder sb = new StringBuilder(nfc.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < nfc.length(); i++) {
+            char c = nfc.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = sb.length() > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                sb.append(' ');
+                pendingSpace = false;
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Khoá tìm kiếm không dấu: như normalizeForKey, bỏ dấu tiếng Việt (kể cả đ -> d) và viết thường,
+     * để "Nguyễn Nhật Ánh" và "nguyen nhat anh" cho cùng một khoá
+     */
+    public static String foldForSearch(String text) {
+        String decomposed = Normalizer.normalize(normalizeForKey(text), Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            sb.append(c == 'đ' || c == 'Đ' ? 'd' : c);
+        }
+        return sb.toString().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Point id tất định cho một chunk: cùng nguồn, cùng vị trí, cùng nội dung => cùng id (Qdrant yêu cầu UUID)
+     */
+    public static String chunkPointId(String sourceId, int chunkIndex, String contentHash) {
+        String key = sourceId + "#" + chunkIndex + "#" + contentHash;
+        return UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    public static byte[] floatsToBytes(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vector);
+        return buffer.array();
+    }
+
+    public static float[] bytesToFloats(byte[] bytes) {
+        float[] vector = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+        return vector;
+    }
 }
@@ -0,0 +1,411 @@
+package vn.com.vpbank.chatbot.vectorstore;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntPredicate;
+
+/**
+ * VectorStore chạy trong process thay cho Qdrant (on-prem, môi trường test): vector và đồ thị HNSW nằm trong
+ * file map bộ nhớ (HnswGraph), id/text/metadata ghi nối đuôi vào records.log và nạp lại vào heap khi mở.
+ * Search theo filter: filter có sourceId và số chunk ứng viên nhỏ => quét chính xác các chunk đó,
+ * còn lại duyệt HNSW chỉ nhận node thoả filter, thiếu kết quả thì quét chính xác.
+ */
+@Slf4j
+public class EmbeddedVectorStore implements VectorStore, AutoCloseable {
+
+    private static final String SOURCE_ID = "sourceId";
+    private static final byte ADD = 1;
+    private static final byte DELETE = 2;
+
+    private record Entry(String id, String text, Map<String, Object> metadata) {
+    }
+
+    private final EmbeddingModel embeddingModel;
+    private final HnswGraph graph;
+    private final int efSearch;
+    private final int exactSearchThreshold;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, Integer> nodeById = new ConcurrentHashMap<>();
+    private final Map<String, Set<Integer>> nodesBySource = new ConcurrentHashMap<>();
+    private final Object indexLock = new Object();
+
+    private final FileChannel logChannel;
+    private final DataOutputStream recordLog;
+
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong exactSearches = new AtomicLong();
+    private final AtomicLong searchNanos = new AtomicLong();
+    private final AtomicLong maxSearchNanos = new AtomicLong();
+    private final AtomicLong inserts = new AtomicLong();
+    private final AtomicLong deletes = new AtomicLong();
+
+    public EmbeddedVectorStore(EmbeddingModel embeddingModel, Path dir, int dimensions, int m,
+                               int efConstruction, int efSearch, int exactSearchThreshold,
+                               Quantization quantization, int rescoreOversampling) throws IOException {
+        this.embeddingModel = embeddingModel;
+        this.efSearch = efSearch;
+        this.exactSearchThreshold = exactSearchThreshold;
+        this.graph = HnswGraph.open(dir, dimensions, m, efConstruction, quantization, rescoreOversampling);
+        this.logChannel = FileChannel.open(dir.resolve("records.log"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        replayLog();
+        this.recordLog = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(logChannel), 1 << 16));
+        log.info("Embedded vector store opened at {}: {} documents, {} deleted nodes, quantization {}",
+                dir.toAbsolutePath(), entries.size(), graph.deletedCount(), quantization);
+    }
+
+    @Override
+    public String getName() {
+        return "EmbeddedVectorStore";
+    }
+
+    /**
+     * Upsert theo id: document đã có thì node cũ bị đánh dấu xoá sau khi node mới đã vào đồ thị
+     */
+    @Override
+    public void add(List<Document> documents) {
+        if (documents.isEmpty()) {
+            return;
+        }
+        List<float[]> vectors = embeddingModel.embed(documents.stream().map(Document::getText).toList());
+        for (int i = 0; i < documents.size(); i++) {
+            Document document = documents.get(i);
+            Entry entry = new Entry(document.getId(), document.getText(), new HashMap<>(document.getMetadata()));
+            int node = graph.insert(vectors.get(i), inserted -> {
+                appendAdd(inserted, entry);
+                entries.put(inserted, entry);
+            });
+            Integer previous;
+            synchronized (indexLock) {
+                previous = nodeById.put(entry.id(), node);
+                sourceNodes(entry).add(node);
+            }
+            if (previous != null) {
+                deleteNode(previous);
+            }
+            inserts.incrementAndGet();
+        }
+        commit();
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        for (String id : idList) {
+            Integer node = nodeById.remove(id);
+            if (node != null) {
+                deleteNode(node);
+            }
+        }
+        commit();
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        for (int node : candidates(filterExpression)) {
+            Entry entry = entries.get(node);
+            if (entry != null && MetadataFilter.matches(filterExpression, entry.metadata())) {
+                nodeById.remove(entry.id(), node);
+                deleteNode(node);
+            }
+        }
+        commit();
+    }
+
+    private void deleteNode(int node) {
+        Entry entry = entries.remove(node);
+        if (entry == null) {
+            return;
+        }
+        synchronized (indexLock) {
+            Set<Integer> nodes = nodesBySource.get(sourceKey(entry));
+            if (nodes != null) {
+                nodes.remove(node);
+                if (nodes.isEmpty()) {
+                    nodesBySource.remove(sourceKey(entry));
+                }
+            }
+        }
+        graph.markDeleted(node);
+        appendDelete(node);
+        deletes.incrementAndGet();
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        long start = System.nanoTime();
+        float[] query = embeddingModel.embed(request.getQuery());
+        int topK = request.getTopK();
+        Filter.Expression filter = request.getFilterExpression();
+
+        List<HnswGraph.Neighbor> neighbors;
+        if (filter == null) {
+            neighbors = graph.search(query, topK, efSearch, entries::containsKey);
+        } else {
+            IntPredicate accept = node -> {
+                Entry entry = entries.get(node);
+                return entry != null && MetadataFilter.matches(filter, entry.metadata());
+            };
+            Set<String> sources = MetadataFilter.requiredSources(filter, SOURCE_ID);
+            int[] candidates = sources == null ? null : nodesOf(sources);
+            if (candidates != null && candidates.length <= exactSearchThreshold) {
+                exactSearches.incrementAndGet();
+                neighbors = graph.bruteForce(query, topK, candidates, accept);
+            } else {
+                neighbors = graph.search(query, topK, Math.max(efSearch, topK) * 2, accept);
+                if (neighbors.size() < topK) {
+                    // Filter hẹp: HNSW dừng trước khi gặp đủ node thoả điều kiện
+                    exactSearches.incrementAndGet();
+                    neighbors = graph.bruteForce(query, topK, candidates, accept);
+                }
+            }
+        }
+
+        List<Document> documents = new ArrayList<>(neighbors.size());
+        for (HnswGraph.Neighbor neighbor : neighbors) {
+            Entry entry = entries.get(neighbor.node());
+            if (entry == null || neighbor.score() < request.getSimilarityThreshold()) {
+                continue;
+            }
+            documents.add(Document.builder()
+                    .id(entry.id())
+                    .text(entry.text())
+                    .metadata(new HashMap<>(entry.metadata()))
+                    .score((double) neighbor.score())
+                    .build());
+        }
+        long elapsed = System.nanoTime() - start;
+        searches.incrementAndGet();
+        searchNanos.addAndGet(elapsed);
+        maxSearchNanos.accumulateAndGet(elapsed, Math::max);
+        return documents;
+    }
+
+    private int[] candidates(Filter.Expression filter) {
+        Set<String> sources = MetadataFilter.requiredSources(filter, SOURCE_ID);
+        if (sources != null) {
+            return nodesOf(sources);
+        }
+        return entries.keySet().stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private int[] nodesOf(Set<String> sources) {
+        return sources.stream()
+                .map(nodesBySource::get)
+                .filter(Objects::nonNull)
+                .flatMap(Set::stream)
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    private Set<Integer> sourceNodes(Entry entry) {
+        return nodesBySource.computeIfAbsent(sourceKey(entry), key -> ConcurrentHashMap.newKeySet());
+    }
+
+    private static String sourceKey(Entry entry) {
+        return String.valueOf(entry.metadata().get(SOURCE_ID));
+    }
+
+    private void appendAdd(int node, Entry entry) {
+        try {
+            byte[] text = entry.text() == null ? new byte[0] : entry.text().getBytes(StandardCharsets.UTF_8);
+            byte[] metadata = objectMapper.writeValueAsBytes(entry.metadata());
+            synchronized (recordLog) {
+                recordLog.writeByte(ADD);
+                recordLog.writeInt(node);
+                recordLog.writeUTF(entry.id());
+                recordLog.writeInt(text.length);
+                recordLog.write(text);
+                recordLog.writeInt(metadata.length);
+                recordLog.write(metadata);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write vector store log", e);
+        }
+    }
+
+    private void appendDelete(int node) {
+        try {
+            synchronized (recordLog) {
+                recordLog.writeByte(DELETE);
+                recordLog.writeInt(node);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write vector store log", e);
+        }
+    }
+
+    /**
+     * Log xuống đĩa trước rồi mới ghi header đồ thị: header không bao giờ trỏ tới node chưa có record
+     */
+    public void commit() {
+        try {
+            synchronized (recordLog) {
+                recordLog.flush();
+                logChannel.force(false);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot flush vector store log", e);
+        }
+        graph.commit();
+    }
+
+    /**
+     * Nạp lại record của các node đã commit. Record của node sau mốc commit cuối (process dừng đột ngột) bị bỏ,
+     * phần đuôi ghi dở bị cắt để lần ghi sau nối tiếp đúng chỗ.
+     */
+    private void replayLog() throws IOException {
+        int committed = graph.size();
+        long valid = 0;
+        long logSize = logChannel.size();
+        CountingInputStream counting = new CountingInputStream(
+                new BufferedInputStream(Channels.newInputStream(logChannel.position(0)), 1 << 16));
+        DataInputStream in = new DataInputStream(counting);
+        TypeReference<Map<String, Object>> metadataType = new TypeReference<>() {
+        };
+        try {
+            while (true) {
+                byte type = in.readByte();
+                int node = in.readInt();
+                if (type == ADD) {
+                    String id = in.readUTF();
+                    String text = new String(readBytes(in, logSize), StandardCharsets.UTF_8);
+                    byte[] metadata = readBytes(in, logSize);
+                    if (node < committed) {
+                        entries.put(node, new Entry(id, text, objectMapper.readValue(metadata, metadataType)));
+                    }
+                } else if (type == DELETE) {
+                    entries.remove(node);
+                } else {
+                    break;
+                }
+                valid = counting.count;
+            }
+        } catch (EOFException e) {
+            // hết log (hoặc record cuối ghi dở)
+        }
+        if (counting.count > valid) {
+            log.warn("Vector store log has {} bytes of torn record at offset {}, truncating",
+                    counting.count - valid, valid);
+        }
+        logChannel.truncate(valid);
+        logChannel.position(valid);
+
+        // Dựng lại index id/sourceId; node trùng id (dừng giữa lúc upsert) giữ bản mới nhất
+        List<Integer> nodes = new ArrayList<>(entries.keySet());
+        nodes.sort(null);
+        for (int node : nodes) {
+            Entry entry = entries.get(node);
+            if (graph.isDeleted(node)) {
+                entries.remove(node);
+                continue;
+            }
+            Integer previous = nodeById.put(entry.id(), node);
+            if (previous != null) {
+                entries.remove(previous);
+                graph.markDeleted(previous);
+                sourceNodes(entry).remove(previous);
+            }
+            sourceNodes(entry).add(node);
+        }
+    }
+
+    /**
+     * Mảng byte có độ dài đứng trước; record bị cắt giữa chừng (thiếu byte hoặc độ dài hỏng) coi như hết log
+     */
+    private static byte[] readBytes(DataInputStream in, long logSize) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > logSize) {
+            throw new EOFException("Invalid record length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    public Map<String, Object> getStats() {
+        long count = searches.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("documents", entries.size());
+        stats.put("nodes", graph.size());
+        stats.put("deletedNodes", graph.deletedCount());
+        stats.put("dimensions", graph.dimensions());
+        stats.put("mappedBytes", graph.mappedBytes());
+        stats.put("quantization", graph.quantization());
+        stats.put("searchBytesPerVector", graph.searchBytesPerVector());
+        stats.put("efSearch", efSearch);
+        stats.put("inserts", inserts.get());
+        stats.put("deletes", deletes.get());
+        stats.put("searches", count);
+        stats.put("exactSearches", exactSearches.get());
+        stats.put("avgSearchMs", count == 0 ? 0 : searchNanos.get() / 1e6 / count);
+        stats.put("maxSearchMs", maxSearchNanos.get() / 1e6);
+        return stats;
+    }
+
+    @Override
+    public void close() throws IOException {
+        commit();
+        synchronized (recordLog) {
+            recordLog.close();
+        }
+        graph.close();
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
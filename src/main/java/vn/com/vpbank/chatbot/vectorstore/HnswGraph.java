@@ -0,0 +1,877 @@
+package vn.com.vpbank.chatbot.vectorstore;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * Đồ thị HNSW (Malkov &amp; Yashunin) cho cosine similarity, toàn bộ nằm ngoài heap trong các file map bộ nhớ:
+ * <ul>
+ *     <li>vectors.dat: vector đã chuẩn hoá (độ dài 1) của từng node</li>
+ *     <li>links0.dat: danh sách kề tầng 0 (tối đa 2M)</li>
+ *     <li>nodes.dat: tầng cao nhất, vị trí danh sách kề các tầng trên trong upper.dat, cờ đã xoá</li>
+ *     <li>upper.dat: danh sách kề tầng 1.. (tối đa M), chỉ ~1/M số node có</li>
+ *     <li>quantized.dat: bản int8/binary của vector khi bật quantization; search duyệt đồ thị trên bản này
+ *     rồi chấm lại top ứng viên bằng vector gốc, nên phần nóng trong RAM chỉ còn 1/4 (int8) hoặc 1/32 (binary)</li>
+ *     <li>header.dat: số node, entry point... ghi ở commit, là mốc khôi phục khi mở lại</li>
+ * </ul>
+ * Mở lại chỉ map file, không dựng lại đồ thị. Insert chạy song song với nhau và với search:
+ * danh sách kề của mỗi node được đọc/ghi dưới khoá theo stripe, commit chặn insert trong lúc ghi header.
+ * Node bị xoá chỉ đánh dấu, vẫn làm cầu nối khi duyệt đồ thị nhưng không bao giờ vào kết quả.
+ * Dựng đồ thị (chọn láng giềng) luôn dùng vector gốc để chất lượng cạnh không phụ thuộc quantization.
+ */
+@Slf4j
+final class HnswGraph implements AutoCloseable {
+
+    private static final int MAGIC = 0x484E5357;
+    private static final int VERSION = 1;
+    private static final int MAX_LEVEL = 15;
+    private static final int SEGMENT_BYTES = 64 << 20;
+    private static final int NODE_RECORD_BYTES = 12;
+    private static final int DELETED = 1;
+    private static final int LOCK_STRIPES = 4096;
+
+    // Header: magic, version, dimensions, m, size, entryPoint, maxLevel, upperNext, deleted, quantization
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_DIMENSIONS = 8;
+    private static final int H_M = 12;
+    private static final int H_SIZE = 16;
+    private static final int H_ENTRY = 20;
+    private static final int H_MAX_LEVEL = 24;
+    private static final int H_UPPER_NEXT = 28;
+    private static final int H_DELETED = 32;
+    private static final int H_QUANTIZATION = 36;
+
+    record Neighbor(int node, float score) {
+    }
+
+    private record Top(int node, int level) {
+    }
+
+    private final int dimensions;
+    private final int m;
+    private final int m0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final Quantization quantization;
+    private final int rescoreOversampling;
+
+    private final MappedStore header;
+    private final MappedStore vectors;
+    private final MappedStore links0;
+    private final MappedStore nodes;
+    private final MappedStore upper;
+    // null khi quantization = NONE
+    private final MappedStore quantized;
+
+    private final AtomicInteger nextNode = new AtomicInteger();
+    private final AtomicInteger upperNext = new AtomicInteger();
+    private final AtomicInteger deleted = new AtomicInteger();
+    private volatile Top top = new Top(-1, -1);
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final ReentrantLock topLock = new ReentrantLock();
+    // insert giữ read lock (chạy song song), commit giữ write lock => header luôn ứng với các node đã ghi xong
+    private final ReentrantReadWriteLock commitLock = new ReentrantReadWriteLock();
+    private final ThreadLocal<SearchScratch> scratch;
+
+    private HnswGraph(Path dir, int dimensions, int m, int efConstruction,
+                      Quantization quantization, int rescoreOversampling) throws IOException {
+        this.dimensions = dimensions;
+        this.m = m;
+        this.m0 = 2 * m;
+        this.efConstruction = efConstruction;
+        this.quantization = quantization;
+        this.rescoreOversampling = Math.max(1, rescoreOversampling);
+        this.levelMultiplier = 1 / Math.log(m);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        Files.createDirectories(dir);
+        this.header = new MappedStore(dir.resolve("header.dat"), 64, 1);
+        this.vectors = new MappedStore(dir.resolve("vectors.dat"), dimensions * 4, recordsPerSegment(dimensions * 4));
+        this.links0 = new MappedStore(dir.resolve("links0.dat"), (1 + m0) * 4, recordsPerSegment((1 + m0) * 4));
+        this.nodes = new MappedStore(dir.resolve("nodes.dat"), NODE_RECORD_BYTES, recordsPerSegment(NODE_RECORD_BYTES));
+        this.upper = new MappedStore(dir.resolve("upper.dat"), (1 + m) * 4, recordsPerSegment((1 + m) * 4));
+        this.scratch = ThreadLocal.withInitial(() -> new SearchScratch(m0, dimensions));
+        Quantization stored = storedQuantization();
+        Path quantizedFile = dir.resolve("quantized.dat");
+        if (stored != quantization) {
+            // Đổi kiểu quantization: bỏ file cũ, lượng tử hoá lại từ vector gốc sau khi nạp header
+            Files.deleteIfExists(quantizedFile);
+        }
+        int quantizedBytes = quantization.recordBytes(dimensions);
+        this.quantized = quantization == Quantization.NONE
+                ? null : new MappedStore(quantizedFile, quantizedBytes, recordsPerSegment(quantizedBytes));
+        load();
+        if (stored != quantization) {
+            requantize(stored);
+        }
+    }
+
+    /**
+     * Mở đồ thị đã có trong dir hoặc tạo mới; dimensions/m phải khớp với lúc tạo, quantization thì đổi được
+     * (lần mở đầu tiên sau khi đổi sẽ lượng tử hoá lại toàn bộ vector)
+     *
+     * @param rescoreOversampling khi có quantization: lấy k * rescoreOversampling ứng viên để chấm lại bằng vector gốc
+     */
+    static HnswGraph open(Path dir, int dimensions, int m, int efConstruction,
+                          Quantization quantization, int rescoreOversampling) throws IOException {
+        return new HnswGraph(dir, dimensions, m, efConstruction, quantization, rescoreOversampling);
+    }
+
+    private static int recordsPerSegment(int recordBytes) {
+        return Math.max(1, SEGMENT_BYTES / recordBytes);
+    }
+
+    private void load() {
+        ByteBuffer h = header.segment(0);
+        if (h.getInt(H_MAGIC) != MAGIC) {
+            h.putInt(H_MAGIC, MAGIC);
+            h.putInt(H_VERSION, VERSION);
+            h.putInt(H_DIMENSIONS, dimensions);
+            h.putInt(H_M, m);
+            h.putInt(H_ENTRY, -1);
+            h.putInt(H_MAX_LEVEL, -1);
+            h.putInt(H_QUANTIZATION, quantization.ordinal());
+            return;
+        }
+        if (h.getInt(H_VERSION) != VERSION || h.getInt(H_DIMENSIONS) != dimensions || h.getInt(H_M) != m) {
+            throw new IllegalStateException("Vector store was created with dimensions=" + h.getInt(H_DIMENSIONS)
+                    + ", m=" + h.getInt(H_M) + " (version " + h.getInt(H_VERSION) + "), configured dimensions="
+                    + dimensions + ", m=" + m);
+        }
+        nextNode.set(h.getInt(H_SIZE));
+        upperNext.set(h.getInt(H_UPPER_NEXT));
+        deleted.set(h.getInt(H_DELETED));
+        top = new Top(h.getInt(H_ENTRY), h.getInt(H_MAX_LEVEL));
+    }
+
+    private Quantization storedQuantization() {
+        ByteBuffer h = header.segment(0);
+        // File mới: chưa có gì để chuyển đổi
+        return h.getInt(H_MAGIC) != MAGIC ? quantization : Quantization.values()[h.getInt(H_QUANTIZATION)];
+    }
+
+    private void requantize(Quantization stored) {
+        int size = nextNode.get();
+        if (quantized != null) {
+            for (int node = 0; node < size; node++) {
+                writeQuantized(node, readVector(node));
+            }
+            quantized.force();
+        }
+        ByteBuffer h = header.segment(0);
+        h.putInt(H_QUANTIZATION, quantization.ordinal());
+        header.force();
+        log.info("Vector quantization changed {} -> {}, re-quantized {} vectors", stored, quantization, size);
+    }
+
+    int dimensions() {
+        return dimensions;
+    }
+
+    Quantization quantization() {
+        return quantization;
+    }
+
+    /**
+     * Số node đã cấp phát (kể cả node đã xoá)
+     */
+    int size() {
+        return nextNode.get();
+    }
+
+    int deletedCount() {
+        return deleted.get();
+    }
+
+    long mappedBytes() {
+        return header.mappedBytes() + vectors.mappedBytes() + links0.mappedBytes()
+                + nodes.mappedBytes() + upper.mappedBytes() + (quantized != null ? quantized.mappedBytes() : 0);
+    }
+
+    /**
+     * Số byte mỗi vector phải đọc khi duyệt đồ thị (bản lượng tử hoá nếu có, không thì vector gốc)
+     */
+    int searchBytesPerVector() {
+        return quantized != null ? quantized.recordBytes() : vectors.recordBytes();
+    }
+
+    /**
+     * Thêm một vector (không cần chuẩn hoá trước)
+     *
+     * @param beforeLink gọi với id node sau khi vector đã ghi, trước khi node được nối vào đồ thị
+     *                   (search có thể gặp node ngay sau đó)
+     * @return id node
+     */
+    int insert(float[] vector, IntConsumer beforeLink) {
+        float[] normalized = normalize(vector);
+        commitLock.readLock().lock();
+        try {
+            int level = randomLevel();
+            int node = nextNode.getAndIncrement();
+            int upperSlot = level > 0 ? upperNext.getAndAdd(level) : 0;
+            writeVector(node, normalized);
+            ByteBuffer nodeSegment = nodes.segment(node);
+            int nodeOffset = nodes.offset(node);
+            nodeSegment.putInt(nodeOffset, level);
+            nodeSegment.putInt(nodeOffset + 4, upperSlot);
+            nodeSegment.putInt(nodeOffset + 8, 0);
+            for (int l = 0; l <= level; l++) {
+                writeLinks(node, l, new int[0], 0);
+            }
+            beforeLink.accept(node);
+            link(node, level, normalized);
+            return node;
+        } finally {
+            commitLock.readLock().unlock();
+        }
+    }
+
+    private void link(int node, int level, float[] vector) {
+        topLock.lock();
+        Top current = top;
+        boolean raisesTop = level > current.level();
+        if (!raisesTop) {
+            // Chỉ node làm cao đồ thị mới phải giữ khoá suốt quá trình nối
+            topLock.unlock();
+        }
+        try {
+            if (current.node() < 0) {
+                top = new Top(node, level);
+                return;
+            }
+            SearchScratch s = scratch.get();
+            s.prepare(vector, Quantization.NONE);
+            int entry = current.node();
+            for (int l = current.level(); l > level; l--) {
+                entry = greedyClosest(vector, entry, l, s);
+            }
+            for (int l = Math.min(level, current.level()); l >= 0; l--) {
+                NodeHeap found = searchLayer(vector, entry, efConstruction, l, null, s);
+                Candidate[] sorted = found.drainAscending();
+                int[] selected = selectNeighbors(sorted, m);
+                writeLinks(node, l, selected, selected.length);
+                for (int neighbor : selected) {
+                    addLink(neighbor, node, l);
+                }
+                entry = sorted[0].node;
+            }
+            if (raisesTop) {
+                top = new Top(node, level);
+            }
+        } finally {
+            if (raisesTop) {
+                topLock.unlock();
+            }
+        }
+    }
+
+    void markDeleted(int node) {
+        synchronized (lock(node)) {
+            ByteBuffer segment = nodes.segment(node);
+            int offset = nodes.offset(node) + 8;
+            int flags = segment.getInt(offset);
+            if ((flags & DELETED) == 0) {
+                segment.putInt(offset, flags | DELETED);
+                deleted.incrementAndGet();
+            }
+        }
+    }
+
+    boolean isDeleted(int node) {
+        return (nodes.segment(node).getInt(nodes.offset(node) + 8) & DELETED) != 0;
+    }
+
+    /**
+     * Tìm k node gần nhất thoả accept (null => mọi node chưa xoá)
+     *
+     * @param ef số ứng viên giữ lại khi duyệt tầng 0 (>= k), càng lớn recall càng cao và càng chậm
+     */
+    List<Neighbor> search(float[] query, int k, int ef, IntPredicate accept) {
+        Top current = top;
+        if (current.node() < 0 || k <= 0) {
+            return List.of();
+        }
+        float[] q = normalize(query);
+        SearchScratch s = scratch.get();
+        s.prepare(q, quantization);
+        int entry = current.node();
+        for (int l = current.level(); l > 0; l--) {
+            entry = greedyClosest(q, entry, l, s);
+        }
+        IntPredicate live = node -> !isDeleted(node) && (accept == null || accept.test(node));
+        int width = Math.max(ef, k) * (quantized != null ? rescoreOversampling : 1);
+        NodeHeap found = searchLayer(q, entry, width, 0, live, s);
+        Candidate[] sorted = found.drainAscending();
+        if (quantized != null) {
+            sorted = rescore(q, sorted, s.vector);
+        }
+        List<Neighbor> result = new ArrayList<>(Math.min(k, sorted.length));
+        for (int i = 0; i < sorted.length && result.size() < k; i++) {
+            result.add(new Neighbor(sorted[i].node, 1 - sorted[i].distance));
+        }
+        return result;
+    }
+
+    /**
+     * Quét chính xác: dùng cho filter rất hẹp và làm chuẩn đo recall
+     *
+     * @param candidates node cần xét, null => mọi node
+     */
+    List<Neighbor> bruteForce(float[] query, int k, int[] candidates, IntPredicate accept) {
+        float[] q = normalize(query);
+        float[] buffer = scratch.get().vector;
+        NodeHeap best = new NodeHeap(k + 1, true);
+        int count = candidates != null ? candidates.length : nextNode.get();
+        for (int i = 0; i < count; i++) {
+            int node = candidates != null ? candidates[i] : i;
+            if (isDeleted(node) || (accept != null && !accept.test(node))) {
+                continue;
+            }
+            float distance = distance(q, node, buffer);
+            if (best.size() < k || distance < best.peekDistance()) {
+                best.push(node, distance);
+                if (best.size() > k) {
+                    best.pop();
+                }
+            }
+        }
+        Candidate[] sorted = best.drainAscending();
+        List<Neighbor> result = new ArrayList<>(sorted.length);
+        for (Candidate candidate : sorted) {
+            result.add(new Neighbor(candidate.node, 1 - candidate.distance));
+        }
+        return result;
+    }
+
+    /**
+     * Chấm lại ứng viên tìm bằng bản lượng tử hoá bằng vector gốc
+     */
+    private Candidate[] rescore(float[] query, Candidate[] candidates, float[] buffer) {
+        Candidate[] rescored = new Candidate[candidates.length];
+        for (int i = 0; i < candidates.length; i++) {
+            rescored[i] = new Candidate(candidates[i].node, distance(query, candidates[i].node, buffer));
+        }
+        Arrays.sort(rescored, (a, b) -> Float.compare(a.distance, b.distance));
+        return rescored;
+    }
+
+    private int greedyClosest(float[] query, int entry, int level, SearchScratch s) {
+        int best = entry;
+        float bestDistance = searchDistance(query, entry, s);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int count = readLinks(best, level, s.links);
+            for (int i = 0; i < count; i++) {
+                int neighbor = s.links[i];
+                float distance = searchDistance(query, neighbor, s);
+                if (distance < bestDistance) {
+                    best = neighbor;
+                    bestDistance = distance;
+                    improved = true;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Beam search trên một tầng. accept == null: mọi node vào kết quả (lúc dựng đồ thị, kể cả node đã xoá);
+     * node không thoả accept vẫn được đi qua để tới các vùng khác của đồ thị.
+     */
+    private NodeHeap searchLayer(float[] query, int entry, int ef, int level, IntPredicate accept, SearchScratch s) {
+        s.startVisit(nextNode.get());
+        NodeHeap candidates = s.candidates;
+        candidates.clear();
+        NodeHeap results = new NodeHeap(ef + 1, true);
+
+        float entryDistance = searchDistance(query, entry, s);
+        s.visit(entry);
+        candidates.push(entry, entryDistance);
+        if (accept == null || accept.test(entry)) {
+            results.push(entry, entryDistance);
+        }
+        while (candidates.size() > 0) {
+            float closest = candidates.peekDistance();
+            if (results.size() >= ef && closest > results.peekDistance()) {
+                break;
+            }
+            int current = candidates.pop();
+            int count = readLinks(current, level, s.links);
+            for (int i = 0; i < count; i++) {
+                int neighbor = s.links[i];
+                if (!s.visit(neighbor)) {
+                    continue;
+                }
+                float distance = searchDistance(query, neighbor, s);
+                if (results.size() < ef || distance < results.peekDistance()) {
+                    candidates.push(neighbor, distance);
+                    if (accept == null || accept.test(neighbor)) {
+                        results.push(neighbor, distance);
+                        if (results.size() > ef) {
+                            results.pop();
+                        }
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Heuristic chọn láng giềng: bỏ ứng viên gần một láng giềng đã chọn hơn là gần node gốc,
+     * giữ cạnh đi theo nhiều hướng thay vì dồn vào một cụm
+     */
+    private int[] selectNeighbors(Candidate[] sortedAscending, int max) {
+        int[] selected = new int[Math.min(max, sortedAscending.length)];
+        float[][] selectedVectors = new float[selected.length][];
+        int count = 0;
+        for (Candidate candidate : sortedAscending) {
+            if (count >= max) {
+                break;
+            }
+            float[] vector = readVector(candidate.node);
+            boolean keep = true;
+            for (int i = 0; i < count; i++) {
+                if (1 - dot(vector, selectedVectors[i]) < candidate.distance) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                selected[count] = candidate.node;
+                selectedVectors[count] = vector;
+                count++;
+            }
+        }
+        return count == selected.length ? selected : Arrays.copyOf(selected, count);
+    }
+
+    private void addLink(int node, int newNeighbor, int level) {
+        int max = level == 0 ? m0 : m;
+        synchronized (lock(node)) {
+            int[] links = new int[max + 1];
+            int count = readLinksUnlocked(node, level, links);
+            if (count < max) {
+                links[count] = newNeighbor;
+                writeLinks(node, level, links, count + 1);
+                return;
+            }
+            // Đầy: chọn lại max láng giềng trong tập cũ + node mới
+            links[count] = newNeighbor;
+            float[] vector = readVector(node);
+            NodeHeap heap = new NodeHeap(count + 1, false);
+            for (int i = 0; i <= count; i++) {
+                heap.push(links[i], 1 - dot(vector, readVector(links[i])));
+            }
+            int[] selected = selectNeighbors(heap.drainAscending(), max);
+            writeLinks(node, level, selected, selected.length);
+        }
+    }
+
+    private int readLinks(int node, int level, int[] target) {
+        synchronized (lock(node)) {
+            return readLinksUnlocked(node, level, target);
+        }
+    }
+
+    private int readLinksUnlocked(int node, int level, int[] target) {
+        ByteBuffer segment;
+        int offset;
+        if (level == 0) {
+            segment = links0.segment(node);
+            offset = links0.offset(node);
+        } else {
+            long slot = upperSlot(node) + level - 1L;
+            segment = upper.segment(slot);
+            offset = upper.offset(slot);
+        }
+        int count = segment.getInt(offset);
+        int size = nextNode.get();
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            int neighbor = segment.getInt(offset + 4 + i * 4);
+            // Cạnh tới node chưa commit trước khi process dừng đột ngột: bỏ qua
+            if (neighbor < size) {
+                target[kept++] = neighbor;
+            }
+        }
+        return kept;
+    }
+
+    private void writeLinks(int node, int level, int[] links, int count) {
+        synchronized (lock(node)) {
+            ByteBuffer segment;
+            int offset;
+            if (level == 0) {
+                segment = links0.segment(node);
+                offset = links0.offset(node);
+            } else {
+                long slot = upperSlot(node) + level - 1L;
+                segment = upper.segment(slot);
+                offset = upper.offset(slot);
+            }
+            for (int i = 0; i < count; i++) {
+                segment.putInt(offset + 4 + i * 4, links[i]);
+            }
+            segment.putInt(offset, count);
+        }
+    }
+
+    private int upperSlot(int node) {
+        return nodes.segment(node).getInt(nodes.offset(node) + 4);
+    }
+
+    private Object lock(int node) {
+        return locks[node & (LOCK_STRIPES - 1)];
+    }
+
+    private void writeVector(int node, float[] vector) {
+        ByteBuffer segment = vectors.segment(node);
+        segment.asFloatBuffer().put(vectors.offset(node) / 4, vector);
+        if (quantized != null) {
+            writeQuantized(node, vector);
+        }
+    }
+
+    private void writeQuantized(int node, float[] vector) {
+        ByteBuffer segment = quantized.segment(node);
+        int offset = quantized.offset(node);
+        if (quantization == Quantization.INT8) {
+            byte[] codes = new byte[dimensions];
+            segment.putFloat(offset, int8Codes(vector, codes));
+            segment.put(offset + 4, codes);
+        } else {
+            long[] bits = new long[quantized.recordBytes() / 8];
+            signBits(vector, bits);
+            for (int w = 0; w < bits.length; w++) {
+                segment.putLong(offset + w * 8, bits[w]);
+            }
+        }
+    }
+
+    /**
+     * Scale đối xứng theo từng vector: thành phần lớn nhất => ±127
+     *
+     * @return scale (giá trị ≈ code * scale)
+     */
+    private static float int8Codes(float[] vector, byte[] codes) {
+        float maxAbs = 0;
+        for (float v : vector) {
+            maxAbs = Math.max(maxAbs, Math.abs(v));
+        }
+        float scale = maxAbs / 127;
+        for (int i = 0; i < vector.length; i++) {
+            codes[i] = scale == 0 ? 0 : (byte) Math.round(vector[i] / scale);
+        }
+        return scale;
+    }
+
+    private static void signBits(float[] vector, long[] bits) {
+        Arrays.fill(bits, 0);
+        for (int i = 0; i < vector.length; i++) {
+            if (vector[i] > 0) {
+                bits[i >>> 6] |= 1L << (i & 63);
+            }
+        }
+    }
+
+    float[] readVector(int node) {
+        float[] vector = new float[dimensions];
+        ByteBuffer segment = vectors.segment(node);
+        segment.asFloatBuffer().get(vectors.offset(node) / 4, vector);
+        return vector;
+    }
+
+    /**
+     * Copy vector ra mảng heap một lần rồi nhân trên mảng: nhanh hơn nhiều so với getFloat từng phần tử
+     */
+    private float distance(float[] query, int node, float[] buffer) {
+        vectors.segment(node).asFloatBuffer().get(vectors.offset(node) / 4, buffer, 0, dimensions);
+        return 1 - dot(query, buffer);
+    }
+
+    /**
+     * Khoảng cách dùng khi duyệt đồ thị theo chế độ của scratch: vector gốc, int8 (query float nhân code int8)
+     * hoặc tỉ lệ bit dấu khác nhau (binary). Chỉ dùng để so sánh với nhau trong cùng một lần duyệt.
+     */
+    private float searchDistance(float[] query, int node, SearchScratch s) {
+        if (s.mode == Quantization.NONE) {
+            return distance(query, node, s.vector);
+        }
+        ByteBuffer segment = quantized.segment(node);
+        int offset = quantized.offset(node);
+        if (s.mode == Quantization.INT8) {
+            // Query cũng lượng tử hoá int8 => tích vô hướng số nguyên, JIT vector hoá được (tổng float thì không)
+            byte[] codes = s.codes;
+            byte[] queryCodes = s.queryCodes;
+            segment.get(offset + 4, codes, 0, dimensions);
+            int dot = 0;
+            for (int i = 0; i < dimensions; i++) {
+                dot += queryCodes[i] * codes[i];
+            }
+            return 1 - s.queryScale * segment.getFloat(offset) * dot;
+        }
+        long[] queryBits = s.queryBits;
+        int differing = 0;
+        for (int w = 0; w < queryBits.length; w++) {
+            differing += Long.bitCount(segment.getLong(offset + w * 8) ^ queryBits[w]);
+        }
+        return (float) differing / dimensions;
+    }
+
+    private static float dot(float[] a, float[] b) {
+        // 4 bộ cộng độc lập để CPU chạy song song các phép nhân-cộng
+        float s0 = 0;
+        float s1 = 0;
+        float s2 = 0;
+        float s3 = 0;
+        int i = 0;
+        for (int bound = a.length & ~3; i < bound; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < a.length; i++) {
+            s0 += a[i] * b[i];
+        }
+        return s0 + s1 + s2 + s3;
+    }
+
+    private float[] normalize(float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("Expected " + dimensions + " dimensions, got " + vector.length);
+        }
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        float[] normalized = new float[dimensions];
+        if (norm == 0) {
+            return normalized;
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < dimensions; i++) {
+            normalized[i] = vector[i] * scale;
+        }
+        return normalized;
+    }
+
+    private int randomLevel() {
+        double r = ThreadLocalRandom.current().nextDouble();
+        return (int) Math.min(MAX_LEVEL, Math.floor(-Math.log(1 - r) * levelMultiplier));
+    }
+
+    /**
+     * Ghi header và đẩy mọi trang đã sửa xuống đĩa. Sau commit, mở lại file sẽ thấy đúng các node đã insert xong.
+     */
+    void commit() {
+        commitLock.writeLock().lock();
+        try {
+            vectors.force();
+            links0.force();
+            nodes.force();
+            upper.force();
+            if (quantized != null) {
+                quantized.force();
+            }
+            ByteBuffer h = header.segment(0);
+            Top current = top;
+            h.putInt(H_SIZE, nextNode.get());
+            h.putInt(H_ENTRY, current.node());
+            h.putInt(H_MAX_LEVEL, current.level());
+            h.putInt(H_UPPER_NEXT, upperNext.get());
+            h.putInt(H_DELETED, deleted.get());
+            header.force();
+        } finally {
+            commitLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        commit();
+        header.close();
+        vectors.close();
+        links0.close();
+        nodes.close();
+        upper.close();
+        if (quantized != null) {
+            quantized.close();
+        }
+    }
+
+    private record Candidate(int node, float distance) {
+    }
+
+    /**
+     * Binary heap (node, distance): max-heap giữ k phần tử tốt nhất, min-heap lấy ứng viên gần nhất
+     */
+    private static final class NodeHeap {
+        private int[] nodes;
+        private float[] distances;
+        private int size;
+        private final boolean max;
+
+        NodeHeap(int capacity, boolean max) {
+            this.nodes = new int[Math.max(4, capacity)];
+            this.distances = new float[nodes.length];
+            this.max = max;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        float peekDistance() {
+            return distances[0];
+        }
+
+        void push(int node, float distance) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                distances = Arrays.copyOf(distances, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!before(distance, distances[parent])) {
+                    break;
+                }
+                nodes[i] = nodes[parent];
+                distances[i] = distances[parent];
+                i = parent;
+            }
+            nodes[i] = node;
+            distances[i] = distance;
+        }
+
+        int pop() {
+            int root = nodes[0];
+            size--;
+            if (size > 0) {
+                int node = nodes[size];
+                float distance = distances[size];
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && before(distances[child + 1], distances[child])) {
+                        child++;
+                    }
+                    if (!before(distances[child], distance)) {
+                        break;
+                    }
+                    nodes[i] = nodes[child];
+                    distances[i] = distances[child];
+                    i = child;
+                }
+                nodes[i] = node;
+                distances[i] = distance;
+            }
+            return root;
+        }
+
+        private boolean before(float a, float b) {
+            return max ? a > b : a < b;
+        }
+
+        /**
+         * Lấy hết phần tử, gần nhất trước
+         */
+        Candidate[] drainAscending() {
+            Candidate[] sorted = new Candidate[size];
+            if (max) {
+                for (int i = sorted.length - 1; i >= 0; i--) {
+                    float distance = distances[0];
+                    sorted[i] = new Candidate(pop(), distance);
+                }
+            } else {
+                for (int i = 0; i < sorted.length; i++) {
+                    float distance = distances[0];
+                    sorted[i] = new Candidate(pop(), distance);
+                }
+            }
+            return sorted;
+        }
+    }
+
+    /**
+     * Bộ nhớ tạm theo thread: đánh dấu node đã thăm bằng số thế hệ (không phải xoá mảng mỗi lần search)
+     */
+    private static final class SearchScratch {
+        final int[] links;
+        final float[] vector;
+        final byte[] codes;
+        final byte[] queryCodes;
+        final long[] queryBits;
+        float queryScale;
+        Quantization mode = Quantization.NONE;
+        final NodeHeap candidates = new NodeHeap(256, false);
+        private int[] visited = new int[1024];
+        private int generation;
+
+        SearchScratch(int maxLinks, int dimensions) {
+            this.links = new int[maxLinks + 1];
+            this.vector = new float[dimensions];
+            this.codes = new byte[dimensions];
+            this.queryCodes = new byte[dimensions];
+            this.queryBits = new long[(dimensions + 63) / 64];
+        }
+
+        void prepare(float[] query, Quantization mode) {
+            this.mode = mode;
+            if (mode == Quantization.INT8) {
+                queryScale = int8Codes(query, queryCodes);
+            } else if (mode == Quantization.BINARY) {
+                signBits(query, queryBits);
+            }
+        }
+
+        void startVisit(int size) {
+            if (visited.length < size) {
+                visited = new int[Math.max(size, visited.length * 2)];
+                generation = 0;
+            }
+            generation++;
+            if (generation == Integer.MAX_VALUE) {
+                Arrays.fill(visited, 0);
+                generation = 1;
+            }
+        }
+
+        boolean visit(int node) {
+            if (node >= visited.length) {
+                visited = Arrays.copyOf(visited, Math.max(node + 1, visited.length * 2));
+            }
+            if (visited[node] == generation) {
+                return false;
+            }
+            visited[node] = generation;
+            return true;
+        }
+    }
+}
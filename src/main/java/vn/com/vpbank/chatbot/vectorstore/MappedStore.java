@@ -0,0 +1,98 @@
+package vn.com.vpbank.chatbot.vectorstore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * File gồm các record kích thước cố định, map vào bộ nhớ theo từng segment (mỗi segment chứa nguyên số record,
+ * record không bao giờ nằm vắt qua hai segment). File tự dài ra khi cần thêm segment; segment đã map không đổi
+ * nên thread đọc không phải khoá. Thứ tự byte cố định little-endian để file mang sang máy khác vẫn đọc được.
+ */
+final class MappedStore implements AutoCloseable {
+
+    private final FileChannel channel;
+    private final int recordBytes;
+    private final int recordsPerSegment;
+    private volatile ByteBuffer[] segments = new ByteBuffer[0];
+
+    MappedStore(Path file, int recordBytes, int recordsPerSegment) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.recordBytes = recordBytes;
+        this.recordsPerSegment = recordsPerSegment;
+        long existing = channel.size() / ((long) recordBytes * recordsPerSegment);
+        if (existing > 0) {
+            ensureCapacity(existing * recordsPerSegment);
+        }
+    }
+
+    int recordBytes() {
+        return recordBytes;
+    }
+
+    /**
+     * Segment chứa record; buffer dùng chung nên chỉ được đọc/ghi bằng get/put tuyệt đối
+     */
+    ByteBuffer segment(long record) {
+        ByteBuffer[] current = segments;
+        int index = (int) (record / recordsPerSegment);
+        if (index >= current.length) {
+            ensureCapacity(record + 1);
+            current = segments;
+        }
+        return current[index];
+    }
+
+    int offset(long record) {
+        return (int) (record % recordsPerSegment) * recordBytes;
+    }
+
+    synchronized void ensureCapacity(long records) {
+        int needed = (int) ((records + recordsPerSegment - 1) / recordsPerSegment);
+        if (needed <= segments.length) {
+            return;
+        }
+        long segmentBytes = (long) recordBytes * recordsPerSegment;
+        ByteBuffer[] grown = Arrays.copyOf(segments, needed);
+        try {
+            for (int i = segments.length; i < needed; i++) {
+                // map vượt quá cuối file thì file được kéo dài (phần mới toàn byte 0)
+                grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * segmentBytes, segmentBytes)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map vector store segment", e);
+        }
+        segments = grown;
+    }
+
+    long capacity() {
+        return (long) segments.length * recordsPerSegment;
+    }
+
+    long mappedBytes() {
+        return (long) segments.length * recordBytes * recordsPerSegment;
+    }
+
+    /**
+     * Ghi các trang đã sửa xuống đĩa
+     */
+    void force() {
+        for (ByteBuffer segment : segments) {
+            ((MappedByteBuffer) segment).force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        segments = new ByteBuffer[0];
+        channel.close();
+    }
+}
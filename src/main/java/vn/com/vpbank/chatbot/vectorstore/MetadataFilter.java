@@ -0,0 +1,106 @@
+package vn.com.vpbank.chatbot.vectorstore;
+
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Đánh giá Filter.Expression của Spring AI trên metadata của một document, cùng ngữ nghĩa với filter Qdrant:
+ * key không có trong metadata thì NE/NIN đúng, các phép so sánh khác sai; số so sánh theo giá trị.
+ */
+final class MetadataFilter {
+
+    private MetadataFilter() {
+    }
+
+    static boolean matches(Filter.Operand operand, Map<String, Object> metadata) {
+        if (operand instanceof Filter.Group group) {
+            return matches(group.content(), metadata);
+        }
+        Filter.Expression expression = (Filter.Expression) operand;
+        return switch (expression.type()) {
+            case AND -> matches(expression.left(), metadata) && matches(expression.right(), metadata);
+            case OR -> matches(expression.left(), metadata) || matches(expression.right(), metadata);
+            case NOT -> !matches(expression.left(), metadata);
+            default -> compare(expression, metadata);
+        };
+    }
+
+    private static boolean compare(Filter.Expression expression, Map<String, Object> metadata) {
+        String key = ((Filter.Key) expression.left()).key();
+        Object actual = metadata.get(key);
+        if (actual == null) {
+            return expression.type() == Filter.ExpressionType.NE || expression.type() == Filter.ExpressionType.NIN;
+        }
+        Object expected = ((Filter.Value) expression.right()).value();
+        return switch (expression.type()) {
+            case EQ -> equal(actual, expected);
+            case NE -> !equal(actual, expected);
+            case GT -> order(actual, expected) > 0;
+            case GTE -> order(actual, expected) >= 0;
+            case LT -> order(actual, expected) < 0;
+            case LTE -> order(actual, expected) <= 0;
+            case IN -> values(expected).stream().anyMatch(value -> equal(actual, value));
+            case NIN -> values(expected).stream().noneMatch(value -> equal(actual, value));
+            default -> throw new IllegalArgumentException("Unsupported filter operation " + expression.type());
+        };
+    }
+
+    /**
+     * Giá trị sourceId mà filter bắt buộc phải khớp (sourceId == x, hoặc x AND ... ở nhánh ngoài cùng),
+     * để chỉ xét document của các nguồn đó thay vì quét hết
+     *
+     * @return null nếu filter không giới hạn theo sourceId
+     */
+    static Set<String> requiredSources(Filter.Operand operand, String sourceKey) {
+        if (operand instanceof Filter.Group group) {
+            return requiredSources(group.content(), sourceKey);
+        }
+        if (!(operand instanceof Filter.Expression expression)) {
+            return null;
+        }
+        switch (expression.type()) {
+            case AND -> {
+                Set<String> left = requiredSources(expression.left(), sourceKey);
+                return left != null ? left : requiredSources(expression.right(), sourceKey);
+            }
+            case EQ, IN -> {
+                if (expression.left() instanceof Filter.Key key && key.key().equals(sourceKey)) {
+                    return values(((Filter.Value) expression.right()).value()).stream()
+                            .map(String::valueOf)
+                            .collect(Collectors.toSet());
+                }
+                return null;
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+
+    private static Collection<?> values(Object value) {
+        return value instanceof Collection<?> collection ? collection : List.of(value);
+    }
+
+    private static boolean equal(Object actual, Object expected) {
+        if (actual instanceof Number a && expected instanceof Number b) {
+            return Double.compare(a.doubleValue(), b.doubleValue()) == 0;
+        }
+        return Objects.equals(String.valueOf(actual), String.valueOf(expected));
+    }
+
+    private static int order(Object actual, Object expected) {
+        if (actual instanceof Number a && expected instanceof Number b) {
+            return Double.compare(a.doubleValue(), b.doubleValue());
+        }
+        if (actual instanceof Number || expected instanceof Number) {
+            throw new IllegalArgumentException("Cannot compare " + actual + " with " + expected);
+        }
+        return String.valueOf(actual).compareTo(String.valueOf(expected));
+    }
+}
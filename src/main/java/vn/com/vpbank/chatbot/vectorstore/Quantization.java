@@ -0,0 +1,31 @@
+package vn.com.vpbank.chatbot.vectorstore;
+
+import java.util.Locale;
+
+/**
+ * Cách lưu bản vector dùng khi duyệt đồ thị; vector gốc float32 vẫn được giữ để chấm lại điểm top ứng viên.
+ * Thứ tự khai báo là giá trị ghi trong header, chỉ thêm vào cuối.
+ */
+public enum Quantization {
+    /** Chỉ float32 (4 byte/chiều) */
+    NONE,
+    /** Scalar int8: 1 byte/chiều + hệ số scale của vector, ~4x nhỏ hơn */
+    INT8,
+    /** 1 bit/chiều (dấu của từng thành phần), 32x nhỏ hơn, so sánh bằng Hamming */
+    BINARY;
+
+    public static Quantization parse(String value) {
+        return value == null || value.isBlank() ? NONE : valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Số byte của bản lượng tử hoá của một vector
+     */
+    int recordBytes(int dimensions) {
+        return switch (this) {
+            case NONE -> 0;
+            case INT8 -> 4 + dimensions;
+            case BINARY -> (dimensions + 63) / 64 * 8;
+        };
+    }
+}
@@ -0,0 +1,136 @@
+package vn.com.vpbank.chatbot.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import vn.com.vpbank.chatbot.util.Tokenizer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Vector về đúng lời gọi theo index của response; batch flush khi chạm giới hạn token;
+ * một text của lời gọi hỏng thì text còn lại của lời gọi đó không tới provider
+ */
+class BatchingEmbeddingModelTest {
+
+    EmbeddingModel delegate = mock(EmbeddingModel.class);
+    // text của từng request tới provider
+    List<List<String>> requests = new CopyOnWriteArrayList<>();
+    BatchingEmbeddingModel batcher;
+
+    @AfterEach
+    void tearDown() {
+        batcher.close();
+    }
+
+    @Test
+    void vectorsFollowResponseIndexNotResponseOrder() throws Exception {
+        // provider trả embedding theo thứ tự ngược, chỉ index cho biết thuộc input nào
+        when(delegate.call(any())).thenAnswer(invocation -> {
+            List<String> texts = record(invocation.getArgument(0));
+            List<Embedding> results = new ArrayList<>();
+            for (int i = texts.size() - 1; i >= 0; i--) {
+                results.add(new Embedding(vectorOf(texts.get(i)), i));
+            }
+            return new EmbeddingResponse(results);
+        });
+        batcher = new BatchingEmbeddingModel(delegate, Runnable::run, 1, 10, 10_000, 500);
+
+        CompletableFuture<List<float[]>> first = CompletableFuture.supplyAsync(
+                () -> batcher.embed(List.of("lãi suất", "kỳ hạn 12 tháng")));
+        CompletableFuture<List<float[]>> second = CompletableFuture.supplyAsync(
+                () -> batcher.embed(List.of("phí chuyển khoản")));
+
+        assertVectors(List.of("lãi suất", "kỳ hạn 12 tháng"), first.get(10, TimeUnit.SECONDS));
+        assertVectors(List.of("phí chuyển khoản"), second.get(10, TimeUnit.SECONDS));
+        // hai lời gọi trong cùng linger => một request
+        assertEquals(1, requests.size());
+        assertEquals(3, requests.get(0).size());
+    }
+
+    @Test
+    void flushesWhenNextTextWouldExceedTokenLimit() {
+        when(delegate.call(any())).thenAnswer(invocation -> respond(record(invocation.getArgument(0))));
+        List<String> texts = List.of("tiền gửi tiết kiệm", "tiền gửi có kỳ hạn", "tiền gửi không kỳ hạn");
+        int maxTokens = Tokenizer.count(texts.get(0)) + Tokenizer.count(texts.get(1));
+        batcher = new BatchingEmbeddingModel(delegate, Runnable::run, 1, 10, maxTokens, 200);
+
+        assertVectors(texts, batcher.embed(texts));
+
+        assertEquals(List.of(texts.subList(0, 2), texts.subList(2, 3)), requests);
+        assertEquals(1L, batcher.getStats().get("flushedOnTokens"));
+    }
+
+    @Test
+    void failedCallerTextsAreNotSent() throws Exception {
+        when(delegate.call(any())).thenAnswer(invocation -> {
+            List<String> texts = record(invocation.getArgument(0));
+            if (texts.contains("lỗi")) {
+                throw new IllegalStateException("provider rejected input");
+            }
+            return respond(texts);
+        });
+        // executor do test điều khiển: request chỉ chạy khi test cho phép
+        BlockingQueue<Runnable> pending = new LinkedBlockingQueue<>();
+        batcher = new BatchingEmbeddingModel(delegate, pending::add, 1, 1, 10_000, 0);
+
+        CompletableFuture<List<float[]>> caller = CompletableFuture.supplyAsync(
+                () -> batcher.embed(List.of("lỗi", "chương 2", "chương 3")));
+        pending.poll(10, TimeUnit.SECONDS).run();
+
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> caller.get(10, TimeUnit.SECONDS));
+        assertEquals("provider rejected input", failure.getCause().getMessage());
+        // batch mà dispatcher đã kịp gửi trước khi lời gọi bị huỷ cũng bị bỏ khi tới lượt chạy
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while ((Long) batcher.getStats().get("cancelledInputs") < 2 && System.nanoTime() < deadline) {
+            Runnable next = pending.poll(10, TimeUnit.MILLISECONDS);
+            if (next != null) {
+                next.run();
+            }
+        }
+        assertEquals(2L, batcher.getStats().get("cancelledInputs"));
+        assertEquals(List.of(List.of("lỗi")), requests);
+    }
+
+    private List<String> record(EmbeddingRequest request) {
+        List<String> texts = request.getInstructions();
+        requests.add(texts);
+        return texts;
+    }
+
+    private static EmbeddingResponse respond(List<String> texts) {
+        List<Embedding> results = new ArrayList<>();
+        for (int i = 0; i < texts.size(); i++) {
+            results.add(new Embedding(vectorOf(texts.get(i)), i));
+        }
+        return new EmbeddingResponse(results);
+    }
+
+    private static float[] vectorOf(String text) {
+        return new float[]{text.length(), text.charAt(0), text.hashCode()};
+    }
+
+    private static void assertVectors(List<String> texts, List<float[]> vectors) {
+        assertEquals(texts.size(), vectors.size());
+        for (int i = 0; i < texts.size(); i++) {
+            assertArrayEquals(vectorOf(texts.get(i)), vectors.get(i), texts.get(i));
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package vn.com.vpbank.chatbot.service;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import org.bson.BsonObjectId;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import vn.com.vpbank.chatbot.repositories.document.BookDocument;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Một lô ghi metadata gồm sourceUrl đã có, sourceUrl mới và sourceUrl trùng nhau trong lô,
+ * trên collection giả lập (find theo sourceUrl $in, bulk upsert theo sourceUrl)
+ */
+class BookDocumentWriterTest {
+
+    MongoTemplate mongoTemplate;
+    HtmlContentStore contentStore;
+    BookDocumentWriter writer;
+    // sourceUrl -> document trong collection giả lập
+    Map<String, BookDocument> collection = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        contentStore = mock(HtmlContentStore.class);
+        when(mongoTemplate.indexOps(BookDocument.class)).thenReturn(mock(IndexOperations.class));
+        when(mongoTemplate.find(any(Query.class), eq(BookDocument.class))).thenAnswer(invocation -> {
+            Query query = invocation.getArgument(0);
+            org.bson.Document in = (org.bson.Document) query.getQueryObject().get("sourceUrl");
+            List<BookDocument> found = new ArrayList<>();
+            for (Object url : (Collection<?>) in.get("$in")) {
+                BookDocument document = collection.get((String) url);
+                if (document != null) {
+                    found.add(BookDocument.builder().id(document.getId()).sourceUrl(document.getSourceUrl())
+                            .vectorIds(document.getVectorIds()).contentHash(document.getContentHash()).build());
+                }
+            }
+            return found;
+        });
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, BookDocument.class))
+                .thenAnswer(invocation -> bulk());
+    }
+
+    @AfterEach
+    void tearDown() {
+        writer.close();
+    }
+
+    @Test
+    void batchWithExistingNewAndDuplicateSourceUrls() throws Exception {
+        String existingId = new ObjectId().toHexString();
+        collection.put("existing.html", BookDocument.builder().id(existingId).sourceUrl("existing.html")
+                .vectorIds(List.of("p1", "p2")).build());
+        writer = new BookDocumentWriter(mongoTemplate, contentStore, 5, 5_000);
+
+        CompletableFuture<BookDocumentWriter.Saved> existing = writer.upsert(document("existing.html", "v2"), null);
+        CompletableFuture<BookDocumentWriter.Saved> fresh = writer.upsert(document("new.html", "v1"), null);
+        CompletableFuture<BookDocumentWriter.Saved> duplicateFirst = writer.upsert(document("dup.html", "v1"), null);
+        CompletableFuture<BookDocumentWriter.Saved> duplicateSecond = writer.upsert(document("dup.html", "v2"), null);
+        CompletableFuture<BookDocumentWriter.Saved> existingAgain = writer.upsert(document("existing.html", "v3"), null);
+
+        BookDocumentWriter.Saved saved = existing.get(5, TimeUnit.SECONDS);
+        assertEquals(existingId, saved.document().getId());
+        assertEquals(List.of("p1", "p2"), saved.previousVectorIds());
+        assertFalse(saved.created());
+
+        saved = existingAgain.get(5, TimeUnit.SECONDS);
+        assertEquals(existingId, saved.document().getId());
+        assertEquals(List.of("p1", "p2"), saved.previousVectorIds());
+        assertFalse(saved.created());
+
+        saved = fresh.get(5, TimeUnit.SECONDS);
+        assertEquals(collection.get("new.html").getId(), saved.document().getId());
+        assertNull(saved.previousVectorIds());
+        assertTrue(saved.created());
+
+        // Lần thứ hai của cùng sourceUrl mới là update của document lần đầu vừa tạo
+        BookDocumentWriter.Saved first = duplicateFirst.get(5, TimeUnit.SECONDS);
+        BookDocumentWriter.Saved second = duplicateSecond.get(5, TimeUnit.SECONDS);
+        assertTrue(first.created());
+        assertFalse(second.created());
+        assertNull(second.previousVectorIds());
+        assertNotNull(first.document().getId());
+        assertEquals(first.document().getId(), second.document().getId());
+        assertEquals(collection.get("dup.html").getId(), first.document().getId());
+        assertEquals("v2", collection.get("dup.html").getTitle());
+
+        assertEquals(3, collection.size());
+        verify(mongoTemplate, times(1)).bulkOps(BulkOperations.BulkMode.UNORDERED, BookDocument.class);
+        Map<String, Object> stats = writer.getStats();
+        assertEquals(2L, stats.get("inserted"));
+        assertEquals(3L, stats.get("updated"));
+        assertEquals(0L, stats.get("failures"));
+    }
+
+    @Test
+    void replacedContentIsReleased() throws Exception {
+        collection.put("a.html", BookDocument.builder().id(new ObjectId().toHexString()).sourceUrl("a.html")
+                .contentHash("old-a").build());
+        collection.put("b.html", BookDocument.builder().id(new ObjectId().toHexString()).sourceUrl("b.html")
+                .contentHash("same-b").build());
+        writer = new BookDocumentWriter(mongoTemplate, contentStore, 3, 5_000);
+
+        CompletableFuture<BookDocumentWriter.Saved> a = writer.upsert(document("a.html", "a", "new-a"), null);
+        CompletableFuture<BookDocumentWriter.Saved> b = writer.upsert(document("b.html", "b", "same-b"), null);
+        CompletableFuture<BookDocumentWriter.Saved> c = writer.upsert(document("c.html", "c", "new-c"), null);
+        CompletableFuture.allOf(a, b, c).get(5, TimeUnit.SECONDS);
+
+        // Chỉ hash cũ của document đổi nội dung; HtmlContentStore tự kiểm tra còn document nào trỏ tới không
+        verify(contentStore, timeout(5_000)).deleteUnreferenced(Set.of("old-a"));
+        assertEquals("new-a", collection.get("a.html").getContentHash());
+    }
+
+    private static BookDocument document(String sourceUrl, String title) {
+        return document(sourceUrl, title, null);
+    }
+
+    private static BookDocument document(String sourceUrl, String title, String contentHash) {
+        return BookDocument.builder().sourceUrl(sourceUrl).title(title).contentHash(contentHash).build();
+    }
+
+    /**
+     * BulkOperations ghi vào collection giả lập theo thứ tự thao tác, trả upsert index như Mongo
+     */
+    private BulkOperations bulk() {
+        List<Object[]> operations = new ArrayList<>();
+        return mock(BulkOperations.class, invocation -> {
+            switch (invocation.getMethod().getName()) {
+                case "upsert" -> operations.add(invocation.getArguments());
+                case "execute" -> {
+                    List<BulkWriteUpsert> upserts = new ArrayList<>();
+                    int matched = 0;
+                    for (int i = 0; i < operations.size(); i++) {
+                        String url = ((Query) operations.get(i)[0]).getQueryObject().getString("sourceUrl");
+                        org.bson.Document update = ((UpdateDefinition) operations.get(i)[1]).getUpdateObject();
+                        org.bson.Document set = (org.bson.Document) update.get("$set");
+                        BookDocument current = collection.get(url);
+                        if (current != null) {
+                            matched++;
+                            current.setTitle(set.getString("title"));
+                            current.setContentHash(set.getString("contentHash"));
+                        } else {
+                            ObjectId id = (ObjectId) ((org.bson.Document) update.get("$setOnInsert")).get("_id");
+                            collection.put(url, BookDocument.builder().id(id.toHexString()).sourceUrl(url)
+                                    .title(set.getString("title")).contentHash(set.getString("contentHash")).build());
+                            upserts.add(new BulkWriteUpsert(i, new BsonObjectId(id)));
+                        }
+                    }
+                    return BulkWriteResult.acknowledged(0, matched, 0, matched, upserts, List.of());
+                }
+                default -> {
+                }
+            }
+            return invocation.getMock();
+        });
+    }
+}
@@ -0,0 +1,215 @@
+package vn.com.vpbank.chatbot.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.test.util.ReflectionTestUtils;
+import vn.com.vpbank.chatbot.bean.ChatAnswer;
+import vn.com.vpbank.chatbot.bean.SearchSpec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Single-flight của /chat: request giống hệt đến cùng lúc dùng chung một lần retrieval + LLM, kể cả khi lỗi
+ */
+class ChatbotServiceTest {
+
+    static final int CALLERS = 20;
+    static final String QUESTION = "Lãi suất tiết kiệm 12 tháng là bao nhiêu?";
+
+    ChatModel chatModel;
+    HybridSearchService hybridSearchService;
+    MeterRegistry meterRegistry;
+    ChatbotService service;
+    ExecutorService callers;
+
+    @BeforeEach
+    void setUp() {
+        chatModel = mock(ChatModel.class);
+        hybridSearchService = mock(HybridSearchService.class);
+        SemanticCacheService semanticCacheService = mock(SemanticCacheService.class);
+        ContextAssembler contextAssembler = mock(ContextAssembler.class);
+        when(hybridSearchService.search(anyString(), any(), any())).thenReturn(List.of());
+        when(contextAssembler.assemble(anyString(), any(), anyList()))
+                .thenReturn(new ContextAssembler.Context("", List.of(), 0));
+        meterRegistry = new SimpleMeterRegistry();
+        service = new ChatbotService(chatModel, hybridSearchService, semanticCacheService, contextAssembler, meterRegistry);
+        ReflectionTestUtils.setField(service, "coalescingEnabled", true);
+        ReflectionTestUtils.setField(service, "coalescingTimeoutMs", 60_000L);
+        callers = Executors.newFixedThreadPool(CALLERS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        callers.shutdownNow();
+    }
+
+    @Test
+    void concurrentCallersShareOneLlmCall() throws Exception {
+        when(chatModel.call(any(Prompt.class))).thenAnswer(invocation -> {
+            awaitWaiters(CALLERS - 1);
+            return response("Lãi suất 12 tháng là 5%.");
+        });
+
+        for (ChatAnswer answer : chatConcurrently(CALLERS)) {
+            assertEquals("Lãi suất 12 tháng là 5%.", answer.getAnswer());
+        }
+        verify(chatModel, times(1)).call(any(Prompt.class));
+        verify(hybridSearchService, times(1)).search(anyString(), any(), any());
+        assertEquals(CALLERS - 1, coalesced("success"));
+        assertTrue(inFlight().isEmpty());
+    }
+
+    @Test
+    void leaderFailureIsFannedOutToAllCallers() throws Exception {
+        when(chatModel.call(any(Prompt.class))).thenAnswer(invocation -> {
+            awaitWaiters(CALLERS - 1);
+            throw new IllegalStateException("LLM unavailable");
+        });
+
+        for (ChatAnswer answer : chatConcurrently(CALLERS)) {
+            assertEquals(ChatbotService.ERROR_ANSWER, answer.getAnswer());
+        }
+        verify(chatModel, times(1)).call(any(Prompt.class));
+        assertEquals(CALLERS - 1, coalesced("failure"));
+        assertTrue(inFlight().isEmpty());
+    }
+
+    @Test
+    void waiterGivesUpAfterTimeout() throws Exception {
+        ReflectionTestUtils.setField(service, "coalescingTimeoutMs", 100L);
+        CountDownLatch release = new CountDownLatch(1);
+        when(chatModel.call(any(Prompt.class))).thenAnswer(invocation -> {
+            release.await();
+            return response("Trả lời muộn");
+        });
+
+        Future<ChatAnswer> leader = callers.submit(() -> service.chat(QUESTION, SearchSpec.defaults()));
+        awaitLeader();
+        ChatAnswer waiter = service.chat(QUESTION, SearchSpec.defaults());
+        assertEquals(ChatbotService.ERROR_ANSWER, waiter.getAnswer());
+        assertEquals(1, coalesced("timeout"));
+
+        release.countDown();
+        assertEquals("Trả lời muộn", leader.get(5, TimeUnit.SECONDS).getAnswer());
+        verify(chatModel, times(1)).call(any(Prompt.class));
+        assertTrue(inFlight().isEmpty());
+    }
+
+    @Test
+    void leaderErrorReleasesWaitersImmediately() throws Exception {
+        when(chatModel.call(any(Prompt.class))).thenAnswer(invocation -> {
+            awaitWaiters(CALLERS - 1);
+            throw new AssertionError("boom");
+        });
+
+        CyclicBarrier start = new CyclicBarrier(CALLERS);
+        List<Future<ChatAnswer>> results = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            results.add(callers.submit(() -> {
+                start.await();
+                return service.chat(QUESTION, SearchSpec.defaults());
+            }));
+        }
+        int errors = 0;
+        for (Future<ChatAnswer> result : results) {
+            // timeout 60s của coalescing không được chạm tới
+            try {
+                assertEquals(ChatbotService.ERROR_ANSWER, result.get(5, TimeUnit.SECONDS).getAnswer());
+            } catch (ExecutionException e) {
+                assertInstanceOf(AssertionError.class, e.getCause());
+                errors++;
+            }
+        }
+        assertEquals(1, errors);
+        assertEquals(CALLERS - 1, coalesced("failure"));
+        assertTrue(inFlight().isEmpty());
+    }
+
+    @Test
+    void differentSearchSpecsAreNotCoalesced() {
+        when(chatModel.call(any(Prompt.class))).thenReturn(response("a"));
+        service.chat(QUESTION, SearchSpec.defaults());
+        service.chat(QUESTION, SearchSpec.builder().topK(3).build());
+        verify(chatModel, times(2)).call(any(Prompt.class));
+    }
+
+    private List<ChatAnswer> chatConcurrently(int count) throws Exception {
+        CyclicBarrier start = new CyclicBarrier(count);
+        List<Future<ChatAnswer>> results = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            results.add(callers.submit(() -> {
+                start.await();
+                return service.chat(QUESTION, SearchSpec.defaults());
+            }));
+        }
+        List<ChatAnswer> answers = new ArrayList<>();
+        for (Future<ChatAnswer> result : results) {
+            answers.add(result.get(10, TimeUnit.SECONDS));
+        }
+        return answers;
+    }
+
+    /**
+     * Gọi trong LLM của request đầu tiên: chờ tới khi các request còn lại đều đang chờ kết quả của nó
+     */
+    private void awaitWaiters(int waiters) throws InterruptedException {
+        CompletableFuture<?> call = inFlight().values().iterator().next();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (call.getNumberOfDependents() < waiters) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Only " + call.getNumberOfDependents() + " waiters");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private void awaitLeader() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (inFlight().isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, inFlight().size());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Object, CompletableFuture<ChatAnswer>> inFlight() {
+        return (Map<Object, CompletableFuture<ChatAnswer>>) ReflectionTestUtils.getField(service, "inFlight");
+    }
+
+    private double coalesced(String outcome) {
+        return meterRegistry.counter("chatbot.chat.coalesced", "outcome", outcome).count();
+    }
+
+    private static ChatResponse response(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+}
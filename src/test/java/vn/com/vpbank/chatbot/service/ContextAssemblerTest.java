@@ -0,0 +1,136 @@
+package vn.com.vpbank.chatbot.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.test.util.ReflectionTestUtils;
+import vn.com.vpbank.chatbot.bean.DocumentChunk;
+import vn.com.vpbank.chatbot.repositories.document.BookDocument;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Nối chunk liền nhau do DocumentChunkingService sinh ra thì mỗi câu chỉ còn một lần;
+ * MMR bỏ chunk gần trùng, chọn chunk khác biệt và chunk nhỏ hơn còn vừa ngân sách
+ */
+class ContextAssemblerTest {
+
+    static final Pattern ARTICLE = Pattern.compile("Điều (\\d+) ");
+
+    EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+    ContextAssembler assembler = new ContextAssembler(embeddingModel);
+
+    @Test
+    void mergingConsecutiveChunksDropsChunkerOverlap() {
+        DocumentChunkingService chunkingService = new DocumentChunkingService(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(chunkingService, "chunkSize", 120);
+        ReflectionTestUtils.setField(chunkingService, "overlapSize", 40);
+        ReflectionTestUtils.setField(chunkingService, "minChunkSize", 5);
+        StringBuilder text = new StringBuilder();
+        for (int i = 1; i <= 60; i++) {
+            text.append("Điều ").append(i).append(" quy định lãi suất tiền gửi kỳ hạn ").append(i).append(" tháng.");
+            text.append(i % 4 == 0 ? "\n\n" : " ");
+        }
+        BookDocument book = BookDocument.builder().id("64f0c2a1b2c3d4e5f6a7b8c9").title("Biểu lãi suất")
+                .author("VPBank").sourceUrl("lai-suat/index.html").build();
+        List<DocumentChunk> chunks = chunkingService.chunkDocument(book, text.toString());
+        assertTrue(chunks.size() > 3);
+        // chunker thực sự tạo overlap: chunk sau bắt đầu bằng phần đuôi của chunk trước
+        assertTrue(chunks.get(0).getContent().contains(chunks.get(1).getContent().substring(0, 16)));
+
+        List<Document> documents = chunks.stream()
+                .map(chunk -> document(chunk.getChunkId(), chunk.getContent(), chunk.getSourceId(), chunk.getChunkIndex(), 0))
+                .toList();
+        String merged = assembler.format(new ArrayList<>(documents));
+
+        assertEquals(IntStream.rangeClosed(1, 60).boxed().toList(), articles(merged));
+        // không còn đoạn overlap nào bị lặp: nối lại đúng bằng văn bản gốc (khác mỗi khoảng trắng)
+        assertEquals(text.toString().replaceAll("\\s+", " ").trim(), merged.replaceAll("\\s+", " "));
+    }
+
+    @Test
+    void mergeOverlapKeepsUnrelatedChunksApart() {
+        assertEquals("Chương 1 nói về tiền gửi. Chương 2 nói về khoản vay.",
+                ContextAssembler.mergeOverlap("Chương 1 nói về tiền gửi.", "Chương 2 nói về khoản vay."));
+    }
+
+    @Test
+    void mmrSkipsNearDuplicateAndPrefersDiverseChunk() {
+        Map<String, float[]> vectors = new HashMap<>();
+        vectors.put("lãi suất?", new float[]{1, 0, 0});
+        vectors.put("lãi suất 12 tháng là 5%", new float[]{1, 0, 0});
+        vectors.put("lãi suất kỳ hạn 12 tháng là 5%", new float[]{0.99f, 0.05f, 0});
+        vectors.put("lãi suất không kỳ hạn là 0,1%", new float[]{0.6f, 0.8f, 0});
+        stubEmbeddings(vectors);
+
+        ContextAssembler.Context context = assembler.assemble("lãi suất?", List.of(
+                document("a", "lãi suất 12 tháng là 5%", "kieu", 1, 0.030),
+                document("b", "lãi suất kỳ hạn 12 tháng là 5%", "so-do", 7, 0.029),
+                document("c", "lãi suất không kỳ hạn là 0,1%", "lao-hac", 3, 0.020)));
+
+        assertEquals(List.of("a", "c"), context.documents().stream().map(Document::getId).toList());
+    }
+
+    @Test
+    void chunkThatDoesNotFitBudgetIsSkippedForSmallerOne() {
+        ReflectionTestUtils.setField(assembler, "maxTokens", 100);
+        Map<String, float[]> vectors = new HashMap<>();
+        vectors.put("lãi suất?", new float[]{1, 0, 0});
+        vectors.put("chương 1", new float[]{1, 0, 0});
+        vectors.put("chương 2", new float[]{0, 1, 0});
+        vectors.put("chương 3", new float[]{0, 0, 1});
+        stubEmbeddings(vectors);
+
+        List<Document> candidates = List.of(
+                withTokens(document("a", "chương 1", "kieu", 1, 0.03), 60),
+                withTokens(document("b", "chương 2", "kieu", 2, 0.02), 60),
+                withTokens(document("c", "chương 3", "kieu", 3, 0.01), 30));
+
+        ContextAssembler.Context context = assembler.assemble("lãi suất?", candidates);
+
+        assertEquals(List.of("a", "c"), context.documents().stream().map(Document::getId).toList());
+    }
+
+    private void stubEmbeddings(Map<String, float[]> vectors) {
+        when(embeddingModel.embed(anyList())).thenAnswer(invocation -> {
+            List<String> texts = invocation.getArgument(0);
+            return texts.stream().map(vectors::get).toList();
+        });
+    }
+
+    private static Document document(String id, String text, String sourceId, int chunkIndex, double rrfScore) {
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("sourceId", sourceId);
+        metadata.put("chunkIndex", chunkIndex);
+        metadata.put("rrfScore", rrfScore);
+        return Document.builder().id(id).text(text).metadata(metadata).build();
+    }
+
+    private static Document withTokens(Document document, int tokens) {
+        Map<String, Object> metadata = new HashMap<>(document.getMetadata());
+        metadata.put("tokenCount", tokens);
+        return document.mutate().metadata(metadata).build();
+    }
+
+    private static List<Integer> articles(String text) {
+        List<Integer> numbers = new ArrayList<>();
+        Matcher matcher = ARTICLE.matcher(text);
+        while (matcher.find()) {
+            numbers.add(Integer.parseInt(matcher.group(1)));
+        }
+        return numbers;
+    }
+}
@@ -0,0 +1,118 @@
+package vn.com.vpbank.chatbot.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import vn.com.vpbank.chatbot.bean.DocumentChunk;
+import vn.com.vpbank.chatbot.repositories.BookDocumentRepository;
+import vn.com.vpbank.chatbot.repositories.document.BookDocument;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Hai lần ingest cùng sourceUrl: stage upsert chạy lần lượt, lần sau lấy vectorIds do lần trước ghi
+ * (không phải bản đọc lúc lưu metadata), nên vectorIds trên Mongo luôn khớp point trên vector store
+ */
+class DocumentIngestionServiceTest {
+
+    static final String ID = "64f0c2a1b2c3d4e5f6a7b8c9";
+    static final String SOURCE = "kieu/index.html";
+
+    VectorStoreService vectorStoreService = mock(VectorStoreService.class);
+    BookDocumentRepository documentRepository = mock(BookDocumentRepository.class);
+    DocumentIngestionService service = new DocumentIngestionService(null, null, null, vectorStoreService,
+            mock(LexicalIndexService.class), documentRepository, null, null, mock(SemanticCacheService.class));
+
+    // point đang có trên vector store và vectorIds đang lưu trên Mongo
+    AtomicReference<List<String>> storePoints = new AtomicReference<>(List.of("old"));
+    AtomicReference<List<String>> storedIds = new AtomicReference<>(List.of("old"));
+    List<Collection<String>> previousIdsSeen = new CopyOnWriteArrayList<>();
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        when(documentRepository.findMetadataById(ID)).thenAnswer(invocation -> document(storedIds.get()));
+        doAnswer(invocation -> {
+            storedIds.set(invocation.getArgument(1));
+            return null;
+        }).when(documentRepository).updateVectorIds(eq(ID), any(), anyInt(), anyLong());
+        when(vectorStoreService.syncDocuments(anyString(), any(), any(), any())).thenAnswer(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                previousIdsSeen.add(invocation.getArgument(2));
+                List<DocumentChunk> chunks = invocation.getArgument(1);
+                List<String> ids = chunks.stream().map(DocumentChunk::getPointId).toList();
+                Thread.sleep(50);
+                storePoints.set(ids);
+                return ids;
+            } finally {
+                running.decrementAndGet();
+            }
+        });
+    }
+
+    @Test
+    void concurrentIngestsOfSameSourceSyncOneAfterAnother() throws Exception {
+        IngestTask first = task("a1", "a2");
+        IngestTask second = task("b1", "b2");
+        ExecutorService upsertStage = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (IngestTask task : List.of(first, second)) {
+                results.add(upsertStage.submit(() -> service.syncVectors(task)));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(2, result.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            upsertStage.shutdownNow();
+        }
+
+        assertEquals(1, maxRunning.get());
+        assertEquals(storePoints.get(), storedIds.get());
+        // lần đồng bộ sau diff với point của lần trước, không phải với "old" đọc lúc lưu metadata
+        assertEquals(List.of("old"), previousIdsSeen.get(0));
+        assertTrue(Set.of(List.of("a1", "a2"), List.of("b1", "b2")).contains(previousIdsSeen.get(1)));
+    }
+
+    private static IngestTask task(String... pointIds) {
+        IngestTask task = new IngestTask("job", SOURCE);
+        task.setDocument(document(List.of("old")));
+        task.setPreviousVectorIds(List.of("old"));
+        List<DocumentChunk> chunks = new ArrayList<>();
+        for (int i = 0; i < pointIds.length; i++) {
+            DocumentChunk chunk = new DocumentChunk("chunk " + pointIds[i], "Truyện Kiều", "Nguyễn Du",
+                    pointIds[i], i, SOURCE);
+            chunk.setPointId(pointIds[i]);
+            chunks.add(chunk);
+        }
+        task.setChunks(chunks);
+        return task;
+    }
+
+    private static BookDocument document(List<String> vectorIds) {
+        return BookDocument.builder().id(ID).title("Truyện Kiều").author("Nguyễn Du").sourceUrl(SOURCE)
+                .vectorIds(vectorIds).build();
+    }
+}
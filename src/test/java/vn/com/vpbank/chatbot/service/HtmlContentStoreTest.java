@@ -0,0 +1,139 @@
+package vn.com.vpbank.chatbot.service;
+
+import com.mongodb.client.gridfs.GridFSFindIterable;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import org.bson.BsonObjectId;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.GridFsResource;
+import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+import vn.com.vpbank.chatbot.util.Utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * prepare -> storeAll -> load trả lại đúng HTML gốc; blob trùng nội dung chỉ lưu một lần;
+ * blob chỉ bị xoá khi không còn document nào trỏ tới. GridFS giả lập bằng map filename -> byte
+ */
+class HtmlContentStoreTest {
+
+    static final String HTML = "<html><body><h1>Chương 1: Lãi suất</h1>"
+            + "<p>Tiền gửi tiết kiệm kỳ hạn 12 tháng được hưởng lãi suất cố định.</p>".repeat(50)
+            + "</body></html>";
+
+    MongoTemplate mongoTemplate;
+    GridFsTemplate gridFsTemplate;
+    HtmlContentStore store;
+    // filename -> nội dung đã nén
+    Map<String, byte[]> files = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        gridFsTemplate = mock(GridFsTemplate.class);
+        when(gridFsTemplate.store(any(InputStream.class), anyString(), any(Document.class))).thenAnswer(invocation -> {
+            InputStream in = invocation.getArgument(0);
+            files.put(invocation.getArgument(1), in.readAllBytes());
+            return new BsonObjectId().getValue();
+        });
+        when(gridFsTemplate.find(any(Query.class))).thenAnswer(invocation -> {
+            Collection<?> names = (Collection<?>) ((Document) filenameOf(invocation.getArgument(0))).get("$in");
+            GridFSFindIterable iterable = mock(GridFSFindIterable.class);
+            doAnswer(each -> {
+                Consumer<GridFSFile> action = each.getArgument(0);
+                names.stream().filter(files::containsKey).forEach(name -> action.accept(file((String) name)));
+                return null;
+            }).when(iterable).forEach(any());
+            return iterable;
+        });
+        when(gridFsTemplate.findOne(any(Query.class))).thenAnswer(invocation -> {
+            String name = (String) filenameOf(invocation.getArgument(0));
+            return files.containsKey(name) ? file(name) : null;
+        });
+        when(gridFsTemplate.getResource(any(GridFSFile.class))).thenAnswer(invocation -> {
+            GridFSFile file = invocation.getArgument(0);
+            return new GridFsResource(file, new ByteArrayInputStream(files.get(file.getFilename())));
+        });
+        store = new HtmlContentStore(mongoTemplate, gridFsTemplate, 6);
+    }
+
+    @Test
+    void prepareAndLoadRoundTrip() {
+        HtmlContentStore.Blob blob = store.prepare(HTML);
+        byte[] raw = HTML.getBytes(StandardCharsets.UTF_8);
+        assertEquals(Utils.sha256Hex(raw), blob.hash());
+        assertEquals(raw.length, blob.length());
+        assertTrue(blob.compressed().length < raw.length / 4);
+
+        store.storeAll(List.of(blob));
+        assertEquals(HTML, store.load(blob.hash()));
+        assertNull(store.load("missing"));
+
+        Map<String, Object> stats = store.getStats();
+        assertEquals(1L, stats.get("stored"));
+        assertEquals(1L, stats.get("loaded"));
+        assertEquals((long) raw.length, stats.get("originalBytes"));
+    }
+
+    @Test
+    void sameContentIsStoredOnce() {
+        HtmlContentStore.Blob first = store.prepare(HTML);
+        HtmlContentStore.Blob other = store.prepare("<p>Thẻ tín dụng</p>");
+        store.storeAll(List.of(first, store.prepare(HTML), other));
+        store.storeAll(List.of(store.prepare(HTML)));
+
+        verify(gridFsTemplate, times(2)).store(any(InputStream.class), anyString(), any(Document.class));
+        assertEquals(Set.of(first.hash(), other.hash()), files.keySet());
+        assertEquals(2L, store.getStats().get("deduplicated"));
+        assertEquals("<p>Thẻ tín dụng</p>", store.load(other.hash()));
+    }
+
+    @Test
+    void deleteUnreferencedKeepsHashesStillInUse() {
+        when(mongoTemplate.findDistinct(any(Query.class), eq("contentHash"), eq("book_documents"), eq(String.class)))
+                .thenReturn(List.of("shared"));
+
+        assertEquals(1, store.deleteUnreferenced(Set.of("orphan", "shared")));
+        verify(gridFsTemplate).delete(Query.query(Criteria
+                .where("filename").in(Set.of("orphan"))));
+        assertEquals(1L, store.getStats().get("deleted"));
+
+        assertEquals(0, store.deleteUnreferenced(Set.of()));
+        assertEquals(0, store.deleteUnreferenced(Set.of("shared")));
+        verify(gridFsTemplate, times(1)).delete(any(Query.class));
+    }
+
+    private static Object filenameOf(Query query) {
+        return query.getQueryObject().get("filename");
+    }
+
+    private GridFSFile file(String name) {
+        return new GridFSFile(new BsonObjectId(), name, files.get(name).length, 255 * 1024, new Date(),
+                new Document("encoding", "deflate"));
+    }
+}
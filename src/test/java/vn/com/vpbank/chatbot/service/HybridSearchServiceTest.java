@@ -0,0 +1,88 @@
+package vn.com.vpbank.chatbot.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.test.util.ReflectionTestUtils;
+import vn.com.vpbank.chatbot.bean.SearchSpec;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * RRF: chunk có mặt ở cả hai nhánh vượt lên trên chunk chỉ đứng đầu một nhánh; thứ tự theo Σ weight / (k + rank);
+ * một nhánh lỗi thì dùng kết quả nhánh còn lại
+ */
+class HybridSearchServiceTest {
+
+    VectorStoreService vectorStoreService = mock(VectorStoreService.class);
+    LexicalIndexService lexicalIndexService = mock(LexicalIndexService.class);
+    HybridSearchService service = new HybridSearchService(vectorStoreService, lexicalIndexService, Runnable::run,
+            new SimpleMeterRegistry());
+
+    @Test
+    void fuseRanksByReciprocalRankSum() {
+        // k = 60: A = 1/61, B = 1/62 + 1/61, C = 1/63, D = 1/62
+        List<Document> fused = service.fuse(vectorDocs("A", "B", "C"), lexicalDocs("B", "D"), 10);
+
+        assertEquals(List.of("B", "A", "D", "C"), ids(fused));
+        Map<String, Object> b = fused.get(0).getMetadata();
+        assertEquals(2, b.get("vectorRank"));
+        assertEquals(1, b.get("lexicalRank"));
+        assertEquals(1.0 / 62 + 1.0 / 61, (double) b.get("rrfScore"), 1e-12);
+        // bản của vector store được giữ (có score cosine)
+        assertEquals("vector", b.get("leg"));
+        assertFalse(fused.get(2).getMetadata().containsKey("vectorRank"));
+    }
+
+    @Test
+    void fuseKeepsTopKAndHonoursWeights() {
+        ReflectionTestUtils.setField(service, "lexicalWeight", 3.0);
+
+        List<Document> fused = service.fuse(vectorDocs("A", "B", "C"), lexicalDocs("C", "D"), 2);
+
+        // C = 1/63 + 3/61, D = 3/62, A = 1/61
+        assertEquals(List.of("C", "D"), ids(fused));
+    }
+
+    @Test
+    void failedLegFallsBackToOtherLeg() {
+        SearchSpec spec = SearchSpec.builder().topK(2).build();
+        when(lexicalIndexService.isEnabled()).thenReturn(true);
+        when(vectorStoreService.searchSimilar(anyString(), any(), anyInt(), eq(spec))).thenReturn(vectorDocs("A", "B", "C"));
+        when(lexicalIndexService.search(anyString(), anyInt(), eq(spec))).thenThrow(new IllegalStateException("index closed"));
+
+        HybridSearchService.Result result = service.searchWithTimings("lãi suất", null, spec);
+
+        assertEquals(List.of("A", "B"), ids(result.documents()));
+        assertEquals(-1, result.lexicalMs());
+    }
+
+    private static List<Document> vectorDocs(String... ids) {
+        return docs("vector", ids);
+    }
+
+    private static List<Document> lexicalDocs(String... ids) {
+        return docs("lexical", ids);
+    }
+
+    private static List<Document> docs(String leg, String... ids) {
+        return Arrays.stream(ids)
+                .map(id -> Document.builder().id(id).text("chunk " + id).metadata(Map.of("leg", leg)).build())
+                .toList();
+    }
+
+    private static List<String> ids(List<Document> documents) {
+        return documents.stream().map(Document::getId).toList();
+    }
+}
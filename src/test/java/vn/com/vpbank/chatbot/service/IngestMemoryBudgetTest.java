@@ -0,0 +1,80 @@
+package vn.com.vpbank.chatbot.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Hai reader zip cùng nở lease theo block tới quá nửa budget không được khoá lẫn nhau;
+ * tryOpen không chặn khi hết quota; mọi quota được trả khi close
+ */
+class IngestMemoryBudgetTest {
+
+    static final int BLOCK = 4 * 1024;
+
+    // budget 1 MB, hệ số 6: mỗi entry 120 KB giữ 720 KB, hai entry cùng lúc vượt budget
+    IngestMemoryBudget budget = new IngestMemoryBudget(1, 1, 10, 6);
+
+    @Test
+    void twoReadersGrowingPastHalfBudgetBothFinish() throws Exception {
+        ExecutorService readers = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                results.add(readers.submit(() -> {
+                    try (IngestMemoryBudget.Lease lease = budget.open()) {
+                        for (int read = 0; read < 120 * 1024; read += BLOCK) {
+                            lease.grow(BLOCK);
+                        }
+                        assertEquals(120 * 1024, lease.getRawBytes());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            readers.shutdownNow();
+        }
+        assertEquals(0, budget.getStats().get("inFlightBytes"));
+        assertEquals(0, budget.getStats().get("inFlightDocuments"));
+    }
+
+    @Test
+    void reserveChargesWholeEntryOnce() throws Exception {
+        try (IngestMemoryBudget.Lease lease = budget.open()) {
+            lease.reserve(100 * 1024);
+            assertEquals(6 * 100 * 1024, lease.getHeldBytes());
+            // đọc trong phần đã xin trước không xin thêm
+            lease.grow(50 * 1024);
+            assertEquals(6 * 100 * 1024, lease.getHeldBytes());
+            lease.shrinkTo(1024);
+            assertEquals(1024, budget.getStats().get("inFlightBytes"));
+        }
+        assertEquals(0, budget.getStats().get("inFlightBytes"));
+    }
+
+    @Test
+    void tryOpenReturnsNullWhenBudgetExhausted() {
+        IngestMemoryBudget.Lease first = budget.tryOpen(120 * 1024);
+        assertNotNull(first);
+        assertNull(budget.tryOpen(120 * 1024));
+        // lease bị từ chối không giữ slot document
+        assertEquals(1, budget.getStats().get("inFlightDocuments"));
+        first.close();
+        IngestMemoryBudget.Lease second = budget.tryOpen(120 * 1024);
+        assertNotNull(second);
+        second.close();
+        assertEquals(0, budget.getStats().get("inFlightBytes"));
+    }
+}
@@ -0,0 +1,67 @@
+package vn.com.vpbank.chatbot.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Handler ném lỗi (kể cả Error): onFailure vẫn chạy => lease của document được trả, slot của stage không bị mất
+ */
+class IngestStageTest {
+
+    IngestMemoryBudget budget = new IngestMemoryBudget(1, 1, 10, 6);
+    List<IngestStage.FailedTask<IngestTask>> failures = new CopyOnWriteArrayList<>();
+
+    @Test
+    void errorInHandlerStillReleasesTask() throws Exception {
+        IngestStage<IngestTask> stage = stage(task -> {
+            throw new StackOverflowError();
+        });
+        IngestTask task = leasedTask();
+
+        // executor chạy ngay trên thread gọi nên Error lan ra submit
+        assertThrows(StackOverflowError.class, () -> stage.submit(task));
+
+        assertEquals(1, failures.size());
+        assertTrue(failures.get(0).error() instanceof StackOverflowError);
+        assertEquals(0, budget.getStats().get("inFlightBytes"));
+        assertEquals(0, budget.getStats().get("inFlightDocuments"));
+        assertEquals(1L, stage.getStats().get("failed"));
+        assertTrue(stage.hasCapacity());
+    }
+
+    @Test
+    void exceptionInHandlerIsReportedNotThrown() throws Exception {
+        IngestStage<IngestTask> stage = stage(task -> {
+            throw new IllegalStateException("parse failed");
+        });
+
+        stage.submit(leasedTask());
+
+        assertEquals("parse failed", failures.get(0).error().getMessage());
+        assertEquals(0, budget.getStats().get("inFlightDocuments"));
+        // concurrency 1, không có hàng đợi: slot duy nhất đã được trả
+        assertTrue(stage.trySubmit(leasedTask()));
+    }
+
+    private IngestStage<IngestTask> stage(Consumer<IngestTask> handler) {
+        return new IngestStage<>("parse", Runnable::run, 1, 0, handler, failure -> {
+            failures.add(failure);
+            failure.task().release();
+        });
+    }
+
+    private IngestTask leasedTask() throws InterruptedException {
+        IngestTask task = new IngestTask("job", "kieu.html");
+        IngestMemoryBudget.Lease lease = budget.open();
+        lease.grow(16 * 1024);
+        task.setLease(lease);
+        return task;
+    }
+}
@@ -0,0 +1,78 @@
+package vn.com.vpbank.chatbot.service;
+
+import org.junit.jupiter.api.Test;
+import vn.com.vpbank.chatbot.bean.ChatAnswer;
+
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Hit theo cosine, invalidate theo source, và câu trả lời tính trước một lần invalidate không được put lại
+ * (race giữa chat đang chạy và ingest vừa đổi document)
+ */
+class SemanticCacheServiceTest {
+
+    static final String KIEU = "kieu/index.html";
+    static final String SO_DO = "so-do/index.html";
+
+    SemanticCacheService cache = new SemanticCacheService(null, true, 0.95, 100, 60);
+
+    @Test
+    void similarQuestionHitsAndDifferentQuestionMisses() {
+        cache.put("lai suat tiet kiem 12 thang", new float[]{1, 0, 0}, "5%/năm", Set.of(KIEU), cache.currentVersion());
+
+        Optional<ChatAnswer> hit = cache.lookup("lai suat gui tiet kiem 12 thang", unit(0.99f, 0.1f, 0));
+        assertTrue(hit.isPresent());
+        assertEquals("5%/năm", hit.get().getAnswer());
+        assertTrue(hit.get().isCached());
+
+        assertFalse(cache.lookup("phi chuyen khoan", new float[]{0, 1, 0}).isPresent());
+        // cùng câu hỏi đã chuẩn hoá luôn hit dù vector khác
+        assertTrue(cache.lookup("lai suat tiet kiem 12 thang", new float[]{0, 0, 1}).isPresent());
+    }
+
+    @Test
+    void invalidateRemovesOnlyAnswersOfThatSource() {
+        long version = cache.currentVersion();
+        cache.put("kieu", new float[]{1, 0, 0}, "Nguyễn Du", Set.of(KIEU), version);
+        cache.put("so do", new float[]{0, 1, 0}, "Vũ Trọng Phụng", Set.of(SO_DO), version);
+
+        cache.invalidateSource(KIEU);
+
+        assertFalse(cache.lookup("kieu", new float[]{1, 0, 0}).isPresent());
+        assertTrue(cache.lookup("so do", new float[]{0, 1, 0}).isPresent());
+    }
+
+    @Test
+    void answerComputedBeforeInvalidationIsNotCached() {
+        long probeVersion = cache.currentVersion();
+        // ingest đổi document trong lúc câu trả lời đang được sinh
+        cache.invalidateSource(KIEU);
+
+        assertFalse(cache.put("kieu", new float[]{1, 0, 0}, "nội dung cũ", Set.of(KIEU, SO_DO), probeVersion));
+        assertFalse(cache.lookup("kieu", new float[]{1, 0, 0}).isPresent());
+        // source khác không bị ảnh hưởng
+        assertTrue(cache.put("so do", new float[]{0, 1, 0}, "Vũ Trọng Phụng", Set.of(SO_DO), probeVersion));
+        // probe sau khi invalidate thì put bình thường
+        assertTrue(cache.put("kieu", new float[]{1, 0, 0}, "nội dung mới", Set.of(KIEU), cache.currentVersion()));
+        assertEquals("nội dung mới", cache.lookup("kieu", new float[]{1, 0, 0}).orElseThrow().getAnswer());
+    }
+
+    @Test
+    void expiredEntriesAreDropped() {
+        SemanticCacheService expiring = new SemanticCacheService(null, true, 0.95, 100, -1);
+        expiring.put("kieu", new float[]{1, 0, 0}, "Nguyễn Du", Set.of(KIEU), expiring.currentVersion());
+
+        assertFalse(expiring.lookup("kieu", new float[]{1, 0, 0}).isPresent());
+        assertEquals(0, expiring.getStats().get("size"));
+    }
+
+    private static float[] unit(float... v) {
+        double norm = Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
+        return new float[]{(float) (v[0] / norm), (float) (v[1] / norm), (float) (v[2] / norm)};
+    }
+}
@@ -0,0 +1,100 @@
+package vn.com.vpbank.chatbot.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.test.util.ReflectionTestUtils;
+import vn.com.vpbank.chatbot.bean.DocumentChunk;
+import vn.com.vpbank.chatbot.bean.SearchSpec;
+import vn.com.vpbank.chatbot.repositories.document.BookDocument;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * BookSummary của /books đưa lại vào sourceIds của /chat: filter của vector store phải khớp metadata
+ * của chunk do DocumentChunkingService sinh ra cho đúng sách đó
+ */
+class VectorStoreServiceTest {
+
+    private final VectorStoreService vectorStoreService = new VectorStoreService(null, null, null);
+    private final DocumentChunkingService chunkingService = new DocumentChunkingService(new SimpleMeterRegistry());
+
+    private BookDocument book;
+    private BookDocument other;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(chunkingService, "chunkSize", 400);
+        ReflectionTestUtils.setField(chunkingService, "overlapSize", 50);
+        ReflectionTestUtils.setField(chunkingService, "minChunkSize", 5);
+        book = book("64f0c2a1b2c3d4e5f6a7b8c9", "Truyện Kiều", "Nguyễn Du", "kieu/index.html");
+        other = book("64f0c2a1b2c3d4e5f6a7b8d0", "Số đỏ", "Vũ Trọng Phụng", "so-do/index.html");
+    }
+
+    @Test
+    void sourceUrlOfSummaryMatchesChunksOfThatBook() {
+        SearchSpec spec = SearchSpec.builder().sourceIds(List.of(summaryOf(book).sourceUrl())).build();
+        Filter.Expression filter = VectorStoreService.filterOf(spec);
+
+        assertEquals(Filter.ExpressionType.EQ, filter.type());
+        assertTrue(matches(filter, metadataOf(book)));
+        assertFalse(matches(filter, metadataOf(other)));
+    }
+
+    @Test
+    void severalSummariesMatchEachBook() {
+        SearchSpec spec = SearchSpec.builder()
+                .sourceIds(List.of(summaryOf(book).sourceUrl(), summaryOf(other).sourceUrl()))
+                .build();
+        Filter.Expression filter = VectorStoreService.filterOf(spec);
+
+        assertEquals(Filter.ExpressionType.IN, filter.type());
+        assertTrue(matches(filter, metadataOf(book)));
+        assertTrue(matches(filter, metadataOf(other)));
+    }
+
+    @Test
+    void mongoIdIsNotASourceId() {
+        SearchSpec spec = SearchSpec.builder().sourceIds(List.of(summaryOf(book).id())).build();
+
+        assertFalse(matches(VectorStoreService.filterOf(spec), metadataOf(book)));
+    }
+
+    private static BookDocument book(String id, String title, String author, String sourceUrl) {
+        return BookDocument.builder().id(id).title(title).author(author).sourceUrl(sourceUrl).build();
+    }
+
+    // Giống BookCatalogService.search
+    private static BookCatalogService.BookSummary summaryOf(BookDocument doc) {
+        return new BookCatalogService.BookSummary(doc.getId(), doc.getTitle(), doc.getAuthor(), doc.getSourceUrl(),
+                doc.getChunkSize(), doc.getTokenCount(), LocalDateTime.now());
+    }
+
+    private Map<String, Object> metadataOf(BookDocument doc) {
+        List<DocumentChunk> chunks = chunkingService.chunkDocument(doc,
+                "Trăm năm trong cõi người ta, chữ tài chữ mệnh khéo là ghét nhau. "
+                        + "Trải qua một cuộc bể dâu, những điều trông thấy mà đau đớn lòng.");
+        assertFalse(chunks.isEmpty());
+        return vectorStoreService.convertToDocument(chunks.get(0)).getMetadata();
+    }
+
+    // Chỉ các phép filterOf dùng cho sourceId
+    private static boolean matches(Filter.Expression expression, Map<String, Object> metadata) {
+        return switch (expression.type()) {
+            case AND -> matches((Filter.Expression) expression.left(), metadata)
+                    && matches((Filter.Expression) expression.right(), metadata);
+            case EQ -> ((Filter.Value) expression.right()).value()
+                    .equals(metadata.get(((Filter.Key) expression.left()).key()));
+            case IN -> ((List<?>) ((Filter.Value) expression.right()).value())
+                    .contains(metadata.get(((Filter.Key) expression.left()).key()));
+            default -> throw new IllegalArgumentException("Unsupported: " + expression.type());
+        };
+    }
+}
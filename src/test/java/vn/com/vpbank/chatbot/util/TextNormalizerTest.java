@@ -0,0 +1,178 @@
+package vn.com.vpbank.chatbot.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Golden test: TextNormalizer phải cho kết quả giống hệt chuỗi regex cũ của DocumentChunkingService.deepCleanText
+ */
+class TextNormalizerTest {
+
+    // Kết quả mong đợi sinh từ chuỗi regex cũ (JDK 17)
+    static Stream<Arguments> goldenCases() {
+        return Stream.of(
+                Arguments.of("<h1>Chương 1</h1><p>Mở đầu.</p>",
+                        "Chương 1\n\nMở đầu."),
+                Arguments.of("Dòng 1<br>Dòng 2<BR/>Dòng 3<br />",
+                        "Dòng 1\nDòng 2\nDòng 3"),
+                Arguments.of("Tiền &amp; vốn&nbsp;&#39;lãi&#39; &; & ;",
+                        "Tiền vốn &#39;lãi&#39; &; & ;"),
+                Arguments.of("a < b <p> c > d",
+                        "a d"),
+                Arguments.of("<a title=\"<p>\">liên kết</a>",
+                        "liên kết"),
+                Arguments.of("x <> y < z",
+                        "x <> y < z"),
+                Arguments.of("Số tài khoản 1234567890123 và mã 123456789.",
+                        "Số tài khoản và mã 123456789."),
+                Arguments.of("Mã A1234567890 và 1234567890B giữ nguyên",
+                        "Mã A1234567890 và 1234567890B giữ nguyên"),
+                Arguments.of("Báo cáo ABCDE của NHNN và VPBANK, ABCD giữ nguyên.",
+                        "Báo cáo của NHNN và , ABCD giữ nguyên."),
+                Arguments.of("Chờ..... rồi.. xong...",
+                        "Chờ... rồi.. xong..."),
+                Arguments.of("..1234567890..",
+                        "..."),
+                Arguments.of("Hết trang 12. Page 3 Tiếp theo",
+                        "Hết .\n\nTiếp theo"),
+                Arguments.of("papage 1ge 2",
+                        "page 2"),
+                Arguments.of("Câu một. page 5 Câu hai",
+                        "Câu một.\n\nCâu hai"),
+                Arguments.of("TRANG 5 còn lại",
+                        "5 còn lại"),
+                Arguments.of("Xin chào. Đây là Ơn! Ưu tiên? Á châu. ă thường",
+                        "Xin chào.\n\nĐây là Ơn!\n\nƯu tiên?\n\nÁ châu. ă thường"),
+                Arguments.of("Tab\t\tvà   space\n \n \nnhiều\n\n\n\ndòng",
+                        "Tab và space\n\n \nnhiều\n\ndòng"),
+                Arguments.of("\u0001điều\u001fkhiển\u000bvà\u000cform\r\nfeed",
+                        "điều khiển và form\r\nfeed"),
+                Arguments.of("Viế1234567890 é 1234567890",
+                        "Viế1234567890 é"),
+                Arguments.of("  \n\t  ",
+                        "")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("goldenCases")
+    void cleanMatchesGolden(String input, String expected) {
+        assertEquals(expected, TextNormalizer.clean(input));
+    }
+
+    @Test
+    void cleanMatchesGoldenChapter() throws IOException {
+        String html = resource("/normalizer/chapter.html");
+        assertEquals(resource("/normalizer/chapter.golden"), TextNormalizer.clean(html));
+    }
+
+    @Test
+    void cleanMatchesLegacyRegexOnRandomInput() {
+        // Từ JDK 19, \b của java.util.regex chỉ xét ký tự ASCII nên chính chuỗi regex cũ đổi kết quả với tiếng Việt
+        assumeTrue(Runtime.version().feature() < 19);
+        Random random = new Random(20240101L);
+        for (int i = 0; i < 20_000; i++) {
+            String input = randomText(random, 60);
+            assertEquals(LegacyCleaner.clean(input), TextNormalizer.clean(input), input);
+        }
+    }
+
+    @Test
+    void collapseWhitespaceMatchesReplaceAll() {
+        Random random = new Random(42L);
+        for (int i = 0; i < 20_000; i++) {
+            String input = randomText(random, 30);
+            String expected = input.replaceAll("\\n+", " ").replaceAll("\\s+", " ").trim();
+            assertEquals(expected, TextNormalizer.collapseWhitespace(input), input);
+        }
+    }
+
+    private static final String[] FRAGMENTS = {
+            "<", ">", "<p>", "</P >", "<br/>", "<BR >", "<div>", "<h3>", "<h7>", "<pre>", "<a href=\"x\">",
+            "&amp;", "&#39;", "&;", "&", ";", " ", "  ", "\t", "\n", "\r\n", "\n \n", "\u000B", "\f", "\u0001", "\u001F",
+            ".", "...", "!", "?", "page", "Page", "TRANG", "trang", "pa", "ge",
+            "1234567890", "12345678901234", "123", "5", "ABCDE", "ABCDEFG", "ABC",
+            "Việt", "Đây", "Ư", "Ơ", "á", "́", "_", "x", "Nam",
+            "ǅ", "𝐀", "𝅧", "ſection", "K"
+    };
+
+    private static String randomText(Random random, int maxFragments) {
+        StringBuilder sb = new StringBuilder();
+        int count = 1 + random.nextInt(maxFragments);
+        for (int i = 0; i < count; i++) {
+            sb.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+        }
+        return sb.toString();
+    }
+
+    private String resource(String path) throws IOException {
+        try (InputStream in = getClass().getResourceAsStream(path)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Bản sao nguyên văn chuỗi regex cũ, dùng làm oracle
+     */
+    private static final class LegacyCleaner {
+        private static final Pattern HTML_BLOCK_PATTERN =
+                Pattern.compile("</?(p|div|article|section|h[1-6])\\s*>", Pattern.CASE_INSENSITIVE);
+        private static final Pattern BR_PATTERN =
+                Pattern.compile("<br\\s*/?>", Pattern.CASE_INSENSITIVE);
+        private static final Pattern HTML_TAG_PATTERN =
+                Pattern.compile("<[^>]+>");
+        private static final Pattern HTML_ENTITY_PATTERN =
+                Pattern.compile("&[a-zA-Z0-9]+;");
+        private static final Pattern CONTROL_CHARS_PATTERN =
+                Pattern.compile("[\\x00-\\x08\\x0B\\x0C\\x0E-\\x1F]");
+        private static final Pattern SENTENCE_PARAGRAPH_PATTERN =
+                Pattern.compile("([.!?])\\s+([A-ZÁĐÊÔƠƯ])");
+        private static final Pattern LONG_NUMBERS_PATTERN =
+                Pattern.compile("\\b\\d{10,}\\b");
+        private static final Pattern LONG_UPPERCASE_PATTERN =
+                Pattern.compile("\\b[A-Z]{5,}\\b");
+        private static final Pattern MULTIPLE_DOTS_PATTERN =
+                Pattern.compile("[.]{3,}");
+        private static final Pattern PAGE_NUMBERS_PATTERN =
+                Pattern.compile("(?i)(page|trang)\\s*\\d+");
+        private static final Pattern MULTIPLE_SPACES_PATTERN =
+                Pattern.compile("[ \\t]+");
+        private static final Pattern CLEAN_PARAGRAPH_PATTERN =
+                Pattern.compile("\\n[ \\t]*\\n");
+        private static final Pattern MULTIPLE_NEWLINES_PATTERN =
+                Pattern.compile("\\n{3,}");
+
+        static String clean(String text) {
+            String result = HTML_TAG_PATTERN.matcher(HTML_ENTITY_PATTERN.matcher(BR_PATTERN.matcher(HTML_BLOCK_PATTERN.matcher(text)
+                                            .replaceAll("\n\n"))
+                                    .replaceAll("\n"))
+                            .replaceAll(" "))
+                    .replaceAll(" ");
+
+            result = CONTROL_CHARS_PATTERN.matcher(result).replaceAll(" ");
+            result = LONG_NUMBERS_PATTERN.matcher(result).replaceAll("");
+            result = LONG_UPPERCASE_PATTERN.matcher(result).replaceAll("");
+            result = MULTIPLE_DOTS_PATTERN.matcher(result).replaceAll("...");
+            result = PAGE_NUMBERS_PATTERN.matcher(result).replaceAll("");
+            result = SENTENCE_PARAGRAPH_PATTERN.matcher(result).replaceAll("$1\n\n$2");
+
+            result = MULTIPLE_SPACES_PATTERN.matcher(result).replaceAll(" ");
+            result = CLEAN_PARAGRAPH_PATTERN.matcher(result).replaceAll("\n\n");
+            result = MULTIPLE_NEWLINES_PATTERN.matcher(result).replaceAll("\n\n");
+
+            return result.trim();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package vn.com.vpbank.chatbot.vectorstore;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Nạp lại records.log khi mở store: record đã commit, xoá/upsert, và record ghi dở ở cuối log
+ */
+class EmbeddedVectorStoreTest {
+
+    static final int DIMENSIONS = 64;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void reopenRestoresDocumentsAndDeletes() throws IOException {
+        try (EmbeddedVectorStore store = open()) {
+            store.add(List.of(document("a", "lãi suất tiết kiệm kỳ hạn", "s1"),
+                    document("b", "thẻ tín dụng hoàn tiền", "s1"),
+                    document("c", "vay mua nhà lãi suất ưu đãi", "s2")));
+            store.add(List.of(document("b", "thẻ tín dụng miễn phí thường niên", "s1")));
+            store.delete(List.of("c"));
+        }
+        try (EmbeddedVectorStore store = open()) {
+            assertEquals(2, store.getStats().get("documents"));
+            Document b = search(store, "thẻ tín dụng miễn phí thường niên", null).get(0);
+            assertEquals("b", b.getId());
+            assertEquals("thẻ tín dụng miễn phí thường niên", b.getText());
+            assertEquals("s1", b.getMetadata().get("sourceId"));
+            assertEquals(List.of("a", "b"), ids(search(store, "lãi suất", null)));
+            assertEquals(List.of("a", "b"),
+                    ids(search(store, "vay", new FilterExpressionBuilder().eq("sourceId", "s1").build())));
+        }
+    }
+
+    @Test
+    void tornRecordIsTruncatedAndNextAppendReplays() throws IOException {
+        try (EmbeddedVectorStore store = open()) {
+            store.add(List.of(document("a", "lãi suất tiết kiệm kỳ hạn", "s1")));
+        }
+        Path log = dir.resolve("records.log");
+        long committedSize = Files.size(log);
+
+        // Process dừng giữa lúc ghi metadata của node kế tiếp: độ dài khai 100 byte nhưng chỉ có 10
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(log, StandardOpenOption.APPEND))) {
+            out.writeByte(1);
+            out.writeInt(1);
+            out.writeUTF("torn");
+            byte[] text = "ghi dở".getBytes(StandardCharsets.UTF_8);
+            out.writeInt(text.length);
+            out.write(text);
+            out.writeInt(100);
+            out.write(new byte[10]);
+        }
+
+        try (EmbeddedVectorStore store = open()) {
+            assertEquals(committedSize, Files.size(log));
+            store.add(List.of(document("b", "thẻ tín dụng hoàn tiền", "s2")));
+        }
+        try (EmbeddedVectorStore store = open()) {
+            assertEquals(2, store.getStats().get("documents"));
+            assertEquals(List.of("b"), ids(search(store, "thẻ tín dụng hoàn tiền",
+                    new FilterExpressionBuilder().eq("sourceId", "s2").build())));
+            assertEquals("s2", search(store, "thẻ tín dụng hoàn tiền", null).get(0).getMetadata().get("sourceId"));
+        }
+    }
+
+    @Test
+    void tornLengthPrefixIsTruncated() throws IOException {
+        try (EmbeddedVectorStore store = open()) {
+            store.add(List.of(document("a", "lãi suất tiết kiệm kỳ hạn", "s1")));
+        }
+        Path log = dir.resolve("records.log");
+        long committedSize = Files.size(log);
+        Files.write(log, new byte[]{1, 0, 0}, StandardOpenOption.APPEND);
+
+        try (EmbeddedVectorStore store = open()) {
+            assertEquals(committedSize, Files.size(log));
+            assertEquals(List.of("a"), ids(search(store, "lãi suất", null)));
+        }
+    }
+
+    @Test
+    void recordsAfterLastCommitAreDropped() throws IOException {
+        try (EmbeddedVectorStore store = open()) {
+            store.add(List.of(document("a", "lãi suất tiết kiệm kỳ hạn", "s1")));
+        }
+        // Record đầy đủ nhưng node chưa có trong header đồ thị (dừng trước graph.commit)
+        Path log = dir.resolve("records.log");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(log, StandardOpenOption.APPEND))) {
+            out.writeByte(1);
+            out.writeInt(1);
+            out.writeUTF("uncommitted");
+            out.writeInt(0);
+            byte[] metadata = "{\"sourceId\":\"s9\"}".getBytes(StandardCharsets.UTF_8);
+            out.writeInt(metadata.length);
+            out.write(metadata);
+        }
+        try (EmbeddedVectorStore store = open()) {
+            assertEquals(1, store.getStats().get("documents"));
+            assertTrue(search(store, "lãi suất", new FilterExpressionBuilder().eq("sourceId", "s9").build()).isEmpty());
+        }
+    }
+
+    private EmbeddedVectorStore open() throws IOException {
+        return new EmbeddedVectorStore(new HashingEmbeddingModel(), dir, DIMENSIONS, 16, 100, 50, 1000,
+                Quantization.NONE, 3);
+    }
+
+    private static List<Document> search(EmbeddedVectorStore store, String query,
+                                         Filter.Expression filter) {
+        return store.similaritySearch(SearchRequest.builder().query(query).topK(10).filterExpression(filter).build());
+    }
+
+    private static List<String> ids(List<Document> documents) {
+        return documents.stream().map(Document::getId).sorted().toList();
+    }
+
+    private static Document document(String id, String text, String sourceId) {
+        return Document.builder().id(id).text(text).metadata(Map.of("sourceId", sourceId)).build();
+    }
+
+    /**
+     * Embedding tất định: từ băm vào DIMENSIONS chiều, thêm một chiều hằng để không có vector 0
+     */
+    static final class HashingEmbeddingModel implements EmbeddingModel {
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            List<String> texts = request.getInstructions();
+            for (int i = 0; i < texts.size(); i++) {
+                embeddings.add(new Embedding(vector(texts.get(i)), i));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return vector(document.getText());
+        }
+
+        @Override
+        public int dimensions() {
+            return DIMENSIONS;
+        }
+
+        private static float[] vector(String text) {
+            float[] vector = new float[DIMENSIONS];
+            vector[0] = 0.1f;
+            for (String word : text.toLowerCase().split("\\s+")) {
+                vector[1 + Math.floorMod(word.hashCode(), DIMENSIONS - 1)] += 1;
+            }
+            return vector;
+        }
+    }
+}
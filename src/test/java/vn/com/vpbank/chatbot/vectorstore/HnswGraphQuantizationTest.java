@@ -0,0 +1,136 @@
+package vn.com.vpbank.chatbot.vectorstore;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Recall@10 của đường lượng tử hoá (duyệt bằng int8/binary rồi chấm lại bằng vector gốc) so với float32
+ * trên cùng dữ liệu, và lượng tử hoá lại khi mở store với kiểu khác
+ */
+class HnswGraphQuantizationTest {
+
+    static final int DIMENSIONS = 256;
+    static final int SIZE = 1500;
+    static final int CLUSTERS = 16;
+    static final int QUERIES = 40;
+    static final int K = 10;
+
+    static float[][] data;
+    static float[][] queries;
+    static double float32Recall;
+
+    @TempDir
+    Path dir;
+
+    @BeforeAll
+    static void setUpData(@TempDir Path float32Dir) throws IOException {
+        Random random = new Random(11);
+        float[][] centroids = new float[CLUSTERS][];
+        for (int c = 0; c < CLUSTERS; c++) {
+            centroids[c] = gaussian(random, null, 1f);
+        }
+        data = new float[SIZE][];
+        for (int i = 0; i < SIZE; i++) {
+            data[i] = gaussian(random, centroids[random.nextInt(CLUSTERS)], 0.35f);
+        }
+        queries = new float[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = gaussian(random, centroids[random.nextInt(CLUSTERS)], 0.35f);
+        }
+        try (HnswGraph graph = build(float32Dir, Quantization.NONE)) {
+            float32Recall = recall(graph);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = Quantization.class, names = {"INT8", "BINARY"})
+    void quantizedRecallCloseToFloat32(Quantization quantization) throws IOException {
+        try (HnswGraph graph = build(dir, quantization)) {
+            assertEquals(quantization.recordBytes(DIMENSIONS), graph.searchBytesPerVector());
+            assertTrue(graph.searchBytesPerVector() < DIMENSIONS * 4);
+            double recall = recall(graph);
+            assertTrue(recall >= float32Recall - 0.05,
+                    quantization + " recall " + recall + " vs float32 " + float32Recall);
+        }
+    }
+
+    @Test
+    void quantizedScoresAreRescoredWithOriginals() throws IOException {
+        try (HnswGraph graph = build(dir, Quantization.BINARY)) {
+            for (HnswGraph.Neighbor neighbor : graph.search(queries[0], K, 100, null)) {
+                assertEquals(HnswGraphTest.cosine(queries[0], data[neighbor.node()]), neighbor.score(), 1e-4);
+            }
+        }
+    }
+
+    @Test
+    void reopenWithOtherTypeRequantizes() throws IOException {
+        try (HnswGraph graph = build(dir, Quantization.NONE)) {
+            graph.markDeleted(5);
+            graph.commit();
+        }
+        assertFalse(Files.exists(dir.resolve("quantized.dat")));
+
+        try (HnswGraph graph = HnswGraph.open(dir, DIMENSIONS, 16, 200, Quantization.INT8, 3)) {
+            assertEquals(Quantization.INT8, graph.quantization());
+            assertEquals(SIZE, graph.size());
+            assertTrue(graph.isDeleted(5));
+            assertTrue(recall(graph) >= float32Recall - 0.05);
+        }
+        try (HnswGraph graph = HnswGraph.open(dir, DIMENSIONS, 16, 200, Quantization.BINARY, 3)) {
+            assertEquals(Quantization.BINARY, graph.quantization());
+            assertEquals(Quantization.BINARY.recordBytes(DIMENSIONS), graph.searchBytesPerVector());
+            assertTrue(recall(graph) >= float32Recall - 0.05);
+        }
+        try (HnswGraph graph = HnswGraph.open(dir, DIMENSIONS, 16, 200, Quantization.NONE, 3)) {
+            assertEquals(Quantization.NONE, graph.quantization());
+            assertFalse(Files.exists(dir.resolve("quantized.dat")));
+            assertEquals(float32Recall, recall(graph), 0.05);
+        }
+    }
+
+    private static HnswGraph build(Path dir, Quantization quantization) throws IOException {
+        HnswGraph graph = HnswGraph.open(dir, DIMENSIONS, 16, 200, quantization, 3);
+        for (float[] vector : data) {
+            graph.insert(vector, node -> {
+            });
+        }
+        graph.commit();
+        return graph;
+    }
+
+    private static double recall(HnswGraph graph) {
+        int hits = 0;
+        for (float[] query : queries) {
+            Set<Integer> expected = new HashSet<>(HnswGraphTest.exactTopK(data, query, K, node -> !graph.isDeleted(node)));
+            for (HnswGraph.Neighbor neighbor : graph.search(query, K, 64, null)) {
+                if (expected.contains(neighbor.node())) {
+                    hits++;
+                }
+            }
+        }
+        return hits / (double) (QUERIES * K);
+    }
+
+    private static float[] gaussian(Random random, float[] center, float spread) {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (center != null ? center[i] : 0) + (float) random.nextGaussian() * spread;
+        }
+        return vector;
+    }
+}
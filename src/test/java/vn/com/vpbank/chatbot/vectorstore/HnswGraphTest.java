@@ -0,0 +1,182 @@
+package vn.com.vpbank.chatbot.vectorstore;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * HnswGraph so với quét chính xác tính riêng trong test: bruteForce phải khớp tuyệt đối, search đạt recall tối thiểu,
+ * node đã xoá không bao giờ xuất hiện
+ */
+class HnswGraphTest {
+
+    static final int DIMENSIONS = 32;
+    static final int SIZE = 2000;
+    static final int CLUSTERS = 16;
+    static final int QUERIES = 50;
+    static final int K = 10;
+
+    @TempDir
+    Path dir;
+
+    HnswGraph graph;
+    float[][] data;
+    float[][] queries;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        graph = HnswGraph.open(dir, DIMENSIONS, 16, 200, Quantization.NONE, 3);
+        Random random = new Random(7);
+        float[][] centroids = new float[CLUSTERS][];
+        for (int c = 0; c < CLUSTERS; c++) {
+            centroids[c] = gaussian(random, null, 1f);
+        }
+        data = new float[SIZE][];
+        for (int i = 0; i < SIZE; i++) {
+            data[i] = gaussian(random, centroids[random.nextInt(CLUSTERS)], 0.35f);
+            int node = graph.insert(data[i], inserted -> {
+            });
+            assertEquals(i, node);
+        }
+        queries = new float[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = gaussian(random, centroids[random.nextInt(CLUSTERS)], 0.35f);
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        graph.close();
+    }
+
+    @Test
+    void bruteForceMatchesExactCosine() {
+        for (float[] query : queries) {
+            List<Integer> expected = exactTopK(data, query, K, node -> true);
+            List<Integer> actual = graph.bruteForce(query, K, null, null).stream().map(HnswGraph.Neighbor::node).toList();
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    void searchRecallAgainstBruteForce() {
+        assertTrue(recall(graph, data, queries, node -> true) >= 0.95);
+    }
+
+    @Test
+    void searchScoreIsCosine() {
+        float[] query = queries[0];
+        for (HnswGraph.Neighbor neighbor : graph.search(query, K, 100, null)) {
+            assertEquals(cosine(query, data[neighbor.node()]), neighbor.score(), 1e-4);
+        }
+    }
+
+    @Test
+    void deletedNodesAreSkipped() {
+        Set<Integer> deleted = new HashSet<>();
+        for (float[] query : queries) {
+            // xoá đúng các node gần nhất => kết quả buộc phải đi tiếp qua vùng đã xoá
+            for (HnswGraph.Neighbor neighbor : graph.bruteForce(query, 3, null, null)) {
+                graph.markDeleted(neighbor.node());
+                deleted.add(neighbor.node());
+            }
+        }
+        assertEquals(deleted.size(), graph.deletedCount());
+        assertEquals(SIZE, graph.size());
+
+        for (float[] query : queries) {
+            List<HnswGraph.Neighbor> found = graph.search(query, K, 100, null);
+            assertEquals(K, found.size());
+            found.forEach(neighbor -> assertFalse(deleted.contains(neighbor.node())));
+            assertEquals(exactTopK(data, query, K, node -> !deleted.contains(node)),
+                    graph.bruteForce(query, K, null, null).stream().map(HnswGraph.Neighbor::node).toList());
+        }
+        assertTrue(recall(graph, data, queries, node -> !deleted.contains(node)) >= 0.9);
+    }
+
+    @Test
+    void acceptAndCandidatesRestrictResults() {
+        float[] query = queries[0];
+        List<HnswGraph.Neighbor> even = graph.search(query, K, 100, node -> node % 2 == 0);
+        assertEquals(K, even.size());
+        even.forEach(neighbor -> assertEquals(0, neighbor.node() % 2));
+
+        int[] candidates = IntStream.range(0, 50).toArray();
+        assertEquals(exactTopK(data, query, K, node -> node < 50),
+                graph.bruteForce(query, K, candidates, null).stream().map(HnswGraph.Neighbor::node).toList());
+    }
+
+    @Test
+    void reopenKeepsCommittedNodes() throws IOException {
+        graph.markDeleted(0);
+        graph.commit();
+        graph.close();
+        graph = HnswGraph.open(dir, DIMENSIONS, 16, 200, Quantization.NONE, 3);
+        assertEquals(SIZE, graph.size());
+        assertTrue(graph.isDeleted(0));
+        assertTrue(recall(graph, data, queries, node -> node != 0) >= 0.95);
+    }
+
+    /**
+     * Tỷ lệ node của top-k chính xác có trong kết quả search (ef = 100)
+     */
+    static double recall(HnswGraph graph, float[][] data, float[][] queries, IntPredicate live) {
+        int hits = 0;
+        for (float[] query : queries) {
+            Set<Integer> expected = new HashSet<>(exactTopK(data, query, K, live));
+            for (HnswGraph.Neighbor neighbor : graph.search(query, K, 100, null)) {
+                if (expected.contains(neighbor.node())) {
+                    hits++;
+                }
+            }
+        }
+        return hits / (double) (queries.length * K);
+    }
+
+    static List<Integer> exactTopK(float[][] data, float[] query, int k, IntPredicate live) {
+        List<Integer> nodes = new ArrayList<>();
+        for (int i = 0; i < data.length; i++) {
+            if (live.test(i)) {
+                nodes.add(i);
+            }
+        }
+        nodes.sort(Comparator.comparingDouble(node -> -cosine(query, data[node])));
+        return nodes.subList(0, Math.min(k, nodes.size()));
+    }
+
+    static double cosine(float[] a, float[] b) {
+        double dot = 0;
+        double na = 0;
+        double nb = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            na += a[i] * a[i];
+            nb += b[i] * b[i];
+        }
+        return dot / Math.sqrt(na * nb);
+    }
+
+    static float[] gaussian(Random random, float[] center, float spread) {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (center != null ? center[i] : 0) + (float) random.nextGaussian() * spread;
+        }
+        return vector;
+    }
+}